@@ -0,0 +1,27 @@
+package com.atoz.aws.benchmark;
+
+import com.amazonaws.util.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Reads the sample images of the test resources.
+ */
+public final class BenchmarkImages {
+
+    private BenchmarkImages() {
+    }
+
+    public static byte[] read(String fileName) {
+        try (InputStream in = BenchmarkImages.class.getResourceAsStream("/images/" + fileName)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No test image " + fileName);
+            }
+            return IOUtils.toByteArray(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.atoz.aws.benchmark;
+
+import java.lang.reflect.Field;
+
+/**
+ * Sets private fields that Spring would normally inject.
+ */
+public final class Fields {
+
+    private Fields() {
+    }
+
+    public static <T> T set(T target, String name, Object value) {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return target;
+            } catch (NoSuchFieldException e) {
+                // declared on a super class
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        throw new IllegalArgumentException("No field " + name + " on " + target.getClass());
+    }
+}
@@ -0,0 +1,90 @@
+package com.atoz.aws.benchmark;
+
+import com.amazonaws.util.IOUtils;
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.image.ImagePreprocessor;
+import com.atoz.aws.service.AtoZImageRekognitionService;
+import com.atoz.aws.service.DynamoDbAccessService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process cost of matching an upload: reading it, pre-processing it, wrapping it for the SDK
+ * and building the name/confidence map from the search result. AWS calls answer from memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RekognitionServiceBenchmark {
+
+    @Param({"Austin1.jpg", "Indexed.jpg"})
+    public String image;
+
+    @Param({"10"})
+    public int matches;
+
+    private byte[] imageBytes;
+    private AtoZImageRekognitionService service;
+    private ImagePreprocessor preprocessor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        imageBytes = BenchmarkImages.read(image);
+
+        AwsClientRegistry registry = AwsClientRegistry.getInstance();
+        registry.setRekognition(StubAwsClients.rekognition(matches));
+        registry.setDynamoDb(StubAwsClients.dynamoDb("faceId", "fullname"));
+
+        DynamoDbAccessService dynamoService = new DynamoDbAccessService("faces", "faceId");
+        dynamoService.setAttrFullName("fullname");
+        service = new AtoZImageRekognitionService("faces");
+        service.setDynamoService(dynamoService);
+
+        // always pre-process, whatever the size of the sample
+        preprocessor = new ImagePreprocessor(true, 1920, 0.85F, 0);
+    }
+
+    @Benchmark
+    public byte[] readUpload() throws IOException {
+        return IOUtils.toByteArray(new ByteArrayInputStream(imageBytes));
+    }
+
+    @Benchmark
+    public ByteBuffer wrapForRequest() throws IOException {
+        return ByteBuffer.wrap(IOUtils.toByteArray(new ByteArrayInputStream(imageBytes)));
+    }
+
+    @Benchmark
+    public byte[] preprocess() {
+        return preprocessor.process(imageBytes);
+    }
+
+    @Benchmark
+    public Map<String, Float> matchImageUncached() {
+        service.getResultCache().invalidateOperation("match");
+        return service.matchImage(imageBytes);
+    }
+
+    @Benchmark
+    public Map<String, Float> matchImageCached() {
+        return service.matchImage(imageBytes);
+    }
+
+    @Benchmark
+    public Map<String, Float> buildMatchMap() {
+        Map<String, Float> matchedNames = new HashMap<>();
+        for (int i = 0; i < matches; i++) {
+            matchedNames.put("Person face-" + i, 99F - i);
+        }
+        return matchedNames;
+    }
+}
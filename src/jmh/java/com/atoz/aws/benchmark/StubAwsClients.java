@@ -0,0 +1,110 @@
+package com.atoz.aws.benchmark;
+
+import com.amazonaws.services.rekognition.AbstractAmazonRekognition;
+import com.amazonaws.services.rekognition.AmazonRekognition;
+import com.amazonaws.services.rekognition.model.*;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.dynamodb.DynamoDBClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.sync.StreamingResponseHandler;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AWS clients answering from memory without latency, so benchmarks measure only our own code.
+ */
+public final class StubAwsClients {
+
+    private StubAwsClients() {
+    }
+
+    /**
+     * @param matches number of faces every search matches, named face-0, face-1, ...
+     */
+    public static AmazonRekognition rekognition(int matches) {
+        return new AbstractAmazonRekognition() {
+            @Override
+            public SearchFacesByImageResult searchFacesByImage(SearchFacesByImageRequest request) {
+                List<FaceMatch> faceMatches = new ArrayList<>(matches);
+                for (int i = 0; i < matches; i++) {
+                    faceMatches.add(new FaceMatch()
+                            .withSimilarity(99F - i)
+                            .withFace(new Face().withFaceId("face-" + i).withConfidence(99.9F)));
+                }
+                return new SearchFacesByImageResult().withFaceMatches(faceMatches);
+            }
+
+            @Override
+            public DetectLabelsResult detectLabels(DetectLabelsRequest request) {
+                List<Label> labels = new ArrayList<>();
+                for (String name : new String[]{"Person", "Human", "Face", "Portrait", "Smile"}) {
+                    labels.add(new Label().withName(name).withConfidence(95F));
+                }
+                return new DetectLabelsResult().withLabels(labels);
+            }
+        };
+    }
+
+    /**
+     * Knows every key: the item of key k has the full name "Person k".
+     */
+    public static DynamoDBClient dynamoDb(String keyName, String attrFullName) {
+        return new DynamoDBClient() {
+            @Override
+            public BatchGetItemResponse batchGetItem(BatchGetItemRequest request) {
+                Map<String, List<Map<String, AttributeValue>>> responses = new HashMap<>();
+                for (Map.Entry<String, KeysAndAttributes> table : request.requestItems().entrySet()) {
+                    List<Map<String, AttributeValue>> items = new ArrayList<>();
+                    for (Map<String, AttributeValue> key : table.getValue().keys()) {
+                        Map<String, AttributeValue> item = new HashMap<>(key);
+                        item.put(attrFullName, AttributeValue.builder().s("Person " + key.get(keyName).s()).build());
+                        items.add(item);
+                    }
+                    responses.put(table.getKey(), items);
+                }
+                return BatchGetItemResponse.builder().responses(responses).build();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * @param objects object content by full key.
+     */
+    public static S3Client s3(Map<String, byte[]> objects) {
+        return new S3Client() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <ReturnT> ReturnT getObject(GetObjectRequest request, StreamingResponseHandler handler) {
+                byte[] content = objects.get(request.key());
+                if (content == null) {
+                    throw NoSuchKeyException.builder().message("No such key " + request.key()).build();
+                }
+                GetObjectResponse response = GetObjectResponse.builder().contentLength((long) content.length).build();
+                try {
+                    return (ReturnT) handler.apply(response, new AbortableInputStream(new ByteArrayInputStream(content), () -> { }));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,184 @@
+package com.atoz.aws.controller;
+
+import com.atoz.aws.benchmark.BenchmarkImages;
+import com.atoz.aws.benchmark.Fields;
+import com.atoz.aws.benchmark.StubAwsClients;
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.config.S3UrlPresigner;
+import com.atoz.aws.image.ThumbnailGenerator;
+import com.atoz.aws.service.*;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.multipart.MultipartFile;
+import software.amazon.awssdk.auth.AwsCredentials;
+import software.amazon.awssdk.auth.StaticCredentialsProvider;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The /image/match-image path from upload to JSON: match, candidate download, not-found image and
+ * the base64 encoding of the image by Jackson, against returning a presigned URL instead. AWS calls
+ * answer from memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatchImageResponseBenchmark {
+
+    @Param({"Austin1.jpg", "Indexed.jpg"})
+    public String image;
+
+    @Param({"0", "256"})
+    public int size;
+
+    private static final int MATCHES = 5;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private byte[] imageBytes;
+    private MultipartFile upload;
+    private AwsRekognitionController controller;
+    private ExecutorService fetchExecutor;
+    private Map<String, Object> response;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        imageBytes = BenchmarkImages.read(image);
+        upload = new BytesMultipartFile(imageBytes);
+
+        // every matched person has the sample as stored image, with thumbnails
+        Map<String, byte[]> objects = new HashMap<>();
+        Map<Integer, byte[]> thumbnails = new ThumbnailGenerator(ThumbnailGenerator.parseSizes("128,256,512"), 0.8F)
+                .generate(new ByteArrayInputStream(imageBytes));
+        for (int i = 0; i < MATCHES; i++) {
+            String name = "Person face-" + i;
+            objects.put(name, imageBytes);
+            thumbnails.forEach((thumbnailSize, thumbnail) ->
+                    objects.put(ThumbnailService.thumbnailKey(name, thumbnailSize), thumbnail));
+        }
+
+        AwsClientRegistry registry = AwsClientRegistry.getInstance();
+        registry.setRekognition(StubAwsClients.rekognition(MATCHES));
+        registry.setDynamoDb(StubAwsClients.dynamoDb("faceId", "fullname"));
+        registry.setS3(StubAwsClients.s3(objects));
+
+        DynamoDbAccessService dynamoService = new DynamoDbAccessService("faces", "faceId");
+        dynamoService.setAttrFullName("fullname");
+        AtoZImageRekognitionService imageService = new AtoZImageRekognitionService("faces");
+        imageService.setDynamoService(dynamoService);
+
+        S3AccessService s3Service = new S3AccessService();
+        s3Service.setBucketName("benchmark");
+        s3Service.setPresigner(new S3UrlPresigner(new StaticCredentialsProvider(new AwsCredentials("benchmark", "benchmark")),
+                "us-east-1", null));
+        ThumbnailService thumbnailService = Fields.set(new ThumbnailService(), "s3Service", s3Service);
+
+        fetchExecutor = Executors.newFixedThreadPool(MATCHES);
+        CandidateImageFetcher fetcher = new CandidateImageFetcher();
+        Fields.set(fetcher, "thumbnailService", thumbnailService);
+        Fields.set(fetcher, "executor", fetchExecutor);
+
+        controller = new AwsRekognitionController();
+        Fields.set(controller, "imageService", imageService);
+        Fields.set(controller, "thumbnailService", thumbnailService);
+        Fields.set(controller, "candidateImageFetcher", fetcher);
+
+        response = controller.matchImageWithImageResponse(upload, size, false, false).getBody();
+        if (response == null || !response.containsKey("image")) {
+            throw new IllegalStateException("Unexpected response " + response);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fetchExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public byte[] notFoundImage() {
+        return ImageResponses.buildNotFoundImage();
+    }
+
+    @Benchmark
+    public ResponseEntity<Map<String, Object>> matchImageResponse() {
+        return controller.matchImageWithImageResponse(upload, size, false, false);
+    }
+
+    @Benchmark
+    public byte[] serializeResponse() throws IOException {
+        return objectMapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public byte[] matchImageToJson() throws IOException {
+        return objectMapper.writeValueAsBytes(controller.matchImageWithImageResponse(upload, size, false, false).getBody());
+    }
+
+    @Benchmark
+    public byte[] matchImagePresignedToJson() throws IOException {
+        return objectMapper.writeValueAsBytes(controller.matchImageWithImageResponse(upload, size, false, true).getBody());
+    }
+
+    /**
+     * Upload held in memory, as the multipart resolver hands over small files.
+     */
+    private static class BytesMultipartFile implements MultipartFile {
+        private final byte[] content;
+
+        BytesMultipartFile(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public String getName() {
+            return "file";
+        }
+
+        @Override
+        public String getOriginalFilename() {
+            return "upload.jpg";
+        }
+
+        @Override
+        public String getContentType() {
+            return "image/jpeg";
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return content.length == 0;
+        }
+
+        @Override
+        public long getSize() {
+            return content.length;
+        }
+
+        @Override
+        public byte[] getBytes() {
+            return content;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public void transferTo(File dest) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
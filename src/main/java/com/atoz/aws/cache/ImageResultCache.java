@@ -0,0 +1,282 @@
+package com.atoz.aws.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Caches results of image operations by a SHA-256 hash of the image bytes, the operation and its
+ * parameters. Results live in a bounded in-memory tier and, when a directory is configured, in a
+ * size capped on-disk tier that survives restarts. Cached values must be {@link Serializable}.
+ * <p>
+ * Invalidation only reaches this instance's tiers. With several instances, each needs a disk
+ * directory of its own, and other instances serve results of an invalidated operation until
+ * their ttl ends.
+ */
+public class ImageResultCache {
+    private static final Logger log = LoggerFactory.getLogger(ImageResultCache.class);
+
+    private static final String FILE_SUFFIX = ".bin";
+
+    private final TtlCache<String, Serializable> memory;
+    private final long ttlMillis;
+    private final Path diskDir;
+    private final long diskMaxBytes;
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    // operation -> number of invalidations, so results computed before one are not stored after it
+    private final ConcurrentHashMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    /**
+     * @param memoryMaxSize maximum number of results kept in memory.
+     * @param ttlSeconds time to live of a result in either tier.
+     * @param diskDir directory of the disk tier, or null to keep results in memory only.
+     * @param diskMaxBytes size cap of the disk tier; the oldest files are removed beyond it.
+     */
+    public ImageResultCache(int memoryMaxSize, long ttlSeconds, Path diskDir, long diskMaxBytes) {
+        this.memory = new TtlCache<>(memoryMaxSize, ttlSeconds, TimeUnit.SECONDS);
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.diskDir = diskDir;
+        this.diskMaxBytes = diskMaxBytes;
+
+        if (diskDir != null) {
+            try {
+                Files.createDirectories(diskDir);
+                diskBytes.set(listDiskFiles().stream().mapToLong(f -> f.toFile().length()).sum());
+                log.info("Image result disk cache at {} holds {} bytes", diskDir, diskBytes.get());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open disk cache directory " + diskDir, e);
+            }
+        }
+    }
+
+    /**
+     * Builds the cache key of an operation on an image.
+     *
+     * @param operation operation name, also used to invalidate all results of the operation.
+     * @param imageBytes image content.
+     * @param params operation parameters that affect the result.
+     */
+    public static String key(String operation, byte[] imageBytes, Object... params) {
+        return key(operation, ByteBuffer.wrap(imageBytes), params);
+    }
+
+    /**
+     * Same key as for the remaining bytes as an array; the buffer's position is not moved.
+     */
+    public static String key(String operation, ByteBuffer image, Object... params) {
+        MessageDigest digest = sha256();
+        digest.update(image.duplicate());
+        for (Object param : params) {
+            digest.update((byte) 0);
+            digest.update(String.valueOf(param).getBytes(StandardCharsets.UTF_8));
+        }
+
+        StringBuilder key = new StringBuilder(operation).append('/');
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Serializable> T get(String key) {
+        TtlCache.Entry<Serializable> entry = memory.getEntry(key);
+        if (entry != null) {
+            return (T) entry.getValue();
+        }
+
+        Serializable value = readFromDisk(key);
+        if (value != null) {
+            diskHits.incrementAndGet();
+            memory.put(key, value);
+        }
+        return (T) value;
+    }
+
+    public void put(String key, Serializable value) {
+        memory.put(key, value);
+        writeToDisk(key, value);
+    }
+
+    /**
+     * Stores a result unless its operation was invalidated since {@code generation} was read, as
+     * the result may then be stale.
+     *
+     * @param generation {@link #generation(String)} of the operation, read before computing the result.
+     */
+    public void put(String key, Serializable value, long generation) {
+        String operation = key.substring(0, key.indexOf('/'));
+        if (generation(operation) != generation) {
+            return;
+        }
+        put(key, value);
+        // an invalidation may have run while the result was being stored
+        if (generation(operation) != generation) {
+            memory.invalidate(key);
+            if (diskDir != null) {
+                deleteDiskFile(diskFile(key));
+            }
+        }
+    }
+
+    /**
+     * @return a number that changes whenever the operation is invalidated.
+     */
+    public long generation(String operation) {
+        return generations.computeIfAbsent(operation, op -> new AtomicLong()).get();
+    }
+
+    /**
+     * Drops every cached result of an operation from both tiers.
+     */
+    public void invalidateOperation(String operation) {
+        generations.computeIfAbsent(operation, op -> new AtomicLong()).incrementAndGet();
+        String prefix = operation + "/";
+        memory.invalidateIf(key -> key.startsWith(prefix));
+
+        if (diskDir != null) {
+            Path operationDir = diskDir.resolve(operation);
+            if (Files.isDirectory(operationDir)) {
+                try (Stream<Path> files = Files.list(operationDir)) {
+                    files.filter(p -> p.toString().endsWith(FILE_SUFFIX)).forEach(this::deleteDiskFile);
+                } catch (IOException e) {
+                    log.warn("Cannot clear disk cache for {}: {}", operation, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports the memory tier like any other cache; its misses include the hits of the disk tier.
+     */
+    public void registerMeters(MeterRegistry registry) {
+        memory.registerMeters(registry, "image.results");
+        FunctionCounter.builder("image.results.disk.hits", diskHits, AtomicLong::get).register(registry);
+        Gauge.builder("image.results.disk.bytes", diskBytes, AtomicLong::get).register(registry);
+    }
+
+    public long memoryHitCount() {
+        return memory.hitCount();
+    }
+
+    public long diskHitCount() {
+        return diskHits.get();
+    }
+
+    public long missCount() {
+        return memory.missCount() - diskHits.get();
+    }
+
+    public long diskBytes() {
+        return diskBytes.get();
+    }
+
+    private Serializable readFromDisk(String key) {
+        if (diskDir == null) {
+            return null;
+        }
+
+        Path file = diskFile(key);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        if (System.currentTimeMillis() - file.toFile().lastModified() > ttlMillis) {
+            deleteDiskFile(file);
+            return null;
+        }
+
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return (Serializable) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            log.warn("Dropping unreadable disk cache entry {}: {}", file, e.getMessage());
+            deleteDiskFile(file);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Serializable value) {
+        if (diskDir == null) {
+            return;
+        }
+
+        Path file = diskFile(key);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), "entry", ".tmp");
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeObject(value);
+            }
+            long previous = Files.exists(file) ? file.toFile().length() : 0;
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            diskBytes.addAndGet(file.toFile().length() - previous);
+        } catch (IOException e) {
+            log.warn("Cannot write disk cache entry {}: {}", file, e.getMessage());
+            return;
+        }
+
+        if (diskBytes.get() > diskMaxBytes) {
+            trimDisk();
+        }
+    }
+
+    private synchronized void trimDisk() {
+        List<Path> files = listDiskFiles();
+        files.sort(Comparator.comparingLong(f -> f.toFile().lastModified()));
+        for (Path file : files) {
+            if (diskBytes.get() <= diskMaxBytes) {
+                break;
+            }
+            deleteDiskFile(file);
+        }
+    }
+
+    private List<Path> listDiskFiles() {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(diskDir)) {
+            paths.filter(p -> p.toString().endsWith(FILE_SUFFIX)).forEach(files::add);
+        } catch (IOException e) {
+            log.warn("Cannot list disk cache {}: {}", diskDir, e.getMessage());
+        }
+        return files;
+    }
+
+    private void deleteDiskFile(Path file) {
+        long length = file.toFile().length();
+        try {
+            if (Files.deleteIfExists(file)) {
+                diskBytes.addAndGet(-length);
+            }
+        } catch (IOException e) {
+            log.warn("Cannot delete disk cache entry {}: {}", file, e.getMessage());
+        }
+    }
+
+    private Path diskFile(String key) {
+        return diskDir.resolve(key + FILE_SUFFIX);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
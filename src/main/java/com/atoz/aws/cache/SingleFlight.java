@@ -0,0 +1,134 @@
+package com.atoz.aws.cache;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller runs the call and everyone
+ * arriving while it runs waits for it and gets the same result, or the same exception. Nothing is
+ * kept once the call completes, so the next caller starts a new call.
+ * <p>
+ * Results are shared between callers and must not be modified. A call must not ask for its own
+ * key again, it would wait for itself.
+ * <p>
+ * A call that fails because the caller running it was interrupted, e.g. by the cancellation of
+ * its task, is not shared: the callers waiting for it start a new call instead.
+ *
+ * @param <K> key type
+ * @param <V> result type
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+
+    private final Predicate<Throwable> interruption;
+
+    public SingleFlight() {
+        this(e -> false);
+    }
+
+    /**
+     * @param interruption tells the failures a client reports for an interrupted call, checked
+     *                     along the cause chain besides {@link InterruptedException} and
+     *                     {@link InterruptedIOException}.
+     */
+    public SingleFlight(Predicate<Throwable> interruption) {
+        this.interruption = interruption;
+    }
+
+    public V execute(K key, Supplier<V> call) {
+        while (true) {
+            CompletableFuture<V> flight = new CompletableFuture<>();
+            CompletableFuture<V> running = inFlight.putIfAbsent(key, flight);
+            if (running != null) {
+                shared.incrementAndGet();
+                try {
+                    return await(running);
+                } catch (CallerInterruptedException e) {
+                    continue;
+                }
+            }
+
+            calls.incrementAndGet();
+            try {
+                V result = call.get();
+                inFlight.remove(key, flight);
+                flight.complete(result);
+                return result;
+            } catch (RuntimeException | Error e) {
+                inFlight.remove(key, flight);
+                flight.completeExceptionally(Thread.currentThread().isInterrupted() || isInterruption(e)
+                        ? new CallerInterruptedException(e) : e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return number of calls actually made.
+     */
+    public long callCount() {
+        return calls.get();
+    }
+
+    /**
+     * @return number of callers served by a call made for another caller.
+     */
+    public long sharedCount() {
+        return shared.get();
+    }
+
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private boolean isInterruption(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException || cause instanceof InterruptedIOException
+                    || interruption.test(cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits for another caller's call. An interrupt, e.g. the cancellation of the waiting task,
+     * ends the wait right away with the interrupt flag set again.
+     */
+    private static <V> V await(CompletableFuture<V> flight) {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a shared call", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+
+    /**
+     * Fails the callers waiting for a call whose own caller was interrupted, so they call again.
+     */
+    private static class CallerInterruptedException extends RuntimeException {
+        CallerInterruptedException(Throwable cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.atoz.aws.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Size-bounded, LRU ordered in-process cache whose entries expire after a fixed time to live.
+ * Null values are allowed, so callers can cache negative lookups as well.
+ * <p>
+ * A value loaded from a slower store can be stored with {@link #putIfUnchanged(Object, Object, long)},
+ * which drops it when the key was written or invalidated after the {@link #version(Object)} read
+ * before the load.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class TtlCache<K, V> {
+    // keys share version counters by hash, so a write may also drop the load of another key
+    private static final int VERSION_STRIPES = 1024;
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier ticker;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final long[] versions = new long[VERSION_STRIPES];
+
+    public TtlCache(int maxSize, long ttl, TimeUnit unit) {
+        this(maxSize, ttl, unit, System::nanoTime);
+    }
+
+    TtlCache(int maxSize, long ttl, TimeUnit unit, LongSupplier ticker) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.ticker = ticker;
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > TtlCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cached entry, or null when the key is absent or expired. A cached null value is
+     * returned as an entry whose {@link Entry#getValue()} is null.
+     */
+    public synchronized Entry<V> getEntry(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.expiresAt - ticker.getAsLong() <= 0) {
+            entries.remove(key);
+            evictions.incrementAndGet();
+            entry = null;
+        }
+
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    public synchronized void put(K key, V value) {
+        versions[stripe(key)]++;
+        entries.put(key, new Entry<>(value, ticker.getAsLong() + ttlNanos));
+    }
+
+    /**
+     * @return the write version of the key, to pass to {@link #putIfUnchanged(Object, Object, long)}.
+     */
+    public synchronized long version(K key) {
+        return versions[stripe(key)];
+    }
+
+    /**
+     * Stores a loaded value unless the key was put or invalidated since the version was read.
+     *
+     * @return false when the value was dropped as stale.
+     */
+    public synchronized boolean putIfUnchanged(K key, V value, long version) {
+        if (versions[stripe(key)] != version) {
+            return false;
+        }
+        entries.put(key, new Entry<>(value, ticker.getAsLong() + ttlNanos));
+        return true;
+    }
+
+    public synchronized void invalidate(K key) {
+        versions[stripe(key)]++;
+        entries.remove(key);
+    }
+
+    public synchronized void invalidateIf(Predicate<K> keyFilter) {
+        bumpAllVersions();
+        Iterator<K> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (keyFilter.test(keys.next())) {
+                keys.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        bumpAllVersions();
+        entries.clear();
+    }
+
+    private void bumpAllVersions() {
+        for (int i = 0; i < versions.length; i++) {
+            versions[i]++;
+        }
+    }
+
+    private static int stripe(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        return (h ^ (h >>> 16)) & (VERSION_STRIPES - 1);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long hitCount() {
+        return hits.get();
+    }
+
+    public long missCount() {
+        return misses.get();
+    }
+
+    public long evictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Reports lookups, evictions and size under the given cache name.
+     */
+    public void registerMeters(MeterRegistry registry, String name) {
+        FunctionCounter.builder("cache.gets", hits, AtomicLong::get).tags("cache", name, "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", misses, AtomicLong::get).tags("cache", name, "result", "miss")
+                .register(registry);
+        FunctionCounter.builder("cache.evictions", evictions, AtomicLong::get).tag("cache", name)
+                .register(registry);
+        Gauge.builder("cache.size", this, TtlCache::size).tag("cache", name).register(registry);
+    }
+
+    public static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        public V getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.atoz.aws.config;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.services.rekognition.AmazonRekognition;
+import com.amazonaws.services.rekognition.AmazonRekognitionClientBuilder;
+import com.amazonaws.services.rekognition.model.ListCollectionsRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.PropertyResolver;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import software.amazon.awssdk.auth.DefaultCredentialsProvider;
+import software.amazon.awssdk.client.builder.ClientAsyncHttpConfiguration;
+import software.amazon.awssdk.client.builder.ClientHttpConfiguration;
+import software.amazon.awssdk.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.SdkHttpClientFactory;
+import software.amazon.awssdk.http.SdkHttpConfigurationOption;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClientFactory;
+import software.amazon.awssdk.http.loader.DefaultSdkAsyncHttpClientFactory;
+import software.amazon.awssdk.http.loader.DefaultSdkHttpClientFactory;
+import software.amazon.awssdk.regions.providers.DefaultAwsRegionProviderChain;
+import software.amazon.awssdk.services.dynamodb.DynamoDBAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDBClient;
+import software.amazon.awssdk.services.dynamodb.model.ListTablesRequest;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.ListBucketsRequest;
+import software.amazon.awssdk.utils.AttributeMap;
+
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Builds every AWS client once, with the connection pool and timeouts configured for its service
+ * under {@code aws.client.<service>.*}, where service is s3, dynamodb or rekognition. Services get
+ * their clients here; code outside Spring, like the static table and collection helpers, uses
+ * {@link #getInstance()}.
+ */
+@Component
+public class AwsClientRegistry {
+    private static final Logger log = LoggerFactory.getLogger(AwsClientRegistry.class);
+
+    private static AwsClientRegistry instance;
+
+    private final ClientSettings s3Settings;
+    private final ClientSettings dynamoDbSettings;
+    private final ClientSettings rekognitionSettings;
+    private final boolean prewarmEnabled;
+    private final int prewarmConnections;
+    private final boolean asyncEnabled;
+    private final String presignRegion;
+    private final String presignEndpoint;
+
+    private S3Client s3;
+    private S3AsyncClient s3Async;
+    private DynamoDBClient dynamoDb;
+    private DynamoDBAsyncClient dynamoDbAsync;
+    private AmazonRekognition rekognition;
+    private S3UrlPresigner s3Presigner;
+
+    public AwsClientRegistry(Environment properties) {
+        this.s3Settings = ClientSettings.from(properties, "s3");
+        this.dynamoDbSettings = ClientSettings.from(properties, "dynamodb");
+        this.rekognitionSettings = ClientSettings.from(properties, "rekognition");
+        this.prewarmEnabled = properties.getProperty("aws.client.prewarm.enabled", Boolean.class, false);
+        this.prewarmConnections = properties.getProperty("aws.client.prewarm.connections", Integer.class, 2);
+        this.asyncEnabled = properties.getProperty("aws.async.enabled", Boolean.class, false);
+        this.presignRegion = properties.getProperty("aws.s3.presign.region", "");
+        this.presignEndpoint = properties.getProperty("aws.s3.presign.endpoint", "");
+
+        synchronized (AwsClientRegistry.class) {
+            instance = this;
+        }
+    }
+
+    /**
+     * @return the registry of the running application, or one configured from system properties
+     * and environment variables when there is none.
+     */
+    public static synchronized AwsClientRegistry getInstance() {
+        if (instance == null) {
+            instance = new AwsClientRegistry(new StandardEnvironment());
+        }
+        return instance;
+    }
+
+    public synchronized S3Client s3() {
+        if (s3 == null) {
+            s3 = S3Client.builder()
+                    .httpConfiguration(ClientHttpConfiguration.builder()
+                            .httpClientFactory(httpClientFactory(s3Settings)).build())
+                    .overrideConfiguration(overrideConfiguration(s3Settings))
+                    .build();
+        }
+        return s3;
+    }
+
+    public synchronized S3AsyncClient s3Async() {
+        if (s3Async == null) {
+            s3Async = S3AsyncClient.builder()
+                    .asyncHttpConfiguration(ClientAsyncHttpConfiguration.builder()
+                            .httpClientFactory(asyncHttpClientFactory(s3Settings)).build())
+                    .overrideConfiguration(overrideConfiguration(s3Settings))
+                    .build();
+        }
+        return s3Async;
+    }
+
+    public synchronized DynamoDBClient dynamoDb() {
+        if (dynamoDb == null) {
+            dynamoDb = DynamoDBClient.builder()
+                    .httpConfiguration(ClientHttpConfiguration.builder()
+                            .httpClientFactory(httpClientFactory(dynamoDbSettings)).build())
+                    .overrideConfiguration(overrideConfiguration(dynamoDbSettings))
+                    .build();
+        }
+        return dynamoDb;
+    }
+
+    public synchronized DynamoDBAsyncClient dynamoDbAsync() {
+        if (dynamoDbAsync == null) {
+            dynamoDbAsync = DynamoDBAsyncClient.builder()
+                    .asyncHttpConfiguration(ClientAsyncHttpConfiguration.builder()
+                            .httpClientFactory(asyncHttpClientFactory(dynamoDbSettings)).build())
+                    .overrideConfiguration(overrideConfiguration(dynamoDbSettings))
+                    .build();
+        }
+        return dynamoDbAsync;
+    }
+
+    public synchronized AmazonRekognition rekognition() {
+        if (rekognition == null) {
+            ClientConfiguration configuration = new ClientConfiguration()
+                    .withMaxConnections(rekognitionSettings.maxConnections)
+                    .withConnectionTimeout(rekognitionSettings.connectTimeoutMillis)
+                    .withSocketTimeout(rekognitionSettings.socketTimeoutMillis)
+                    .withRequestTimeout(rekognitionSettings.requestTimeoutMillis)
+                    .withTcpKeepAlive(rekognitionSettings.tcpKeepAlive)
+                    .withConnectionMaxIdleMillis(rekognitionSettings.connectionMaxIdleMillis);
+            if (rekognitionSettings.connectionTtlMillis > 0) {
+                configuration.withConnectionTTL(rekognitionSettings.connectionTtlMillis);
+            }
+            if (rekognitionSettings.maxErrorRetry >= 0) {
+                configuration.withMaxErrorRetry(rekognitionSettings.maxErrorRetry);
+            }
+            rekognition = AmazonRekognitionClientBuilder.standard().withClientConfiguration(configuration).build();
+        }
+        return rekognition;
+    }
+
+    /**
+     * Signs with the default credentials, for the region of {@code aws.s3.presign.region} or the
+     * default region when it is not set.
+     */
+    public synchronized S3UrlPresigner s3Presigner() {
+        if (s3Presigner == null) {
+            String region = StringUtils.hasText(presignRegion) ? presignRegion
+                    : new DefaultAwsRegionProviderChain().getRegion().value();
+            URI endpoint = StringUtils.hasText(presignEndpoint) ? URI.create(presignEndpoint) : null;
+            s3Presigner = new S3UrlPresigner(new DefaultCredentialsProvider(), region, endpoint);
+        }
+        return s3Presigner;
+    }
+
+    /**
+     * Replaces the S3 client, e.g. with a fake. Services take their clients when they are built, so
+     * replacements have to be made before that.
+     */
+    public synchronized void setS3(S3Client s3) {
+        this.s3 = s3;
+    }
+
+    public synchronized void setS3Async(S3AsyncClient s3Async) {
+        this.s3Async = s3Async;
+    }
+
+    public synchronized void setDynamoDb(DynamoDBClient dynamoDb) {
+        this.dynamoDb = dynamoDb;
+    }
+
+    public synchronized void setDynamoDbAsync(DynamoDBAsyncClient dynamoDbAsync) {
+        this.dynamoDbAsync = dynamoDbAsync;
+    }
+
+    public synchronized void setRekognition(AmazonRekognition rekognition) {
+        this.rekognition = rekognition;
+    }
+
+    public synchronized void setS3Presigner(S3UrlPresigner s3Presigner) {
+        this.s3Presigner = s3Presigner;
+    }
+
+    /**
+     * Opens connections to every service once the application is up, so the first requests after a
+     * deploy find DNS resolved and TLS sessions established. Runs in the background; the responses,
+     * including access errors, are ignored.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void prewarm() {
+        if (!prewarmEnabled) {
+            return;
+        }
+
+        ExecutorService executor = ExecutorConfig.boundedExecutor("aws-prewarm", prewarmConnections * 3, prewarmConnections * 6);
+        List<CompletableFuture<Void>> calls = new ArrayList<>();
+        for (int i = 0; i < prewarmConnections; i++) {
+            calls.add(CompletableFuture.runAsync(() -> warm("S3", () -> s3().listBuckets(ListBucketsRequest.builder().build())), executor));
+            calls.add(CompletableFuture.runAsync(() -> warm("DynamoDB", () -> dynamoDb().listTables(ListTablesRequest.builder().limit(1).build())), executor));
+            calls.add(CompletableFuture.runAsync(() -> warm("Rekognition", () -> rekognition().listCollections(new ListCollectionsRequest().withMaxResults(1))), executor));
+        }
+        if (asyncEnabled) {
+            calls.add(s3Async().listBuckets(ListBucketsRequest.builder().build()).handle((r, e) -> null));
+            calls.add(dynamoDbAsync().listTables(ListTablesRequest.builder().limit(1).build()).handle((r, e) -> null));
+        }
+
+        long start = System.currentTimeMillis();
+        CompletableFuture.allOf(calls.toArray(new CompletableFuture[0]))
+                .whenComplete((done, e) -> {
+                    executor.shutdown();
+                    log.info("AWS clients pre-warmed in {} ms", System.currentTimeMillis() - start);
+                });
+    }
+
+    private static void warm(String service, Runnable call) {
+        try {
+            call.run();
+        } catch (RuntimeException e) {
+            log.debug("Pre-warm call to {} failed, the connection is still set up: {}", service, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        closeQuietly(s3);
+        closeQuietly(s3Async);
+        closeQuietly(dynamoDb);
+        closeQuietly(dynamoDbAsync);
+        if (rekognition != null) {
+            rekognition.shutdown();
+        }
+    }
+
+    private static void closeQuietly(AutoCloseable client) {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.close();
+        } catch (Exception e) {
+            log.warn("Error closing AWS client: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Wraps the default HTTP client factory, applying the configured options over the SDK defaults.
+     */
+    private static SdkHttpClientFactory httpClientFactory(ClientSettings settings) {
+        SdkHttpClientFactory delegate = new DefaultSdkHttpClientFactory();
+        AttributeMap options = settings.httpOptions();
+        return defaults -> delegate.createHttpClientWithDefaults(options.merge(defaults));
+    }
+
+    private static SdkAsyncHttpClientFactory asyncHttpClientFactory(ClientSettings settings) {
+        SdkAsyncHttpClientFactory delegate = new DefaultSdkAsyncHttpClientFactory();
+        AttributeMap options = settings.httpOptions();
+        return defaults -> delegate.createHttpClientWithDefaults(options.merge(defaults));
+    }
+
+    private static ClientOverrideConfiguration overrideConfiguration(ClientSettings settings) {
+        return ClientOverrideConfiguration.builder()
+                .httpRequestTimeout(Duration.ofMillis(settings.requestTimeoutMillis))
+                .build();
+    }
+
+    /**
+     * Connection settings of one service.
+     */
+    static final class ClientSettings {
+        final int maxConnections;
+        final int connectTimeoutMillis;
+        final int socketTimeoutMillis;
+        final int requestTimeoutMillis;
+        // keep-alive settings only apply to the Rekognition client, the 2.0 preview HTTP clients have no such options
+        final boolean tcpKeepAlive;
+        final long connectionTtlMillis;
+        final long connectionMaxIdleMillis;
+        // SDK retries, -1 for the SDK default; only applies to the Rekognition client
+        final int maxErrorRetry;
+
+        private ClientSettings(PropertyResolver properties, String prefix) {
+            maxConnections = properties.getProperty(prefix + "max.connections", Integer.class, 50);
+            connectTimeoutMillis = properties.getProperty(prefix + "connect.timeout.millis", Integer.class, 2000);
+            socketTimeoutMillis = properties.getProperty(prefix + "socket.timeout.millis", Integer.class, 30000);
+            requestTimeoutMillis = properties.getProperty(prefix + "request.timeout.millis", Integer.class, 60000);
+            tcpKeepAlive = properties.getProperty(prefix + "tcp.keepalive", Boolean.class, true);
+            connectionTtlMillis = properties.getProperty(prefix + "connection.ttl.millis", Long.class, -1L);
+            connectionMaxIdleMillis = properties.getProperty(prefix + "connection.max.idle.millis", Long.class, 60000L);
+            maxErrorRetry = properties.getProperty(prefix + "max.error.retry", Integer.class, -1);
+        }
+
+        static ClientSettings from(PropertyResolver properties, String service) {
+            return new ClientSettings(properties, "aws.client." + service + ".");
+        }
+
+        AttributeMap httpOptions() {
+            return AttributeMap.builder()
+                    .put(SdkHttpConfigurationOption.MAX_CONNECTIONS, maxConnections)
+                    .put(SdkHttpConfigurationOption.CONNECTION_TIMEOUT, Duration.ofMillis(connectTimeoutMillis))
+                    .put(SdkHttpConfigurationOption.SOCKET_TIMEOUT, Duration.ofMillis(socketTimeoutMillis))
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.atoz.aws.config;
+
+import com.atoz.aws.image.ImageBufferPool;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * One pool of image buffers shared by the Rekognition and S3 services.
+ */
+@Configuration
+public class BufferPoolConfig {
+
+    @Value("${aws.buffer.pool.min.bytes:65536}")
+    private int minBufferBytes = ImageBufferPool.DEFAULT_MIN_BUFFER_BYTES;
+
+    @Value("${aws.buffer.pool.max.bytes:16777216}")
+    private int maxBufferBytes = ImageBufferPool.DEFAULT_MAX_BUFFER_BYTES;
+
+    @Value("${aws.buffer.pool.max.pooled.mb:64}")
+    private long maxPooledMb = 64;
+
+    /**
+     * The pool reported in the metrics; pools the services create for themselves outside Spring are not.
+     */
+    @Bean
+    public ImageBufferPool imageBufferPool() {
+        ImageBufferPool pool = new ImageBufferPool(minBufferBytes, maxBufferBytes, maxPooledMb * 1024 * 1024);
+        pool.registerMeters(Metrics.globalRegistry);
+        return pool;
+    }
+}
@@ -0,0 +1,139 @@
+package com.atoz.aws.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded executors for blocking AWS calls, so they never run on, or multiply, request threads.
+ */
+@Configuration
+public class ExecutorConfig {
+
+    @Value("${aws.rekognition.executor.threads:16}")
+    private int rekognitionThreads;
+
+    @Value("${aws.rekognition.executor.queue:1000}")
+    private int rekognitionQueue;
+
+    @Value("${aws.bulk.index.concurrency:8}")
+    private int bulkIndexConcurrency;
+
+    @Value("${aws.s3.upload.executor.threads:16}")
+    private int s3UploadThreads;
+
+    @Value("${aws.s3.fetch.executor.threads:32}")
+    private int s3FetchThreads;
+
+    @Value("${aws.s3.fetch.executor.queue:500}")
+    private int s3FetchQueue;
+
+    @Value("${aws.s3.thumbnail.executor.threads:4}")
+    private int thumbnailThreads;
+
+    @Value("${aws.s3.thumbnail.executor.queue:100}")
+    private int thumbnailQueue;
+
+    @Value("${aws.group.match.executor.threads:16}")
+    private int faceSearchThreads;
+
+    @Value("${aws.analyze.match.executor.threads:8}")
+    private int analysisMatchThreads;
+
+    @Value("${aws.analyze.match.executor.queue:32}")
+    private int analysisMatchQueue;
+
+    /**
+     * Runs Rekognition calls, whose v1 client is blocking. A full queue rejects new work instead of
+     * growing without bound.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService rekognitionExecutor() {
+        return boundedExecutor("rekognition", rekognitionThreads, rekognitionQueue);
+    }
+
+    /**
+     * Runs bulk indexing work. Each bulk request already limits its own in-flight images; when
+     * several requests together fill the queue, the submitting thread runs the work itself.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService bulkIndexExecutor() {
+        return boundedExecutor("bulk-index", bulkIndexConcurrency, bulkIndexConcurrency * 4,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Uploads multipart parts. Every upload bounds its own parts in flight; when the queue is full
+     * the reading thread uploads the part itself.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService s3UploadExecutor() {
+        return boundedExecutor("s3-upload", s3UploadThreads, s3UploadThreads * 4,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Downloads candidate images of /image/match-image concurrently. Candidates rejected by a full
+     * queue are skipped.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService s3FetchExecutor() {
+        return boundedExecutor("s3-fetch", s3FetchThreads, s3FetchQueue);
+    }
+
+    /**
+     * Renders and stores the thumbnails of uploaded images after the upload has returned. Uploads
+     * rejected by a full queue are served without thumbnails.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService thumbnailExecutor() {
+        return boundedExecutor("thumbnail", thumbnailThreads, thumbnailQueue);
+    }
+
+    /**
+     * Searches the faces of group images (/image/match/group). Kept apart from the Rekognition
+     * executor, which the searches wait on; when the queue is full the request thread searches.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService faceSearchExecutor() {
+        return boundedExecutor("face-search", faceSearchThreads, faceSearchThreads * 4,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Runs the match of /image/analyze, which waits on the Rekognition executor when there are several
+     * collections. A full queue fails the match rather than running it on the request thread, past
+     * the deadline of the analysis.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService analysisMatchExecutor() {
+        return boundedExecutor("analysis-match", analysisMatchThreads, analysisMatchQueue);
+    }
+
+    public static ExecutorService boundedExecutor(String name, int threads, int queueSize) {
+        return boundedExecutor(name, threads, queueSize, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public static ExecutorService boundedExecutor(String name, int threads, int queueSize,
+                                                  RejectedExecutionHandler rejectionHandler) {
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), namedThreads(name), rejectionHandler);
+    }
+
+    private static ThreadFactory namedThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
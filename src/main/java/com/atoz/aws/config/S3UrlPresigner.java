@@ -0,0 +1,169 @@
+package com.atoz.aws.config;
+
+import software.amazon.awssdk.auth.AwsCredentials;
+import software.amazon.awssdk.auth.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.AwsSessionCredentials;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Signs S3 GET URLs with Signature Version 4 in the query string, so clients download objects from
+ * S3 directly. Signing is local, no call is made to AWS. The 2.0 preview SDK has no S3 presigner,
+ * hence this one.
+ */
+public class S3UrlPresigner {
+    // S3 rejects presigned URLs valid for longer than 7 days
+    public static final Duration MAX_EXPIRY = Duration.ofDays(7);
+
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    private final AwsCredentialsProvider credentials;
+    private final String region;
+    private final URI endpoint;
+    private final Clock clock;
+
+    /**
+     * @param endpoint S3 endpoint to sign for with path style URLs, or null for the virtual hosted
+     *                 AWS endpoint of the bucket.
+     */
+    public S3UrlPresigner(AwsCredentialsProvider credentials, String region, URI endpoint) {
+        this(credentials, region, endpoint, Clock.systemUTC());
+    }
+
+    S3UrlPresigner(AwsCredentialsProvider credentials, String region, URI endpoint, Clock clock) {
+        this.credentials = credentials;
+        this.region = region;
+        this.endpoint = endpoint;
+        this.clock = clock;
+    }
+
+    /**
+     * @param key object key, including any folder.
+     * @param expiry how long the URL is valid, at most {@link #MAX_EXPIRY}.
+     */
+    public String presignGet(String bucket, String key, Duration expiry) {
+        if (expiry.isNegative() || expiry.isZero() || expiry.compareTo(MAX_EXPIRY) > 0) {
+            throw new IllegalArgumentException("Expiry must be between 1 second and 7 days: " + expiry);
+        }
+
+        String scheme;
+        String host;
+        String path;
+        if (endpoint != null) {
+            scheme = endpoint.getScheme();
+            host = endpoint.getPort() < 0 ? endpoint.getHost() : endpoint.getHost() + ":" + endpoint.getPort();
+            path = "/" + bucket + "/" + key;
+        } else if (bucket.contains(".")) {
+            // dotted bucket names do not match the wildcard certificate of the virtual hosted endpoint
+            scheme = "https";
+            host = regionalHost();
+            path = "/" + bucket + "/" + key;
+        } else {
+            scheme = "https";
+            host = bucket + "." + regionalHost();
+            path = "/" + key;
+        }
+
+        AwsCredentials awsCredentials = credentials.getCredentials();
+        // one instant, so a signature made at midnight does not mix two dates
+        Instant now = clock.instant();
+        String dateTime = DATE_TIME.format(now);
+        String date = DATE.format(now);
+        String scope = date + "/" + region + "/s3/aws4_request";
+
+        Map<String, String> query = new TreeMap<>();
+        query.put("X-Amz-Algorithm", ALGORITHM);
+        query.put("X-Amz-Credential", awsCredentials.accessKeyId() + "/" + scope);
+        query.put("X-Amz-Date", dateTime);
+        query.put("X-Amz-Expires", Long.toString(expiry.getSeconds()));
+        query.put("X-Amz-SignedHeaders", "host");
+        if (awsCredentials instanceof AwsSessionCredentials) {
+            query.put("X-Amz-Security-Token", ((AwsSessionCredentials) awsCredentials).sessionToken());
+        }
+
+        StringBuilder canonicalQuery = new StringBuilder();
+        for (Map.Entry<String, String> parameter : query.entrySet()) {
+            if (canonicalQuery.length() > 0) {
+                canonicalQuery.append('&');
+            }
+            canonicalQuery.append(encode(parameter.getKey(), true)).append('=').append(encode(parameter.getValue(), true));
+        }
+
+        String canonicalPath = encode(path, false);
+        String canonicalRequest = "GET\n" + canonicalPath + "\n" + canonicalQuery + "\n"
+                + "host:" + host + "\n\nhost\nUNSIGNED-PAYLOAD";
+        String stringToSign = ALGORITHM + "\n" + dateTime + "\n" + scope + "\n"
+                + hex(sha256(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+
+        byte[] signingKey = hmac(("AWS4" + awsCredentials.secretAccessKey()).getBytes(StandardCharsets.UTF_8),
+                date);
+        signingKey = hmac(signingKey, region);
+        signingKey = hmac(signingKey, "s3");
+        signingKey = hmac(signingKey, "aws4_request");
+        String signature = hex(hmac(signingKey, stringToSign));
+
+        return scheme + "://" + host + canonicalPath + "?" + canonicalQuery + "&X-Amz-Signature=" + signature;
+    }
+
+    private String regionalHost() {
+        return "us-east-1".equals(region) ? "s3.amazonaws.com" : "s3." + region + ".amazonaws.com";
+    }
+
+    /**
+     * URI encoding of SigV4: everything but unreserved characters, and '/' in paths, is escaped.
+     */
+    static String encode(String value, boolean encodeSlash) {
+        StringBuilder encoded = new StringBuilder();
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if ((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '~' || (c == '/' && !encodeSlash)) {
+                encoded.append(c);
+            } else {
+                encoded.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private static byte[] sha256(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,64 @@
+package com.atoz.aws.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartHttpServletRequest;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The multipart limits are sized for the endpoints that stream large uploads, /image/s3upload and
+ * /image/index/batch. Every other endpoint reads its file into memory, so a file larger than one
+ * Rekognition image is rejected with 413 before any of it is read.
+ */
+@Configuration
+public class UploadLimitConfig implements WebMvcConfigurer {
+    private static final Logger log = LoggerFactory.getLogger(UploadLimitConfig.class);
+
+    @Value("${aws.upload.max.image.bytes:15728640}")
+    private long maxImageBytes = 15728640;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new ImageSizeInterceptor(maxImageBytes))
+                .excludePathPatterns("/image/s3upload", "/image/index/batch");
+    }
+
+    static class ImageSizeInterceptor implements HandlerInterceptor {
+        private final long maxImageBytes;
+
+        ImageSizeInterceptor(long maxImageBytes) {
+            this.maxImageBytes = maxImageBytes;
+        }
+
+        @Override
+        public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+            if (!(request instanceof MultipartHttpServletRequest)) {
+                return true;
+            }
+
+            for (List<MultipartFile> files : ((MultipartHttpServletRequest) request).getMultiFileMap().values()) {
+                for (MultipartFile file : files) {
+                    if (file.getSize() > maxImageBytes) {
+                        log.warn("Rejected {} of {} bytes for {}", file.getOriginalFilename(), file.getSize(),
+                                request.getRequestURI());
+                        response.sendError(HttpStatus.PAYLOAD_TOO_LARGE.value(),
+                                "Images are limited to " + maxImageBytes + " bytes");
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.atoz.aws.controller;
+
+import com.atoz.aws.service.AtoZImageRekognitionService;
+import com.atoz.aws.service.FaceMatchResult;
+import com.atoz.aws.service.S3AccessService;
+import com.atoz.aws.throttle.ThrottledException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Non-blocking variants of the image endpoints under /async. Request threads are released as soon
+ * as the upload is read; S3 and DynamoDB calls use the SDK async clients and Rekognition calls run
+ * on a bounded executor.
+ */
+@RestController
+@RequestMapping("/async")
+@ConditionalOnProperty(name = "aws.async.enabled", havingValue = "true")
+public class AsyncAwsRekognitionController {
+    private static Logger log = LoggerFactory.getLogger(AsyncAwsRekognitionController.class);
+
+    @Value("${aws.dynamoDb.table.attribute.fullname}")
+    private String attributeName;
+
+    @Autowired
+    private S3AccessService s3Service;
+
+    @Autowired
+    private AtoZImageRekognitionService imageService;
+
+    @CrossOrigin
+    @RequestMapping(value="/image/s3upload", method=RequestMethod.POST)
+    public CompletableFuture<ResponseEntity<String>> s3UploadFile(@RequestParam("name") String name,
+                                                                  @RequestParam("file") MultipartFile uploadfile) throws IOException {
+        Map<String, String> metaData = new HashMap<>();
+        metaData.put(attributeName, name);
+
+        return s3Service.uploadBytesAsync(name, uploadfile.getBytes(), metaData)
+                .thenApply(done -> {
+                    String content = name + " is uploaded successfully!";
+                    log.info(content);
+                    return new ResponseEntity<>(content, HttpStatus.OK);
+                })
+                .exceptionally(e -> {
+                    String content = uploadfile.getOriginalFilename() + " upload failed.";
+                    log.error("{} {}", content, e.getMessage());
+                    return new ResponseEntity<>(content, HttpStatus.BAD_REQUEST);
+                });
+    }
+
+    @CrossOrigin
+    @RequestMapping(value="/image/index", method=RequestMethod.POST)
+    public CompletableFuture<ResponseEntity<String>> indexImage(@RequestParam("name") String name,
+                                                                @RequestParam("file") MultipartFile uploadfile) throws IOException {
+        return imageService.imageIndexAsync(uploadfile.getBytes(), name)
+                .thenApply(count -> new ResponseEntity<>("Image is indexed for " + name, HttpStatus.OK))
+                .exceptionally(e -> {
+                    log.error("Error: {}", e.getMessage());
+                    return new ResponseEntity<>("Error to index image for " + name, errorStatus(e));
+                });
+    }
+
+    @CrossOrigin
+    @RequestMapping(value="/image/match", method=RequestMethod.POST)
+    public CompletableFuture<ResponseEntity<Map<String, Float>>> matchImage(@RequestParam("file") MultipartFile uploadfile) throws IOException {
+        return imageService.matchImageAsync(uploadfile.getBytes())
+                .thenApply(matchedNames -> new ResponseEntity<>(matchedNames, HttpStatus.OK))
+                .exceptionally(e -> {
+                    log.error("Error to match image: {}", e.getMessage());
+                    return new ResponseEntity<>(new HashMap<>(), errorStatus(e));
+                });
+    }
+
+    @CrossOrigin
+    @RequestMapping(value="/image/match/ranked", method=RequestMethod.POST)
+    public CompletableFuture<ResponseEntity<List<FaceMatchResult>>> matchFaces(@RequestParam("file") MultipartFile uploadfile,
+                                                                               @RequestParam(value="topK", required=false) Integer topK,
+                                                                               @RequestParam(value="minSimilarity", required=false) Float minSimilarity) throws IOException {
+        int k = topK != null ? topK : imageService.getMatchTopK();
+        float similarity = minSimilarity != null ? minSimilarity : imageService.getMatchMinSimilarity();
+        if (!ImageResponses.isValidMatch(k, similarity)) {
+            return CompletableFuture.completedFuture(new ResponseEntity<>(new ArrayList<>(), HttpStatus.BAD_REQUEST));
+        }
+
+        return imageService.matchFacesAsync(uploadfile.getBytes(), k, similarity)
+                .thenApply(matches -> new ResponseEntity<>(matches, HttpStatus.OK))
+                .exceptionally(e -> {
+                    log.error("Error to match image: {}", e.getMessage());
+                    return new ResponseEntity<>(new ArrayList<>(), errorStatus(e));
+                });
+    }
+
+    @CrossOrigin
+    @RequestMapping(value="/image/match-image", method=RequestMethod.POST)
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> matchImageWithImageResponse(@RequestParam("file") MultipartFile uploadfile) throws IOException {
+        return imageService.matchImageAsync(uploadfile.getBytes())
+                .thenCompose(matchedNames -> {
+                    Map<String, Object> results = new HashMap<>();
+                    if (matchedNames.isEmpty()) {
+                        return CompletableFuture.completedFuture(results);
+                    }
+                    List<String> names = new ArrayList<>(matchedNames.keySet());
+                    return findImage(names.iterator(), matchedNames, results).thenApply(found -> {
+                        if (!found) {
+                            results.put("image", ImageResponses.buildNotFoundImage());
+                        }
+                        return results;
+                    });
+                })
+                .thenApply(results -> new ResponseEntity<>(results, HttpStatus.OK))
+                .exceptionally(e -> {
+                    log.error("Error to match image: {}", e.getMessage());
+                    return new ResponseEntity<>(new HashMap<>(), errorStatus(e));
+                });
+    }
+
+    @CrossOrigin
+    @RequestMapping(value="/image/detectLabels", method=RequestMethod.POST)
+    public CompletableFuture<ResponseEntity<Map<String, Float>>> detectImageLabels(@RequestParam("file") MultipartFile imageFile) throws IOException {
+        return imageService.detectLabelsAsync(imageFile.getBytes())
+                .thenApply(labels -> new ResponseEntity<>(labels, HttpStatus.OK))
+                .exceptionally(e -> {
+                    log.error("Error to detect label {}", e.getMessage());
+                    return new ResponseEntity<>(new HashMap<>(), errorStatus(e));
+                });
+    }
+
+    /**
+     * Rekognition calls given up for throttling, or not started because the executor is full, are
+     * worth retrying later, anything else is not.
+     */
+    private static HttpStatus errorStatus(Throwable error) {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        if (cause instanceof ThrottledException) {
+            return HttpStatus.TOO_MANY_REQUESTS;
+        }
+        return cause instanceof RejectedExecutionException ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.BAD_REQUEST;
+    }
+
+    /**
+     * Downloads the images of the matched names one after another until one is large enough.
+     */
+    private CompletableFuture<Boolean> findImage(Iterator<String> names, Map<String, Float> matchedNames,
+                                                 Map<String, Object> results) {
+        if (!names.hasNext()) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        String name = names.next();
+        return s3Service.downLoadFileToByteArrayAsync(name).thenCompose(bArray -> {
+            results.put("sid", name);
+            results.put("confidence", matchedNames.get(name));
+            if (bArray != null && bArray.length > ImageResponses.MIN_IMAGE_BYTES) {
+                results.put("image", bArray);
+                return CompletableFuture.completedFuture(true);
+            }
+            return findImage(names, matchedNames, results);
+        });
+    }
+}
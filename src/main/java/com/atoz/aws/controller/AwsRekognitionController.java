@@ -1,29 +1,54 @@
 package com.atoz.aws.controller;
 
 import com.atoz.aws.service.AtoZImageRekognitionService;
+import com.atoz.aws.service.BulkIndexService;
+import com.atoz.aws.service.CandidateImageFetcher;
+import com.atoz.aws.service.CollectionRebalancer;
 import com.atoz.aws.service.DynamoDbAccessService;
+import com.atoz.aws.service.FaceMatchResult;
+import com.atoz.aws.service.GroupFaceMatch;
+import com.atoz.aws.service.GroupMatchService;
+import com.atoz.aws.service.ImageAnalysisService;
+import com.atoz.aws.service.IndexItemResult;
+import com.atoz.aws.service.IndexJob;
+import com.atoz.aws.service.IndexJobService;
+import com.atoz.aws.service.ThumbnailService;
 import com.atoz.aws.service.S3AccessService;
+import com.atoz.aws.throttle.ThrottledException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.util.UriComponentsBuilder;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
 
 @RestController
 public class AwsRekognitionController {
     private static Logger log = LoggerFactory.getLogger(AwsRekognitionController.class);
 
+    // S3 serves a single byte range only; other Range headers are ignored and the whole image is sent
+    private static final Pattern SINGLE_BYTE_RANGE = Pattern.compile("bytes=(\\d+-\\d*|-\\d+)");
+
     @Value("${aws.dynamoDb.table.attribute.fullname}")
     private String attributeName;
 
@@ -33,6 +58,30 @@ public class AwsRekognitionController {
     @Autowired
     private AtoZImageRekognitionService imageService;
 
+    @Autowired
+    private BulkIndexService bulkIndexService;
+
+    @Autowired
+    private CandidateImageFetcher candidateImageFetcher;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private IndexJobService indexJobService;
+
+    @Autowired
+    private CollectionRebalancer collectionRebalancer;
+
+    @Autowired
+    private GroupMatchService groupMatchService;
+
+    @Autowired
+    private ImageAnalysisService analysisService;
+
+    @Value("${aws.match.image.default.size:256}")
+    private int defaultImageSize;
+
     @CrossOrigin
     @RequestMapping(value="/image/s3upload", method=RequestMethod.POST)
     public ResponseEntity<String> s3UploadFile(@RequestParam("name") String name,
@@ -43,8 +92,14 @@ public class AwsRekognitionController {
         HttpStatus status = HttpStatus.OK;
 
 
-        try {
-            s3Service.uploadInputStreram(name, uploadfile.getInputStream(), metaData);
+        try (InputStream inputStream = uploadfile.getInputStream()) {
+            s3Service.uploadStream(name, inputStream, uploadfile.getSize(), metaData);
+            if (uploadfile.getSize() <= thumbnailService.getMaxSourceBytes()) {
+                thumbnailService.storeThumbnailsAsync(name, metaData);
+            } else {
+                log.warn("{} is too large for thumbnails, the original is served", name);
+                thumbnailService.deleteThumbnails(name);
+            }
             content = name + " is uploaded successfully!";
             log.info(content);
         } catch (IOException ioe) {
@@ -56,17 +111,29 @@ public class AwsRekognitionController {
         return new ResponseEntity<String>(content, status);
     }
 
+    /**
+     * Indexes the faces of an image under a name. With "async" the image is journaled and 202 is
+     * returned right away with the job id, whose progress is at the Location header.
+     */
     @CrossOrigin
     @RequestMapping(value="/image/index", method=RequestMethod.POST)
     public ResponseEntity<String> indexImage(@RequestParam("name") String name,
-                             @RequestParam("file") MultipartFile uploadfile) {
+                             @RequestParam("file") MultipartFile uploadfile,
+                             @RequestParam(value="async", defaultValue="false") boolean async) {
+        if (async) {
+            return submitIndexJob(name, uploadfile);
+        }
 
         String responseContent;
         HttpStatus status = HttpStatus.OK;
 
         try {
-            imageService.imageIndex(uploadfile.getInputStream(), name);
+            imageService.imageIndex(uploadfile.getInputStream(), uploadfile.getSize(), name);
             responseContent = "Image is indexed for " + name;
+        } catch (ThrottledException e) {
+            log.warn("Throttled: {}", e.getMessage());
+            responseContent = "Too many requests, try again later to index image for " + name;
+            status = HttpStatus.TOO_MANY_REQUESTS;
         } catch (Exception e) {
             log.error("Error: {}", e.getMessage());
             responseContent = "Error to index image for " + name;
@@ -76,55 +143,314 @@ public class AwsRekognitionController {
         return new ResponseEntity<String>(responseContent, status);
     }
 
+    @CrossOrigin
+    @RequestMapping(value="/image/index/jobs/{id}", method=RequestMethod.GET)
+    public ResponseEntity<IndexJob> getIndexJob(@PathVariable("id") String id) {
+        IndexJob job = indexJobService.getJob(id);
+        if (job == null) {
+            return new ResponseEntity<IndexJob>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<IndexJob>(job, HttpStatus.OK);
+    }
+
+    private ResponseEntity<String> submitIndexJob(String name, MultipartFile uploadfile) {
+        try (InputStream inputStream = uploadfile.getInputStream()) {
+            IndexJob job = indexJobService.submit(name, inputStream);
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setLocation(URI.create("/image/index/jobs/" + job.getId()));
+            return new ResponseEntity<String>(job.getId(), headers, HttpStatus.ACCEPTED);
+        } catch (RejectedExecutionException e) {
+            log.warn("Index job rejected for {}: {}", name, e.getMessage());
+            return new ResponseEntity<String>("Too many index jobs pending, try again later to index image for " + name,
+                    HttpStatus.SERVICE_UNAVAILABLE);
+        } catch (IOException e) {
+            log.error("Error to queue index job for {}: {}", name, e.getMessage());
+            return new ResponseEntity<String>("Error to index image for " + name, HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Indexes many images in one request, given either as "files" parts, optionally with a "names"
+     * value per file, or as one "zip" part. With "store" the images and their thumbnails are also
+     * uploaded to S3. Returns the outcome of every image.
+     */
+    @CrossOrigin
+    @RequestMapping(value="/image/index/batch", method=RequestMethod.POST)
+    public ResponseEntity<List<IndexItemResult>> indexImages(@RequestParam(value="files", required=false) MultipartFile[] files,
+                                                             @RequestParam(value="names", required=false) List<String> names,
+                                                             @RequestParam(value="zip", required=false) MultipartFile zip,
+                                                             @RequestParam(value="store", defaultValue="false") boolean store) {
+        try {
+            if (zip != null) {
+                return new ResponseEntity<List<IndexItemResult>>(bulkIndexService.indexZip(zip.getInputStream(), store), HttpStatus.OK);
+            }
+            if (files == null || (names != null && names.size() != files.length)) {
+                return new ResponseEntity<List<IndexItemResult>>(new ArrayList<>(), HttpStatus.BAD_REQUEST);
+            }
+
+            BulkIndexService.Pipeline pipeline = bulkIndexService.newPipeline(store);
+            for (int i = 0; i < files.length; i++) {
+                MultipartFile file = files[i];
+                String name = names != null ? names.get(i) : BulkIndexService.nameFromFile(file.getOriginalFilename());
+                pipeline.submit(file.getOriginalFilename(), name, () -> {
+                    try (InputStream inputStream = file.getInputStream()) {
+                        return bulkIndexService.readImage(inputStream);
+                    }
+                });
+            }
+            return new ResponseEntity<List<IndexItemResult>>(pipeline.await(), HttpStatus.OK);
+        } catch (Exception e) {
+            log.error("Error to bulk index images: {}", e.getMessage());
+            return new ResponseEntity<List<IndexItemResult>>(new ArrayList<>(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
     @CrossOrigin
     @RequestMapping(value="/image/match", method=RequestMethod.POST)
     public ResponseEntity<Map<String, Float>> matchImage(@RequestParam("file") MultipartFile uploadfile) {
         try {
-            Map<String, Float> matchedNames = imageService.matchImage(uploadfile.getInputStream());
+            Map<String, Float> matchedNames = imageService.matchImage(uploadfile.getInputStream(), uploadfile.getSize());
             return new ResponseEntity<Map<String, Float>>(matchedNames, HttpStatus.OK);
+        } catch (ThrottledException e) {
+            log.warn("Throttled: {}", e.getMessage());
+            return new ResponseEntity<Map<String, Float>>(new HashMap<>(), HttpStatus.TOO_MANY_REQUESTS);
         } catch (Exception ioe) {
             log.error("Error to match image: {}", ioe.getMessage());
             return new ResponseEntity<Map<String, Float>>(new HashMap<>(), HttpStatus.BAD_REQUEST);
         }
     }
 
+    /**
+     * Returns up to topK matched faces at least minSimilarity percent similar, best first, with
+     * their faceId, name and similarity. Both default to aws.rekognition.match.* settings.
+     */
+    @CrossOrigin
+    @RequestMapping(value="/image/match/ranked", method=RequestMethod.POST)
+    public ResponseEntity<List<FaceMatchResult>> matchFaces(@RequestParam("file") MultipartFile uploadfile,
+                                                            @RequestParam(value="topK", required=false) Integer topK,
+                                                            @RequestParam(value="minSimilarity", required=false) Float minSimilarity) {
+        int k = topK != null ? topK : imageService.getMatchTopK();
+        float similarity = minSimilarity != null ? minSimilarity : imageService.getMatchMinSimilarity();
+        if (!ImageResponses.isValidMatch(k, similarity)) {
+            return new ResponseEntity<List<FaceMatchResult>>(new ArrayList<>(), HttpStatus.BAD_REQUEST);
+        }
+
+        try {
+            List<FaceMatchResult> matches = imageService.matchFaces(uploadfile.getInputStream(), uploadfile.getSize(), k, similarity);
+            return new ResponseEntity<List<FaceMatchResult>>(matches, HttpStatus.OK);
+        } catch (ThrottledException e) {
+            log.warn("Throttled: {}", e.getMessage());
+            return new ResponseEntity<List<FaceMatchResult>>(new ArrayList<>(), HttpStatus.TOO_MANY_REQUESTS);
+        } catch (Exception e) {
+            log.error("Error to match image: {}", e.getMessage());
+            return new ResponseEntity<List<FaceMatchResult>>(new ArrayList<>(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Matches every face of a group image: one entry per detected face, largest first, with its
+     * bounding box and up to topK matches at least minSimilarity percent similar.
+     */
+    @CrossOrigin
+    @RequestMapping(value="/image/match/group", method=RequestMethod.POST)
+    public ResponseEntity<List<GroupFaceMatch>> matchGroup(@RequestParam("file") MultipartFile uploadfile,
+                                                           @RequestParam(value="topK", required=false) Integer topK,
+                                                           @RequestParam(value="minSimilarity", required=false) Float minSimilarity) {
+        int k = topK != null ? topK : imageService.getMatchTopK();
+        float similarity = minSimilarity != null ? minSimilarity : imageService.getMatchMinSimilarity();
+        if (!ImageResponses.isValidMatch(k, similarity)) {
+            return new ResponseEntity<List<GroupFaceMatch>>(new ArrayList<>(), HttpStatus.BAD_REQUEST);
+        }
+
+        try {
+            List<GroupFaceMatch> matches = groupMatchService.matchGroup(uploadfile.getBytes(), k, similarity);
+            return new ResponseEntity<List<GroupFaceMatch>>(matches, HttpStatus.OK);
+        } catch (ThrottledException e) {
+            log.warn("Throttled: {}", e.getMessage());
+            return new ResponseEntity<List<GroupFaceMatch>>(new ArrayList<>(), HttpStatus.TOO_MANY_REQUESTS);
+        } catch (Exception e) {
+            log.error("Error to match group image: {}", e.getMessage());
+            return new ResponseEntity<List<GroupFaceMatch>>(new ArrayList<>(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Returns the best matched person with a stored image. "size" is the longest side the client
+     * shows: the smallest thumbnail that covers it is returned, or the original for size=0 or
+     * when no thumbnail is large enough. With reference=true the image is not inlined; "imageUrl"
+     * points to /image/person for the best matched person whose image exists. With presigned=true
+     * "imageUrl" is a short-lived presigned S3 URL instead, so the image never passes through here.
+     */
     @CrossOrigin
     @RequestMapping(value="/image/match-image", method=RequestMethod.POST)
-    public ResponseEntity<Map<String, Object>> matchImageWithImageResponse(@RequestParam("file") MultipartFile uploadfile) {
+    public ResponseEntity<Map<String, Object>> matchImageWithImageResponse(@RequestParam("file") MultipartFile uploadfile,
+                                                                           @RequestParam(value="size", required=false) Integer size,
+                                                                           @RequestParam(value="reference", defaultValue="false") boolean reference,
+                                                                           @RequestParam(value="presigned", defaultValue="false") boolean presigned) {
         Map<String, Object> results = new HashMap<>();
         try {
-            Map<String, Float> matchedNames = imageService.matchImage(uploadfile.getInputStream());
-            byte[] bArray = null;
-            if (matchedNames.size() > 0) {
-                for (String key : matchedNames.keySet()) {
-                    bArray = s3Service.downLoadFileToByteArray(key);
-                    results.put("sid", key);
-                    results.put("confidence", matchedNames.get(key));
-
-                    if (bArray != null && bArray.length > 10000) {
-                        results.put("image", bArray);
-                        break;
+            Map<String, Float> matchedNames = imageService.matchImage(uploadfile.getInputStream(), uploadfile.getSize());
+            if (matchedNames.size() > 0 && (reference || presigned)) {
+                putImageReference(results, matchedNames, size != null ? size : defaultImageSize, presigned);
+            } else if (matchedNames.size() > 0) {
+                Integer thumbnailSize = thumbnailService.renditionSize(size != null ? size : defaultImageSize);
+                CandidateImageFetcher.MatchedImage best = candidateImageFetcher.fetchBest(matchedNames,
+                        ImageResponses.MIN_IMAGE_BYTES, thumbnailSize);
+                if (best != null) {
+                    results.put("sid", best.getName());
+                    results.put("confidence", best.getConfidence());
+                    results.put("image", best.getImage());
+                    if (best.getSize() != null) {
+                        results.put("size", best.getSize());
                     }
-                }
-
-                if (!results.containsKey("image")) {
-                    results.put("image", buildNotFoundImage());
+                } else {
+                    String top = Collections.max(matchedNames.entrySet(), Map.Entry.comparingByValue()).getKey();
+                    results.put("sid", top);
+                    results.put("confidence", matchedNames.get(top));
+                    results.put("image", ImageResponses.buildNotFoundImage());
                 }
             }
             return new ResponseEntity<Map<String, Object>>(results, HttpStatus.OK);
+        } catch (ThrottledException e) {
+            log.warn("Throttled: {}", e.getMessage());
+            return new ResponseEntity<Map<String, Object>>(new HashMap<>(), HttpStatus.TOO_MANY_REQUESTS);
         } catch (Exception ioe) {
             log.error("Error to match image: {}", ioe.getMessage());
             return new ResponseEntity<Map<String, Object>>(new HashMap<>(), HttpStatus.BAD_REQUEST);
         }
     }
 
+    /**
+     * Streams the stored image of a person from S3 without buffering it: the smallest thumbnail
+     * covering "size", or the original for size=0 or when there is no such thumbnail. Answers
+     * If-None-Match with 304 when the ETag is unchanged and a single byte Range with 206.
+     */
+    @CrossOrigin
+    @RequestMapping(value="/image/person", method=RequestMethod.GET)
+    public void streamPersonImage(@RequestParam("name") String name,
+                                  @RequestParam(value="size", defaultValue="0") int size,
+                                  @RequestHeader(value=HttpHeaders.IF_NONE_MATCH, required=false) String ifNoneMatch,
+                                  @RequestHeader(value=HttpHeaders.RANGE, required=false) String range,
+                                  HttpServletResponse response) throws IOException {
+        String byteRange = range != null && SINGLE_BYTE_RANGE.matcher(range.trim()).matches() ? range.trim() : null;
+        try {
+            Boolean found = thumbnailService.stream(name, thumbnailService.renditionSize(size), byteRange, ifNoneMatch,
+                    (s3Response, inputStream) -> {
+                        response.setStatus(s3Response.contentRange() != null ? HttpStatus.PARTIAL_CONTENT.value() : HttpStatus.OK.value());
+                        response.setContentType(s3Response.contentType() != null && s3Response.contentType().startsWith("image/")
+                                ? s3Response.contentType() : MediaType.IMAGE_JPEG_VALUE);
+                        response.setHeader(HttpHeaders.ETAG, s3Response.eTag());
+                        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+                        if (s3Response.contentRange() != null) {
+                            response.setHeader(HttpHeaders.CONTENT_RANGE, s3Response.contentRange());
+                        }
+                        if (s3Response.contentLength() != null) {
+                            response.setContentLengthLong(s3Response.contentLength());
+                        }
+
+                        OutputStream out = response.getOutputStream();
+                        byte[] buffer = new byte[8192];
+                        int read;
+                        while ((read = inputStream.read(buffer)) != -1) {
+                            try {
+                                out.write(buffer, 0, read);
+                            } catch (IOException e) {
+                                // the client went away; drop the S3 connection rather than drain it
+                                log.debug("Client stopped reading image of {}: {}", name, e.getMessage());
+                                inputStream.abort();
+                                return true;
+                            }
+                        }
+                        return true;
+                    });
+            if (found == null) {
+                response.setStatus(HttpStatus.NOT_FOUND.value());
+            }
+        } catch (S3Exception e) {
+            if (e.getStatusCode() == HttpStatus.NOT_MODIFIED.value()) {
+                response.setStatus(HttpStatus.NOT_MODIFIED.value());
+                response.setHeader(HttpHeaders.ETAG, S3AccessService.eTagOf(e));
+            } else if (e.getStatusCode() == HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value()) {
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+            } else {
+                log.error("Error to stream image of {}: {}", name, e.getMessage());
+                if (!response.isCommitted()) {
+                    response.setStatus(HttpStatus.BAD_REQUEST.value());
+                }
+            }
+        }
+    }
+
+    /**
+     * Points to the image of the best matched person whose original exists, or leaves the image
+     * out when none does.
+     *
+     * @param presigned link to S3 directly rather than to /image/person.
+     */
+    private void putImageReference(Map<String, Object> results, Map<String, Float> matchedNames, int size, boolean presigned) {
+        String first = null;
+        for (Map.Entry<String, Float> match : matchedNames.entrySet()) {
+            if (first == null) {
+                first = match.getKey();
+            }
+            String imageUrl;
+            if (presigned) {
+                imageUrl = thumbnailService.presignedUrl(match.getKey(), thumbnailService.renditionSize(size));
+            } else {
+                imageUrl = !s3Service.isObjectExists(match.getKey()) ? null : UriComponentsBuilder.fromPath("/image/person")
+                        .queryParam("name", match.getKey())
+                        .queryParam("size", size)
+                        .build().encode().toUriString();
+            }
+            if (imageUrl != null) {
+                results.put("sid", match.getKey());
+                results.put("confidence", match.getValue());
+                results.put("imageUrl", imageUrl);
+                return;
+            }
+        }
+        results.put("sid", first);
+        results.put("confidence", matchedNames.get(first));
+    }
+
+    /**
+     * Runs the selected operations, any of labels, match and faces, on one upload concurrently and
+     * returns their results under those keys. Operations that fail or miss their deadline are
+     * listed under "errors" instead.
+     */
+    @CrossOrigin
+    @RequestMapping(value="/image/analyze", method=RequestMethod.POST)
+    public ResponseEntity<Map<String, Object>> analyzeImage(@RequestParam("file") MultipartFile uploadfile,
+                                                            @RequestParam(value="operations", defaultValue="labels,match,faces") String operations) {
+        Set<ImageAnalysisService.Operation> selected;
+        try {
+            selected = ImageAnalysisService.Operation.parse(operations);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<Map<String, Object>>(new HashMap<>(), HttpStatus.BAD_REQUEST);
+        }
+
+        try {
+            return new ResponseEntity<Map<String, Object>>(analysisService.analyze(uploadfile.getBytes(), selected), HttpStatus.OK);
+        } catch (ThrottledException e) {
+            log.warn("Throttled: {}", e.getMessage());
+            return new ResponseEntity<Map<String, Object>>(new HashMap<>(), HttpStatus.TOO_MANY_REQUESTS);
+        } catch (Exception e) {
+            log.error("Error to analyze image: {}", e.getMessage());
+            return new ResponseEntity<Map<String, Object>>(new HashMap<>(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
     @CrossOrigin
     @RequestMapping(value="/image/detectLabels", method=RequestMethod.POST)
     public ResponseEntity<Map<String, Float>> detectImageLabels(@RequestParam("file") MultipartFile imageFile) {
         try {
-            Map<String, Float> matchedLabels = imageService.detectLabels(imageFile.getInputStream());
+            Map<String, Float> matchedLabels = imageService.detectLabels(imageFile.getInputStream(), imageFile.getSize());
 
             return new ResponseEntity<Map<String, Float>>(matchedLabels, HttpStatus.OK);
+        } catch (ThrottledException e) {
+            log.warn("Throttled: {}", e.getMessage());
+            return new ResponseEntity<Map<String, Float>>(new HashMap<>(), HttpStatus.TOO_MANY_REQUESTS);
         } catch (Exception e) {
             log.error("Error to detect label {}", e.getMessage());
 
@@ -132,6 +458,37 @@ public class AwsRekognitionController {
         }
     }
 
+    /**
+     * Starts moving faces into the collection their name belongs to, in the background. Only counts
+     * them unless dryRun=false. Returns 202 with the report, whose progress is at the Location
+     * header, or 409 with the report of the run still in progress.
+     */
+    @RequestMapping(value="/image/collections/rebalance", method=RequestMethod.POST)
+    public ResponseEntity<CollectionRebalancer.Report> rebalanceCollections(@RequestParam(value="dryRun", defaultValue="true") boolean dryRun) {
+        try {
+            CollectionRebalancer.Report report = collectionRebalancer.start(dryRun);
+            if (report == null) {
+                return new ResponseEntity<CollectionRebalancer.Report>(collectionRebalancer.getLastReport(), HttpStatus.CONFLICT);
+            }
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setLocation(URI.create("/image/collections/rebalance"));
+            return new ResponseEntity<CollectionRebalancer.Report>(report, headers, HttpStatus.ACCEPTED);
+        } catch (Exception e) {
+            log.error("Error to rebalance collections: {}", e.getMessage());
+            return new ResponseEntity<CollectionRebalancer.Report>(HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @RequestMapping(value="/image/collections/rebalance", method=RequestMethod.GET)
+    public ResponseEntity<CollectionRebalancer.Report> getRebalanceReport() {
+        CollectionRebalancer.Report report = collectionRebalancer.getLastReport();
+        if (report == null) {
+            return new ResponseEntity<CollectionRebalancer.Report>(HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<CollectionRebalancer.Report>(report, HttpStatus.OK);
+    }
+
     @CrossOrigin
     @RequestMapping(value="/image/local/detectLabels", method=RequestMethod.GET)
     public ResponseEntity<Map<String, Float>> detectImageLebels(@RequestParam("file") String fileLocation) {
@@ -143,22 +500,4 @@ public class AwsRekognitionController {
             return new ResponseEntity<Map<String, Float>>(new HashMap<String, Float>(), HttpStatus.BAD_REQUEST);
         }
     }
-
-    private byte[] buildNotFoundImage() {
-        BufferedImage image = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB);
-        Graphics g = image.getGraphics();
-        g.drawString("Original Image Not Found!", 10, 20);
-        byte[] imageInByte = null;
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write( image, "jpg", baos );
-            baos.flush();
-            imageInByte = baos.toByteArray();
-            baos.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return imageInByte;
-    }
 }
@@ -0,0 +1,46 @@
+package com.atoz.aws.controller;
+
+import com.atoz.aws.service.AtoZImageRekognitionService;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Response helpers shared by the image controllers.
+ */
+final class ImageResponses {
+
+    // minimum size of a stored image to be returned to the client
+    static final int MIN_IMAGE_BYTES = 10000;
+
+    private ImageResponses() {
+    }
+
+    /**
+     * @return whether topK and minSimilarity are within what SearchFacesByImage accepts.
+     */
+    static boolean isValidMatch(int topK, float minSimilarity) {
+        return topK >= 1 && topK <= AtoZImageRekognitionService.MAX_TOP_K && minSimilarity >= 0 && minSimilarity <= 100;
+    }
+
+    static byte[] buildNotFoundImage() {
+        BufferedImage image = new BufferedImage(200, 200, BufferedImage.TYPE_INT_RGB);
+        Graphics g = image.getGraphics();
+        g.drawString("Original Image Not Found!", 10, 20);
+        byte[] imageInByte = null;
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ImageIO.write( image, "jpg", baos );
+            baos.flush();
+            imageInByte = baos.toByteArray();
+            baos.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return imageInByte;
+    }
+}
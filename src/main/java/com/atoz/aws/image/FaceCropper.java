@@ -0,0 +1,73 @@
+package com.atoz.aws.image;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Cuts single faces out of a group image, so each one can be searched without sending the whole
+ * image again. Boxes are relative to the upright image, as Rekognition reports them for an image
+ * without EXIF orientation, and are widened by {@code margin} on every side because face searches
+ * need some context around the face.
+ */
+public class FaceCropper {
+    private final float margin;
+    private final float jpegQuality;
+
+    /**
+     * @param margin share of the box width and height added on each side.
+     * @param jpegQuality JPEG quality of the crops, between 0 and 1.
+     */
+    public FaceCropper(float margin, float jpegQuality) {
+        if (margin < 0 || jpegQuality <= 0 || jpegQuality > 1) {
+            throw new IllegalArgumentException("Invalid crop settings: margin=" + margin + ", jpegQuality=" + jpegQuality);
+        }
+        this.margin = margin;
+        this.jpegQuality = jpegQuality;
+    }
+
+    /**
+     * Decodes an image, turned upright according to its EXIF orientation and scaled down to
+     * {@code maxSide}.
+     *
+     * @return the image, or null when the format is not supported.
+     */
+    public BufferedImage decodeUpright(byte[] imageBytes, int maxSide) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageBytes));
+        if (image == null) {
+            return null;
+        }
+        return ImagePreprocessor.transform(image, ImagePreprocessor.readOrientation(imageBytes), maxSide);
+    }
+
+    /**
+     * @return the whole image as JPEG, in the crop quality.
+     */
+    public byte[] encode(BufferedImage image) throws IOException {
+        return ImagePreprocessor.encodeJpeg(image, jpegQuality);
+    }
+
+    /**
+     * @param left left edge of the box as a share of the image width; may be negative.
+     * @param top top edge as a share of the image height; may be negative.
+     * @return the face and its margin as JPEG, cut to the image bounds.
+     */
+    public byte[] crop(BufferedImage image, float left, float top, float width, float height) throws IOException {
+        int imageWidth = image.getWidth();
+        int imageHeight = image.getHeight();
+
+        int x0 = clamp(Math.round((left - width * margin) * imageWidth), imageWidth - 1);
+        int y0 = clamp(Math.round((top - height * margin) * imageHeight), imageHeight - 1);
+        int x1 = clamp(Math.round((left + width * (1 + margin)) * imageWidth), imageWidth);
+        int y1 = clamp(Math.round((top + height * (1 + margin)) * imageHeight), imageHeight);
+
+        // getSubimage shares the raster, encoding reads only the cut out pixels
+        BufferedImage face = image.getSubimage(x0, y0, Math.max(1, x1 - x0), Math.max(1, y1 - y0));
+        return ImagePreprocessor.encodeJpeg(face, jpegQuality);
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(max, value));
+    }
+}
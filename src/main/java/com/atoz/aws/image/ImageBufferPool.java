@@ -0,0 +1,246 @@
+package com.atoz.aws.image;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reusable buffers for uploaded images, so reading a request does not allocate and grow fresh
+ * arrays every time. Buffers come in power of two sizes from {@code minBufferBytes} to
+ * {@code maxBufferBytes} and are picked by the declared content length. At most
+ * {@code maxPooledBytes} of idle buffers are kept; larger images and buffers beyond that bound
+ * are left to the garbage collector.
+ * <p>
+ * A buffer must only be used until it is closed, so it suits calls that are done when they
+ * return. Anything that may keep running afterwards, like work past a deadline, needs its own copy.
+ */
+public class ImageBufferPool {
+    public static final int DEFAULT_MIN_BUFFER_BYTES = 64 * 1024;
+    public static final int DEFAULT_MAX_BUFFER_BYTES = 16 * 1024 * 1024;
+    public static final long DEFAULT_MAX_POOLED_BYTES = 64L * 1024 * 1024;
+
+    // some VMs reserve header words in arrays, larger ones may fail to allocate
+    private static final int MAX_ARRAY_BYTES = Integer.MAX_VALUE - 8;
+
+    private final int minBufferBytes;
+    private final int maxBufferBytes;
+    private final long maxPooledBytes;
+
+    // one queue per size class, index 0 holds minBufferBytes
+    private final ConcurrentLinkedQueue<byte[]>[] free;
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final AtomicInteger borrowed = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param minBufferBytes smallest buffer, rounded up to a power of two.
+     * @param maxBufferBytes images above this are read into buffers of their own.
+     * @param maxPooledBytes bytes of idle buffers kept for reuse.
+     */
+    @SuppressWarnings("unchecked")
+    public ImageBufferPool(int minBufferBytes, int maxBufferBytes, long maxPooledBytes) {
+        if (minBufferBytes <= 0 || maxBufferBytes < minBufferBytes || maxPooledBytes < 0) {
+            throw new IllegalArgumentException("Invalid buffer pool settings: min=" + minBufferBytes
+                    + ", max=" + maxBufferBytes + ", pooled=" + maxPooledBytes);
+        }
+        this.minBufferBytes = roundUp(minBufferBytes);
+        this.maxBufferBytes = maxBufferBytes;
+        this.maxPooledBytes = maxPooledBytes;
+
+        int classes = sizeClass(maxBufferBytes) + 1;
+        free = new ConcurrentLinkedQueue[classes];
+        for (int i = 0; i < classes; i++) {
+            free[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    public ImageBufferPool() {
+        this(DEFAULT_MIN_BUFFER_BYTES, DEFAULT_MAX_BUFFER_BYTES, DEFAULT_MAX_POOLED_BYTES);
+    }
+
+    /**
+     * Reports requests, idle bytes and borrowed buffers. Meters are identified by name only, so
+     * only one pool per registry can be reported.
+     */
+    public void registerMeters(MeterRegistry registry) {
+        FunctionCounter.builder("image.buffer.pool.requests", hits, AtomicLong::get).tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("image.buffer.pool.requests", misses, AtomicLong::get).tag("result", "miss")
+                .register(registry);
+        Gauge.builder("image.buffer.pool.idle.bytes", pooledBytes, AtomicLong::get).register(registry);
+        Gauge.builder("image.buffer.pool.borrowed", borrowed, AtomicInteger::get).register(registry);
+    }
+
+    /**
+     * Reads a stream to the end into a pooled buffer. A read is a hit only when a pooled buffer
+     * was reused and the image fit into it.
+     *
+     * @param contentLength declared length, or -1 when unknown. A stream longer than declared
+     *                      still is read completely.
+     * @throws IOException also when the stream does not fit into an array.
+     */
+    public Buffer read(InputStream inputStream, long contentLength) throws IOException {
+        borrowed.incrementAndGet();
+        Buffer buffer = take(contentLength > 0 && contentLength <= Integer.MAX_VALUE ? (int) contentLength : minBufferBytes);
+        try {
+            byte[] array = buffer.array;
+            int length = 0;
+            while (true) {
+                if (length == array.length) {
+                    int next = inputStream.read();
+                    if (next < 0) {
+                        break;
+                    }
+                    // more than fits: continue in a larger, unpooled array
+                    if (array.length == MAX_ARRAY_BYTES) {
+                        throw new IOException("Image is larger than " + MAX_ARRAY_BYTES + " bytes");
+                    }
+                    array = Arrays.copyOf(array, array.length <= MAX_ARRAY_BYTES / 2 ? array.length * 2 : MAX_ARRAY_BYTES);
+                    array[length++] = (byte) next;
+                }
+                int read = inputStream.read(array, length, array.length - length);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+            }
+            if (array != buffer.array) {
+                buffer.close();
+                borrowed.incrementAndGet();
+                buffer = new Buffer(array, false, false);
+            }
+            (buffer.reused ? hits : misses).incrementAndGet();
+            buffer.length = length;
+            return buffer;
+        } catch (IOException | RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return an empty buffer of at least the given capacity.
+     */
+    public Buffer acquire(int capacity) {
+        borrowed.incrementAndGet();
+        Buffer buffer = take(capacity);
+        (buffer.reused ? hits : misses).incrementAndGet();
+        return buffer;
+    }
+
+    private Buffer take(int capacity) {
+        if (capacity > maxBufferBytes) {
+            return new Buffer(new byte[capacity], false, false);
+        }
+
+        int sizeClass = sizeClass(capacity);
+        byte[] array = free[sizeClass].poll();
+        if (array != null) {
+            pooledBytes.addAndGet(-array.length);
+            return new Buffer(array, true, true);
+        }
+        return new Buffer(new byte[minBufferBytes << sizeClass], true, false);
+    }
+
+    private void release(Buffer buffer) {
+        borrowed.decrementAndGet();
+        if (!buffer.pooled) {
+            return;
+        }
+        int size = buffer.array.length;
+        if (pooledBytes.addAndGet(size) <= maxPooledBytes) {
+            free[sizeClass(size)].offer(buffer.array);
+        } else {
+            pooledBytes.addAndGet(-size);
+        }
+    }
+
+    /**
+     * @return bytes held by idle buffers.
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * @return buffers handed out and not closed yet.
+     */
+    public int getBorrowed() {
+        return borrowed.get();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private int sizeClass(int capacity) {
+        int sizeClass = 0;
+        while ((minBufferBytes << sizeClass) < capacity) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+
+    private static int roundUp(int size) {
+        int highest = Integer.highestOneBit(size);
+        return highest == size ? size : highest << 1;
+    }
+
+    /**
+     * An image in a borrowed array. Closing it gives the array back to the pool.
+     */
+    public final class Buffer implements AutoCloseable {
+        private final byte[] array;
+        private final boolean pooled;
+        // taken from the idle buffers rather than allocated
+        private final boolean reused;
+        private int length;
+        private boolean closed;
+
+        private Buffer(byte[] array, boolean pooled, boolean reused) {
+            this.array = array;
+            this.pooled = pooled;
+            this.reused = reused;
+        }
+
+        /**
+         * @return a view of the image content; the array is shared, not copied.
+         */
+        public ByteBuffer data() {
+            return ByteBuffer.wrap(array, 0, length).slice();
+        }
+
+        /**
+         * @return a stream over the image content, for SDK calls that would copy an array.
+         */
+        public InputStream inputStream() {
+            return new ByteArrayInputStream(array, 0, length);
+        }
+
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.atoz.aws.image;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shrinks images before they are sent to Rekognition. Images are decoded, turned upright according
+ * to their EXIF orientation, scaled so the longest side is at most {@code maxSide} and re-encoded
+ * as JPEG. Images up to {@code minBytes} that are upright and within {@code maxSide}, images that
+ * cannot be decoded and upright images within {@code maxSide} that would not get smaller are
+ * passed through unchanged.
+ * <p>
+ * Bytes saved and processing time of every processed image are recorded in the global meter
+ * registry as {@code image.preprocess.saved.bytes} and {@code image.preprocess.time}.
+ */
+public class ImagePreprocessor {
+    private static final Logger log = LoggerFactory.getLogger(ImagePreprocessor.class);
+
+    private final boolean enabled;
+    private final int maxSide;
+    private final float jpegQuality;
+    private final long minBytes;
+
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong processingNanos = new AtomicLong();
+
+    private final DistributionSummary savedBytesSummary = DistributionSummary.builder("image.preprocess.saved.bytes")
+            .baseUnit("bytes")
+            .register(Metrics.globalRegistry);
+    private final Timer processingTimer = Timer.builder("image.preprocess.time")
+            .register(Metrics.globalRegistry);
+
+    /**
+     * @param enabled false to pass every image through unchanged.
+     * @param maxSide maximum length of the longest side in pixels.
+     * @param jpegQuality JPEG quality between 0 and 1.
+     * @param minBytes images up to this size are only touched when rotated or above {@code maxSide}.
+     */
+    public ImagePreprocessor(boolean enabled, int maxSide, float jpegQuality, long minBytes) {
+        if (maxSide <= 0 || jpegQuality <= 0 || jpegQuality > 1) {
+            throw new IllegalArgumentException("Invalid pre-processing settings: maxSide=" + maxSide
+                    + ", jpegQuality=" + jpegQuality);
+        }
+        this.enabled = enabled;
+        this.maxSide = maxSide;
+        this.jpegQuality = jpegQuality;
+        this.minBytes = minBytes;
+    }
+
+    /**
+     * @return the bytes to send to Rekognition, possibly the given array itself.
+     */
+    public byte[] process(byte[] imageBytes) {
+        return process(ByteBuffer.wrap(imageBytes)).array();
+    }
+
+    /**
+     * Processes the remaining bytes of a heap buffer without copying them.
+     *
+     * @return the bytes to send to Rekognition, possibly the given buffer itself.
+     */
+    public ByteBuffer process(ByteBuffer image) {
+        int length = image.remaining();
+        if (!enabled) {
+            return image;
+        }
+        if (!image.hasArray()) {
+            byte[] copy = new byte[length];
+            image.duplicate().get(copy);
+            image = ByteBuffer.wrap(copy);
+        }
+        byte[] data = image.array();
+        int offset = image.arrayOffset() + image.position();
+
+        // small images are only re-encoded when they are rotated or too large, both read from headers
+        int orientation = readOrientation(data, offset, length);
+        if (length <= minBytes && orientation == 1 && !exceedsMaxSide(data, offset, length)) {
+            return image;
+        }
+
+        long start = System.nanoTime();
+        ByteBuffer result = image;
+        try {
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(data, offset, length));
+            if (decoded == null) {
+                log.debug("Image format not supported, sending {} bytes as received", length);
+            } else {
+                // a rotated or oversized image is sent re-encoded even when that is not smaller
+                boolean changed = orientation != 1 || Math.max(decoded.getWidth(), decoded.getHeight()) > maxSide;
+                byte[] encoded = encodeJpeg(transform(decoded, orientation, maxSide), jpegQuality);
+                if (changed || encoded.length < length) {
+                    result = ByteBuffer.wrap(encoded);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot pre-process image, sending it as received: {}", e.getMessage());
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long saved = length - result.remaining();
+        processedCount.incrementAndGet();
+        bytesSaved.addAndGet(saved);
+        processingNanos.addAndGet(elapsed);
+        savedBytesSummary.record(saved);
+        processingTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        log.debug("Pre-processed image {} -> {} bytes ({} saved) in {} ms", length, result.remaining(), saved,
+                TimeUnit.NANOSECONDS.toMillis(elapsed));
+        return result;
+    }
+
+    /**
+     * Reads the image size from its header without decoding the pixels.
+     *
+     * @return whether the longest side is above {@code maxSide}; false when the size cannot be read.
+     */
+    private boolean exceedsMaxSide(byte[] data, int offset, int length) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(data, offset, length))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return false;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return Math.max(reader.getWidth(0), reader.getHeight(0)) > maxSide;
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Settings that change the processed image, to be made part of result cache keys.
+     */
+    public String signature() {
+        return enabled ? maxSide + "/" + jpegQuality + "/" + minBytes : "off";
+    }
+
+    public long processedCount() {
+        return processedCount.get();
+    }
+
+    public long bytesSaved() {
+        return bytesSaved.get();
+    }
+
+    public long processingNanos() {
+        return processingNanos.get();
+    }
+
+    /**
+     * Reads the EXIF orientation tag (0x0112) of a JPEG.
+     *
+     * @return orientation 1 to 8, or 1 when the image is not a JPEG or has no orientation.
+     */
+    static int readOrientation(byte[] jpeg) {
+        return readOrientation(jpeg, 0, jpeg.length);
+    }
+
+    /**
+     * Reads the EXIF orientation of the JPEG in {@code length} bytes at {@code offset}.
+     */
+    static int readOrientation(byte[] jpeg, int offset, int length) {
+        int end = offset + length;
+        if (length < 4 || (jpeg[offset] & 0xFF) != 0xFF || (jpeg[offset + 1] & 0xFF) != 0xD8) {
+            return 1;
+        }
+
+        int pos = offset + 2;
+        while (pos + 4 <= end && (jpeg[pos] & 0xFF) == 0xFF) {
+            int marker = jpeg[pos + 1] & 0xFF;
+            int segmentLength = readShort(jpeg, pos + 2, false);
+            // EXIF data is stored before the image data starts
+            if (marker == 0xDA || marker == 0xD9 || segmentLength < 2) {
+                break;
+            }
+            int segment = pos + 4;
+            if (marker == 0xE1 && segmentLength >= 8 && segment + 6 <= end
+                    && jpeg[segment] == 'E' && jpeg[segment + 1] == 'x' && jpeg[segment + 2] == 'i'
+                    && jpeg[segment + 3] == 'f') {
+                int orientation = readTiffOrientation(jpeg, segment + 6, Math.min(pos + 2 + segmentLength, end));
+                if (orientation > 0) {
+                    return orientation;
+                }
+            }
+            pos += 2 + segmentLength;
+        }
+        return 1;
+    }
+
+    private static int readTiffOrientation(byte[] data, int tiff, int end) {
+        if (tiff + 8 > end) {
+            return 0;
+        }
+        boolean littleEndian = data[tiff] == 'I' && data[tiff + 1] == 'I';
+        int ifd = tiff + readInt(data, tiff + 4, littleEndian);
+        if (ifd < tiff || ifd + 2 > end) {
+            return 0;
+        }
+
+        int entries = readShort(data, ifd, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                break;
+            }
+            if (readShort(data, entry, littleEndian) == 0x0112) {
+                int orientation = readShort(data, entry + 8, littleEndian);
+                return orientation >= 1 && orientation <= 8 ? orientation : 0;
+            }
+        }
+        return 0;
+    }
+
+    private static int readShort(byte[] data, int pos, boolean littleEndian) {
+        int b0 = data[pos] & 0xFF;
+        int b1 = data[pos + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int readInt(byte[] data, int pos, boolean littleEndian) {
+        int high = readShort(data, littleEndian ? pos + 2 : pos, littleEndian);
+        int low = readShort(data, littleEndian ? pos : pos + 2, littleEndian);
+        return (high << 16) | low;
+    }
+
+    /**
+     * Scales the image to fit {@code maxSide} and applies the EXIF orientation in one drawing pass.
+     */
+    static BufferedImage transform(BufferedImage image, int orientation, int maxSide) {
+        double scale = Math.min(1.0, (double) maxSide / Math.max(image.getWidth(), image.getHeight()));
+        int w = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int h = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        AffineTransform orient;
+        switch (orientation) {
+            case 2: orient = new AffineTransform(-1, 0, 0, 1, w, 0); break;
+            case 3: orient = new AffineTransform(-1, 0, 0, -1, w, h); break;
+            case 4: orient = new AffineTransform(1, 0, 0, -1, 0, h); break;
+            case 5: orient = new AffineTransform(0, 1, 1, 0, 0, 0); break;
+            case 6: orient = new AffineTransform(0, 1, -1, 0, h, 0); break;
+            case 7: orient = new AffineTransform(0, -1, -1, 0, h, w); break;
+            case 8: orient = new AffineTransform(0, -1, 1, 0, 0, w); break;
+            default: orient = new AffineTransform();
+        }
+        orient.concatenate(AffineTransform.getScaleInstance((double) w / image.getWidth(), (double) h / image.getHeight()));
+
+        boolean swap = orientation >= 5;
+        BufferedImage target = new BufferedImage(swap ? h : w, swap ? w : h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, target.getWidth(), target.getHeight());
+            g.drawImage(image, orient, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    static byte[] encodeJpeg(BufferedImage image, float jpegQuality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,123 @@
+package com.atoz.aws.image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Renders JPEG thumbnails whose longest side matches each configured size. The source is decoded
+ * once, subsampled while decoding when it is much larger than the biggest thumbnail.
+ */
+public class ThumbnailGenerator {
+    // bytes kept readable at the start of the stream to find the EXIF orientation
+    private static final int HEADER_BYTES = 128 * 1024;
+
+    private final List<Integer> sizes;
+    private final float jpegQuality;
+
+    public ThumbnailGenerator(List<Integer> sizes, float jpegQuality) {
+        List<Integer> sorted = new ArrayList<>(sizes);
+        Collections.sort(sorted);
+        if (!sorted.isEmpty() && sorted.get(0) <= 0) {
+            throw new IllegalArgumentException("Thumbnail sizes must be positive: " + sizes);
+        }
+        this.sizes = Collections.unmodifiableList(sorted);
+        this.jpegQuality = jpegQuality;
+    }
+
+    /**
+     * Parses a comma separated list of sizes, e.g. "128,256,512".
+     */
+    public static List<Integer> parseSizes(String sizes) {
+        List<Integer> parsed = new ArrayList<>();
+        for (String size : sizes.split(",")) {
+            if (!size.trim().isEmpty()) {
+                parsed.add(Integer.parseInt(size.trim()));
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * @return configured sizes in ascending order.
+     */
+    public List<Integer> getSizes() {
+        return sizes;
+    }
+
+    /**
+     * @return the smallest size at least as large as the requested one, or null when the request
+     * is larger than every thumbnail and the original should be used.
+     */
+    public Integer pickSize(int requested) {
+        for (Integer size : sizes) {
+            if (size >= requested) {
+                return size;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param image image content; read to the end but not closed.
+     * @return thumbnail bytes by size, empty when the image cannot be decoded or no sizes are set.
+     */
+    public Map<Integer, byte[]> generate(InputStream image) throws IOException {
+        Map<Integer, byte[]> thumbnails = new TreeMap<>();
+        if (sizes.isEmpty()) {
+            return thumbnails;
+        }
+
+        BufferedInputStream in = new BufferedInputStream(image, HEADER_BYTES);
+        in.mark(HEADER_BYTES);
+        byte[] header = new byte[HEADER_BYTES];
+        int headerLength = 0;
+        for (int read; headerLength < HEADER_BYTES && (read = in.read(header, headerLength, HEADER_BYTES - headerLength)) != -1; ) {
+            headerLength += read;
+        }
+        in.reset();
+        int orientation = ImagePreprocessor.readOrientation(header);
+
+        BufferedImage source = decode(in, sizes.get(sizes.size() - 1));
+        if (source == null) {
+            return thumbnails;
+        }
+        for (Integer size : sizes) {
+            thumbnails.put(size, ImagePreprocessor.encodeJpeg(ImagePreprocessor.transform(source, orientation, size), jpegQuality));
+        }
+        return thumbnails;
+    }
+
+    private static BufferedImage decode(InputStream in, int largestSize) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+                // keep at least twice the largest thumbnail so downscaling stays smooth
+                int subsampling = Math.max(1, longest / (largestSize * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
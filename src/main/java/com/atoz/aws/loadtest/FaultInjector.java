@@ -0,0 +1,126 @@
+package com.atoz.aws.loadtest;
+
+import org.springframework.core.env.PropertyResolver;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Makes an in-memory AWS stand-in behave like the remote service: every call waits for a latency
+ * drawn from a log-normal distribution, then may fail as throttled or with a server error. Calls
+ * beyond the per-second limit are always throttled.
+ * <p>
+ * Configured per service under {@code loadtest.aws.<service>.*}:
+ * latency.median.millis, latency.p99.millis, throttle.rate, error.rate and tps.limit (0 for none).
+ */
+public class FaultInjector {
+
+    // z-score of the 99th percentile of the standard normal distribution
+    private static final double Z_99 = 2.326;
+
+    private final String service;
+    private final double mu;
+    private final double sigma;
+    private final double throttleRate;
+    private final double errorRate;
+    private final int tpsLimit;
+
+    private long windowStart;
+    private int windowCalls;
+
+    /**
+     * @param latencyMedianMillis median latency; 0 for no latency at all.
+     * @param latencyP99Millis 99th percentile latency, at least the median.
+     * @param throttleRate fraction of calls throttled at random.
+     * @param errorRate fraction of calls failing with a server error.
+     * @param tpsLimit calls allowed per second, 0 for no limit.
+     */
+    public FaultInjector(String service, double latencyMedianMillis, double latencyP99Millis,
+                         double throttleRate, double errorRate, int tpsLimit) {
+        if (latencyP99Millis < latencyMedianMillis) {
+            throw new IllegalArgumentException("p99 latency of " + service + " is below its median");
+        }
+        this.service = service;
+        this.mu = latencyMedianMillis > 0 ? Math.log(latencyMedianMillis) : Double.NEGATIVE_INFINITY;
+        this.sigma = latencyMedianMillis > 0 ? Math.log(latencyP99Millis / latencyMedianMillis) / Z_99 : 0;
+        this.throttleRate = throttleRate;
+        this.errorRate = errorRate;
+        this.tpsLimit = tpsLimit;
+    }
+
+    public static FaultInjector from(PropertyResolver properties, String service) {
+        String prefix = "loadtest.aws." + service + ".";
+        double median = properties.getProperty(prefix + "latency.median.millis", Double.class, 0D);
+        return new FaultInjector(service,
+                median,
+                properties.getProperty(prefix + "latency.p99.millis", Double.class, median),
+                properties.getProperty(prefix + "throttle.rate", Double.class, 0D),
+                properties.getProperty(prefix + "error.rate", Double.class, 0D),
+                properties.getProperty(prefix + "tps.limit", Integer.class, 0));
+    }
+
+    /**
+     * Waits for the call latency, then throws the failure chosen for the call, if any.
+     *
+     * @param failure builds the exception of a failure from its kind.
+     */
+    public void call(String operation, Function<Failure, RuntimeException> failure) {
+        sleep(latencyMillis(ThreadLocalRandom.current()));
+
+        if (!admit(System.nanoTime())) {
+            throw failure.apply(Failure.LIMIT_EXCEEDED);
+        }
+        double draw = ThreadLocalRandom.current().nextDouble();
+        if (draw < throttleRate) {
+            throw failure.apply(Failure.THROTTLED);
+        }
+        if (draw < throttleRate + errorRate) {
+            throw failure.apply(Failure.SERVER_ERROR);
+        }
+    }
+
+    long latencyMillis(Random random) {
+        if (mu == Double.NEGATIVE_INFINITY) {
+            return 0;
+        }
+        return Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+    }
+
+    synchronized boolean admit(long nowNanos) {
+        if (tpsLimit <= 0) {
+            return true;
+        }
+        if (nowNanos - windowStart >= TimeUnit.SECONDS.toNanos(1)) {
+            windowStart = nowNanos;
+            windowCalls = 0;
+        }
+        return ++windowCalls <= tpsLimit;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: latency median %.0f ms, p99 %.0f ms, throttle rate %s, error rate %s, tps limit %d",
+                service, Math.exp(mu), Math.exp(mu + sigma * Z_99), throttleRate, errorRate, tpsLimit);
+    }
+
+    public enum Failure {
+        /** over the per-second limit of the account */
+        LIMIT_EXCEEDED,
+        /** throttled at random */
+        THROTTLED,
+        SERVER_ERROR
+    }
+}
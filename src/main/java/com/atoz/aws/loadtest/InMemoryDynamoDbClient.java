@@ -0,0 +1,175 @@
+package com.atoz.aws.loadtest;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDBClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * DynamoDB stand-in keeping items in memory, for tables with a single hash key. Tables are
+ * created on first write; their key attribute is the one given at creation, or the default key.
+ */
+public class InMemoryDynamoDbClient implements DynamoDBClient {
+
+    private final FaultInjector faults;
+    private final String defaultKeyName;
+
+    // table -> key value -> item
+    private final Map<String, Map<String, Map<String, AttributeValue>>> tables = new ConcurrentHashMap<>();
+    private final Map<String, String> keyNames = new ConcurrentHashMap<>();
+
+    /**
+     * @param defaultKeyName hash key attribute of tables not created through this client.
+     */
+    public InMemoryDynamoDbClient(FaultInjector faults, String defaultKeyName) {
+        this.faults = faults;
+        this.defaultKeyName = defaultKeyName;
+    }
+
+    @Override
+    public GetItemResponse getItem(GetItemRequest request) {
+        call("GetItem");
+        Map<String, AttributeValue> item = table(request.tableName()).get(keyValue(request.key()));
+        return GetItemResponse.builder().item(item).build();
+    }
+
+    @Override
+    public PutItemResponse putItem(PutItemRequest request) {
+        call("PutItem");
+        put(request.tableName(), request.item());
+        return PutItemResponse.builder().build();
+    }
+
+    @Override
+    public DeleteItemResponse deleteItem(DeleteItemRequest request) {
+        call("DeleteItem");
+        table(request.tableName()).remove(keyValue(request.key()));
+        return DeleteItemResponse.builder().build();
+    }
+
+    @Override
+    public BatchGetItemResponse batchGetItem(BatchGetItemRequest request) {
+        call("BatchGetItem");
+        Map<String, List<Map<String, AttributeValue>>> responses = new HashMap<>();
+        for (Map.Entry<String, KeysAndAttributes> entry : request.requestItems().entrySet()) {
+            Map<String, Map<String, AttributeValue>> table = table(entry.getKey());
+            List<Map<String, AttributeValue>> items = new ArrayList<>();
+            for (Map<String, AttributeValue> key : entry.getValue().keys()) {
+                Map<String, AttributeValue> item = table.get(keyValue(key));
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+            responses.put(entry.getKey(), items);
+        }
+        return BatchGetItemResponse.builder()
+                .responses(responses)
+                .unprocessedKeys(Collections.emptyMap())
+                .build();
+    }
+
+    @Override
+    public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+        call("BatchWriteItem");
+        for (Map.Entry<String, List<WriteRequest>> entry : request.requestItems().entrySet()) {
+            for (WriteRequest write : entry.getValue()) {
+                if (write.putRequest() != null) {
+                    put(entry.getKey(), write.putRequest().item());
+                } else if (write.deleteRequest() != null) {
+                    table(entry.getKey()).remove(keyValue(write.deleteRequest().key()));
+                }
+            }
+        }
+        return BatchWriteItemResponse.builder().unprocessedItems(Collections.emptyMap()).build();
+    }
+
+    @Override
+    public CreateTableResponse createTable(CreateTableRequest request) {
+        call("CreateTable");
+        for (KeySchemaElement element : request.keySchema()) {
+            if (element.keyType() == KeyType.HASH) {
+                keyNames.put(request.tableName(), element.attributeName());
+            }
+        }
+        table(request.tableName());
+        return CreateTableResponse.builder().tableDescription(describe(request.tableName())).build();
+    }
+
+    @Override
+    public DeleteTableResponse deleteTable(DeleteTableRequest request) {
+        call("DeleteTable");
+        TableDescription description = describe(request.tableName());
+        tables.remove(request.tableName());
+        keyNames.remove(request.tableName());
+        return DeleteTableResponse.builder().tableDescription(description).build();
+    }
+
+    @Override
+    public ListTablesResponse listTables(ListTablesRequest request) {
+        call("ListTables");
+        List<String> names = new ArrayList<>(tables.keySet());
+        Collections.sort(names);
+        if (request.limit() != null && names.size() > request.limit()) {
+            names = names.subList(0, request.limit());
+        }
+        return ListTablesResponse.builder().tableNames(names).build();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public int itemCount(String tableName) {
+        return table(tableName).size();
+    }
+
+    private void put(String tableName, Map<String, AttributeValue> item) {
+        String keyName = keyNames.getOrDefault(tableName, defaultKeyName);
+        AttributeValue key = item.get(keyName);
+        if (key == null) {
+            throw error(new DynamoDBException("One of the required keys was not given a value"), "ValidationException", 400);
+        }
+        table(tableName).put(keyValue(Collections.singletonMap(keyName, key)), new HashMap<>(item));
+    }
+
+    private Map<String, Map<String, AttributeValue>> table(String tableName) {
+        return tables.computeIfAbsent(tableName, name -> new ConcurrentHashMap<>());
+    }
+
+    private TableDescription describe(String tableName) {
+        return TableDescription.builder()
+                .tableName(tableName)
+                .itemCount((long) table(tableName).size())
+                .build();
+    }
+
+    private void call(String operation) {
+        faults.call(operation, failure -> {
+            switch (failure) {
+                case LIMIT_EXCEEDED:
+                case THROTTLED:
+                    return error(new ProvisionedThroughputExceededException("The level of configured provisioned throughput for the table was exceeded."),
+                            "ProvisionedThroughputExceededException", 400);
+                default:
+                    return error(new DynamoDBException("Internal server error"), "InternalServerError", 500);
+            }
+        });
+    }
+
+    private static DynamoDBException error(DynamoDBException e, String errorCode, int status) {
+        e.setErrorCode(errorCode);
+        e.setStatusCode(status);
+        e.setServiceName("DynamoDB");
+        return e;
+    }
+
+    private static String keyValue(Map<String, AttributeValue> key) {
+        AttributeValue value = key.values().iterator().next();
+        return value.s() != null ? value.s() : value.n();
+    }
+}
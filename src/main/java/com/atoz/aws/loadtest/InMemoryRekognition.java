@@ -0,0 +1,197 @@
+package com.atoz.aws.loadtest;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.rekognition.AbstractAmazonRekognition;
+import com.amazonaws.services.rekognition.model.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rekognition stand-in. Every image holds one face; a search matches the faces indexed from an
+ * image with the same content, so replaying indexed images gives hits and other images misses.
+ * Collections are created on first use.
+ */
+public class InMemoryRekognition extends AbstractAmazonRekognition {
+
+    private static final float MATCH_SIMILARITY = 99.5F;
+    private static final float FACE_CONFIDENCE = 99.9F;
+
+    private static final String[] LABELS = {"Person", "Human", "Face", "Portrait", "Head"};
+
+    private final FaultInjector faults;
+
+    // collection -> face id -> content hash of the indexed image
+    private final Map<String, Map<String, Integer>> collections = new ConcurrentHashMap<>();
+
+    public InMemoryRekognition(FaultInjector faults) {
+        this.faults = faults;
+    }
+
+    @Override
+    public IndexFacesResult indexFaces(IndexFacesRequest request) {
+        call("IndexFaces");
+        String faceId = UUID.randomUUID().toString();
+        collection(request.getCollectionId()).put(faceId, contentHash(request.getImage()));
+
+        Face face = new Face()
+                .withFaceId(faceId)
+                .withImageId(UUID.randomUUID().toString())
+                .withExternalImageId(request.getExternalImageId())
+                .withBoundingBox(faceBox())
+                .withConfidence(FACE_CONFIDENCE);
+        return new IndexFacesResult().withFaceRecords(new FaceRecord().withFace(face).withFaceDetail(faceDetail()));
+    }
+
+    @Override
+    public SearchFacesByImageResult searchFacesByImage(SearchFacesByImageRequest request) {
+        call("SearchFacesByImage");
+        int hash = contentHash(request.getImage());
+        float threshold = request.getFaceMatchThreshold() != null ? request.getFaceMatchThreshold() : 80F;
+        int maxFaces = request.getMaxFaces() != null ? request.getMaxFaces() : Integer.MAX_VALUE;
+
+        List<FaceMatch> matches = new ArrayList<>();
+        if (MATCH_SIMILARITY >= threshold) {
+            for (Map.Entry<String, Integer> face : collection(request.getCollectionId()).entrySet()) {
+                if (matches.size() >= maxFaces) {
+                    break;
+                }
+                if (face.getValue() == hash) {
+                    matches.add(new FaceMatch()
+                            .withSimilarity(MATCH_SIMILARITY)
+                            .withFace(new Face().withFaceId(face.getKey()).withBoundingBox(faceBox()).withConfidence(FACE_CONFIDENCE)));
+                }
+            }
+        }
+        return new SearchFacesByImageResult()
+                .withSearchedFaceBoundingBox(faceBox())
+                .withSearchedFaceConfidence(FACE_CONFIDENCE)
+                .withFaceMatches(matches);
+    }
+
+    @Override
+    public DetectFacesResult detectFaces(DetectFacesRequest request) {
+        call("DetectFaces");
+        return new DetectFacesResult().withFaceDetails(faceDetail());
+    }
+
+    @Override
+    public DetectLabelsResult detectLabels(DetectLabelsRequest request) {
+        call("DetectLabels");
+        int maxLabels = request.getMaxLabels() != null ? request.getMaxLabels() : LABELS.length;
+        List<Label> labels = new ArrayList<>();
+        for (int i = 0; i < Math.min(maxLabels, LABELS.length); i++) {
+            labels.add(new Label().withName(LABELS[i]).withConfidence(99F - i));
+        }
+        return new DetectLabelsResult().withLabels(labels);
+    }
+
+    @Override
+    public DeleteFacesResult deleteFaces(DeleteFacesRequest request) {
+        call("DeleteFaces");
+        Map<String, Integer> faces = collection(request.getCollectionId());
+        List<String> deleted = new ArrayList<>();
+        for (String faceId : request.getFaceIds()) {
+            if (faces.remove(faceId) != null) {
+                deleted.add(faceId);
+            }
+        }
+        return new DeleteFacesResult().withDeletedFaces(deleted);
+    }
+
+    @Override
+    public ListFacesResult listFaces(ListFacesRequest request) {
+        call("ListFaces");
+        List<String> faceIds = new ArrayList<>(collection(request.getCollectionId()).keySet());
+        Collections.sort(faceIds);
+        int from = request.getNextToken() != null ? Integer.parseInt(request.getNextToken()) : 0;
+        int to = request.getMaxResults() != null ? Math.min(faceIds.size(), from + request.getMaxResults()) : faceIds.size();
+
+        List<Face> faces = new ArrayList<>();
+        for (String faceId : faceIds.subList(Math.min(from, to), to)) {
+            faces.add(new Face().withFaceId(faceId).withBoundingBox(faceBox()).withConfidence(FACE_CONFIDENCE));
+        }
+        return new ListFacesResult().withFaces(faces).withNextToken(to < faceIds.size() ? String.valueOf(to) : null);
+    }
+
+    @Override
+    public CreateCollectionResult createCollection(CreateCollectionRequest request) {
+        call("CreateCollection");
+        if (collections.putIfAbsent(request.getCollectionId(), new ConcurrentHashMap<>()) != null) {
+            throw error(new ResourceAlreadyExistsException("The collection id: " + request.getCollectionId() + " already exists"),
+                    "ResourceAlreadyExistsException", 400);
+        }
+        return new CreateCollectionResult().withStatusCode(200).withCollectionArn("aws:rekognition:local:collection/" + request.getCollectionId());
+    }
+
+    @Override
+    public DeleteCollectionResult deleteCollection(DeleteCollectionRequest request) {
+        call("DeleteCollection");
+        collections.remove(request.getCollectionId());
+        return new DeleteCollectionResult().withStatusCode(200);
+    }
+
+    @Override
+    public ListCollectionsResult listCollections(ListCollectionsRequest request) {
+        call("ListCollections");
+        List<String> ids = new ArrayList<>(collections.keySet());
+        if (request.getMaxResults() != null && ids.size() > request.getMaxResults()) {
+            ids = ids.subList(0, request.getMaxResults());
+        }
+        return new ListCollectionsResult().withCollectionIds(ids);
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    public int faceCount(String collectionId) {
+        return collection(collectionId).size();
+    }
+
+    private Map<String, Integer> collection(String collectionId) {
+        return collections.computeIfAbsent(collectionId, id -> new ConcurrentHashMap<>());
+    }
+
+    private void call(String operation) {
+        faults.call(operation, failure -> {
+            switch (failure) {
+                case LIMIT_EXCEEDED:
+                    return error(new ProvisionedThroughputExceededException("Provisioned rate exceeded."),
+                            "ProvisionedThroughputExceededException", 400);
+                case THROTTLED:
+                    return error(new ThrottlingException("Rate exceeded."), "ThrottlingException", 500);
+                default:
+                    return error(new InternalServerErrorException("Internal server error."), "InternalServerError", 500);
+            }
+        });
+    }
+
+    private static <T extends AmazonServiceException> T error(T e, String errorCode, int status) {
+        e.setErrorCode(errorCode);
+        e.setStatusCode(status);
+        e.setServiceName("AmazonRekognition");
+        return e;
+    }
+
+    private static int contentHash(Image image) {
+        ByteBuffer bytes = image.getBytes().duplicate();
+        byte[] content = new byte[bytes.remaining()];
+        bytes.get(content);
+        return Arrays.hashCode(content);
+    }
+
+    private static BoundingBox faceBox() {
+        return new BoundingBox().withLeft(0.3F).withTop(0.2F).withWidth(0.4F).withHeight(0.5F);
+    }
+
+    private static FaceDetail faceDetail() {
+        return new FaceDetail().withBoundingBox(faceBox()).withConfidence(FACE_CONFIDENCE);
+    }
+}
@@ -0,0 +1,273 @@
+package com.atoz.aws.loadtest;
+
+import com.amazonaws.util.IOUtils;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.sync.RequestBody;
+import software.amazon.awssdk.sync.StreamingResponseHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * S3 stand-in keeping objects in memory. Supports the calls made by {@code S3AccessService}:
+ * put, get, head and delete of objects, multipart uploads and bucket listing.
+ */
+public class InMemoryS3Client implements S3Client {
+
+    private final FaultInjector faults;
+
+    // bucket/key -> object
+    private final Map<String, StoredObject> objects = new ConcurrentHashMap<>();
+
+    // upload id -> part number -> content
+    private final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final Map<String, String> uploadContentTypes = new ConcurrentHashMap<>();
+
+    private final Set<String> buckets = ConcurrentHashMap.newKeySet();
+
+    public InMemoryS3Client(FaultInjector faults) {
+        this.faults = faults;
+    }
+
+    @Override
+    public PutObjectResponse putObject(PutObjectRequest request, RequestBody requestBody) {
+        call("PutObject");
+        StoredObject object = new StoredObject(read(requestBody), request.metadata(), request.contentType());
+        objects.put(path(request.bucket(), request.key()), object);
+        buckets.add(request.bucket());
+        return PutObjectResponse.builder().eTag(object.eTag).build();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <ReturnT> ReturnT getObject(GetObjectRequest request, StreamingResponseHandler handler) {
+        call("GetObject");
+        StoredObject object = objects.get(path(request.bucket(), request.key()));
+        if (object == null) {
+            NoSuchKeyException e = NoSuchKeyException.builder().message("The specified key does not exist.").build();
+            e.setStatusCode(404);
+            e.setErrorCode("NoSuchKey");
+            throw e;
+        }
+
+        if (request.ifNoneMatch() != null && request.ifNoneMatch().equals(object.eTag)) {
+            S3Exception e = error("NotModified", 304, "Not Modified");
+            e.setHttpHeaders(Collections.singletonMap("ETag", object.eTag));
+            throw e;
+        }
+
+        int from = 0;
+        int to = object.content.length - 1;
+        String contentRange = null;
+        if (request.range() != null) {
+            String[] bounds = request.range().substring("bytes=".length()).split("-", -1);
+            if (bounds[0].isEmpty()) {
+                from = Math.max(0, object.content.length - Integer.parseInt(bounds[1]));
+            } else {
+                from = Integer.parseInt(bounds[0]);
+                if (!bounds[1].isEmpty()) {
+                    to = Math.min(to, Integer.parseInt(bounds[1]));
+                }
+            }
+            if (from >= object.content.length) {
+                throw error("InvalidRange", 416, "The requested range is not satisfiable");
+            }
+            contentRange = "bytes " + from + "-" + to + "/" + object.content.length;
+        }
+
+        GetObjectResponse response = GetObjectResponse.builder()
+                .contentLength((long) (to - from + 1))
+                .contentRange(contentRange)
+                .eTag(object.eTag)
+                .metadata(object.metadata)
+                .contentType(object.contentType)
+                .build();
+        try {
+            return (ReturnT) handler.apply(response,
+                    new AbortableInputStream(new ByteArrayInputStream(object.content, from, to - from + 1), () -> { }));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public HeadObjectResponse headObject(HeadObjectRequest request) {
+        call("HeadObject");
+        StoredObject object = objects.get(path(request.bucket(), request.key()));
+        if (object == null) {
+            // HEAD responses carry no error body
+            throw error(null, 404, "Not Found");
+        }
+        return HeadObjectResponse.builder()
+                .contentLength((long) object.content.length)
+                .eTag(object.eTag)
+                .metadata(object.metadata)
+                .contentType(object.contentType)
+                .build();
+    }
+
+    @Override
+    public DeleteObjectResponse deleteObject(DeleteObjectRequest request) {
+        call("DeleteObject");
+        objects.remove(path(request.bucket(), request.key()));
+        return DeleteObjectResponse.builder().build();
+    }
+
+    @Override
+    public CreateMultipartUploadResponse createMultipartUpload(CreateMultipartUploadRequest request) {
+        call("CreateMultipartUpload");
+        String uploadId = UUID.randomUUID().toString();
+        uploads.put(uploadId, new ConcurrentSkipListMap<>());
+        if (request.contentType() != null) {
+            uploadContentTypes.put(uploadId, request.contentType());
+        }
+        return CreateMultipartUploadResponse.builder()
+                .bucket(request.bucket())
+                .key(request.key())
+                .uploadId(uploadId)
+                .build();
+    }
+
+    @Override
+    public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody requestBody) {
+        call("UploadPart");
+        byte[] content = read(requestBody);
+        uploadParts(request.uploadId()).put(request.partNumber(), content);
+        return UploadPartResponse.builder().eTag(StoredObject.eTag(content)).build();
+    }
+
+    @Override
+    public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        call("CompleteMultipartUpload");
+        Map<Integer, byte[]> parts = uploadParts(request.uploadId());
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (CompletedPart part : request.multipartUpload().parts()) {
+            byte[] partContent = parts.get(part.partNumber());
+            if (partContent == null) {
+                throw error("InvalidPart", 400, "Part " + part.partNumber() + " was not uploaded");
+            }
+            content.write(partContent, 0, partContent.length);
+        }
+        uploads.remove(request.uploadId());
+
+        StoredObject object = new StoredObject(content.toByteArray(), null, uploadContentTypes.remove(request.uploadId()));
+        objects.put(path(request.bucket(), request.key()), object);
+        buckets.add(request.bucket());
+        return CompleteMultipartUploadResponse.builder()
+                .bucket(request.bucket())
+                .key(request.key())
+                .eTag(object.eTag)
+                .build();
+    }
+
+    @Override
+    public AbortMultipartUploadResponse abortMultipartUpload(AbortMultipartUploadRequest request) {
+        call("AbortMultipartUpload");
+        uploads.remove(request.uploadId());
+        uploadContentTypes.remove(request.uploadId());
+        return AbortMultipartUploadResponse.builder().build();
+    }
+
+    @Override
+    public ListBucketsResponse listBuckets(ListBucketsRequest request) {
+        call("ListBuckets");
+        List<Bucket> list = new ArrayList<>();
+        for (String name : buckets) {
+            list.add(Bucket.builder().name(name).build());
+        }
+        return ListBucketsResponse.builder().buckets(list).build();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public int objectCount() {
+        return objects.size();
+    }
+
+    /**
+     * @return multipart uploads neither completed nor aborted.
+     */
+    public int uploadCount() {
+        return uploads.size();
+    }
+
+    private void call(String operation) {
+        faults.call(operation, failure -> {
+            switch (failure) {
+                case LIMIT_EXCEEDED:
+                case THROTTLED:
+                    return error("SlowDown", 503, "Please reduce your request rate.");
+                default:
+                    return error("InternalError", 500, "We encountered an internal error. Please try again.");
+            }
+        });
+    }
+
+    private Map<Integer, byte[]> uploadParts(String uploadId) {
+        Map<Integer, byte[]> parts = uploads.get(uploadId);
+        if (parts == null) {
+            NoSuchUploadException e = NoSuchUploadException.builder().message("The specified upload does not exist.").build();
+            e.setStatusCode(404);
+            e.setErrorCode("NoSuchUpload");
+            throw e;
+        }
+        return parts;
+    }
+
+    private static S3Exception error(String errorCode, int status, String message) {
+        S3Exception e = new S3Exception(message);
+        e.setErrorCode(errorCode);
+        e.setStatusCode(status);
+        e.setServiceName("S3");
+        return e;
+    }
+
+    private static byte[] read(RequestBody requestBody) {
+        try (InputStream in = requestBody.asStream()) {
+            return IOUtils.toByteArray(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String path(String bucket, String key) {
+        return bucket + "/" + key;
+    }
+
+    private static class StoredObject {
+        final byte[] content;
+        final Map<String, String> metadata;
+        final String contentType;
+        final String eTag;
+
+        StoredObject(byte[] content, Map<String, String> metadata, String contentType) {
+            this.content = content;
+            this.contentType = contentType;
+            this.metadata = metadata != null ? Collections.unmodifiableMap(new HashMap<>(metadata)) : Collections.emptyMap();
+            this.eTag = eTag(content);
+        }
+
+        static String eTag(byte[] content) {
+            return "\"" + Integer.toHexString(Arrays.hashCode(content)) + "\"";
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.atoz.aws.loadtest;
+
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.config.S3UrlPresigner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.auth.AwsCredentials;
+import software.amazon.awssdk.auth.StaticCredentialsProvider;
+
+/**
+ * Replaces every AWS client with an in-memory stand-in under the "loadtest" profile, so the real
+ * endpoints can be load tested offline. The stand-ins are put into the client registry as soon as
+ * it is created, before any service takes its clients. Latency and failures of each service are
+ * set under {@code loadtest.aws.<service>.*}, see {@link FaultInjector}.
+ */
+@Component
+@Profile("loadtest")
+public class LoadTestAwsClients implements BeanPostProcessor {
+    private static final Logger log = LoggerFactory.getLogger(LoadTestAwsClients.class);
+
+    private final Environment properties;
+
+    public LoadTestAwsClients(Environment properties) {
+        this.properties = properties;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof AwsClientRegistry) {
+            install((AwsClientRegistry) bean);
+        }
+        return bean;
+    }
+
+    private void install(AwsClientRegistry registry) {
+        FaultInjector s3Faults = FaultInjector.from(properties, "s3");
+        FaultInjector dynamoDbFaults = FaultInjector.from(properties, "dynamodb");
+        FaultInjector rekognitionFaults = FaultInjector.from(properties, "rekognition");
+
+        registry.setS3(new InMemoryS3Client(s3Faults));
+        registry.setDynamoDb(new InMemoryDynamoDbClient(dynamoDbFaults, properties.getProperty("aws.dynamoDb.table.key")));
+        registry.setRekognition(new InMemoryRekognition(rekognitionFaults));
+        // URLs are signed as usual but with made-up credentials, nothing serves them
+        registry.setS3Presigner(new S3UrlPresigner(new StaticCredentialsProvider(new AwsCredentials("loadtest", "loadtest")),
+                "us-east-1", null));
+
+        log.warn("Load test profile: AWS clients replaced by in-memory stand-ins");
+        log.info("Stand-in {}", s3Faults);
+        log.info("Stand-in {}", dynamoDbFaults);
+        log.info("Stand-in {}", rekognitionFaults);
+    }
+}
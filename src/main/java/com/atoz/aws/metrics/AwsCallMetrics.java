@@ -0,0 +1,119 @@
+package com.atoz.aws.metrics;
+
+import com.atoz.aws.throttle.AwsErrors;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Times AWS calls and records their payload sizes. Timers are tagged with service, operation,
+ * outcome and exception, and publish percentile histograms. Meters go to the global registry,
+ * which Spring Boot backs with the application's registries, so services built outside Spring
+ * are measured as well.
+ */
+public final class AwsCallMetrics {
+    public static final String CALLS = "aws.client.calls";
+    public static final String REQUEST_BYTES = "aws.client.request.bytes";
+    public static final String RESPONSE_BYTES = "aws.client.response.bytes";
+
+    public static final String S3 = "s3";
+    public static final String DYNAMODB = "dynamodb";
+    public static final String REKOGNITION = "rekognition";
+
+    private static MeterRegistry registry = Metrics.globalRegistry;
+
+    private AwsCallMetrics() {
+    }
+
+    static void setRegistry(MeterRegistry meterRegistry) {
+        registry = meterRegistry;
+    }
+
+    public static <T> T time(String service, String operation, Supplier<T> call) {
+        long start = System.nanoTime();
+        try {
+            T result = call.get();
+            record(service, operation, start, null);
+            return result;
+        } catch (RuntimeException e) {
+            record(service, operation, start, e);
+            throw e;
+        }
+    }
+
+    public static void run(String service, String operation, Runnable call) {
+        time(service, operation, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * Times an async call from its start until the returned future completes.
+     */
+    public static <T> CompletableFuture<T> timeAsync(String service, String operation, Supplier<CompletableFuture<T>> call) {
+        long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            record(service, operation, start, e);
+            throw e;
+        }
+        return future.whenComplete((result, error) ->
+                record(service, operation, start, error instanceof CompletionException ? error.getCause() : error));
+    }
+
+    public static void requestBytes(String service, String operation, long bytes) {
+        bytesSummary(REQUEST_BYTES, service, operation).record(bytes);
+    }
+
+    public static void responseBytes(String service, String operation, long bytes) {
+        bytesSummary(RESPONSE_BYTES, service, operation).record(bytes);
+    }
+
+    /**
+     * @return SUCCESS, THROTTLED, CLIENT_ERROR, SERVER_ERROR, or ERROR when no response was received.
+     */
+    static String outcome(Throwable error) {
+        if (error == null) {
+            return "SUCCESS";
+        }
+        if (!AwsErrors.isServiceError(error)) {
+            return "ERROR";
+        }
+        if (AwsErrors.isThrottling(error)) {
+            return "THROTTLED";
+        }
+        return AwsErrors.isServerError(error) ? "SERVER_ERROR" : "CLIENT_ERROR";
+    }
+
+    private static void record(String service, String operation, long start, Throwable error) {
+        Timer.builder(CALLS)
+                .tag("service", service)
+                .tag("operation", operation)
+                .tag("outcome", outcome(error))
+                .tag("exception", error == null ? "None" : error.getClass().getSimpleName())
+                .publishPercentileHistogram()
+                .maximumExpectedValue(Duration.ofSeconds(60))
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private static DistributionSummary bytesSummary(String name, String service, String operation) {
+        return DistributionSummary.builder(name)
+                .baseUnit("bytes")
+                .tag("service", service)
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .maximumExpectedValue(64L * 1024 * 1024)
+                .register(registry);
+    }
+}
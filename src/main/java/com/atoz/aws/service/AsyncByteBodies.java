@@ -0,0 +1,104 @@
+package com.atoz.aws.service;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.async.AsyncRequestProvider;
+import software.amazon.awssdk.async.AsyncResponseHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Request and response bodies held in memory, for the async S3 client.
+ */
+final class AsyncByteBodies {
+
+    private AsyncByteBodies() {
+    }
+
+    static AsyncRequestProvider fromBytes(byte[] bytes) {
+        return new AsyncRequestProvider() {
+            @Override
+            public long contentLength() {
+                return bytes.length;
+            }
+
+            @Override
+            public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+                AtomicBoolean done = new AtomicBoolean();
+                subscriber.onSubscribe(new Subscription() {
+                    @Override
+                    public void request(long n) {
+                        if (n > 0 && done.compareAndSet(false, true)) {
+                            subscriber.onNext(ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+                            subscriber.onComplete();
+                        }
+                    }
+
+                    @Override
+                    public void cancel() {
+                        done.set(true);
+                    }
+                });
+            }
+        };
+    }
+
+    static <ResponseT> AsyncResponseHandler<ResponseT, byte[]> toBytes() {
+        return new AsyncResponseHandler<ResponseT, byte[]>() {
+            private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+            @Override
+            public void responseReceived(ResponseT response) {
+            }
+
+            @Override
+            public void onStream(Publisher<ByteBuffer> publisher) {
+                publisher.subscribe(new Subscriber<ByteBuffer>() {
+                    private Subscription subscription;
+
+                    @Override
+                    public void onSubscribe(Subscription s) {
+                        subscription = s;
+                        s.request(1);
+                    }
+
+                    @Override
+                    public void onNext(ByteBuffer buffer) {
+                        synchronized (content) {
+                            if (buffer.hasArray()) {
+                                content.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                            } else {
+                                byte[] chunk = new byte[buffer.remaining()];
+                                buffer.get(chunk);
+                                content.write(chunk, 0, chunk.length);
+                            }
+                        }
+                        subscription.request(1);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                    }
+
+                    @Override
+                    public void onComplete() {
+                    }
+                });
+            }
+
+            @Override
+            public void exceptionOccurred(Throwable throwable) {
+            }
+
+            @Override
+            public byte[] complete() {
+                synchronized (content) {
+                    return content.toByteArray();
+                }
+            }
+        };
+    }
+}
@@ -1,25 +1,52 @@
 package com.atoz.aws.service;
 
+import javax.annotation.PostConstruct;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import com.atoz.aws.cache.ImageResultCache;
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.config.ExecutorConfig;
+import com.atoz.aws.image.ImageBufferPool;
+import com.atoz.aws.image.ImagePreprocessor;
+import com.atoz.aws.metrics.AwsCallMetrics;
+import io.micrometer.core.instrument.Metrics;
+import com.atoz.aws.throttle.CallLimiter;
 import com.amazonaws.services.rekognition.AmazonRekognition;
-import com.amazonaws.services.rekognition.AmazonRekognitionClientBuilder;
 import com.amazonaws.services.rekognition.model.*;
 import com.amazonaws.util.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 
 @Service
+@DependsOn("awsClientRegistry")
 public class AtoZImageRekognitionService {
     private static final Logger log = LoggerFactory.getLogger(AtoZImageRekognitionService.class);
 
@@ -29,31 +56,163 @@ public class AtoZImageRekognitionService {
     @Value("${aws.rekognition.image.collection}")
     private String imageCollection;
 
+    @Value("${aws.rekognition.image.collections:}")
+    private String imageCollections = "";
+
+    @Value("${aws.rekognition.cache.memory.max.size:1000}")
+    private int cacheMemoryMaxSize = 1000;
+
+    @Value("${aws.rekognition.cache.ttl.seconds:3600}")
+    private long cacheTtlSeconds = 3600;
+
+    @Value("${aws.rekognition.cache.disk.dir:}")
+    private String cacheDiskDir;
+
+    @Value("${aws.rekognition.cache.disk.max.mb:256}")
+    private long cacheDiskMaxMb = 256;
+
+    @Value("${aws.rekognition.preprocess.enabled:true}")
+    private boolean preprocessEnabled = true;
+
+    @Value("${aws.rekognition.preprocess.max.side:1920}")
+    private int preprocessMaxSide = 1920;
+
+    @Value("${aws.rekognition.preprocess.jpeg.quality:0.85}")
+    private float preprocessJpegQuality = 0.85F;
+
+    @Value("${aws.rekognition.preprocess.min.bytes:1048576}")
+    private long preprocessMinBytes = 1048576;
+
+    @Value("${aws.rekognition.match.top.k:10}")
+    private int matchTopK = 10;
+
+    @Value("${aws.rekognition.match.min.similarity:80}")
+    private float matchMinSimilarity = 80;
+
+    @Value("${aws.rekognition.limiter.enabled:true}")
+    private boolean limiterEnabled = true;
+
+    @Value("${aws.rekognition.limiter.tps:50}")
+    private double limiterTps = 50;
+
+    @Value("${aws.rekognition.limiter.operation.tps:}")
+    private String limiterOperationTps = "";
+
+    @Value("${aws.rekognition.limiter.max.concurrency:32}")
+    private int limiterMaxConcurrency = 32;
+
+    @Value("${aws.rekognition.limiter.max.queued:200}")
+    private int limiterMaxQueued = 200;
+
+    @Value("${aws.rekognition.limiter.deadline.millis:10000}")
+    private long limiterDeadlineMillis = 10000;
+
+    @Value("${aws.rekognition.limiter.backoff.base.millis:100}")
+    private long limiterBackoffBaseMillis = 100;
+
+    @Value("${aws.rekognition.limiter.backoff.max.millis:2000}")
+    private long limiterBackoffMaxMillis = 2000;
+
+    @Value("${aws.rekognition.limiter.max.attempts:6}")
+    private int limiterMaxAttempts = 6;
+
+    // Result cache operation names
+    private static final String OP_MATCH = "match";
+    private static final String OP_LABELS = "labels";
+    private static final String OP_FACES = "faces";
+
+    private static final int MAX_LABELS = 100;
+    // largest MaxFaces SearchFacesByImage accepts
+    public static final int MAX_TOP_K = 4096;
+    private static final int LIST_FACES_PAGE_SIZE = 4096;
+    private static final float MIN_LABEL_CONFIDENCE = 60.0F;
+    // a face searched with the image it was indexed from matches itself at about 100 percent
+    private static final float SAME_FACE_MIN_SIMILARITY = 95.0F;
+
     private final AmazonRekognition client;
 
+    private ImageResultCache resultCache;
+
+    private ImagePreprocessor preprocessor;
+
+    private CallLimiter limiter;
+
+    private CollectionShards shards;
+
+    @Autowired(required = false)
+    @Qualifier("rekognitionExecutor")
+    private ExecutorService rekognitionExecutor;
+
+    @Autowired(required = false)
+    private ImageBufferPool bufferPool;
+
     public AtoZImageRekognitionService() {
-        client = AmazonRekognitionClientBuilder.defaultClient();
+        client = AwsClientRegistry.getInstance().rekognition();
+        resultCache = newResultCache();
+        initPreprocessor();
+        initLimiter();
+        initShards();
     }
 
     public AtoZImageRekognitionService(String imageCollection) {
         this.imageCollection = imageCollection;
-        this.client = AmazonRekognitionClientBuilder.defaultClient();
+        this.client = AwsClientRegistry.getInstance().rekognition();
+        resultCache = newResultCache();
+        initPreprocessor();
+        initLimiter();
+        initShards();
     }
 
-    public void imageIndex(File file, String name) throws Exception {
-        Image image = getImageFromFile(file);
+    /**
+     * Rebuilds the result cache once the configured sizes and disk location have been injected,
+     * and reports it in the metrics.
+     */
+    @PostConstruct
+    public void initResultCache() {
+        resultCache = newResultCache();
+        resultCache.registerMeters(Metrics.globalRegistry);
+    }
+
+    private ImageResultCache newResultCache() {
+        Path diskDir = StringUtils.isEmpty(cacheDiskDir) ? null : Paths.get(cacheDiskDir);
+        return new ImageResultCache(cacheMemoryMaxSize, cacheTtlSeconds, diskDir, cacheDiskMaxMb * 1024 * 1024);
+    }
+
+    /**
+     * Rebuilds the image pre-processor once its settings have been injected.
+     */
+    @PostConstruct
+    public void initPreprocessor() {
+        preprocessor = new ImagePreprocessor(preprocessEnabled, preprocessMaxSide, preprocessJpegQuality, preprocessMinBytes);
+    }
+
+    /**
+     * Rebuilds the Rekognition call limiter once its quotas have been injected.
+     */
+    @PostConstruct
+    public void initLimiter() {
+        limiter = new CallLimiter(AwsCallMetrics.REKOGNITION, limiterTps, CallLimiter.parseRates(limiterOperationTps),
+                limiterMaxConcurrency, limiterMaxQueued, limiterDeadlineMillis,
+                limiterBackoffBaseMillis, limiterBackoffMaxMillis, limiterMaxAttempts);
+    }
+
+    /**
+     * Spreads faces over the listed collections, or keeps them in the single collection when none
+     * are listed.
+     */
+    @PostConstruct
+    public void initShards() {
+        shards = CollectionShards.parse(imageCollections, imageCollection);
+        if (shards.size() > 1) {
+            log.info("Faces are spread over collections {}", shards.getCollections());
+        }
+    }
 
-        IndexFacesRequest indexRequest = new IndexFacesRequest().withImage(image).withCollectionId(imageCollection);
-        IndexFacesResult indexResults = client.indexFaces(indexRequest);
-        List<FaceRecord> faceRecs = indexResults.getFaceRecords();
+    public void imageIndex(File file, String name) throws Exception {
+        List<FaceRecord> faceRecs = indexFaces(ByteBuffer.wrap(readImageFile(file)), name);
         if (faceRecs.isEmpty()) {
             log.info("No image indexed from image file: {}", file.getAbsolutePath());
         } else {
-            // only index the largest face in the image
-            for (FaceRecord face : faceRecs) {
-                dynamoService.putItem(face.getFace().getFaceId(),
-                        buildExtraDbItemAttributes(dynamoService.getAttrFullName(), name));
-            }
             log.info("{} FaceIds are indexed from the imdage file {}", faceRecs.size(), file.getAbsolutePath());
         }
     }
@@ -64,93 +223,242 @@ public class AtoZImageRekognitionService {
      * @throws Exception
      */
     public void imageIndex(InputStream inputStream, String name) throws Exception {
-        ByteBuffer imageBytes = ByteBuffer.wrap(IOUtils.toByteArray(inputStream));
-        Image image = new Image().withBytes(imageBytes);
+        imageIndex(inputStream, -1, name);
+    }
 
-        IndexFacesRequest indexRequest = new IndexFacesRequest().withImage(image).withCollectionId(imageCollection);
-        IndexFacesResult indexResults = client.indexFaces(indexRequest);
-        List<FaceRecord> faceRecs = indexResults.getFaceRecords();
-        if (faceRecs.isEmpty()) {
-            log.info("No image indexed");
-        } else {
-            for (FaceRecord face : faceRecs) {
-                dynamoService.putItem(face.getFace().getFaceId(),
-                        buildExtraDbItemAttributes(dynamoService.getAttrFullName(), name));
+    /**
+     * Reads the image into a pooled buffer, given back once the faces are indexed.
+     *
+     * @param contentLength declared length of the image, or -1 when unknown.
+     */
+    public void imageIndex(InputStream inputStream, long contentLength, String name) throws Exception {
+        try (ImageBufferPool.Buffer image = getBufferPool().read(inputStream, contentLength)) {
+            List<FaceRecord> faceRecs = indexFaces(image.data(), name);
+            if (faceRecs.isEmpty()) {
+                log.info("No image indexed");
+            } else {
+                log.info("{} Face Ids are indexed for {}", faceRecs.size(), name);
+            }
+        }
+    }
+
+    /**
+     * @param imageBytes image content.
+     * @param name full name stored for every face found in the image.
+     * @return number of faces indexed.
+     */
+    public int imageIndex(byte[] imageBytes, String name) throws Exception {
+        return indexFaces(ByteBuffer.wrap(imageBytes), name).size();
+    }
+
+    /**
+     * First step of a resumable index: indexes the faces of an image into the collection of the
+     * name without writing their names. Follow up with {@link #saveFaceNames(List, String)}.
+     *
+     * @param externalImageId stored with every face, to find them with {@link #findFaceIds(String, byte[], String)}.
+     * @return ids of the faces indexed.
+     */
+    public List<String> indexFaceIds(byte[] imageBytes, String name, String externalImageId) {
+        return faceIds(callIndexFaces(shards.forName(name), ByteBuffer.wrap(imageBytes), externalImageId));
+    }
+
+    /**
+     * Finds the faces of an image indexed with an ExternalImageId, e.g. when it is not known whether
+     * an earlier IndexFaces call went through. One search with the image tells whether it did, as
+     * it matches the face indexed from its largest face. The collection is listed only when it did
+     * and the image has more faces than the search can find.
+     *
+     * @param imageBytes the image given to IndexFaces.
+     * @return ids of the faces found.
+     */
+    public List<String> findFaceIds(String name, byte[] imageBytes, String externalImageId) {
+        String collection = shards.forName(name);
+        SearchFacesByImageRequest request = buildSearchRequest(collection,
+                toRekognitionImage("SearchFacesByImage", ByteBuffer.wrap(imageBytes)), MAX_TOP_K, SAME_FACE_MIN_SIMILARITY);
+        List<String> faceIds = new ArrayList<>();
+        try {
+            for (FaceMatch match : searchFacesByImage(request).getFaceMatches()) {
+                if (externalImageId.equals(match.getFace().getExternalImageId())) {
+                    faceIds.add(match.getFace().getFaceId());
+                }
             }
-            log.info("{} Face Ids are indexed for {}", faceRecs.size(), name);
+        } catch (InvalidParameterException e) {
+            // no face in the image, so none was indexed
+            return faceIds;
+        }
+
+        if (faceIds.isEmpty() || detectFaces(imageBytes).getFaceDetails().size() <= faceIds.size()) {
+            return faceIds;
         }
+        log.info("Listing {} for the faces of image {}", collection, externalImageId);
+        return findFaceIdsByListing(collection, externalImageId);
+    }
+
+    private List<String> findFaceIdsByListing(String collection, String externalImageId) {
+        List<String> faceIds = new ArrayList<>();
+        String nextToken = null;
+        do {
+            ListFacesRequest request = new ListFacesRequest()
+                    .withCollectionId(collection)
+                    .withMaxResults(LIST_FACES_PAGE_SIZE)
+                    .withNextToken(nextToken);
+            ListFacesResult result = callRekognition("ListFaces", () -> client.listFaces(request));
+            for (Face face : result.getFaces()) {
+                if (externalImageId.equals(face.getExternalImageId())) {
+                    faceIds.add(face.getFaceId());
+                }
+            }
+            nextToken = result.getNextToken();
+        } while (nextToken != null);
+
+        return faceIds;
+    }
+
+    /**
+     * Second step of a resumable index: writes the name rows of faces already indexed. Writing them
+     * again is harmless.
+     */
+    public void saveFaceNames(List<String> faceIds, String name) {
+        dynamoService.putItems(buildFaceNameItems(faceIds, name));
+        resultCache.invalidateOperation(OP_MATCH);
     }
 
     /**
      * The Image file to be matched has to be on the server file system.
      *
      * @param file Image file path of the application host file system.
-     * @return Matched face name and confidence percentage.
+     * @return Matched face name and similarity percentage.
      * @throws Exception
      */
     public Map<String, Float> matchImage(File file) throws Exception {
-        boolean matched = false;
-        SearchFacesByImageRequest searchRequest = new SearchFacesByImageRequest()
-                .withCollectionId(imageCollection)
-                .withImage(getImageFromFile(file));
-
-        SearchFacesByImageResult searchResult = client.searchFacesByImage(searchRequest);
-        Map<String, Float> matchResult = new HashMap<>();
-        for (FaceMatch match : searchResult.getFaceMatches()) {
-            log.info("Number of faces matched: {}", searchResult.getFaceMatches().size());
-            String faceId = match.getFace().getFaceId();
+        return matchImage(readImageFile(file));
+    }
 
-            Map<String, AttributeValue> matchedInfo = dynamoService.getItem(faceId);
-            String fullName = matchedInfo.get(dynamoService.getAttrFullName()).s();
-            float confidence = match.getFace().getConfidence();
-            matchResult.put(fullName, confidence);
-        }
+    public Map<String, Float> matchImage(InputStream inputStream) throws Exception {
+        return matchImage(inputStream, -1);
+    }
 
-        return matchResult;
+    /**
+     * Matches with the configured top-K and minimum similarity, reading the image into a pooled buffer.
+     *
+     * @param contentLength declared length of the image, or -1 when unknown.
+     */
+    public Map<String, Float> matchImage(InputStream inputStream, long contentLength) throws IOException {
+        return toMatchedNames(matchFaces(inputStream, contentLength, matchTopK, matchMinSimilarity));
     }
 
-    public Map<String, Float> matchImage(InputStream inputStream) throws Exception {
-        ByteBuffer imageBytes = ByteBuffer.wrap(IOUtils.toByteArray(inputStream));
-        Image image = new Image().withBytes(imageBytes);
+    /**
+     * Matches with the configured top-K and minimum similarity.
+     *
+     * @param imageBytes image content.
+     * @return Matched face name and its best similarity percentage, best first.
+     */
+    public Map<String, Float> matchImage(byte[] imageBytes) {
+        return toMatchedNames(matchFaces(imageBytes, matchTopK, matchMinSimilarity));
+    }
 
-        SearchFacesByImageRequest searchRequest = new SearchFacesByImageRequest()
-                .withCollectionId(imageCollection)
-                .withImage(image);
+    /**
+     * Searches every collection for at most topK faces at least minSimilarity similar, and resolves
+     * the names of the best topK faces only. Results are cached by image content until a
+     * collection changes.
+     *
+     * @param imageBytes image content.
+     * @param topK maximum number of faces returned, 1 to {@value #MAX_TOP_K}.
+     * @param minSimilarity minimum similarity percentage of a face.
+     * @return matched faces, best similarity first. Faces without a stored name are left out.
+     */
+    public List<FaceMatchResult> matchFaces(byte[] imageBytes, int topK, float minSimilarity) {
+        return matchFaces(ByteBuffer.wrap(imageBytes), topK, minSimilarity);
+    }
 
-        SearchFacesByImageResult searchResult = client.searchFacesByImage(searchRequest);
+    /**
+     * Same as {@link #matchFaces(byte[], int, float)}, reading the image into a pooled buffer.
+     *
+     * @param contentLength declared length of the image, or -1 when unknown.
+     */
+    public List<FaceMatchResult> matchFaces(InputStream inputStream, long contentLength, int topK, float minSimilarity)
+            throws IOException {
+        try (ImageBufferPool.Buffer image = getBufferPool().read(inputStream, contentLength)) {
+            return matchFaces(image.data(), topK, minSimilarity);
+        }
+    }
 
-        Map<String, Float> matchedFaces = new HashMap<>();
+    /**
+     * @param image image content, only read until this returns.
+     */
+    public List<FaceMatchResult> matchFaces(ByteBuffer image, int topK, float minSimilarity) {
+        return matchFaces(new PreparedImage(image), topK, minSimilarity);
+    }
 
-        for (FaceMatch match : searchResult.getFaceMatches()) {
-            log.info("Number of faces matched: " + searchResult.getFaceMatches().size());
-            String faceId = match.getFace().getFaceId();
-            log.info("faceId=" + faceId);
-            Map<String, AttributeValue> map = dynamoService.getItem(faceId);
-            log.info("Attribute map size=" + map.size());
-            String fullName = map.get(dynamoService.getAttrFullName()).s();
-            matchedFaces.put(fullName, match.getFace().getConfidence());
+    /**
+     * Same as {@link #matchFaces(byte[], int, float)} for an image that is also used by other operations.
+     */
+    public List<FaceMatchResult> matchFaces(PreparedImage image, int topK, float minSimilarity) {
+        String cacheKey = ImageResultCache.key(OP_MATCH, image.original, shards.signature(), topK, minSimilarity,
+                preprocessor.signature());
+        ArrayList<FaceMatchResult> cached = resultCache.get(cacheKey);
+        if (cached != null) {
+            return new ArrayList<>(cached);
         }
 
-        return matchedFaces;
+        long generation = resultCache.generation(OP_MATCH);
+        ArrayList<FaceMatchResult> matchedFaces = resolveMatchedNames(
+                searchAllShards(image.rekognitionImage("SearchFacesByImage"), topK, minSimilarity));
+        resultCache.put(cacheKey, matchedFaces, generation);
+        return new ArrayList<>(matchedFaces);
     }
 
     public Map<String, Float> detectLabels(InputStream inputStream) throws Exception {
-        ByteBuffer imageBytes = ByteBuffer.wrap(IOUtils.toByteArray(inputStream));
-        Image image = new Image().withBytes(imageBytes);
+        return detectLabels(inputStream, -1);
+    }
+
+    /**
+     * Reads the image into a pooled buffer, given back once the labels are detected.
+     *
+     * @param contentLength declared length of the image, or -1 when unknown.
+     */
+    public Map<String, Float> detectLabels(InputStream inputStream, long contentLength) throws IOException {
+        try (ImageBufferPool.Buffer image = getBufferPool().read(inputStream, contentLength)) {
+            return detectLabels(image.data());
+        }
+    }
+
+    public Map<String, Float> detectLabels(byte[] imageBytes) {
+        return detectLabels(ByteBuffer.wrap(imageBytes));
+    }
+
+    /**
+     * @param image image content, only read until this returns.
+     */
+    public Map<String, Float> detectLabels(ByteBuffer image) {
+        return detectLabels(new PreparedImage(image));
+    }
+
+    /**
+     * Same as {@link #detectLabels(byte[])} for an image that is also used by other operations.
+     */
+    public Map<String, Float> detectLabels(PreparedImage image) {
+        String cacheKey = ImageResultCache.key(OP_LABELS, image.original, MAX_LABELS, MIN_LABEL_CONFIDENCE,
+                preprocessor.signature());
+        HashMap<String, Float> cached = resultCache.get(cacheKey);
+        if (cached != null) {
+            return new HashMap<>(cached);
+        }
 
         DetectLabelsRequest request = new DetectLabelsRequest()
-                .withImage(image)
-                .withMaxLabels(100)
-                .withMinConfidence(60.0F);
+                .withImage(image.rekognitionImage("DetectLabels"))
+                .withMaxLabels(MAX_LABELS)
+                .withMinConfidence(MIN_LABEL_CONFIDENCE);
 
-        DetectLabelsResult result = client.detectLabels(request);
+        DetectLabelsResult result = callRekognition("DetectLabels", () -> client.detectLabels(request));
 
-        Map<String, Float> matchedLables = new HashMap<>();
+        HashMap<String, Float> matchedLables = new HashMap<>();
         for (Label label : result.getLabels()) {
             matchedLables.put(label.getName(), label.getConfidence());
         }
 
-        return matchedLables;
+        resultCache.put(cacheKey, matchedLables);
+        return new HashMap<>(matchedLables);
     }
 
     public Map<String, Float> detectLablesWithLocalFile(String fileLocaton) throws Exception {
@@ -159,12 +467,402 @@ public class AtoZImageRekognitionService {
         return detectLabels(inputStream);
     }
 
+    /**
+     * Detects faces with this service's client. Results are cached by image content.
+     *
+     * @param imageBytes image content.
+     */
+    public DetectFacesResult detectFaces(byte[] imageBytes) {
+        return detectFaces(imageBytes, false);
+    }
+
+    /**
+     * @param allAttributes also estimate age, gender, emotions and the other facial attributes,
+     *                      instead of the default bounding box, pose, quality and landmarks only.
+     */
+    public DetectFacesResult detectFaces(byte[] imageBytes, boolean allAttributes) {
+        return detectFaces(ByteBuffer.wrap(imageBytes), allAttributes);
+    }
+
+    /**
+     * @param image image content, only read until this returns.
+     */
+    public DetectFacesResult detectFaces(ByteBuffer image, boolean allAttributes) {
+        return detectFaces(new PreparedImage(image), allAttributes);
+    }
+
+    /**
+     * Same as {@link #detectFaces(byte[], boolean)} for an image that is also used by other operations.
+     */
+    public DetectFacesResult detectFaces(PreparedImage image, boolean allAttributes) {
+        Attribute attributes = allAttributes ? Attribute.ALL : Attribute.DEFAULT;
+        String cacheKey = allAttributes
+                ? ImageResultCache.key(OP_FACES, image.original, preprocessor.signature(), attributes)
+                : ImageResultCache.key(OP_FACES, image.original, preprocessor.signature());
+        DetectFacesResult cached = resultCache.get(cacheKey);
+        if (cached != null) {
+            return copyOf(cached);
+        }
+
+        DetectFacesRequest request = new DetectFacesRequest()
+                .withImage(image.rekognitionImage("DetectFaces"))
+                .withAttributes(attributes.toString());
+        DetectFacesResult result = callRekognition("DetectFaces", () -> client.detectFaces(request));
+
+        resultCache.put(cacheKey, result);
+        return copyOf(result);
+    }
+
+    /**
+     * Callers get their own result, list and face details, so setting them does not change the
+     * cached result. The values nested in a face detail are shared and must be treated as read-only.
+     */
+    private static DetectFacesResult copyOf(DetectFacesResult result) {
+        DetectFacesResult copy = result.clone();
+        if (result.getFaceDetails() != null) {
+            List<FaceDetail> faceDetails = new ArrayList<>(result.getFaceDetails().size());
+            result.getFaceDetails().forEach(face -> faceDetails.add(face.clone()));
+            copy.setFaceDetails(faceDetails);
+        }
+        return copy;
+    }
+
+    /**
+     * Deletes the faces from every collection, as a face id does not tell its collection.
+     */
     public void deleteFaces(List<String> faceIds) {
+        for (String collection : shards.getCollections()) {
+            deleteFaces(collection, faceIds);
+        }
+    }
+
+    public void deleteFaces(String collection, List<String> faceIds) {
         DeleteFacesRequest deleteFacesRequest = new DeleteFacesRequest()
-                .withCollectionId(imageCollection)
+                .withCollectionId(collection)
                 .withFaceIds(faceIds);
 
-        client.deleteFaces(deleteFacesRequest);
+        callRekognition("DeleteFaces", () -> client.deleteFaces(deleteFacesRequest));
+        resultCache.invalidateOperation(OP_MATCH);
+    }
+
+    /**
+     * @return ids of all faces in a collection.
+     */
+    public List<String> listFaceIds(String collection) {
+        List<String> faceIds = new ArrayList<>();
+        forEachFaceIdPage(collection, faceIds::addAll);
+        return faceIds;
+    }
+
+    /**
+     * Lists the faces of a collection one page at a time, so a large collection is never held at once.
+     *
+     * @param page called with the ids of every page.
+     */
+    public void forEachFaceIdPage(String collection, Consumer<List<String>> page) {
+        String nextToken = null;
+        do {
+            ListFacesRequest request = new ListFacesRequest()
+                    .withCollectionId(collection)
+                    .withMaxResults(LIST_FACES_PAGE_SIZE)
+                    .withNextToken(nextToken);
+            ListFacesResult result = callRekognition("ListFaces", () -> client.listFaces(request));
+            List<String> faceIds = new ArrayList<>(result.getFaces().size());
+            for (Face face : result.getFaces()) {
+                faceIds.add(face.getFaceId());
+            }
+            page.accept(faceIds);
+            nextToken = result.getNextToken();
+        } while (nextToken != null);
+    }
+
+    /**
+     * Searches one collection for the largest face of an image.
+     *
+     * @return ids of the matching faces, best similarity first.
+     */
+    public List<String> searchFaceIds(String collection, byte[] imageBytes, float minSimilarity, int maxFaces) {
+        SearchFacesByImageRequest request = buildSearchRequest(collection, toRekognitionImage("SearchFacesByImage", ByteBuffer.wrap(imageBytes)),
+                maxFaces, minSimilarity);
+        List<String> faceIds = new ArrayList<>();
+        for (FaceMatch match : rank(searchFacesByImage(request).getFaceMatches(), maxFaces)) {
+            faceIds.add(match.getFace().getFaceId());
+        }
+        return faceIds;
+    }
+
+    /**
+     * Indexes only the largest face of an image into the collection of the name, the face
+     * SearchFacesByImage searches with. Other faces found are deleted again. Follow up with
+     * {@link #saveFaceNames(List, String)}.
+     *
+     * @return id of the face indexed, or null when none was found.
+     */
+    public String indexLargestFaceId(byte[] imageBytes, String name) {
+        String collection = shards.forName(name);
+        List<FaceRecord> faceRecs = callIndexFaces(collection, ByteBuffer.wrap(imageBytes), null);
+        if (faceRecs.isEmpty()) {
+            return null;
+        }
+
+        FaceRecord largest = Collections.max(faceRecs, Comparator.comparing(AtoZImageRekognitionService::faceArea));
+        List<String> others = new ArrayList<>(faceIds(faceRecs));
+        others.remove(largest.getFace().getFaceId());
+        if (!others.isEmpty()) {
+            deleteFaces(collection, others);
+        }
+        return largest.getFace().getFaceId();
+    }
+
+    private static float faceArea(FaceRecord faceRec) {
+        BoundingBox box = faceRec.getFace().getBoundingBox();
+        return box == null || box.getWidth() == null || box.getHeight() == null ? 0F : box.getWidth() * box.getHeight();
+    }
+
+    /**
+     * Non-blocking variant of {@link #imageIndex(InputStream, String)}. IndexFaces runs on the
+     * bounded Rekognition executor and the name rows are written with the async DynamoDB client.
+     *
+     * @return future of the number of faces indexed.
+     */
+    public CompletableFuture<Integer> imageIndexAsync(byte[] imageBytes, String name) {
+        return supplyOnExecutor(() -> callIndexFaces(shards.forName(name), ByteBuffer.wrap(imageBytes), null))
+                .thenCompose(faceRecs -> {
+                    if (faceRecs.isEmpty()) {
+                        log.info("No image indexed");
+                        return CompletableFuture.completedFuture(0);
+                    }
+                    return dynamoService.putItemsAsync(buildFaceNameItems(faceIds(faceRecs), name)).thenApply(done -> {
+                        resultCache.invalidateOperation(OP_MATCH);
+                        log.info("{} Face Ids are indexed for {}", faceRecs.size(), name);
+                        return faceRecs.size();
+                    });
+                });
+    }
+
+    /**
+     * Non-blocking variant of {@link #matchImage(byte[])}.
+     */
+    public CompletableFuture<Map<String, Float>> matchImageAsync(byte[] imageBytes) {
+        return matchFacesAsync(imageBytes, matchTopK, matchMinSimilarity).thenApply(this::toMatchedNames);
+    }
+
+    /**
+     * Non-blocking variant of {@link #matchFaces(byte[], int, float)}. SearchFacesByImage runs on
+     * the bounded Rekognition executor and names are resolved with the async DynamoDB client.
+     */
+    public CompletableFuture<List<FaceMatchResult>> matchFacesAsync(byte[] imageBytes, int topK, float minSimilarity) {
+        String cacheKey = ImageResultCache.key(OP_MATCH, imageBytes, shards.signature(), topK, minSimilarity,
+                preprocessor.signature());
+        long generation = resultCache.generation(OP_MATCH);
+        // the lookup may read the disk tier, so it does not run on the request thread either
+        return supplyOnExecutor(() -> resultCache.<ArrayList<FaceMatchResult>>get(cacheKey)).thenCompose(cached ->
+                cached != null
+                        ? CompletableFuture.completedFuture(new ArrayList<>(cached))
+                        : searchAndResolveAsync(imageBytes, topK, minSimilarity, cacheKey, generation));
+    }
+
+    private CompletableFuture<List<FaceMatchResult>> searchAndResolveAsync(byte[] imageBytes, int topK, float minSimilarity,
+                                                                           String cacheKey, long generation) {
+        CompletableFuture<List<FaceMatch>> search = shards.size() == 1
+                ? supplyOnExecutor(() -> searchAllShards(toRekognitionImage("SearchFacesByImage", ByteBuffer.wrap(imageBytes)), topK, minSimilarity))
+                : supplyOnExecutor(() -> toRekognitionImage("SearchFacesByImage", ByteBuffer.wrap(imageBytes)))
+                        .thenCompose(image -> searchShardsAsync(image, topK, minSimilarity));
+
+        return search
+                .thenCompose(faceMatches -> {
+                    List<String> faceIds = new ArrayList<>(faceMatches.size());
+                    for (FaceMatch match : faceMatches) {
+                        faceIds.add(match.getFace().getFaceId());
+                    }
+                    return dynamoService.batchGetItemsAsync(faceIds)
+                            .thenApply(items -> buildMatchedNames(faceMatches, items));
+                })
+                .thenApply(matchedFaces -> {
+                    resultCache.put(cacheKey, matchedFaces, generation);
+                    return new ArrayList<>(matchedFaces);
+                });
+    }
+
+    public CompletableFuture<Map<String, Float>> detectLabelsAsync(byte[] imageBytes) {
+        return supplyOnExecutor(() -> detectLabels(imageBytes));
+    }
+
+    /**
+     * Runs a call on the Rekognition executor. When the executor is full the returned future fails
+     * with the RejectedExecutionException instead of it being thrown to the caller.
+     */
+    private <T> CompletableFuture<T> supplyOnExecutor(Supplier<T> call) {
+        try {
+            return CompletableFuture.supplyAsync(call, getRekognitionExecutor());
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    private List<FaceRecord> indexFaces(ByteBuffer image, String name) throws Exception {
+        List<FaceRecord> faceRecs = callIndexFaces(shards.forName(name), image, null);
+        if (!faceRecs.isEmpty()) {
+            saveFaceNames(faceIds(faceRecs), name);
+        }
+
+        return faceRecs;
+    }
+
+    private List<FaceRecord> callIndexFaces(String collection, ByteBuffer image, String externalImageId) {
+        IndexFacesRequest indexRequest = new IndexFacesRequest()
+                .withImage(toRekognitionImage("IndexFaces", image))
+                .withCollectionId(collection)
+                .withExternalImageId(externalImageId);
+        IndexFacesResult indexResults = callRekognition("IndexFaces", () -> client.indexFaces(indexRequest));
+
+        return indexResults.getFaceRecords();
+    }
+
+    /**
+     * Searches every collection with one pre-processed copy of the image, in parallel on the
+     * Rekognition executor when there are several.
+     *
+     * @return the best topK matches, best similarity first.
+     */
+    private List<FaceMatch> searchAllShards(Image image, int topK, float minSimilarity) {
+        if (shards.size() == 1) {
+            SearchFacesByImageRequest request = buildSearchRequest(shards.getCollections().get(0), image, topK, minSimilarity);
+            return rank(searchFacesByImage(request).getFaceMatches(), topK);
+        }
+
+        try {
+            return searchShardsAsync(image, topK, minSimilarity).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * The image may be a pooled buffer, given back once this fails; when the executor rejects a
+     * search, the searches already queued are called off and those already running waited for.
+     *
+     * @return the best topK matches of all collections, best similarity first.
+     */
+    private CompletableFuture<List<FaceMatch>> searchShardsAsync(Image image, int topK, float minSimilarity) {
+        List<CompletableFuture<List<FaceMatch>>> searches = new ArrayList<>(shards.size());
+        // set by whichever comes first, the search starting or it being called off
+        List<AtomicBoolean> claims = new ArrayList<>(shards.size());
+        try {
+            for (String collection : shards.getCollections()) {
+                SearchFacesByImageRequest request = buildSearchRequest(collection, image, topK, minSimilarity);
+                AtomicBoolean claim = new AtomicBoolean();
+                claims.add(claim);
+                searches.add(CompletableFuture.supplyAsync(() -> {
+                    if (!claim.compareAndSet(false, true)) {
+                        throw new CancellationException("Search of " + collection + " called off");
+                    }
+                    return searchFacesByImage(request).getFaceMatches();
+                }, getRekognitionExecutor()));
+            }
+        } catch (RejectedExecutionException e) {
+            // all queued searches are called off before waiting, or one could start meanwhile
+            List<CompletableFuture<List<FaceMatch>>> running = new ArrayList<>();
+            for (int i = 0; i < searches.size(); i++) {
+                if (!claims.get(i).compareAndSet(false, true)) {
+                    running.add(searches.get(i));
+                }
+            }
+            for (CompletableFuture<List<FaceMatch>> search : running) {
+                try {
+                    search.join();
+                } catch (RuntimeException ignored) {
+                    // the rejection is what the caller gets
+                }
+            }
+            throw e;
+        }
+
+        return CompletableFuture.allOf(searches.toArray(new CompletableFuture[0])).thenApply(done -> {
+            List<FaceMatch> merged = new ArrayList<>();
+            for (CompletableFuture<List<FaceMatch>> search : searches) {
+                merged.addAll(search.join());
+            }
+            return rank(merged, topK);
+        });
+    }
+
+    private static List<FaceMatch> rank(List<FaceMatch> matches, int topK) {
+        List<FaceMatch> ranked = new ArrayList<>(matches);
+        ranked.sort(Comparator.comparing(FaceMatch::getSimilarity, Comparator.reverseOrder()));
+        return ranked.size() > topK ? new ArrayList<>(ranked.subList(0, topK)) : ranked;
+    }
+
+    private SearchFacesByImageResult searchFacesByImage(SearchFacesByImageRequest request) {
+        return callRekognition("SearchFacesByImage", () -> client.searchFacesByImage(request));
+    }
+
+    /**
+     * Times a call and, unless disabled, keeps it within the operation's quota, retrying throttled
+     * calls until the limiter deadline. IndexFaces is not retried after it may have reached the
+     * service, as a second call would index the faces twice.
+     */
+    private <T> T callRekognition(String operation, Supplier<T> call) {
+        Supplier<T> timed = () -> AwsCallMetrics.time(AwsCallMetrics.REKOGNITION, operation, call);
+        return limiterEnabled ? limiter.call(operation, !"IndexFaces".equals(operation), timed) : timed.get();
+    }
+
+    /**
+     * Each request gets its own view of the image bytes, so concurrent requests can share them.
+     */
+    private SearchFacesByImageRequest buildSearchRequest(String collection, Image image, int topK, float minSimilarity) {
+        return new SearchFacesByImageRequest()
+                .withCollectionId(collection)
+                .withImage(new Image().withBytes(image.getBytes().duplicate()))
+                .withMaxFaces(topK)
+                .withFaceMatchThreshold(minSimilarity);
+    }
+
+    /**
+     * Wraps the pre-processed image without copying it. Cache keys are always computed on the
+     * original bytes.
+     *
+     * @param operation the call the image is sent with, for its request bytes.
+     */
+    private Image toRekognitionImage(String operation, ByteBuffer image) {
+        ByteBuffer processed = preprocessor.process(image);
+        AwsCallMetrics.requestBytes(AwsCallMetrics.REKOGNITION, operation, processed.remaining());
+        return new Image().withBytes(processed.slice());
+    }
+
+    /**
+     * An image for several operations, e.g. of /image/analyze: its result cache keys are those of the
+     * same image sent to a single operation, and it is pre-processed once, by the first operation
+     * that is not answered from the cache.
+     *
+     * @param imageBytes image content, read until the last operation returns.
+     */
+    public PreparedImage prepare(byte[] imageBytes) {
+        return new PreparedImage(ByteBuffer.wrap(imageBytes));
+    }
+
+    public class PreparedImage {
+        private final ByteBuffer original;
+        private Image processed;
+
+        private PreparedImage(ByteBuffer original) {
+            this.original = original;
+        }
+
+        /**
+         * @param operation the call the image is sent with, for its request bytes.
+         * @return a view of the pre-processed image of its own, as operations may run concurrently.
+         */
+        private synchronized Image rekognitionImage(String operation) {
+            if (processed == null) {
+                processed = new Image().withBytes(preprocessor.process(original).slice());
+            }
+            ByteBuffer bytes = processed.getBytes().duplicate();
+            AwsCallMetrics.requestBytes(AwsCallMetrics.REKOGNITION, operation, bytes.remaining());
+            return new Image().withBytes(bytes);
+        }
     }
 
     private String getImageFileName(String imageFilePath) {
@@ -176,13 +874,70 @@ public class AtoZImageRekognitionService {
         }
     }
 
-    private Image getImageFromFile(File file) throws Exception {
-        ByteBuffer imageBytes;
+    private byte[] readImageFile(File file) throws Exception {
         try (InputStream inputStream = new FileInputStream(file)) {
-            imageBytes = ByteBuffer.wrap(IOUtils.toByteArray(inputStream));
+            return IOUtils.toByteArray(inputStream);
+        }
+    }
+
+    /**
+     * Resolves the names of all matched faces with one batched DynamoDB lookup.
+     */
+    private ArrayList<FaceMatchResult> resolveMatchedNames(List<FaceMatch> faceMatches) {
+        log.info("Number of faces matched: {}", faceMatches.size());
+        List<String> faceIds = new ArrayList<>(faceMatches.size());
+        for (FaceMatch match : faceMatches) {
+            faceIds.add(match.getFace().getFaceId());
+        }
+
+        return buildMatchedNames(faceMatches, dynamoService.batchGetItems(faceIds));
+    }
+
+    private ArrayList<FaceMatchResult> buildMatchedNames(List<FaceMatch> faceMatches,
+                                                         Map<String, Map<String, AttributeValue>> items) {
+        ArrayList<FaceMatchResult> matchedFaces = new ArrayList<>(faceMatches.size());
+        for (FaceMatch match : faceMatches) {
+            String faceId = match.getFace().getFaceId();
+            Map<String, AttributeValue> item = items.get(faceId);
+            if (item == null) {
+                log.warn("No name found for faceId={}", faceId);
+                continue;
+            }
+            String fullName = item.get(dynamoService.getAttrFullName()).s();
+            matchedFaces.add(new FaceMatchResult(faceId, fullName, match.getSimilarity()));
+        }
+
+        return matchedFaces;
+    }
+
+    /**
+     * Keeps the best similarity of every name, in ranked order.
+     */
+    private Map<String, Float> toMatchedNames(List<FaceMatchResult> matchedFaces) {
+        Map<String, Float> matchedNames = new LinkedHashMap<>();
+        for (FaceMatchResult match : matchedFaces) {
+            matchedNames.putIfAbsent(match.getName(), match.getSimilarity());
+        }
+        return matchedNames;
+    }
+
+    private static List<String> faceIds(List<FaceRecord> faceRecs) {
+        List<String> faceIds = new ArrayList<>(faceRecs.size());
+        for (FaceRecord face : faceRecs) {
+            faceIds.add(face.getFace().getFaceId());
         }
+        return faceIds;
+    }
 
-        return new Image().withBytes(imageBytes);
+    /**
+     * Builds the name rows of all indexed faces, written as one batch.
+     */
+    private Map<String, Map<String, AttributeValue>> buildFaceNameItems(List<String> faceIds, String name) {
+        Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+        for (String faceId : faceIds) {
+            items.put(faceId, buildExtraDbItemAttributes(dynamoService.getAttrFullName(), name));
+        }
+        return items;
     }
 
     private Map<String, AttributeValue> buildExtraDbItemAttributes(String name, String value) {
@@ -194,14 +949,16 @@ public class AtoZImageRekognitionService {
 
     public static String createCollection(String collectionName) {
         CreateCollectionRequest request = new CreateCollectionRequest().withCollectionId(collectionName);
-        CreateCollectionResult result = AmazonRekognitionClientBuilder.defaultClient().createCollection(request);
+        CreateCollectionResult result = AwsCallMetrics.time(AwsCallMetrics.REKOGNITION, "CreateCollection",
+                () -> AwsClientRegistry.getInstance().rekognition().createCollection(request));
 
         return result.getCollectionArn();
     }
 
     public static void deleteCollection(String collectionName) {
         DeleteCollectionRequest request = new DeleteCollectionRequest().withCollectionId(collectionName);
-        AmazonRekognitionClientBuilder.defaultClient().deleteCollection(request);
+        AwsCallMetrics.time(AwsCallMetrics.REKOGNITION, "DeleteCollection",
+                () -> AwsClientRegistry.getInstance().rekognition().deleteCollection(request));
     }
 
     public static DetectFacesResult detectFaces (String imageFile) throws Exception {
@@ -210,13 +967,14 @@ public class AtoZImageRekognitionService {
             imageBytes = ByteBuffer.wrap(IOUtils.toByteArray(inputStream));
         }
 
-        AmazonRekognition rekognitionClient = AmazonRekognitionClientBuilder.defaultClient();
+        AmazonRekognition rekognitionClient = AwsClientRegistry.getInstance().rekognition();
         Image image = new Image().withBytes(imageBytes);
 
         DetectFacesRequest request = new DetectFacesRequest().withImage(image);
 
         try {
-            DetectFacesResult result = rekognitionClient.detectFaces(request);
+            DetectFacesResult result = AwsCallMetrics.time(AwsCallMetrics.REKOGNITION, "DetectFaces",
+                    () -> rekognitionClient.detectFaces(request));
 
             for (FaceDetail face : result.getFaceDetails()) {
                 log.info(face.toString());
@@ -244,6 +1002,58 @@ public class AtoZImageRekognitionService {
 
     public void setImageCollection(String imageCollection) {
         this.imageCollection = imageCollection;
+        initShards();
+    }
+
+    public void setImageCollections(String imageCollections) {
+        this.imageCollections = imageCollections;
+        initShards();
+    }
+
+    public int getMatchTopK() {
+        return matchTopK;
+    }
+
+    public float getMatchMinSimilarity() {
+        return matchMinSimilarity;
+    }
+
+    public CollectionShards getShards() {
+        return shards;
+    }
+
+    public synchronized ExecutorService getRekognitionExecutor() {
+        if (rekognitionExecutor == null) {
+            rekognitionExecutor = ExecutorConfig.boundedExecutor("rekognition", 4, 100);
+        }
+        return rekognitionExecutor;
+    }
+
+    public synchronized void setRekognitionExecutor(ExecutorService rekognitionExecutor) {
+        this.rekognitionExecutor = rekognitionExecutor;
+    }
+
+    public synchronized ImageBufferPool getBufferPool() {
+        if (bufferPool == null) {
+            bufferPool = new ImageBufferPool();
+        }
+        return bufferPool;
+    }
+
+    public synchronized void setBufferPool(ImageBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    public ImageResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public CallLimiter getLimiter() {
+        return limiter;
+    }
+
+    public ImagePreprocessor getPreprocessor() {
+        return preprocessor;
     }
 
     public AmazonRekognition getClient() {
@@ -0,0 +1,242 @@
+package com.atoz.aws.service;
+
+import com.atoz.aws.config.ExecutorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Indexes many images with bounded concurrency. At most {@code concurrency} images of a request are
+ * held in memory at once: reading the next image blocks until an in-flight one has been indexed.
+ */
+@Service
+public class BulkIndexService {
+    private static final Logger log = LoggerFactory.getLogger(BulkIndexService.class);
+
+    // optional first zip entry mapping entry names to full names, one "entry,name" per line
+    public static final String MANIFEST = "manifest.csv";
+
+    // item of the report for a zip that cannot be read to its end
+    public static final String ZIP_ITEM = "zip";
+
+    @Autowired
+    private AtoZImageRekognitionService imageService;
+
+    @Autowired
+    private S3AccessService s3Service;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Value("${aws.dynamoDb.table.attribute.fullname}")
+    private String attributeName;
+
+    @Autowired
+    @Qualifier("bulkIndexExecutor")
+    private ExecutorService executor;
+
+    @Value("${aws.bulk.index.concurrency:8}")
+    private int concurrency = 8;
+
+    @Value("${aws.bulk.index.max.image.bytes:15728640}")
+    private int maxImageBytes = 15728640;
+
+    /**
+     * @param store also store every image and its thumbnails to S3 under its name, like /image/s3upload.
+     */
+    public Pipeline newPipeline(boolean store) {
+        return new Pipeline(store);
+    }
+
+    /**
+     * Indexes every image of a zip stream. Names come from {@value #MANIFEST} when it is the first
+     * entry, otherwise from the entry file names without extension. When the zip cannot be read to
+     * its end, the images read so far are still indexed and the rest is reported as one failed item.
+     */
+    public List<IndexItemResult> indexZip(InputStream inputStream, boolean store) throws InterruptedException {
+        Pipeline pipeline = newPipeline(store);
+        Map<String, String> manifest = Collections.emptyMap();
+        String lastEntry = null;
+
+        try (ZipInputStream zip = new ZipInputStream(inputStream)) {
+            boolean first = true;
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String entryName = entry.getName();
+                if (entry.isDirectory() || isHidden(entryName)) {
+                    continue;
+                }
+                if (first && MANIFEST.equals(baseName(entryName))) {
+                    manifest = readManifest(zip);
+                    first = false;
+                    continue;
+                }
+                first = false;
+
+                String name = manifest.containsKey(entryName) ? manifest.get(entryName)
+                        : manifest.getOrDefault(baseName(entryName), nameFromFile(entryName));
+                pipeline.submit(entryName, name, () -> readImage(zip));
+                lastEntry = entryName;
+            }
+        } catch (IOException e) {
+            log.warn("Cannot read zip after entry {}: {}", lastEntry, e.getMessage());
+            pipeline.failed(ZIP_ITEM, "Cannot read zip" + (lastEntry != null ? " after " + lastEntry : "")
+                    + ": " + e.getMessage());
+        } finally {
+            pipeline.await();
+        }
+
+        return pipeline.results();
+    }
+
+    public void setImageService(AtoZImageRekognitionService imageService) {
+        this.imageService = imageService;
+    }
+
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the file name without folder and extension.
+     */
+    public static String nameFromFile(String fileName) {
+        String name = baseName(fileName);
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static String baseName(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static boolean isHidden(String entryName) {
+        return entryName.startsWith("__MACOSX/") || baseName(entryName).startsWith(".");
+    }
+
+    private Map<String, String> readManifest(InputStream zip) throws IOException {
+        Map<String, String> manifest = new HashMap<>();
+        // the reader is not closed, closing it would close the zip stream
+        BufferedReader reader = new BufferedReader(new InputStreamReader(zip, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int comma = line.indexOf(',');
+            if (line.trim().isEmpty() || line.startsWith("#") || comma < 0) {
+                continue;
+            }
+            manifest.put(line.substring(0, comma).trim(), line.substring(comma + 1).trim());
+        }
+        return manifest;
+    }
+
+    /**
+     * Reads one image of a bulk request, failing as soon as it is larger than the size limit.
+     */
+    public byte[] readImage(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (out.size() + read > maxImageBytes) {
+                throw new IOException("image is larger than " + maxImageBytes + " bytes");
+            }
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * One bulk request. {@link #submit} blocks while {@code concurrency} images are in flight, which
+     * pushes back on whoever reads the upload.
+     */
+    public class Pipeline {
+        private final Semaphore permits = new Semaphore(concurrency);
+        private final List<IndexItemResult> results = new ArrayList<>();
+        private final boolean store;
+
+        private Pipeline(boolean store) {
+            this.store = store;
+        }
+
+        /**
+         * @param item identifies the image in the report, e.g. its file or entry name.
+         * @param name full name to index the faces under.
+         * @param reader reads the image; called on the caller's thread once a slot is free.
+         */
+        public void submit(String item, String name, Callable<byte[]> reader) throws InterruptedException {
+            IndexItemResult result = new IndexItemResult(item, name);
+            results.add(result);
+            permits.acquire();
+
+            byte[] imageBytes;
+            try {
+                imageBytes = reader.call();
+            } catch (Exception e) {
+                permits.release();
+                result.setError(e.getMessage());
+                return;
+            }
+
+            // a full executor runs the work on this thread
+            executor.execute(() -> {
+                try {
+                    result.indexed(imageService.imageIndex(imageBytes, name));
+                    if (store) {
+                        store(name, imageBytes);
+                        result.setStored(true);
+                    }
+                } catch (Exception e) {
+                    log.error("Error to index {} for {}: {}", item, name, e.getMessage());
+                    result.setError(e.getMessage());
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        /**
+         * Reports an item that could not be read from the upload at all.
+         */
+        public void failed(String item, String error) {
+            results.add(IndexItemResult.failed(item, null, error));
+        }
+
+        /**
+         * Waits for every submitted image to finish.
+         */
+        public List<IndexItemResult> await() throws InterruptedException {
+            permits.acquire(concurrency);
+            permits.release(concurrency);
+            log.info("Bulk indexed {} images", results.size());
+            return results;
+        }
+
+        public List<IndexItemResult> results() {
+            return results;
+        }
+
+        private void store(String name, byte[] imageBytes) throws IOException {
+            Map<String, String> metaData = new HashMap<>();
+            metaData.put(attributeName, name);
+
+            s3Service.uploadStream(name, new ByteArrayInputStream(imageBytes), imageBytes.length, metaData);
+            thumbnailService.storeThumbnails(name, new ByteArrayInputStream(imageBytes), metaData);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.atoz.aws.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Downloads the stored images of matched names concurrently and picks the highest ranked one that
+ * is acceptable. Downloads still running once the pick is made, or once the deadline passes, are
+ * cancelled.
+ */
+@Component
+public class CandidateImageFetcher {
+    private static final Logger log = LoggerFactory.getLogger(CandidateImageFetcher.class);
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    @Qualifier("s3FetchExecutor")
+    private ExecutorService executor;
+
+    @Value("${aws.match.image.max.candidates:5}")
+    private int maxCandidates = 5;
+
+    @Value("${aws.match.image.deadline.millis:3000}")
+    private long deadlineMillis = 3000;
+
+    /**
+     * @param matchedNames matched names and their confidence; higher confidence ranks first.
+     * @param minImageBytes originals of this size or smaller are not acceptable; thumbnails always are.
+     * @param thumbnailSize thumbnail size to fetch, falling back to the original, or null for originals.
+     * @return the best acceptable image, or null when none is found before the deadline.
+     */
+    public MatchedImage fetchBest(Map<String, Float> matchedNames, int minImageBytes, Integer thumbnailSize) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+
+        List<String> ranked = new ArrayList<>(matchedNames.keySet());
+        ranked.sort((a, b) -> Float.compare(matchedNames.get(b), matchedNames.get(a)));
+        if (ranked.size() > maxCandidates) {
+            ranked = ranked.subList(0, maxCandidates);
+        }
+
+        List<Future<ThumbnailService.Rendition>> downloads = new ArrayList<>(ranked.size());
+        for (String name : ranked) {
+            try {
+                downloads.add(executor.submit(() -> thumbnailService.download(name, thumbnailSize)));
+            } catch (RejectedExecutionException e) {
+                log.warn("Download queue is full, skipping candidate {}", name);
+                downloads.add(null);
+            }
+        }
+
+        try {
+            for (int i = 0; i < ranked.size(); i++) {
+                ThumbnailService.Rendition image = await(downloads.get(i), ranked.get(i), deadline);
+                if (isAcceptable(image, minImageBytes)) {
+                    return new MatchedImage(ranked.get(i), matchedNames.get(ranked.get(i)), image);
+                }
+                if (System.nanoTime() - deadline >= 0) {
+                    log.warn("Deadline of {} ms passed while fetching {} candidate images", deadlineMillis, ranked.size());
+                    return firstDone(ranked, downloads, i + 1, matchedNames, minImageBytes);
+                }
+            }
+            return null;
+        } finally {
+            for (Future<ThumbnailService.Rendition> download : downloads) {
+                if (download != null) {
+                    download.cancel(true);
+                }
+            }
+        }
+    }
+
+    private static boolean isAcceptable(ThumbnailService.Rendition image, int minImageBytes) {
+        return image != null && (image.isThumbnail() || image.getImage().length > minImageBytes);
+    }
+
+    private ThumbnailService.Rendition await(Future<ThumbnailService.Rendition> download, String name, long deadline) {
+        if (download == null) {
+            return null;
+        }
+        try {
+            return download.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            log.warn("Cannot download image of {}: {}", name, e.getCause().getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * After the deadline, takes the best ranked candidate that has already finished downloading.
+     */
+    private MatchedImage firstDone(List<String> ranked, List<Future<ThumbnailService.Rendition>> downloads, int from,
+                                   Map<String, Float> matchedNames, int minImageBytes) {
+        for (int i = from; i < ranked.size(); i++) {
+            Future<ThumbnailService.Rendition> download = downloads.get(i);
+            if (download != null && download.isDone() && !download.isCancelled()) {
+                ThumbnailService.Rendition image = await(download, ranked.get(i), System.nanoTime());
+                if (isAcceptable(image, minImageBytes)) {
+                    return new MatchedImage(ranked.get(i), matchedNames.get(ranked.get(i)), image);
+                }
+            }
+        }
+        return null;
+    }
+
+    public void setThumbnailService(ThumbnailService thumbnailService) {
+        this.thumbnailService = thumbnailService;
+    }
+
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void setMaxCandidates(int maxCandidates) {
+        this.maxCandidates = maxCandidates;
+    }
+
+    public void setDeadlineMillis(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    public static class MatchedImage {
+        private final String name;
+        private final Float confidence;
+        private final ThumbnailService.Rendition rendition;
+
+        MatchedImage(String name, Float confidence, ThumbnailService.Rendition rendition) {
+            this.name = name;
+            this.confidence = confidence;
+            this.rendition = rendition;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Float getConfidence() {
+            return confidence;
+        }
+
+        public byte[] getImage() {
+            return rendition.getImage();
+        }
+
+        /**
+         * @return thumbnail size, or null when the original is returned.
+         */
+        public Integer getSize() {
+            return rendition.getSize();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.atoz.aws.service;
+
+import com.atoz.aws.config.ExecutorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Moves faces into the collection their name belongs to, e.g. after collections were added to
+ * aws.rekognition.image.collections. Rekognition cannot copy faces between collections, so a name's
+ * image in S3 is indexed again, and only then are the old faces indexed from that same image and
+ * their name rows deleted. Other faces of the name, and names without an image in S3, stay where
+ * they are; searches still find them as every collection is searched.
+ */
+@Service
+public class CollectionRebalancer {
+    private static final Logger log = LoggerFactory.getLogger(CollectionRebalancer.class);
+
+    // an old face this similar to the largest face of the S3 image was indexed from that image
+    static final float SAME_IMAGE_SIMILARITY = 99F;
+
+    @Autowired
+    private AtoZImageRekognitionService imageService;
+
+    @Autowired
+    private DynamoDbAccessService dynamoService;
+
+    @Autowired
+    private S3AccessService s3Service;
+
+    private final ExecutorService executor = ExecutorConfig.boundedExecutor("collection-rebalance", 1, 1);
+
+    private volatile Report lastReport;
+
+    /**
+     * Starts a rebalance in the background, see {@link #getLastReport()} for its progress.
+     *
+     * @param dryRun only count the misplaced faces.
+     * @return the report the run fills in, or null when a run is still in progress.
+     */
+    public synchronized Report start(boolean dryRun) {
+        if (lastReport != null && lastReport.isRunning()) {
+            return null;
+        }
+
+        Report report = new Report(dryRun);
+        lastReport = report;
+        executor.execute(() -> rebalance(report));
+        return report;
+    }
+
+    /**
+     * @return the report of the run in progress or of the last one, null before the first run.
+     */
+    public Report getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * Rebalances on the calling thread.
+     *
+     * @param dryRun only count the misplaced faces.
+     */
+    Report rebalance(boolean dryRun) {
+        return rebalance(new Report(dryRun));
+    }
+
+    private Report rebalance(Report report) {
+        CollectionShards shards = imageService.getShards();
+        try {
+            for (String collection : shards.getCollections()) {
+                Map<String, List<String>> misplaced = new LinkedHashMap<>();
+                imageService.forEachFaceIdPage(collection, faceIds -> scan(collection, faceIds, misplaced, report));
+
+                // moved once the listing is done, deletes do not disturb its pages
+                for (Map.Entry<String, List<String>> entry : misplaced.entrySet()) {
+                    report.misplaced += entry.getValue().size();
+                    if (!report.isDryRun()) {
+                        move(collection, entry.getKey(), entry.getValue(), report);
+                    }
+                }
+            }
+            log.info("Rebalanced collections {}: {} faces scanned, {} misplaced, {} moved, {} names skipped",
+                    shards.getCollections(), report.scanned, report.misplaced, report.moved, report.getSkipped().size());
+        } catch (RuntimeException e) {
+            log.error("Error to rebalance collections: {}", e.getMessage());
+            report.error = e.getMessage();
+        } finally {
+            report.running = false;
+        }
+        return report;
+    }
+
+    private void scan(String collection, List<String> faceIds, Map<String, List<String>> misplaced, Report report) {
+        report.scanned += faceIds.size();
+
+        Map<String, Map<String, AttributeValue>> items = dynamoService.batchGetItems(faceIds);
+        for (String faceId : faceIds) {
+            Map<String, AttributeValue> item = items.get(faceId);
+            AttributeValue name = item != null ? item.get(dynamoService.getAttrFullName()) : null;
+            if (name == null || name.s() == null) {
+                if (item != null) {
+                    log.warn("Face {} in {} has a row without a name, left alone", faceId, collection);
+                }
+                report.unnamed++;
+                continue;
+            }
+            if (!collection.equals(imageService.getShards().forName(name.s()))) {
+                misplaced.computeIfAbsent(name.s(), n -> new ArrayList<>()).add(faceId);
+            }
+        }
+    }
+
+    private void move(String collection, String name, List<String> faceIds, Report report) {
+        try {
+            byte[] image = s3Service.downLoadFileToByteArray(name);
+            if (image == null) {
+                report.skip(name, "No image in S3");
+                return;
+            }
+
+            List<String> sameImage = new ArrayList<>(
+                    imageService.searchFaceIds(collection, image, SAME_IMAGE_SIMILARITY, faceIds.size()));
+            sameImage.retainAll(faceIds);
+            if (sameImage.isEmpty()) {
+                report.skip(name, "None of its faces was indexed from the S3 image");
+                return;
+            }
+
+            String newFaceId = imageService.indexLargestFaceId(image, name);
+            if (newFaceId == null) {
+                report.skip(name, "No face found in the S3 image");
+                return;
+            }
+            imageService.saveFaceNames(Collections.singletonList(newFaceId), name);
+
+            imageService.deleteFaces(collection, sameImage);
+            for (String faceId : sameImage) {
+                dynamoService.deleteItem(faceId);
+            }
+            report.moved += sameImage.size();
+            report.indexed++;
+            report.left += faceIds.size() - sameImage.size();
+        } catch (RuntimeException e) {
+            log.error("Error to move faces of {} out of {}: {}", name, collection, e.getMessage());
+            report.skip(name, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    public void setImageService(AtoZImageRekognitionService imageService) {
+        this.imageService = imageService;
+    }
+
+    public void setDynamoService(DynamoDbAccessService dynamoService) {
+        this.dynamoService = dynamoService;
+    }
+
+    public void setS3Service(S3AccessService s3Service) {
+        this.s3Service = s3Service;
+    }
+
+    /**
+     * Outcome of one rebalance run, filled in while it runs.
+     */
+    public static class Report {
+        private final boolean dryRun;
+        private volatile boolean running = true;
+        private volatile int scanned;
+        private volatile int unnamed;
+        private volatile int misplaced;
+        private volatile int moved;
+        private volatile int indexed;
+        private volatile int left;
+        private volatile String error;
+        private final Map<String, String> skipped = new LinkedHashMap<>();
+
+        Report(boolean dryRun) {
+            this.dryRun = dryRun;
+        }
+
+        public boolean isDryRun() {
+            return dryRun;
+        }
+
+        public boolean isRunning() {
+            return running;
+        }
+
+        public int getScanned() {
+            return scanned;
+        }
+
+        /**
+         * @return faces without a name row, or whose row has no name, which are left alone.
+         */
+        public int getUnnamed() {
+            return unnamed;
+        }
+
+        public int getMisplaced() {
+            return misplaced;
+        }
+
+        /**
+         * @return misplaced faces deleted after their image was indexed into their collection.
+         */
+        public int getMoved() {
+            return moved;
+        }
+
+        /**
+         * @return faces indexed from S3 images into their collection, one per name moved.
+         */
+        public int getIndexed() {
+            return indexed;
+        }
+
+        /**
+         * @return misplaced faces of moved names left in place, as they were not indexed from the
+         * name's S3 image.
+         */
+        public int getLeft() {
+            return left;
+        }
+
+        /**
+         * @return why the run stopped early, or null.
+         */
+        public String getError() {
+            return error;
+        }
+
+        /**
+         * @return names left in place, with the reason.
+         */
+        public synchronized Map<String, String> getSkipped() {
+            return new LinkedHashMap<>(skipped);
+        }
+
+        private synchronized void skip(String name, String reason) {
+            skipped.put(name, reason);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.atoz.aws.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The Rekognition collections faces are spread over. Every name belongs to one collection, chosen
+ * by rendezvous hashing: the collection with the highest hash of collection and name wins. Adding
+ * a collection therefore only moves the names that now hash highest to the new one.
+ */
+public class CollectionShards {
+    private final List<String> collections;
+
+    public CollectionShards(List<String> collections) {
+        if (collections.isEmpty()) {
+            throw new IllegalArgumentException("At least one collection is required");
+        }
+        this.collections = Collections.unmodifiableList(new ArrayList<>(collections));
+    }
+
+    /**
+     * @param collections comma separated collection ids, may be empty.
+     * @param defaultCollection the only collection when none are listed.
+     */
+    public static CollectionShards parse(String collections, String defaultCollection) {
+        List<String> ids = new ArrayList<>();
+        if (collections != null) {
+            for (String id : collections.split(",")) {
+                if (!id.trim().isEmpty() && !ids.contains(id.trim())) {
+                    ids.add(id.trim());
+                }
+            }
+        }
+        if (ids.isEmpty()) {
+            ids.add(defaultCollection);
+        }
+        return new CollectionShards(ids);
+    }
+
+    /**
+     * @return the collection new faces of the name are indexed into.
+     */
+    public String forName(String name) {
+        if (collections.size() == 1) {
+            return collections.get(0);
+        }
+
+        String best = null;
+        long bestWeight = 0;
+        for (String collection : collections) {
+            long weight = weight(collection, name);
+            if (best == null || Long.compareUnsigned(weight, bestWeight) > 0) {
+                best = collection;
+                bestWeight = weight;
+            }
+        }
+        return best;
+    }
+
+    public List<String> getCollections() {
+        return collections;
+    }
+
+    public int size() {
+        return collections.size();
+    }
+
+    /**
+     * @return identifies the set of collections, e.g. in cache keys.
+     */
+    public String signature() {
+        return String.join(",", collections);
+    }
+
+    private static long weight(String collection, String name) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(collection.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        byte[] hash = digest.digest(name.getBytes(StandardCharsets.UTF_8));
+
+        long weight = 0;
+        for (int i = 0; i < 8; i++) {
+            weight = (weight << 8) | (hash[i] & 0xFF);
+        }
+        return weight;
+    }
+}
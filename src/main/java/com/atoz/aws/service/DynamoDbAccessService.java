@@ -1,11 +1,18 @@
 package com.atoz.aws.service;
 
+import com.atoz.aws.cache.SingleFlight;
+import com.atoz.aws.cache.TtlCache;
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.metrics.AwsCallMetrics;
+import io.micrometer.core.instrument.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Value;
 
 import software.amazon.awssdk.services.dynamodb.model.DynamoDBException;
+import software.amazon.awssdk.services.dynamodb.DynamoDBAsyncClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDBClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
 import software.amazon.awssdk.services.dynamodb.model.CreateTableRequest;
@@ -16,10 +23,21 @@ import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughput;
 import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
 import software.amazon.awssdk.services.dynamodb.model.*;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Service
+@DependsOn("awsClientRegistry")
 public class DynamoDbAccessService {
     private static final Logger log = LoggerFactory.getLogger(DynamoDbAccessService.class);
 
@@ -32,19 +50,91 @@ public class DynamoDbAccessService {
     @Value("${aws.dynamoDb.table.attribute.fullname}")
     private String attrFullName;
 
+    @Value("${aws.dynamoDb.cache.max.size:10000}")
+    private int cacheMaxSize = 10000;
+
+    @Value("${aws.dynamoDb.cache.ttl.seconds:300}")
+    private long cacheTtlSeconds = 300;
+
+    @Value("${aws.dynamoDb.writeBehind.enabled:false}")
+    private boolean writeBehindEnabled;
+
+    @Value("${aws.dynamoDb.writeBehind.flush.size:25}")
+    private int writeBehindFlushSize = 25;
+
+    @Value("${aws.dynamoDb.writeBehind.flush.interval.millis:500}")
+    private long writeBehindFlushIntervalMillis = 500;
+
     private DynamoDBClient dbClient;
 
+    // created on first use, only the async endpoints need it
+    private DynamoDBAsyncClient dbAsyncClient;
+
+    private DynamoDbWriteBehindBuffer writeBehindBuffer;
+
+    // delays retries of unprocessed batch keys without blocking a thread
+    private static final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "dynamodb-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // BatchGetItem accepts at most 100 keys per request, BatchWriteItem at most 25 items
+    private static final int BATCH_GET_MAX_KEYS = 100;
+    private static final int BATCH_WRITE_MAX_ITEMS = 25;
+    private static final int BATCH_MAX_ATTEMPTS = 5;
+    private static final long BATCH_BASE_BACKOFF_MILLIS = 50;
+
+    // faceId -> item attributes; a null value caches a key known to be absent from the table
+    private TtlCache<String, Map<String, AttributeValue>> itemCache;
+
+    // concurrent cache misses of the same key share one GetItem call
+    private final SingleFlight<String, Map<String, AttributeValue>> itemLoads = new SingleFlight<>();
+
     public DynamoDbAccessService() {
-        dbClient = DynamoDBClient.create();
+        dbClient = AwsClientRegistry.getInstance().dynamoDb();
+        itemCache = newItemCache();
     }
 
     public DynamoDbAccessService(String tableName, String keyName) {
         this.tableName = tableName;
         this.keyName = keyName;
-        this.dbClient = DynamoDBClient.create();
+        this.dbClient = AwsClientRegistry.getInstance().dynamoDb();
+        itemCache = newItemCache();
+    }
+
+    /**
+     * Rebuilds the item cache once the configured size and ttl have been injected, and reports it
+     * in the metrics.
+     */
+    @PostConstruct
+    public void initItemCache() {
+        itemCache = newItemCache();
+        itemCache.registerMeters(Metrics.globalRegistry, "dynamodb." + tableName);
+        if (writeBehindEnabled && writeBehindBuffer == null) {
+            writeBehindBuffer = new DynamoDbWriteBehindBuffer(writeBehindFlushSize, writeBehindFlushIntervalMillis,
+                    this::batchPutItems);
+        }
+    }
+
+    private TtlCache<String, Map<String, AttributeValue>> newItemCache() {
+        return new TtlCache<>(cacheMaxSize, cacheTtlSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Flushes every buffered write before the bean goes away.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (writeBehindBuffer != null) {
+            writeBehindBuffer.shutdown();
+        }
     }
 
     public void putItem(String keyValue, Map<String, AttributeValue> extraAttributes) throws Exception {
+        if (writeBehindBuffer != null) {
+            writeBehindBuffer.remove(keyValue);
+        }
         HashMap<String, AttributeValue> item_values = new HashMap<>();
         item_values.put(keyName, AttributeValue.builder().s(keyValue).build());
 
@@ -55,7 +145,8 @@ public class DynamoDbAccessService {
                 .build();
 
         try {
-            dbClient.putItem(request);
+            AwsCallMetrics.time(AwsCallMetrics.DYNAMODB, "PutItem", () -> dbClient.putItem(request));
+            itemCache.invalidate(keyValue);
         } catch (ResourceNotFoundException rnfe) {
             log.error("Error put item into table {}: {}", tableName, rnfe.getMessage());
             throw rnfe;
@@ -65,9 +156,36 @@ public class DynamoDbAccessService {
         }
     }
 
+    /**
+     * Looks the item up in the local cache first and only calls DynamoDB on a cache miss.
+     * Concurrent misses of the same key wait for a single GetItem call.
+     *
+     * @param key key value of the item.
+     * @return item attributes, or null if the item does not exist.
+     * @throws DynamoDBException
+     */
     public Map<String, AttributeValue> getItem(String key) throws DynamoDBException {
+        Map<String, AttributeValue> pendingItem = getPendingItem(key);
+        if (pendingItem != null) {
+            return pendingItem;
+        }
+
+        TtlCache.Entry<Map<String, AttributeValue>> cached = itemCache.getEntry(key);
+        if (cached != null) {
+            log.debug("Item cache hit for key {}", key);
+            return cached.getValue();
+        }
+
+        return itemLoads.execute(key, () -> loadItem(key));
+    }
+
+    /**
+     * Reads an item from the table and caches it, found or not, unless it was written meanwhile.
+     */
+    private Map<String, AttributeValue> loadItem(String key) {
+        long version = itemCache.version(key);
         HashMap<String,AttributeValue> key_to_get = new HashMap<>();
-        log.info("Search DynamoDB with key={}, and tableName={}", keyName, tableName);
+        log.debug("Search DynamoDB with key={}, and tableName={}", keyName, tableName);
         key_to_get.put(keyName, AttributeValue.builder()
                 .s(key).build());
 
@@ -77,13 +195,16 @@ public class DynamoDbAccessService {
                     .build();
 
         try {
-            log.info("calling DynamoDb");
-            GetItemResponse response = dbClient.getItem(request);
-            if (response.item() == null) {
+            log.debug("calling DynamoDb");
+            GetItemResponse response = AwsCallMetrics.time(AwsCallMetrics.DYNAMODB, "GetItem", () -> dbClient.getItem(request));
+            if (response.item() == null || response.item().isEmpty()) {
                 log.info("Item not found {}", key);
-            } else {
-                log.info("return from DynamoDb call with item size={}", response.item().size());
+                itemCache.putIfUnchanged(key, null, version);
+                return null;
             }
+
+            log.debug("return from DynamoDb call with item size={}", response.item().size());
+            itemCache.putIfUnchanged(key, response.item(), version);
             return response.item();
         } catch (DynamoDBException e) {
             log.error("Error to get item from table {}: {}", tableName, e.getErrorMessage());
@@ -91,7 +212,315 @@ public class DynamoDbAccessService {
         }
     }
 
+    /**
+     * Resolves many keys at once. Cached keys are served locally and the rest are fetched with
+     * BatchGetItem in chunks of up to 100 keys, retrying unprocessed keys with exponential backoff.
+     *
+     * @param keys key values of the items.
+     * @return items found, by key value. Keys that do not exist in the table are not in the map.
+     * @throws DynamoDBException
+     */
+    public Map<String, Map<String, AttributeValue>> batchGetItems(Collection<String> keys) throws DynamoDBException {
+        Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+        List<String> keysToFetch = new ArrayList<>();
+        Map<String, Long> versions = new HashMap<>();
+        for (String key : new LinkedHashSet<>(keys)) {
+            Map<String, AttributeValue> pendingItem = getPendingItem(key);
+            if (pendingItem != null) {
+                items.put(key, pendingItem);
+                continue;
+            }
+
+            TtlCache.Entry<Map<String, AttributeValue>> cached = itemCache.getEntry(key);
+            if (cached == null) {
+                versions.put(key, itemCache.version(key));
+                keysToFetch.add(key);
+            } else if (cached.getValue() != null) {
+                items.put(key, cached.getValue());
+            }
+        }
+
+        for (int from = 0; from < keysToFetch.size(); from += BATCH_GET_MAX_KEYS) {
+            List<String> chunk = keysToFetch.subList(from, Math.min(from + BATCH_GET_MAX_KEYS, keysToFetch.size()));
+            Map<String, Map<String, AttributeValue>> fetched = batchGetChunk(chunk);
+            for (String key : chunk) {
+                Map<String, AttributeValue> item = fetched.get(key);
+                itemCache.putIfUnchanged(key, item, versions.get(key));
+                if (item != null) {
+                    items.put(key, item);
+                }
+            }
+        }
+
+        log.debug("Resolved {} of {} keys, {} from DynamoDB", items.size(), keys.size(), keysToFetch.size());
+        return items;
+    }
+
+    private Map<String, Map<String, AttributeValue>> batchGetChunk(List<String> keys) throws DynamoDBException {
+        List<Map<String, AttributeValue>> keyMaps = new ArrayList<>();
+        for (String key : keys) {
+            HashMap<String, AttributeValue> keyMap = new HashMap<>();
+            keyMap.put(keyName, AttributeValue.builder().s(key).build());
+            keyMaps.add(keyMap);
+        }
+
+        Map<String, KeysAndAttributes> requestItems = new HashMap<>();
+        requestItems.put(tableName, KeysAndAttributes.builder().keys(keyMaps).build());
+
+        Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+        for (int attempt = 1; ; attempt++) {
+            BatchGetItemResponse response;
+            try {
+                BatchGetItemRequest request = BatchGetItemRequest.builder().requestItems(requestItems).build();
+                response = AwsCallMetrics.time(AwsCallMetrics.DYNAMODB, "BatchGetItem", () -> dbClient.batchGetItem(request));
+            } catch (DynamoDBException e) {
+                log.error("Error to batch get items from table {}: {}", tableName, e.getErrorMessage());
+                throw e;
+            }
+
+            List<Map<String, AttributeValue>> found = response.responses() == null ? null : response.responses().get(tableName);
+            if (found != null) {
+                for (Map<String, AttributeValue> item : found) {
+                    items.put(item.get(keyName).s(), item);
+                }
+            }
+
+            requestItems = response.unprocessedKeys();
+            if (requestItems == null || requestItems.isEmpty()) {
+                return items;
+            }
+            if (attempt == BATCH_MAX_ATTEMPTS) {
+                throw new DynamoDBException("Unprocessed keys remain for table " + tableName
+                        + " after " + attempt + " attempts");
+            }
+
+            log.warn("Retrying unprocessed keys for table {}, attempt {}", tableName, attempt);
+            backoff(attempt);
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #batchGetItems(Collection)} using the async client.
+     */
+    public CompletableFuture<Map<String, Map<String, AttributeValue>>> batchGetItemsAsync(Collection<String> keys) {
+        Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+        List<Map<String, AttributeValue>> keyMaps = new ArrayList<>();
+        Map<String, Long> versions = new HashMap<>();
+        for (String key : new LinkedHashSet<>(keys)) {
+            Map<String, AttributeValue> pendingItem = getPendingItem(key);
+            TtlCache.Entry<Map<String, AttributeValue>> cached = pendingItem == null ? itemCache.getEntry(key) : null;
+            if (pendingItem != null) {
+                items.put(key, pendingItem);
+            } else if (cached == null) {
+                versions.put(key, itemCache.version(key));
+                HashMap<String, AttributeValue> keyMap = new HashMap<>();
+                keyMap.put(keyName, AttributeValue.builder().s(key).build());
+                keyMaps.add(keyMap);
+            } else if (cached.getValue() != null) {
+                items.put(key, cached.getValue());
+            }
+        }
+
+        List<CompletableFuture<Map<String, Map<String, AttributeValue>>>> chunks = new ArrayList<>();
+        for (int from = 0; from < keyMaps.size(); from += BATCH_GET_MAX_KEYS) {
+            Map<String, KeysAndAttributes> requestItems = new HashMap<>();
+            requestItems.put(tableName, KeysAndAttributes.builder()
+                    .keys(keyMaps.subList(from, Math.min(from + BATCH_GET_MAX_KEYS, keyMaps.size())))
+                    .build());
+            chunks.add(batchGetChunkAsync(requestItems, new HashMap<>(), 1));
+        }
+
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0])).thenApply(done -> {
+            Map<String, Map<String, AttributeValue>> fetched = new HashMap<>();
+            chunks.forEach(chunk -> fetched.putAll(chunk.join()));
+            for (Map<String, AttributeValue> keyMap : keyMaps) {
+                String key = keyMap.get(keyName).s();
+                itemCache.putIfUnchanged(key, fetched.get(key), versions.get(key));
+            }
+            items.putAll(fetched);
+            return items;
+        });
+    }
+
+    private CompletableFuture<Map<String, Map<String, AttributeValue>>> batchGetChunkAsync(
+            Map<String, KeysAndAttributes> requestItems, Map<String, Map<String, AttributeValue>> items, int attempt) {
+        return AwsCallMetrics.timeAsync(AwsCallMetrics.DYNAMODB, "BatchGetItem",
+                () -> getDbAsyncClient().batchGetItem(BatchGetItemRequest.builder().requestItems(requestItems).build()))
+                .thenCompose(response -> {
+                    List<Map<String, AttributeValue>> found = response.responses() == null ? null : response.responses().get(tableName);
+                    if (found != null) {
+                        for (Map<String, AttributeValue> item : found) {
+                            items.put(item.get(keyName).s(), item);
+                        }
+                    }
+
+                    Map<String, KeysAndAttributes> unprocessed = response.unprocessedKeys();
+                    if (unprocessed == null || unprocessed.isEmpty()) {
+                        return CompletableFuture.completedFuture(items);
+                    }
+                    if (attempt == BATCH_MAX_ATTEMPTS) {
+                        throw new DynamoDBException("Unprocessed keys remain for table " + tableName
+                                + " after " + attempt + " attempts");
+                    }
+                    return delay(attempt).thenCompose(ignored -> batchGetChunkAsync(unprocessed, items, attempt + 1));
+                });
+    }
+
+    /**
+     * Non-blocking variant of {@link #putItems(Map)} using the async client. Write-behind, when
+     * enabled, applies here as well.
+     */
+    public CompletableFuture<Void> putItemsAsync(Map<String, Map<String, AttributeValue>> extraAttributesByKey) {
+        Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+        for (Map.Entry<String, Map<String, AttributeValue>> entry : extraAttributesByKey.entrySet()) {
+            items.put(entry.getKey(), buildItem(entry.getKey(), entry.getValue()));
+        }
+
+        if (writeBehindBuffer != null) {
+            writeBehindBuffer.add(items);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        List<String> keys = new ArrayList<>(items.keySet());
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        for (int from = 0; from < keys.size(); from += BATCH_WRITE_MAX_ITEMS) {
+            List<String> chunk = keys.subList(from, Math.min(from + BATCH_WRITE_MAX_ITEMS, keys.size()));
+            List<WriteRequest> writeRequests = new ArrayList<>();
+            for (String key : chunk) {
+                writeRequests.add(WriteRequest.builder()
+                        .putRequest(PutRequest.builder().item(items.get(key)).build())
+                        .build());
+            }
+            Map<String, List<WriteRequest>> requestItems = new HashMap<>();
+            requestItems.put(tableName, writeRequests);
+
+            chunks.add(batchWriteChunkAsync(requestItems, 1)
+                    .thenRun(() -> chunk.forEach(key -> itemCache.put(key, items.get(key)))));
+        }
+
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0]));
+    }
+
+    private CompletableFuture<Void> batchWriteChunkAsync(Map<String, List<WriteRequest>> requestItems, int attempt) {
+        return AwsCallMetrics.timeAsync(AwsCallMetrics.DYNAMODB, "BatchWriteItem",
+                () -> getDbAsyncClient().batchWriteItem(BatchWriteItemRequest.builder().requestItems(requestItems).build()))
+                .thenCompose(response -> {
+                    Map<String, List<WriteRequest>> unprocessed = response.unprocessedItems();
+                    if (unprocessed == null || unprocessed.isEmpty()) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    if (attempt == BATCH_MAX_ATTEMPTS) {
+                        throw new DynamoDBException("Unprocessed items remain for table " + tableName
+                                + " after " + attempt + " attempts");
+                    }
+                    return delay(attempt).thenCompose(ignored -> batchWriteChunkAsync(unprocessed, attempt + 1));
+                });
+    }
+
+    private static CompletableFuture<Void> delay(int attempt) {
+        CompletableFuture<Void> delayed = new CompletableFuture<>();
+        retryScheduler.schedule(() -> delayed.complete(null), BATCH_BASE_BACKOFF_MILLIS << (attempt - 1),
+                TimeUnit.MILLISECONDS);
+        return delayed;
+    }
+
+    /**
+     * Writes items for many keys. With write-behind enabled the items are buffered and written in
+     * the background, otherwise they are written right away with {@link #batchPutItems(Map)}.
+     *
+     * @param extraAttributesByKey non-key attributes of each item, by key value.
+     */
+    public void putItems(Map<String, Map<String, AttributeValue>> extraAttributesByKey) throws DynamoDBException {
+        Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+        for (Map.Entry<String, Map<String, AttributeValue>> entry : extraAttributesByKey.entrySet()) {
+            items.put(entry.getKey(), buildItem(entry.getKey(), entry.getValue()));
+        }
+
+        if (writeBehindBuffer != null) {
+            writeBehindBuffer.add(items);
+        } else {
+            batchPutItems(items);
+        }
+    }
+
+    /**
+     * Writes full items with BatchWriteItem in chunks of up to 25, retrying unprocessed items with
+     * exponential backoff.
+     *
+     * @param items full items, including the key attribute, by key value.
+     * @throws DynamoDBException
+     */
+    public void batchPutItems(Map<String, Map<String, AttributeValue>> items) throws DynamoDBException {
+        List<String> keys = new ArrayList<>(items.keySet());
+        for (int from = 0; from < keys.size(); from += BATCH_WRITE_MAX_ITEMS) {
+            List<String> chunk = keys.subList(from, Math.min(from + BATCH_WRITE_MAX_ITEMS, keys.size()));
+            List<WriteRequest> writeRequests = new ArrayList<>();
+            for (String key : chunk) {
+                writeRequests.add(WriteRequest.builder()
+                        .putRequest(PutRequest.builder().item(items.get(key)).build())
+                        .build());
+            }
+
+            batchWriteChunk(writeRequests);
+            for (String key : chunk) {
+                itemCache.put(key, items.get(key));
+            }
+        }
+        log.debug("Wrote {} items into table {}", items.size(), tableName);
+    }
+
+    private void batchWriteChunk(List<WriteRequest> writeRequests) throws DynamoDBException {
+        Map<String, List<WriteRequest>> requestItems = new HashMap<>();
+        requestItems.put(tableName, writeRequests);
+
+        for (int attempt = 1; ; attempt++) {
+            BatchWriteItemResponse response;
+            try {
+                BatchWriteItemRequest request = BatchWriteItemRequest.builder().requestItems(requestItems).build();
+                response = AwsCallMetrics.time(AwsCallMetrics.DYNAMODB, "BatchWriteItem", () -> dbClient.batchWriteItem(request));
+            } catch (DynamoDBException e) {
+                log.error("Error to batch write items into table {}: {}", tableName, e.getErrorMessage());
+                throw e;
+            }
+
+            requestItems = response.unprocessedItems();
+            if (requestItems == null || requestItems.isEmpty()) {
+                return;
+            }
+            if (attempt == BATCH_MAX_ATTEMPTS) {
+                throw new DynamoDBException("Unprocessed items remain for table " + tableName
+                        + " after " + attempt + " attempts");
+            }
+
+            log.warn("Retrying unprocessed items for table {}, attempt {}", tableName, attempt);
+            backoff(attempt);
+        }
+    }
+
+    private Map<String, AttributeValue> getPendingItem(String key) {
+        return writeBehindBuffer == null ? null : writeBehindBuffer.getPending(key);
+    }
+
+    private Map<String, AttributeValue> buildItem(String keyValue, Map<String, AttributeValue> extraAttributes) {
+        Map<String, AttributeValue> item = new HashMap<>(extraAttributes);
+        item.put(keyName, AttributeValue.builder().s(keyValue).build());
+
+        return item;
+    }
+
+    private static void backoff(int attempt) {
+        try {
+            Thread.sleep(BATCH_BASE_BACKOFF_MILLIS << (attempt - 1));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new DynamoDBException("Interrupted while backing off batch request");
+        }
+    }
+
     public void deleteItem(String key) {
+        if (writeBehindBuffer != null) {
+            writeBehindBuffer.remove(key);
+        }
         HashMap<String,AttributeValue> keyMap = new HashMap<>();
         keyMap.put(keyName, AttributeValue.builder().s(key).build());
         DeleteItemRequest request = DeleteItemRequest.builder()
@@ -100,22 +529,26 @@ public class DynamoDbAccessService {
                 .build();
 
         try {
-            DeleteItemResponse response = dbClient.deleteItem(request);
+            DeleteItemResponse response = AwsCallMetrics.time(AwsCallMetrics.DYNAMODB, "DeleteItem", () -> dbClient.deleteItem(request));
         } catch (DynamoDBException e) {
             log.error("Error to delete item {} from table {}", key, tableName);
+        } finally {
+            itemCache.invalidate(key);
         }
     }
 
     public static String deleteTable(String tableName) {
         DeleteTableRequest request = DeleteTableRequest.builder().tableName(tableName).build();
 
-        DeleteTableResponse response = DynamoDBClient.create().deleteTable(request);
+        DeleteTableResponse response = AwsCallMetrics.time(AwsCallMetrics.DYNAMODB, "DeleteTable",
+                () -> AwsClientRegistry.getInstance().dynamoDb().deleteTable(request));
         return response.tableDescription().tableName();
     }
 
     public static boolean tableExists(String tableName) {
         ListTablesRequest request = ListTablesRequest.builder().build();
-        ListTablesResponse response = DynamoDBClient.create().listTables(request);
+        ListTablesResponse response = AwsCallMetrics.time(AwsCallMetrics.DYNAMODB, "ListTables",
+                () -> AwsClientRegistry.getInstance().dynamoDb().listTables(request));
 
         return response.tableNames().contains(tableName);
     }
@@ -144,7 +577,8 @@ public class DynamoDbAccessService {
                 .tableName(tableName)
                 .build();
 
-        CreateTableResponse response = DynamoDBClient.create().createTable(request);
+        CreateTableResponse response = AwsCallMetrics.time(AwsCallMetrics.DYNAMODB, "CreateTable",
+                () -> AwsClientRegistry.getInstance().dynamoDb().createTable(request));
 
         return response.tableDescription().tableName();
     }
@@ -171,6 +605,37 @@ public class DynamoDbAccessService {
         this.attrFullName = attrFullName;
     }
 
+    public TtlCache<String, Map<String, AttributeValue>> getItemCache() {
+        return itemCache;
+    }
+
+    public SingleFlight<String, Map<String, AttributeValue>> getItemLoads() {
+        return itemLoads;
+    }
+
+    public void setCacheMaxSize(int cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
+    public void setCacheTtlSeconds(long cacheTtlSeconds) {
+        this.cacheTtlSeconds = cacheTtlSeconds;
+    }
+
+    public DynamoDbWriteBehindBuffer getWriteBehindBuffer() {
+        return writeBehindBuffer;
+    }
+
+    public synchronized DynamoDBAsyncClient getDbAsyncClient() {
+        if (dbAsyncClient == null) {
+            dbAsyncClient = AwsClientRegistry.getInstance().dynamoDbAsync();
+        }
+        return dbAsyncClient;
+    }
+
+    public synchronized void setDbAsyncClient(DynamoDBAsyncClient dbAsyncClient) {
+        this.dbAsyncClient = dbAsyncClient;
+    }
+
     public DynamoDBClient getDbClient() {
         return dbClient;
     }
@@ -0,0 +1,191 @@
+package com.atoz.aws.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Buffers item writes and hands them to a batch writer once the buffer reaches the flush size or
+ * the flush interval elapses, whichever comes first. Items are keyed by their key value so a later
+ * write of the same key replaces a pending one. Failed flushes are put back into the buffer.
+ * <p>
+ * Items being flushed stay visible to {@link #getPending(String)} until their write lands, and
+ * {@link #remove(String)} of such an item waits for it, so a direct write or delete that follows
+ * is not overwritten by the flush. After {@link #shutdown()} items are written right away.
+ */
+public class DynamoDbWriteBehindBuffer {
+    private static final Logger log = LoggerFactory.getLogger(DynamoDbWriteBehindBuffer.class);
+
+    private static final int SHUTDOWN_FLUSH_ATTEMPTS = 5;
+    private static final long SHUTDOWN_BASE_BACKOFF_MILLIS = 50;
+
+    private final int flushSize;
+    private final Consumer<Map<String, Map<String, AttributeValue>>> batchWriter;
+    private final ScheduledExecutorService scheduler;
+
+    private final Object flushLock = new Object();
+    private LinkedHashMap<String, Map<String, AttributeValue>> pending = new LinkedHashMap<>();
+    // the batch of the flush in progress, empty between flushes
+    private Map<String, Map<String, AttributeValue>> inFlight = Collections.emptyMap();
+    private boolean shutDown;
+
+    public DynamoDbWriteBehindBuffer(int flushSize, long flushIntervalMillis,
+                                     Consumer<Map<String, Map<String, AttributeValue>>> batchWriter) {
+        this.flushSize = flushSize;
+        this.batchWriter = batchWriter;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dynamodb-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffers the items, or writes them before returning once the buffer has been shut down.
+     */
+    public void add(Map<String, Map<String, AttributeValue>> items) {
+        boolean full = false;
+        boolean writeNow = false;
+        synchronized (this) {
+            if (shutDown) {
+                // a buffered write of the same key would otherwise be drained after this one
+                pending.keySet().removeAll(items.keySet());
+                writeNow = true;
+            } else {
+                pending.putAll(items);
+                full = pending.size() >= flushSize;
+            }
+        }
+
+        if (writeNow) {
+            // after a flush in progress, so its older write of the same key cannot land last
+            synchronized (flushLock) {
+                batchWriter.accept(new LinkedHashMap<>(items));
+            }
+        } else if (full) {
+            try {
+                scheduler.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                log.debug("Shutting down, the buffered items are drained by shutdown()");
+            }
+        }
+    }
+
+    /**
+     * @return the buffered item, also while it is being flushed, or null.
+     */
+    public synchronized Map<String, AttributeValue> getPending(String key) {
+        Map<String, AttributeValue> item = pending.get(key);
+        return item != null ? item : inFlight.get(key);
+    }
+
+    /**
+     * Drops a pending write, used when the item is written or deleted directly. When the item is
+     * being flushed this waits until that write has landed, so the caller's write comes after it.
+     */
+    public void remove(String key) {
+        synchronized (this) {
+            pending.remove(key);
+            if (!inFlight.containsKey(key)) {
+                return;
+            }
+        }
+
+        synchronized (flushLock) {
+            synchronized (this) {
+                // a failed flush has put the item back
+                pending.remove(key);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Writes everything buffered so far. Items that fail to write are put back into the buffer
+     * unless a newer write for the same key arrived in the meantime.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            LinkedHashMap<String, Map<String, AttributeValue>> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                inFlight = batch;
+            }
+
+            try {
+                batchWriter.accept(batch);
+                log.debug("Flushed {} buffered items", batch.size());
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    batch.putAll(pending);
+                    pending = batch;
+                }
+                throw e;
+            } finally {
+                synchronized (this) {
+                    inFlight = Collections.emptyMap();
+                }
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Write-behind flush failed, {} items kept for retry: {}", size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the timer and drains the buffer, so nothing accepted before shutdown is lost.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutDown = true;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (int attempt = 1; size() > 0; attempt++) {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                if (attempt >= SHUTDOWN_FLUSH_ATTEMPTS) {
+                    log.error("Giving up on {} buffered items at shutdown: {}", size(), e.getMessage());
+                    throw e;
+                }
+                log.warn("Shutdown flush attempt {} failed: {}", attempt, e.getMessage());
+                try {
+                    Thread.sleep(SHUTDOWN_BASE_BACKOFF_MILLIS << (attempt - 1));
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    log.error("Interrupted, giving up on {} buffered items at shutdown", size());
+                    throw e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.atoz.aws.service;
+
+import java.io.Serializable;
+
+/**
+ * One face of a ranked match: the indexed face, the name stored for it and how similar it is to
+ * the face searched for, in percent.
+ */
+public class FaceMatchResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String faceId;
+    private final String name;
+    private final float similarity;
+
+    public FaceMatchResult(String faceId, String name, float similarity) {
+        this.faceId = faceId;
+        this.name = name;
+        this.similarity = similarity;
+    }
+
+    public String getFaceId() {
+        return faceId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public float getSimilarity() {
+        return similarity;
+    }
+}
@@ -0,0 +1,48 @@
+package com.atoz.aws.service;
+
+import com.amazonaws.services.rekognition.model.BoundingBox;
+
+import java.util.List;
+
+/**
+ * Matches of one face found in a group image. The bounding box is relative to the image turned
+ * upright by its EXIF orientation.
+ */
+public class GroupFaceMatch {
+    private final BoundingBox boundingBox;
+    private final Float confidence;
+    private final List<FaceMatchResult> matches;
+    private final String error;
+
+    GroupFaceMatch(BoundingBox boundingBox, Float confidence, List<FaceMatchResult> matches, String error) {
+        this.boundingBox = boundingBox;
+        this.confidence = confidence;
+        this.matches = matches;
+        this.error = error;
+    }
+
+    public BoundingBox getBoundingBox() {
+        return boundingBox;
+    }
+
+    /**
+     * @return how sure DetectFaces is that the box holds a face, in percent.
+     */
+    public Float getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * @return matched faces, best similarity first; empty when the search failed.
+     */
+    public List<FaceMatchResult> getMatches() {
+        return matches;
+    }
+
+    /**
+     * @return why the face could not be searched, or null.
+     */
+    public String getError() {
+        return error;
+    }
+}
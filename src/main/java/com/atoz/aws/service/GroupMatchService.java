@@ -0,0 +1,144 @@
+package com.atoz.aws.service;
+
+import com.amazonaws.services.rekognition.model.BoundingBox;
+import com.amazonaws.services.rekognition.model.FaceDetail;
+import com.atoz.aws.config.ExecutorConfig;
+import com.atoz.aws.image.FaceCropper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Matches every face of a group image. SearchFacesByImage only searches the largest face, so the
+ * image is sent to DetectFaces once, each face is cut out locally and the small crops are searched
+ * concurrently, at most {@code concurrency} at a time per request.
+ */
+@Service
+public class GroupMatchService {
+    private static final Logger log = LoggerFactory.getLogger(GroupMatchService.class);
+
+    @Autowired
+    private AtoZImageRekognitionService imageService;
+
+    // searches block on the Rekognition executor when there are several collections, so they
+    // must not run on it themselves
+    @Autowired(required = false)
+    @Qualifier("faceSearchExecutor")
+    private ExecutorService executor;
+
+    @Value("${aws.group.match.max.faces:20}")
+    private int maxFaces = 20;
+
+    @Value("${aws.group.match.concurrency:4}")
+    private int concurrency = 4;
+
+    @Value("${aws.group.match.crop.margin:0.3}")
+    private float cropMargin = 0.3F;
+
+    @Value("${aws.group.match.jpeg.quality:0.9}")
+    private float jpegQuality = 0.9F;
+
+    @Value("${aws.rekognition.preprocess.max.side:1920}")
+    private int maxSide = 1920;
+
+    private FaceCropper cropper;
+
+    public GroupMatchService() {
+        initCropper();
+    }
+
+    @PostConstruct
+    public void initCropper() {
+        cropper = new FaceCropper(cropMargin, jpegQuality);
+    }
+
+    /**
+     * @param imageBytes image content.
+     * @param topK maximum number of matches per face.
+     * @param minSimilarity minimum similarity percentage of a match.
+     * @return the largest {@code max.faces} faces, largest first, with their matches.
+     * @throws IllegalArgumentException when the image cannot be decoded.
+     */
+    public List<GroupFaceMatch> matchGroup(byte[] imageBytes, int topK, float minSimilarity) throws Exception {
+        BufferedImage image = cropper.decodeUpright(imageBytes, maxSide);
+        if (image == null) {
+            throw new IllegalArgumentException("Image format not supported");
+        }
+
+        // boxes are relative to the image DetectFaces sees, so it gets the upright image the crops are cut from
+        List<FaceDetail> faces = new ArrayList<>(imageService.detectFaces(cropper.encode(image)).getFaceDetails());
+        faces.sort(Comparator.comparingDouble(GroupMatchService::area).reversed());
+        if (faces.size() > maxFaces) {
+            log.info("{} faces detected, searching the largest {}", faces.size(), maxFaces);
+            faces = faces.subList(0, maxFaces);
+        }
+
+        List<FaceDetail> searched = faces;
+        GroupFaceMatch[] results = new GroupFaceMatch[searched.size()];
+        AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            int i;
+            while ((i = next.getAndIncrement()) < searched.size()) {
+                results[i] = search(image, searched.get(i), topK, minSimilarity);
+            }
+        };
+
+        // the request thread is one of the workers
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 1; i < Math.min(concurrency, searched.size()); i++) {
+            workers.add(getExecutor().submit(worker));
+        }
+        worker.run();
+        for (Future<?> future : workers) {
+            future.get();
+        }
+
+        return Arrays.asList(results);
+    }
+
+    private GroupFaceMatch search(BufferedImage image, FaceDetail face, int topK, float minSimilarity) {
+        BoundingBox box = face.getBoundingBox();
+        try {
+            byte[] crop = cropper.crop(image, box.getLeft(), box.getTop(), box.getWidth(), box.getHeight());
+            return new GroupFaceMatch(box, face.getConfidence(), imageService.matchFaces(crop, topK, minSimilarity), null);
+        } catch (Exception e) {
+            log.warn("Cannot search face at {}: {}", box, e.getMessage());
+            return new GroupFaceMatch(box, face.getConfidence(), new ArrayList<>(), e.getMessage());
+        }
+    }
+
+    private static double area(FaceDetail face) {
+        BoundingBox box = face.getBoundingBox();
+        return (double) box.getWidth() * box.getHeight();
+    }
+
+    public synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = ExecutorConfig.boundedExecutor("face-search", concurrency * 4, concurrency * 16,
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        return executor;
+    }
+
+    public synchronized void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public void setImageService(AtoZImageRekognitionService imageService) {
+        this.imageService = imageService;
+    }
+}
@@ -0,0 +1,186 @@
+package com.atoz.aws.service;
+
+import com.atoz.aws.throttle.ThrottledException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Runs several Rekognition operations on one uploaded image at once, so a full analysis takes
+ * about as long as its slowest operation. The image is pre-processed at most once and shared by
+ * all operations, which share cached results with the single operation endpoints. Each operation
+ * has its own deadline; one that fails or runs late is reported in the errors of the analysis
+ * while the others are still returned.
+ */
+@Service
+public class ImageAnalysisService {
+    private static final Logger log = LoggerFactory.getLogger(ImageAnalysisService.class);
+
+    public enum Operation {
+        LABELS, MATCH, FACES;
+
+        /**
+         * Parses a comma separated list of operation names, case insensitive.
+         *
+         * @throws IllegalArgumentException on an unknown name or an empty list.
+         */
+        public static Set<Operation> parse(String operations) {
+            Set<Operation> parsed = EnumSet.noneOf(Operation.class);
+            for (String name : operations.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    parsed.add(valueOf(name.trim().toUpperCase(Locale.ROOT)));
+                }
+            }
+            if (parsed.isEmpty()) {
+                throw new IllegalArgumentException("No operation selected");
+            }
+            return parsed;
+        }
+
+        public String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    @Autowired
+    private AtoZImageRekognitionService imageService;
+
+    @Autowired
+    @Qualifier("rekognitionExecutor")
+    private ExecutorService rekognitionExecutor;
+
+    // searches wait on the Rekognition executor when there are several collections
+    @Autowired
+    @Qualifier("analysisMatchExecutor")
+    private ExecutorService searchExecutor;
+
+    @Value("${aws.analyze.labels.deadline.millis:5000}")
+    private long labelsDeadlineMillis = 5000;
+
+    @Value("${aws.analyze.match.deadline.millis:5000}")
+    private long matchDeadlineMillis = 5000;
+
+    @Value("${aws.analyze.faces.deadline.millis:5000}")
+    private long facesDeadlineMillis = 5000;
+
+    /**
+     * @param imageBytes image content, an array of its own rather than a pooled buffer, as operations
+     *                   past their deadline still read it after this returns.
+     * @param operations operations to run.
+     * @return the result of every operation that finished in time, keyed by operation, and under
+     * "errors" why the others did not.
+     * @throws ThrottledException when every operation was throttled.
+     */
+    public Map<String, Object> analyze(byte[] imageBytes, Set<Operation> operations) {
+        long start = System.nanoTime();
+        AtoZImageRekognitionService.PreparedImage image = imageService.prepare(imageBytes);
+
+        Map<Operation, CompletableFuture<Object>> calls = new LinkedHashMap<>();
+        for (Operation operation : operations) {
+            calls.put(operation, start(operation, image));
+        }
+
+        Map<String, Object> results = new LinkedHashMap<>();
+        Map<String, String> errors = new LinkedHashMap<>();
+        int throttled = 0;
+        ThrottledException throttle = null;
+        for (Map.Entry<Operation, CompletableFuture<Object>> call : calls.entrySet()) {
+            Operation operation = call.getKey();
+            // a result already there is taken even when its deadline passed while waiting for another
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(deadlineMillis(operation));
+            try {
+                results.put(operation.key(), call.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                call.getValue().cancel(false);
+                errors.put(operation.key(), "Deadline of " + deadlineMillis(operation) + " ms passed");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof ThrottledException) {
+                    throttled++;
+                    throttle = (ThrottledException) cause;
+                }
+                errors.put(operation.key(), cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                errors.put(operation.key(), "Interrupted");
+            }
+        }
+
+        if (throttled == calls.size()) {
+            throw throttle;
+        }
+        if (!errors.isEmpty()) {
+            log.warn("Analysis operations failed: {}", errors);
+            results.put("errors", errors);
+        }
+        log.info("Analyzed image with {} in {} ms", operations, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return results;
+    }
+
+    private CompletableFuture<Object> start(Operation operation, AtoZImageRekognitionService.PreparedImage image) {
+        switch (operation) {
+            case LABELS:
+                return supply(() -> imageService.detectLabels(image), rekognitionExecutor);
+            case MATCH:
+                return supply(() -> imageService.matchFaces(image, imageService.getMatchTopK(), imageService.getMatchMinSimilarity()),
+                        searchExecutor);
+            default:
+                return supply(() -> imageService.detectFaces(image, true).getFaceDetails(), rekognitionExecutor);
+        }
+    }
+
+    /**
+     * A full executor fails the operation rather than the analysis.
+     */
+    private static CompletableFuture<Object> supply(Supplier<Object> call, ExecutorService executor) {
+        try {
+            return CompletableFuture.supplyAsync(call, executor);
+        } catch (RuntimeException e) {
+            CompletableFuture<Object> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    public void setImageService(AtoZImageRekognitionService imageService) {
+        this.imageService = imageService;
+    }
+
+    public void setRekognitionExecutor(ExecutorService rekognitionExecutor) {
+        this.rekognitionExecutor = rekognitionExecutor;
+    }
+
+    public void setSearchExecutor(ExecutorService searchExecutor) {
+        this.searchExecutor = searchExecutor;
+    }
+
+    public void setFacesDeadlineMillis(long facesDeadlineMillis) {
+        this.facesDeadlineMillis = facesDeadlineMillis;
+    }
+
+    private long deadlineMillis(Operation operation) {
+        switch (operation) {
+            case LABELS:
+                return labelsDeadlineMillis;
+            case MATCH:
+                return matchDeadlineMillis;
+            default:
+                return facesDeadlineMillis;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.atoz.aws.service;
+
+/**
+ * Outcome of indexing one image of a bulk request.
+ */
+public class IndexItemResult {
+    public enum Status { INDEXED, NO_FACE, FAILED }
+
+    private final String item;
+    private final String name;
+    private Status status;
+    private int faceCount;
+    private boolean stored;
+    private String error;
+
+    public IndexItemResult(String item, String name) {
+        this.item = item;
+        this.name = name;
+    }
+
+    public static IndexItemResult failed(String item, String name, String error) {
+        IndexItemResult result = new IndexItemResult(item, name);
+        result.status = Status.FAILED;
+        result.error = error;
+        return result;
+    }
+
+    public void indexed(int faceCount) {
+        this.faceCount = faceCount;
+        this.status = faceCount > 0 ? Status.INDEXED : Status.NO_FACE;
+    }
+
+    public String getItem() {
+        return item;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getFaceCount() {
+        return faceCount;
+    }
+
+    /**
+     * @return whether the image and its thumbnails were stored to S3.
+     */
+    public boolean isStored() {
+        return stored;
+    }
+
+    public void setStored(boolean stored) {
+        this.stored = stored;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.status = Status.FAILED;
+        this.error = error;
+    }
+}
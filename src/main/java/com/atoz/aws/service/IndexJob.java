@@ -0,0 +1,97 @@
+package com.atoz.aws.service;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * State of one asynchronous index request, as kept in the {@link IndexJobJournal}. A job moves from
+ * QUEUED to INDEXING right before IndexFaces is called, to FACES_INDEXED once IndexFaces returned,
+ * and to INDEXED once the name rows are written. Faces are indexed with the job id as their
+ * ExternalImageId, so the faces of a job left INDEXING can be found again.
+ */
+public class IndexJob {
+    public enum Status {
+        QUEUED, INDEXING, FACES_INDEXED, INDEXED, NO_FACE, FAILED;
+
+        public boolean isFinished() {
+            return this == INDEXED || this == NO_FACE || this == FAILED;
+        }
+    }
+
+    private final String id;
+    private final String name;
+    private final long createdAt;
+    private volatile Status status = Status.QUEUED;
+    private volatile List<String> faceIds = Collections.emptyList();
+    private volatile int attempts;
+    private volatile String error;
+    private volatile long updatedAt;
+
+    public IndexJob(String id, String name, long createdAt) {
+        this.id = id;
+        this.name = name;
+        this.createdAt = createdAt;
+        this.updatedAt = createdAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    void setStatus(Status status) {
+        this.status = status;
+        this.updatedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the faces indexed so far; their name rows exist once the job is INDEXED. A FAILED job
+     * keeps the faces that could not be deleted from the collection.
+     */
+    public List<String> getFaceIds() {
+        return faceIds;
+    }
+
+    void setFaceIds(List<String> faceIds) {
+        this.faceIds = Collections.unmodifiableList(faceIds);
+    }
+
+    public int getFaceCount() {
+        return faceIds.size();
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    void setError(String error) {
+        this.error = error;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
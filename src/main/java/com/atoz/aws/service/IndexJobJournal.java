@@ -0,0 +1,216 @@
+package com.atoz.aws.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps index jobs in a local directory so they survive restarts. Every job has a state file, and
+ * until its faces are indexed also the uploaded image. Files are written to a temporary file,
+ * forced to disk and then moved into place, so a crash leaves either the old or the new state.
+ */
+public class IndexJobJournal {
+    private static final Logger log = LoggerFactory.getLogger(IndexJobJournal.class);
+
+    private static final String JOB_SUFFIX = ".job";
+    private static final String IMAGE_SUFFIX = ".img";
+
+    private final Path dir;
+    private final Map<String, IndexJob> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * Opens the journal and loads every job found in it.
+     */
+    public IndexJobJournal(Path dir) {
+        this.dir = dir;
+        try {
+            Files.createDirectories(dir);
+            try (Stream<Path> files = Files.list(dir)) {
+                files.filter(p -> p.toString().endsWith(JOB_SUFFIX)).forEach(this::load);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open index job journal " + dir, e);
+        }
+        log.info("Index job journal at {} holds {} jobs", dir, jobs.size());
+    }
+
+    /**
+     * Stores the image and a new QUEUED job for it.
+     *
+     * @param name full name to index the faces under.
+     * @param image image content, read to the end but not closed.
+     */
+    public IndexJob create(String name, InputStream image) throws IOException {
+        IndexJob job = new IndexJob(UUID.randomUUID().toString(), name, System.currentTimeMillis());
+
+        Path tmp = Files.createTempFile(dir, "image", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                copy(image, out);
+            }
+            force(tmp);
+            Files.move(tmp, imageFile(job.getId()), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        write(job);
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    /**
+     * Persists the current state of a job.
+     */
+    public void update(IndexJob job) throws IOException {
+        job.setUpdatedAt(System.currentTimeMillis());
+        write(job);
+    }
+
+    public IndexJob get(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * @return jobs not finished yet, oldest first.
+     */
+    public List<IndexJob> unfinished() {
+        return jobs.values().stream()
+                .filter(job -> !job.getStatus().isFinished())
+                .sorted(Comparator.comparingLong(IndexJob::getCreatedAt))
+                .collect(Collectors.toList());
+    }
+
+    public byte[] readImage(String id) throws IOException {
+        return Files.readAllBytes(imageFile(id));
+    }
+
+    /**
+     * Drops the image of a job once it is no longer needed.
+     */
+    public void deleteImage(String id) {
+        try {
+            Files.deleteIfExists(imageFile(id));
+        } catch (IOException e) {
+            log.warn("Cannot delete image of index job {}: {}", id, e.getMessage());
+        }
+    }
+
+    /**
+     * @return FAILED jobs still holding faces, which are never pruned.
+     */
+    public List<IndexJob> failedWithFaces() {
+        return jobs.values().stream()
+                .filter(job -> job.getStatus() == IndexJob.Status.FAILED && !job.getFaceIds().isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Removes finished jobs last updated before the given time, except FAILED jobs still holding
+     * faces.
+     *
+     * @return number of jobs removed.
+     */
+    public int prune(long updatedBeforeMillis) {
+        int removed = 0;
+        for (IndexJob job : new ArrayList<>(jobs.values())) {
+            if (job.getStatus().isFinished() && job.getUpdatedAt() < updatedBeforeMillis
+                    && (job.getStatus() != IndexJob.Status.FAILED || job.getFaceIds().isEmpty())) {
+                jobs.remove(job.getId());
+                deleteImage(job.getId());
+                try {
+                    Files.deleteIfExists(jobFile(job.getId()));
+                    removed++;
+                } catch (IOException e) {
+                    log.warn("Cannot delete index job {}: {}", job.getId(), e.getMessage());
+                }
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        return jobs.size();
+    }
+
+    private void load(Path file) {
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            props.load(reader);
+
+            IndexJob job = new IndexJob(props.getProperty("id"), props.getProperty("name"),
+                    Long.parseLong(props.getProperty("createdAt")));
+            job.setStatus(IndexJob.Status.valueOf(props.getProperty("status")));
+            String faceIds = props.getProperty("faceIds", "");
+            job.setFaceIds(faceIds.isEmpty() ? Collections.emptyList() : Arrays.asList(faceIds.split(",")));
+            job.setAttempts(Integer.parseInt(props.getProperty("attempts", "0")));
+            job.setError(props.getProperty("error"));
+            job.setUpdatedAt(Long.parseLong(props.getProperty("updatedAt")));
+            jobs.put(job.getId(), job);
+        } catch (IOException | RuntimeException e) {
+            log.error("Skipping unreadable index job {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void write(IndexJob job) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("id", job.getId());
+        props.setProperty("name", job.getName());
+        props.setProperty("status", job.getStatus().name());
+        props.setProperty("faceIds", String.join(",", job.getFaceIds()));
+        props.setProperty("attempts", String.valueOf(job.getAttempts()));
+        props.setProperty("createdAt", String.valueOf(job.getCreatedAt()));
+        props.setProperty("updatedAt", String.valueOf(job.getUpdatedAt()));
+        if (job.getError() != null) {
+            props.setProperty("error", job.getError());
+        }
+
+        Path tmp = Files.createTempFile(dir, "job", ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                props.store(writer, null);
+            }
+            force(tmp);
+            Files.move(tmp, jobFile(job.getId()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    private static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private Path jobFile(String id) {
+        return dir.resolve(id + JOB_SUFFIX);
+    }
+
+    private Path imageFile(String id) {
+        return dir.resolve(id + IMAGE_SUFFIX);
+    }
+}
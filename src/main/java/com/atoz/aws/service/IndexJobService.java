@@ -0,0 +1,299 @@
+package com.atoz.aws.service;
+
+import com.atoz.aws.throttle.TokenBucket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Indexes images in the background. Accepted images are written to the {@link IndexJobJournal}
+ * first, then a few workers index them at a bounded rate. Because the faceIds are journaled as soon
+ * as IndexFaces returns, a job interrupted by a restart resumes by writing the missing name rows
+ * rather than leaving indexed faces without a name. A job interrupted during IndexFaces, or before
+ * its faceIds were journaled, looks up the faces indexed under its id before indexing again. The
+ * faces of a job that fails for good are deleted from the collection.
+ */
+@Service
+public class IndexJobService {
+    private static final Logger log = LoggerFactory.getLogger(IndexJobService.class);
+
+    @Autowired
+    private AtoZImageRekognitionService imageService;
+
+    @Value("${aws.index.jobs.dir:index-jobs}")
+    private String journalDir = "index-jobs";
+
+    @Value("${aws.index.jobs.workers:2}")
+    private int workerCount = 2;
+
+    @Value("${aws.index.jobs.rate:5}")
+    private double jobsPerSecond = 5;
+
+    @Value("${aws.index.jobs.max.pending:1000}")
+    private int maxPending = 1000;
+
+    @Value("${aws.index.jobs.max.attempts:5}")
+    private int maxAttempts = 5;
+
+    @Value("${aws.index.jobs.retry.delay.millis:2000}")
+    private long retryDelayMillis = 2000;
+
+    @Value("${aws.index.jobs.retention.hours:24}")
+    private long retentionHours = 24;
+
+    private IndexJobJournal journal;
+    private TokenBucket rate;
+    private final BlockingQueue<IndexJob> queue = new LinkedBlockingQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final List<Thread> workers = new ArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private volatile boolean running;
+
+    /**
+     * Opens the journal, queues every unfinished job found in it and starts the workers.
+     */
+    @PostConstruct
+    public void start() {
+        journal = new IndexJobJournal(Paths.get(journalDir));
+        rate = new TokenBucket(jobsPerSecond, 1);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "index-job-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::prune, 1, 1, TimeUnit.HOURS);
+
+        List<IndexJob> unfinished = journal.unfinished();
+        for (IndexJob job : unfinished) {
+            pending.incrementAndGet();
+            queue.add(job);
+        }
+        if (!unfinished.isEmpty()) {
+            log.info("Resuming {} index jobs", unfinished.size());
+        }
+
+        running = true;
+        for (int i = 1; i <= workerCount; i++) {
+            Thread worker = new Thread(this::work, "index-job-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Stops the workers. Jobs in progress stay in the journal and are resumed on the next start.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        scheduler.shutdownNow();
+        workers.forEach(Thread::interrupt);
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workers.clear();
+    }
+
+    /**
+     * Journals an image and queues it for indexing.
+     *
+     * @param image image content, read to the end but not closed.
+     * @throws RejectedExecutionException when {@code max.pending} jobs are already waiting.
+     */
+    public IndexJob submit(String name, InputStream image) throws IOException {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            throw new RejectedExecutionException("Too many index jobs pending");
+        }
+
+        IndexJob job;
+        try {
+            job = journal.create(name, image);
+        } catch (IOException | RuntimeException e) {
+            pending.decrementAndGet();
+            throw e;
+        }
+        queue.add(job);
+        log.info("Index job {} queued for {}", job.getId(), name);
+        return job;
+    }
+
+    public IndexJob getJob(String id) {
+        return journal.get(id);
+    }
+
+    /**
+     * @return jobs accepted but not finished yet.
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    private void work() {
+        while (running) {
+            IndexJob job;
+            try {
+                job = queue.take();
+                rate.acquire(System.nanoTime() + TimeUnit.DAYS.toNanos(1));
+            } catch (InterruptedException e) {
+                return;
+            }
+            process(job);
+        }
+    }
+
+    private void process(IndexJob job) {
+        try {
+            job.setAttempts(job.getAttempts() + 1);
+            if (job.getStatus() == IndexJob.Status.QUEUED || job.getStatus() == IndexJob.Status.INDEXING) {
+                List<String> faceIds = indexedFaceIds(job);
+                if (faceIds.isEmpty()) {
+                    if (job.getStatus() == IndexJob.Status.QUEUED) {
+                        job.setStatus(IndexJob.Status.INDEXING);
+                        journal.update(job);
+                    }
+                    faceIds = imageService.indexFaceIds(journal.readImage(job.getId()), job.getName(), job.getId());
+                } else {
+                    log.info("Index job {}: {} Face Ids found from an earlier attempt", job.getId(), faceIds.size());
+                }
+                job.setFaceIds(faceIds);
+                job.setStatus(faceIds.isEmpty() ? IndexJob.Status.NO_FACE : IndexJob.Status.FACES_INDEXED);
+                journal.update(job);
+                journal.deleteImage(job.getId());
+            }
+            if (job.getStatus() == IndexJob.Status.FACES_INDEXED) {
+                imageService.saveFaceNames(job.getFaceIds(), job.getName());
+                job.setStatus(IndexJob.Status.INDEXED);
+                journal.update(job);
+                log.info("Index job {}: {} Face Ids are indexed for {}", job.getId(), job.getFaceCount(), job.getName());
+            }
+            pending.decrementAndGet();
+        } catch (Exception e) {
+            if (!running) {
+                log.info("Index job {} interrupted by shutdown, resumed on restart", job.getId());
+            } else if (job.getAttempts() < maxAttempts) {
+                log.warn("Index job {} attempt {} failed, retrying: {}", job.getId(), job.getAttempts(), e.getMessage());
+                retryLater(job);
+            } else {
+                log.error("Index job {} failed after {} attempts: {}", job.getId(), job.getAttempts(), e.getMessage());
+                fail(job, e);
+            }
+        }
+    }
+
+    /**
+     * @return faces an earlier attempt of an INDEXING job indexed, empty when it did not get that far.
+     */
+    private List<String> indexedFaceIds(IndexJob job) throws IOException {
+        return job.getStatus() == IndexJob.Status.INDEXING
+                ? imageService.findFaceIds(job.getName(), journal.readImage(job.getId()), job.getId())
+                : Collections.emptyList();
+    }
+
+    private void retryLater(IndexJob job) {
+        try {
+            scheduler.schedule(() -> queue.add(job), retryDelayMillis * job.getAttempts(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.info("Index job {} left for restart", job.getId());
+        }
+    }
+
+    /**
+     * Gives up on a job and deletes the faces it indexed. Faces that cannot be deleted keep their ids
+     * in the journal until they are.
+     */
+    private void fail(IndexJob job, Exception cause) {
+        pending.decrementAndGet();
+        job.setError(cause.getMessage());
+        if (job.getStatus() == IndexJob.Status.INDEXING) {
+            try {
+                job.setFaceIds(indexedFaceIds(job));
+            } catch (IOException | RuntimeException e) {
+                log.error("Cannot look up faces of failed index job {}: {}", job.getId(), e.getMessage());
+            }
+        }
+        deleteFaces(job);
+        job.setStatus(IndexJob.Status.FAILED);
+        try {
+            journal.update(job);
+        } catch (IOException e) {
+            log.error("Cannot journal failure of index job {}: {}", job.getId(), e.getMessage());
+        }
+        journal.deleteImage(job.getId());
+    }
+
+    private void deleteFaces(IndexJob job) {
+        if (job.getFaceIds().isEmpty()) {
+            return;
+        }
+        try {
+            imageService.deleteFaces(job.getFaceIds());
+            log.info("Index job {}: {} Face Ids of the failed job are deleted", job.getId(), job.getFaceCount());
+            job.setFaceIds(Collections.emptyList());
+        } catch (RuntimeException e) {
+            log.error("Cannot delete faces of failed index job {}: {}", job.getId(), e.getMessage());
+        }
+    }
+
+    private void prune() {
+        for (IndexJob job : journal.failedWithFaces()) {
+            deleteFaces(job);
+            if (job.getFaceIds().isEmpty()) {
+                try {
+                    journal.update(job);
+                } catch (IOException e) {
+                    log.error("Cannot journal index job {}: {}", job.getId(), e.getMessage());
+                }
+            }
+        }
+
+        int removed = journal.prune(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(retentionHours));
+        if (removed > 0) {
+            log.debug("Removed {} finished index jobs", removed);
+        }
+    }
+
+    public IndexJobJournal getJournal() {
+        return journal;
+    }
+
+    public void setImageService(AtoZImageRekognitionService imageService) {
+        this.imageService = imageService;
+    }
+
+    public void setJournalDir(String journalDir) {
+        this.journalDir = journalDir;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setRetryDelayMillis(long retryDelayMillis) {
+        this.retryDelayMillis = retryDelayMillis;
+    }
+}
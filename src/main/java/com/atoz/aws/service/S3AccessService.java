@@ -1,23 +1,48 @@
 package com.atoz.aws.service;
 
+import com.atoz.aws.cache.SingleFlight;
+import com.atoz.aws.cache.TtlCache;
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.config.ExecutorConfig;
+import com.atoz.aws.config.S3UrlPresigner;
+import com.atoz.aws.image.ImageBufferPool;
+import com.atoz.aws.metrics.AwsCallMetrics;
+import io.micrometer.core.instrument.Metrics;
 import com.amazonaws.util.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
+import software.amazon.awssdk.AbortedException;
 import software.amazon.awssdk.AmazonServiceException;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 import software.amazon.awssdk.sync.RequestBody;
 import software.amazon.awssdk.sync.StreamingResponseHandler;
 
+import javax.annotation.PostConstruct;
 import java.io.*;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Component
+@DependsOn("awsClientRegistry")
 public class S3AccessService {
     private static final Logger log = LoggerFactory.getLogger(S3AccessService.class);
 
@@ -27,10 +52,86 @@ public class S3AccessService {
     @Value("${aws.s3.bucket.folder}")
     private String folderName;
 
+    @Value("${aws.s3.exists.cache.max.size:10000}")
+    private int existsCacheMaxSize = 10000;
+
+    @Value("${aws.s3.exists.cache.ttl.seconds:30}")
+    private long existsCacheTtlSeconds = 30;
+
+    @Value("${aws.s3.multipart.threshold.mb:16}")
+    private long multipartThresholdMb = 16;
+
+    @Value("${aws.s3.multipart.part.size.mb:8}")
+    private int multipartPartSizeMb = 8;
+
+    @Value("${aws.s3.multipart.parallelism:4}")
+    private int multipartParallelism = 4;
+
+    @Value("${aws.s3.presign.expiry.seconds:300}")
+    private long presignExpirySeconds = 300;
+
+    @Value("${aws.s3.presign.refresh.seconds:60}")
+    private long presignRefreshSeconds = 60;
+
+    @Value("${aws.s3.presign.cache.max.size:10000}")
+    private int presignCacheMaxSize = 10000;
+
+    // S3 limits: parts other than the last must be at least 5 MB, at most 10000 parts per upload
+    private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+    private static final int MAX_PARTS = 10000;
+
+    private static final String ETAG_HEADER = "ETag";
+
     private S3Client s3;
 
+    // created on first use, only the async endpoints need it
+    private S3AsyncClient s3Async;
+
+    // key -> whether the object exists; kept correct by uploads, deletes and downloads
+    private TtlCache<String, Boolean> existsCache;
+
+    // created on first use, signing needs credentials and a region
+    private S3UrlPresigner presigner;
+
+    // key -> presigned GET URL, dropped refresh.seconds before the URL expires
+    private TtlCache<String, String> presignedUrls;
+
+    // concurrent downloads of the same key share one GetObject call; a download interrupted by the
+    // cancellation of its caller's task is retried by the others
+    private final SingleFlight<String, byte[]> downloads = new SingleFlight<>(e -> e instanceof AbortedException);
+
+    @Autowired(required = false)
+    @Qualifier("s3UploadExecutor")
+    private ExecutorService uploadExecutor;
+
+    @Autowired(required = false)
+    private ImageBufferPool bufferPool;
+
     public S3AccessService() {
-        s3 = S3Client.create();
+        s3 = AwsClientRegistry.getInstance().s3();
+        existsCache = newExistsCache();
+        presignedUrls = newPresignedUrlCache();
+    }
+
+    @PostConstruct
+    public void initExistsCache() {
+        existsCache = newExistsCache();
+        existsCache.registerMeters(Metrics.globalRegistry, "s3.exists");
+    }
+
+    @PostConstruct
+    public void initPresignedUrlCache() {
+        presignedUrls = newPresignedUrlCache();
+        presignedUrls.registerMeters(Metrics.globalRegistry, "s3.presigned.urls");
+    }
+
+    private TtlCache<String, Boolean> newExistsCache() {
+        return new TtlCache<>(existsCacheMaxSize, existsCacheTtlSeconds, TimeUnit.SECONDS);
+    }
+
+    private TtlCache<String, String> newPresignedUrlCache() {
+        long ttlSeconds = Math.max(1, presignExpirySeconds - presignRefreshSeconds);
+        return new TtlCache<>(presignCacheMaxSize, ttlSeconds, TimeUnit.SECONDS);
     }
 
     /**
@@ -48,14 +149,17 @@ public class S3AccessService {
                     .key(buildKeyWithFolder(key))
                     .metadata(metaData).build();
 
-            s3.putObject(request, RequestBody.of(file));
+            AwsCallMetrics.time(AwsCallMetrics.S3, "PutObject", () -> s3.putObject(request, RequestBody.of(file)));
+            AwsCallMetrics.requestBytes(AwsCallMetrics.S3, "PutObject", file.length());
+            existsCache.put(key, true);
         } catch (AmazonServiceException e) {
             log.error("Amazeon service error: {}", e.getErrorMessage());
         }
     }
 
     /**
-     * Web service file upload
+     * Web service file upload of unknown length. The content is read into a pooled buffer first; use
+     * {@link #uploadStream(String, InputStream, long, Map)} when the length is known.
      * @param key
      * @param inputStream
      * @param metaData
@@ -65,18 +169,19 @@ public class S3AccessService {
     public void uploadInputStreram(String key, InputStream inputStream, Map<String, String> metaData)
             throws IOException, AmazonServiceException {
 
-        try {
-            byte[] bytes = IOUtils.toByteArray(inputStream);
-
+        try (ImageBufferPool.Buffer content = getBufferPool().read(inputStream, -1)) {
             PutObjectRequest request = PutObjectRequest.builder()
                     .bucket(bucketName)
                     .key(buildKeyWithFolder(key))
                     .metadata(metaData)
                     .build();
 
-            RequestBody body = RequestBody.of(bytes);
+            // RequestBody copies arrays, a stream over the buffer is sent as it is
+            RequestBody body = RequestBody.of(content.inputStream(), content.length());
 
-            s3.putObject(request, body);
+            AwsCallMetrics.time(AwsCallMetrics.S3, "PutObject", () -> s3.putObject(request, body));
+            AwsCallMetrics.requestBytes(AwsCallMetrics.S3, "PutObject", content.length());
+            existsCache.put(key, true);
         } catch (IOException ioe) {
             log.error("Input stream cannot read to a byte stream: {}", ioe.getMessage());
             throw ioe;
@@ -86,6 +191,170 @@ public class S3AccessService {
         }
     }
 
+    /**
+     * Streams an upload of known length to S3 without buffering the whole content. Content at or
+     * above the multipart threshold is sent as a multipart upload whose parts are uploaded in
+     * parallel; at most {@code parallelism} parts are held in memory at a time.
+     * @param key
+     * @param inputStream content, read once and not closed.
+     * @param contentLength exact number of bytes to read from the stream.
+     * @param metaData
+     * @throws IOException if the stream ends early or cannot be read.
+     */
+    public void uploadStream(String key, InputStream inputStream, long contentLength, Map<String, String> metaData)
+            throws IOException, AmazonServiceException {
+        uploadStream(key, inputStream, contentLength, metaData, null);
+    }
+
+    /**
+     * @param contentType Content-Type S3 serves the object with, or null to leave it to S3.
+     * @see #uploadStream(String, InputStream, long, Map)
+     */
+    public void uploadStream(String key, InputStream inputStream, long contentLength, Map<String, String> metaData,
+                             String contentType) throws IOException, AmazonServiceException {
+        String keyWithFolder = buildKeyWithFolder(key);
+
+        try {
+            if (contentLength < multipartThresholdMb * 1024 * 1024) {
+                PutObjectRequest request = PutObjectRequest.builder()
+                        .bucket(bucketName)
+                        .key(keyWithFolder)
+                        .metadata(metaData)
+                        .contentType(contentType)
+                        .build();
+
+                AwsCallMetrics.time(AwsCallMetrics.S3, "PutObject",
+                        () -> s3.putObject(request, RequestBody.of(inputStream, contentLength)));
+                AwsCallMetrics.requestBytes(AwsCallMetrics.S3, "PutObject", contentLength);
+            } else {
+                multipartUpload(keyWithFolder, inputStream, contentLength, metaData, contentType);
+            }
+            existsCache.put(key, true);
+        } catch (AmazonServiceException e) {
+            log.error("Amazeon service error: {}", e.getErrorMessage());
+            throw e;
+        }
+    }
+
+    private void multipartUpload(String keyWithFolder, InputStream inputStream, long contentLength,
+                                 Map<String, String> metaData, String contentType) throws IOException {
+        CreateMultipartUploadRequest createRequest = CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(keyWithFolder)
+                .metadata(metaData)
+                .contentType(contentType)
+                .build();
+        String uploadId = AwsCallMetrics.time(AwsCallMetrics.S3, "CreateMultipartUpload",
+                () -> s3.createMultipartUpload(createRequest)).uploadId();
+
+        long partSize = Math.max(Math.max(multipartPartSizeMb * 1024L * 1024L, MIN_PART_SIZE),
+                (contentLength + MAX_PARTS - 1) / MAX_PARTS);
+        log.info("Multipart upload of {} bytes for key = {} in parts of {} bytes", contentLength, keyWithFolder, partSize);
+
+        // each permit stands for one part buffer, so memory is bounded by partSize * parallelism
+        Semaphore buffers = new Semaphore(multipartParallelism);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+
+        try {
+            long remaining = contentLength;
+            for (int partNumber = 1; remaining > 0 && failure.get() == null; partNumber++) {
+                int size = (int) Math.min(partSize, remaining);
+                buffers.acquire();
+                byte[] buffer;
+                try {
+                    buffer = readFully(inputStream, size);
+                } catch (IOException e) {
+                    buffers.release();
+                    throw e;
+                }
+                remaining -= size;
+
+                int number = partNumber;
+                parts.add(CompletableFuture.supplyAsync(() -> uploadPart(keyWithFolder, uploadId, number, buffer),
+                        getUploadExecutor())
+                        .whenComplete((part, error) -> {
+                            buffers.release();
+                            if (error != null) {
+                                failure.compareAndSet(null, error);
+                            }
+                        }));
+            }
+
+            List<CompletedPart> completedParts = new ArrayList<>(parts.size());
+            for (CompletableFuture<CompletedPart> part : parts) {
+                completedParts.add(part.join());
+            }
+
+            CompleteMultipartUploadRequest completeRequest = CompleteMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(keyWithFolder)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                    .build();
+            AwsCallMetrics.time(AwsCallMetrics.S3, "CompleteMultipartUpload", () -> s3.completeMultipartUpload(completeRequest));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortMultipartUpload(keyWithFolder, uploadId, parts);
+            throw new InterruptedIOException("Multipart upload interrupted for key " + keyWithFolder);
+        } catch (CompletionException e) {
+            abortMultipartUpload(keyWithFolder, uploadId, parts);
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        } catch (IOException | RuntimeException e) {
+            abortMultipartUpload(keyWithFolder, uploadId, parts);
+            throw e;
+        }
+    }
+
+    private CompletedPart uploadPart(String keyWithFolder, String uploadId, int partNumber, byte[] buffer) {
+        UploadPartRequest request = UploadPartRequest.builder()
+                .bucket(bucketName)
+                .key(keyWithFolder)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength((long) buffer.length)
+                .build();
+
+        UploadPartResponse response = AwsCallMetrics.time(AwsCallMetrics.S3, "UploadPart",
+                () -> s3.uploadPart(request, RequestBody.of(new ByteArrayInputStream(buffer), buffer.length)));
+        AwsCallMetrics.requestBytes(AwsCallMetrics.S3, "UploadPart", buffer.length);
+        return CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build();
+    }
+
+    /**
+     * Waits for parts still in flight, then aborts so S3 drops the parts already stored.
+     */
+    private void abortMultipartUpload(String keyWithFolder, String uploadId, List<CompletableFuture<CompletedPart>> parts) {
+        for (CompletableFuture<CompletedPart> part : parts) {
+            part.handle((done, error) -> null).join();
+        }
+
+        try {
+            AbortMultipartUploadRequest request = AbortMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(keyWithFolder)
+                    .uploadId(uploadId)
+                    .build();
+            AwsCallMetrics.time(AwsCallMetrics.S3, "AbortMultipartUpload", () -> s3.abortMultipartUpload(request));
+            log.warn("Multipart upload aborted for key = {}", keyWithFolder);
+        } catch (RuntimeException e) {
+            log.error("Cannot abort multipart upload {} for key = {}: {}", uploadId, keyWithFolder, e.getMessage());
+        }
+    }
+
+    private static byte[] readFully(InputStream inputStream, int size) throws IOException {
+        byte[] buffer = new byte[size];
+        int offset = 0;
+        while (offset < size) {
+            int read = inputStream.read(buffer, offset, size - offset);
+            if (read == -1) {
+                throw new EOFException("Stream ended after " + offset + " of " + size + " bytes");
+            }
+            offset += read;
+        }
+        return buffer;
+    }
+
     /**
      * Download file from S3 to local file system.
      * @param key
@@ -99,51 +368,230 @@ public class S3AccessService {
 
         String filePath = buildFilePath(destFilePath, key);
         log.info("Download file destination: {}", filePath);
-        s3.getObject(request, StreamingResponseHandler.toFile(Paths.get(filePath)));
+        AwsCallMetrics.run(AwsCallMetrics.S3, "GetObject",
+                () -> s3.getObject(request, StreamingResponseHandler.toFile(Paths.get(filePath))));
+        AwsCallMetrics.responseBytes(AwsCallMetrics.S3, "GetObject", new File(filePath).length());
     }
 
     /**
-     * Download to a output stream
+     * Download to a output stream. A missing object is detected from the GetObject call itself,
+     * or from the existence cache, so no separate existence check is made. Concurrent downloads of
+     * the same key share one GetObject call and its content, which callers must not modify.
      * @param key
+     * @return object content, or null if the object does not exist.
      */
     public byte[] downLoadFileToByteArray(String key) {
+        TtlCache.Entry<Boolean> exists = existsCache.getEntry(key);
+        if (exists != null && !exists.getValue()) {
+            log.warn("Image not found (cached) for key = {}", key);
+            return null;
+        }
+
+        return downloads.execute(key, () -> download(key));
+    }
 
+    private byte[] download(String key) {
         String keyWithFolder = buildKeyWithFolder(key);
         GetObjectRequest request = GetObjectRequest.builder()
                 .bucket(bucketName)
                 .key(keyWithFolder).build();
 
         log.info("Downloading file for key = {}.", keyWithFolder);
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
 
-        if (isObjectExists(key)) {
-            s3.getObject(request, StreamingResponseHandler.toOutputStream(outputStream));
-            return outputStream.toByteArray();
-        } else {
-            log.warn("Image not found");
+        try {
+            // the content is read straight into an array of its length rather than grown and copied
+            byte[] content = AwsCallMetrics.time(AwsCallMetrics.S3, "GetObject",
+                    () -> s3.getObject(request, (StreamingResponseHandler<GetObjectResponse, byte[]>) (response, inputStream) ->
+                            response.contentLength() != null && response.contentLength() <= Integer.MAX_VALUE
+                                    ? readFully(inputStream, response.contentLength().intValue())
+                                    : IOUtils.toByteArray(inputStream)));
+            AwsCallMetrics.responseBytes(AwsCallMetrics.S3, "GetObject", content.length);
+            existsCache.put(key, true);
+            return content;
+        } catch (NoSuchKeyException nske) {
+            log.warn("Image not found for key = {}", keyWithFolder);
+            existsCache.put(key, false);
             return null;
         }
     }
 
 
+    /**
+     * Streams an object, or one byte range of it, to the handler without holding it in memory. S3
+     * answers a matching ETag with 304 and an unsatisfiable range with 416; both are thrown as
+     * S3Exception with that status code, the 304 with the current ETag, see {@link #eTagOf(S3Exception)}.
+     *
+     * @param range value of a Range header with a single byte range, or null for the whole object.
+     * @param ifNoneMatch ETag the client already holds, or null.
+     * @return the handler's result, or null if the object does not exist.
+     */
+    public <T> T streamObject(String key, String range, String ifNoneMatch,
+                              StreamingResponseHandler<GetObjectResponse, T> handler) {
+        TtlCache.Entry<Boolean> exists = existsCache.getEntry(key);
+        if (exists != null && !exists.getValue()) {
+            return null;
+        }
+
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(buildKeyWithFolder(key))
+                .range(range)
+                .ifNoneMatch(ifNoneMatch)
+                .build();
+
+        try {
+            T result = AwsCallMetrics.time(AwsCallMetrics.S3, "GetObject", () -> s3.getObject(request,
+                    (StreamingResponseHandler<GetObjectResponse, T>) (response, inputStream) -> {
+                        if (response.contentLength() != null) {
+                            AwsCallMetrics.responseBytes(AwsCallMetrics.S3, "GetObject", response.contentLength());
+                        }
+                        return handler.apply(response, inputStream);
+                    }));
+            existsCache.put(key, true);
+            return result;
+        } catch (NoSuchKeyException nske) {
+            log.warn("Image not found for key = {}", key);
+            existsCache.put(key, false);
+            return null;
+        } catch (S3Exception e) {
+            if (e.getStatusCode() == 304 && eTagOf(e) == null) {
+                // S3 sends the current ETag with a 304; look it up should it be missing
+                Map<String, String> headers = e.getHttpHeaders() != null ? new HashMap<>(e.getHttpHeaders()) : new HashMap<>();
+                headers.put(ETAG_HEADER, headObjectETag(key));
+                e.setHttpHeaders(headers);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the ETag header of an S3 error response, e.g. the current ETag of a 304, or null.
+     */
+    public static String eTagOf(S3Exception e) {
+        if (e.getHttpHeaders() != null) {
+            for (Map.Entry<String, String> header : e.getHttpHeaders().entrySet()) {
+                if (ETAG_HEADER.equalsIgnoreCase(header.getKey())) {
+                    return header.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private String headObjectETag(String key) {
+        HeadObjectRequest request = HeadObjectRequest.builder()
+                .bucket(bucketName)
+                .key(buildKeyWithFolder(key))
+                .build();
+        return AwsCallMetrics.time(AwsCallMetrics.S3, "HeadObject", () -> s3.headObject(request)).eTag();
+    }
+
+    /**
+     * Non-blocking variant of {@link #uploadInputStreram(String, InputStream, Map)} using the async client.
+     */
+    public CompletableFuture<Void> uploadBytesAsync(String key, byte[] bytes, Map<String, String> metaData) {
+        PutObjectRequest request = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(buildKeyWithFolder(key))
+                .metadata(metaData)
+                .build();
+
+        AwsCallMetrics.requestBytes(AwsCallMetrics.S3, "PutObject", bytes.length);
+        return AwsCallMetrics.timeAsync(AwsCallMetrics.S3, "PutObject",
+                () -> getS3Async().putObject(request, AsyncByteBodies.fromBytes(bytes)))
+                .thenAccept(response -> existsCache.put(key, true));
+    }
+
+    /**
+     * Non-blocking variant of {@link #downLoadFileToByteArray(String)} using the async client.
+     * @param key
+     * @return future of the object content, or of null if the object does not exist.
+     */
+    public CompletableFuture<byte[]> downLoadFileToByteArrayAsync(String key) {
+        TtlCache.Entry<Boolean> exists = existsCache.getEntry(key);
+        if (exists != null && !exists.getValue()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(buildKeyWithFolder(key)).build();
+
+        return AwsCallMetrics.timeAsync(AwsCallMetrics.S3, "GetObject",
+                () -> getS3Async().getObject(request, AsyncByteBodies.<GetObjectResponse>toBytes()))
+                .handle((bytes, error) -> {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    if (cause == null) {
+                        AwsCallMetrics.responseBytes(AwsCallMetrics.S3, "GetObject", bytes.length);
+                        existsCache.put(key, true);
+                        return bytes;
+                    }
+                    if (cause instanceof NoSuchKeyException) {
+                        log.warn("Image not found for key = {}", key);
+                        existsCache.put(key, false);
+                        return null;
+                    }
+                    throw new CompletionException(cause);
+                });
+    }
+
+    /**
+     * Returns a URL to download the object from S3 directly, valid for expiry.seconds. The same URL
+     * is handed out until refresh.seconds before it expires, so clients can cache the image. Whether
+     * the object exists is not checked.
+     */
+    public String presignGetUrl(String key) {
+        TtlCache.Entry<String> cached = presignedUrls.getEntry(key);
+        if (cached != null) {
+            return cached.getValue();
+        }
+
+        String url = getPresigner().presignGet(bucketName, buildKeyWithFolder(key), Duration.ofSeconds(presignExpirySeconds));
+        presignedUrls.put(key, url);
+        return url;
+    }
+
+    /**
+     * Deletes this key only, see {@link ThumbnailService#delete(String)} to delete an image with its
+     * thumbnails.
+     */
     public void deleteFile(String key) {
         DeleteObjectRequest request = DeleteObjectRequest.builder().bucket(bucketName).key(buildKeyWithFolder(key)).build();
-        s3.deleteObject(request);
+        AwsCallMetrics.time(AwsCallMetrics.S3, "DeleteObject", () -> s3.deleteObject(request));
+        existsCache.put(key, false);
     }
 
+    /**
+     * Checks a single key with HeadObject. Results, positive and negative, are cached for a short time.
+     * @param key
+     */
     public boolean isObjectExists(String key) {
-        ListObjectsV2Request listReq = ListObjectsV2Request.builder()
+        TtlCache.Entry<Boolean> cached = existsCache.getEntry(key);
+        if (cached != null) {
+            return cached.getValue();
+        }
+
+        HeadObjectRequest request = HeadObjectRequest.builder()
                 .bucket(bucketName)
-                .maxKeys(100)
+                .key(buildKeyWithFolder(key))
                 .build();
-        ListObjectsV2Response listRes = s3.listObjectsV2(listReq);
-        List<S3Object> objects = listRes.contents();
 
-        if (objects.isEmpty()) {
-            return false;
-        } else {
-            return objects.stream().filter(p -> p.key().equals(buildKeyWithFolder(key))).findAny().isPresent();
+        boolean exists;
+        try {
+            AwsCallMetrics.time(AwsCallMetrics.S3, "HeadObject", () -> s3.headObject(request));
+            exists = true;
+        } catch (NoSuchKeyException nske) {
+            exists = false;
+        } catch (S3Exception e) {
+            // HEAD responses carry no error body, so a missing key may only show up as a 404
+            if (e.getStatusCode() != 404) {
+                throw e;
+            }
+            exists = false;
         }
+
+        existsCache.put(key, exists);
+        return exists;
     }
 
     private String buildFilePath(String destFilePathOrDir, String key) {
@@ -170,6 +618,55 @@ public class S3AccessService {
         this.bucketName = bucketName;
     }
 
+    public synchronized S3AsyncClient getS3Async() {
+        if (s3Async == null) {
+            s3Async = AwsClientRegistry.getInstance().s3Async();
+        }
+        return s3Async;
+    }
+
+    public synchronized void setS3Async(S3AsyncClient s3Async) {
+        this.s3Async = s3Async;
+    }
+
+    public synchronized S3UrlPresigner getPresigner() {
+        if (presigner == null) {
+            presigner = AwsClientRegistry.getInstance().s3Presigner();
+        }
+        return presigner;
+    }
+
+    public synchronized void setPresigner(S3UrlPresigner presigner) {
+        this.presigner = presigner;
+    }
+
+    public TtlCache<String, String> getPresignedUrls() {
+        return presignedUrls;
+    }
+
+    public synchronized ImageBufferPool getBufferPool() {
+        if (bufferPool == null) {
+            bufferPool = new ImageBufferPool();
+        }
+        return bufferPool;
+    }
+
+    public synchronized void setBufferPool(ImageBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    public synchronized ExecutorService getUploadExecutor() {
+        if (uploadExecutor == null) {
+            uploadExecutor = ExecutorConfig.boundedExecutor("s3-upload", multipartParallelism, multipartParallelism * 4,
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+        return uploadExecutor;
+    }
+
+    public synchronized void setUploadExecutor(ExecutorService uploadExecutor) {
+        this.uploadExecutor = uploadExecutor;
+    }
+
     public S3Client getS3() {
         return s3;
     }
@@ -178,6 +675,14 @@ public class S3AccessService {
         this.s3 = s3;
     }
 
+    public TtlCache<String, Boolean> getExistsCache() {
+        return existsCache;
+    }
+
+    public SingleFlight<String, byte[]> getDownloads() {
+        return downloads;
+    }
+
     public String getFolderName() {
         return folderName;
     }
@@ -185,4 +690,8 @@ public class S3AccessService {
     public void setFolderName(String folderName) {
         this.folderName = folderName;
     }
+
+    public void setMultipartThresholdMb(long multipartThresholdMb) {
+        this.multipartThresholdMb = multipartThresholdMb;
+    }
 }
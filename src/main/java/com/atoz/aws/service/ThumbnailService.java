@@ -0,0 +1,286 @@
+package com.atoz.aws.service;
+
+import com.atoz.aws.config.ExecutorConfig;
+import com.atoz.aws.image.ThumbnailGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.sync.StreamingResponseHandler;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Stores sized thumbnails next to uploaded originals and reads back the rendition a client needs.
+ * A thumbnail is stored under the original key followed by {@value #THUMBNAIL_SUFFIX} and its size.
+ * An original never keeps the thumbnails of the one it replaced: they are overwritten, or deleted
+ * when new ones cannot be stored.
+ */
+@Service
+public class ThumbnailService {
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailService.class);
+
+    static final String THUMBNAIL_SUFFIX = ".thumb";
+
+    static final String THUMBNAIL_CONTENT_TYPE = "image/jpeg";
+
+    @Autowired
+    private S3AccessService s3Service;
+
+    @Autowired(required = false)
+    @Qualifier("thumbnailExecutor")
+    private ExecutorService executor;
+
+    @Value("${aws.s3.thumbnail.executor.threads:4}")
+    private int executorThreads = 4;
+
+    @Value("${aws.s3.thumbnail.executor.queue:100}")
+    private int executorQueue = 100;
+
+    @Value("${aws.s3.thumbnail.max.source.mb:16}")
+    private long maxSourceMb = 16;
+
+    @Value("${aws.s3.thumbnail.sizes:128,256,512}")
+    private String thumbnailSizes = "128,256,512";
+
+    @Value("${aws.s3.thumbnail.jpeg.quality:0.8}")
+    private float jpegQuality = 0.8F;
+
+    private ThumbnailGenerator generator;
+
+    // key -> latest upload whose thumbnails are being stored in the background
+    private final ConcurrentMap<String, Long> latestUploads = new ConcurrentHashMap<>();
+    private final AtomicLong uploads = new AtomicLong();
+
+    public ThumbnailService() {
+        initGenerator();
+    }
+
+    @PostConstruct
+    public void initGenerator() {
+        generator = new ThumbnailGenerator(ThumbnailGenerator.parseSizes(thumbnailSizes), jpegQuality);
+    }
+
+    public static String thumbnailKey(String key, int size) {
+        return key + THUMBNAIL_SUFFIX + size;
+    }
+
+    /**
+     * Renders and uploads every configured thumbnail of an image. The original stays usable without
+     * thumbnails: failures are logged and the thumbnails of an older original are deleted.
+     *
+     * @param key key of the original.
+     * @param image original content; read to the end but not closed.
+     */
+    public void storeThumbnails(String key, InputStream image, Map<String, String> metaData) {
+        store(key, image, metaData, () -> true);
+    }
+
+    /**
+     * Deletes the thumbnails of an older original right away, then renders and uploads the new ones
+     * on the thumbnail executor, so the upload request does not wait for them. Queued work holds
+     * the key only: the original is streamed back from S3 when its turn comes. When the same key
+     * is uploaded again meanwhile, only the newest upload stores its thumbnails.
+     *
+     * @param key key of the original, already stored and no larger than {@link #getMaxSourceBytes()}.
+     */
+    public void storeThumbnailsAsync(String key, Map<String, String> metaData) {
+        Long upload = uploads.incrementAndGet();
+        latestUploads.put(key, upload);
+        deleteThumbnails(key);
+
+        try {
+            getExecutor().execute(() -> {
+                BooleanSupplier current = () -> upload.equals(latestUploads.get(key));
+                try {
+                    if (!current.getAsBoolean()) {
+                        log.info("Thumbnails of {} are left to a newer upload", key);
+                    } else if (s3Service.streamObject(key, null, null, (response, image) -> {
+                        store(key, image, metaData, current);
+                        return true;
+                    }) == null) {
+                        log.warn("{} is gone before its thumbnails were stored", key);
+                    }
+                } catch (RuntimeException e) {
+                    log.error("Cannot read {} for its thumbnails: {}", key, e.getMessage());
+                } finally {
+                    latestUploads.remove(key, upload);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            latestUploads.remove(key, upload);
+            log.warn("Thumbnail queue is full, {} is served without thumbnails", key);
+        }
+    }
+
+    /**
+     * @param current whether the image is still the latest of its key; checked before every upload.
+     */
+    private void store(String key, InputStream image, Map<String, String> metaData, BooleanSupplier current) {
+        long start = System.currentTimeMillis();
+        try {
+            Map<Integer, byte[]> thumbnails = generator.generate(image);
+            if (thumbnails.isEmpty() && !generator.getSizes().isEmpty()) {
+                throw new IOException("image cannot be decoded");
+            }
+            for (Map.Entry<Integer, byte[]> thumbnail : thumbnails.entrySet()) {
+                if (!current.getAsBoolean()) {
+                    log.info("Thumbnails of {} are left to a newer upload", key);
+                    return;
+                }
+                byte[] bytes = thumbnail.getValue();
+                s3Service.uploadStream(thumbnailKey(key, thumbnail.getKey()), new ByteArrayInputStream(bytes),
+                        bytes.length, metaData, THUMBNAIL_CONTENT_TYPE);
+            }
+            log.info("{} thumbnails stored for {} in {} ms", thumbnails.size(), key, System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            log.error("Cannot store thumbnails for {}: {}", key, e.getMessage());
+            if (current.getAsBoolean()) {
+                deleteThumbnails(key);
+            }
+        }
+    }
+
+    /**
+     * Deletes an original and all its thumbnails.
+     */
+    public void delete(String key) {
+        s3Service.deleteFile(key);
+        deleteThumbnails(key);
+    }
+
+    /**
+     * Deletes the thumbnails of every configured size; failures are logged only.
+     */
+    public void deleteThumbnails(String key) {
+        for (Integer size : generator.getSizes()) {
+            try {
+                s3Service.deleteFile(thumbnailKey(key, size));
+            } catch (RuntimeException e) {
+                log.error("Cannot delete thumbnail {} of {}: {}", size, key, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return size of the largest original thumbnails are rendered from in the background.
+     */
+    public long getMaxSourceBytes() {
+        return maxSourceMb * 1024 * 1024;
+    }
+
+    /**
+     * @param requestedSize longest side the client needs, 0 for the original.
+     * @return the thumbnail size to serve, or null to serve the original.
+     */
+    public Integer renditionSize(int requestedSize) {
+        return requestedSize <= 0 ? null : generator.pickSize(requestedSize);
+    }
+
+    /**
+     * Downloads a thumbnail, or the original when it has no thumbnail of that size.
+     *
+     * @param size thumbnail size from {@link #renditionSize(int)}, or null for the original.
+     * @return the image, or null when neither exists.
+     */
+    public Rendition download(String key, Integer size) {
+        if (size != null) {
+            byte[] thumbnail = s3Service.downLoadFileToByteArray(thumbnailKey(key, size));
+            if (thumbnail != null) {
+                return new Rendition(thumbnail, size);
+            }
+        }
+
+        byte[] original = s3Service.downLoadFileToByteArray(key);
+        return original == null ? null : new Rendition(original, null);
+    }
+
+    /**
+     * Streaming variant of {@link #download(String, Integer)}, see
+     * {@link S3AccessService#streamObject(String, String, String, StreamingResponseHandler)}.
+     *
+     * @return the handler's result, or null when neither exists.
+     */
+    public <T> T stream(String key, Integer size, String range, String ifNoneMatch,
+                        StreamingResponseHandler<GetObjectResponse, T> handler) {
+        if (size != null) {
+            T result = s3Service.streamObject(thumbnailKey(key, size), range, ifNoneMatch, handler);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        return s3Service.streamObject(key, range, ifNoneMatch, handler);
+    }
+
+    /**
+     * Presigned variant of {@link #download(String, Integer)}: a URL to download the thumbnail, or
+     * the original when it has no thumbnail of that size, from S3 directly.
+     *
+     * @return the URL, or null when neither exists.
+     */
+    public String presignedUrl(String key, Integer size) {
+        if (size != null && s3Service.isObjectExists(thumbnailKey(key, size))) {
+            return s3Service.presignGetUrl(thumbnailKey(key, size));
+        }
+
+        return s3Service.isObjectExists(key) ? s3Service.presignGetUrl(key) : null;
+    }
+
+    public void setS3Service(S3AccessService s3Service) {
+        this.s3Service = s3Service;
+    }
+
+    public synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = ExecutorConfig.boundedExecutor("thumbnail", executorThreads, executorQueue);
+        }
+        return executor;
+    }
+
+    public synchronized void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public ThumbnailGenerator getGenerator() {
+        return generator;
+    }
+
+    public static class Rendition {
+        private final byte[] image;
+        private final Integer size;
+
+        Rendition(byte[] image, Integer size) {
+            this.image = image;
+            this.size = size;
+        }
+
+        public byte[] getImage() {
+            return image;
+        }
+
+        /**
+         * @return thumbnail size, or null for the original.
+         */
+        public Integer getSize() {
+            return size;
+        }
+
+        public boolean isThumbnail() {
+            return size != null;
+        }
+    }
+}
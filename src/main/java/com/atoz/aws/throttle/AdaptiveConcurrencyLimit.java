@@ -0,0 +1,99 @@
+package com.atoz.aws.throttle;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits concurrent calls with additive increase and multiplicative decrease: every successful
+ * call raises the limit by 1/limit, so about one per limit calls, and a throttled call halves it.
+ * Only calls started after the last decrease can decrease it again, so one burst of throttled
+ * calls counts once.
+ */
+public class AdaptiveConcurrencyLimit {
+    private static final double DECREASE_FACTOR = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final LongSupplier ticker;
+
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private long decreasedAt;
+
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, System::nanoTime);
+    }
+
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, LongSupplier ticker) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits " + minLimit + ".." + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.ticker = ticker;
+        this.decreasedAt = ticker.getAsLong();
+    }
+
+    /**
+     * Waits for a free slot.
+     *
+     * @param deadlineNanos {@link System#nanoTime()} to wait until at most.
+     * @param maxWaiting callers allowed to wait at once; beyond it the call is refused at once.
+     * @return the start time of the call to pass to {@link #release(long, boolean)}, or -1 when no
+     * slot came free in time.
+     */
+    public synchronized long acquire(long deadlineNanos, int maxWaiting) throws InterruptedException {
+        if (inFlight >= (int) limit) {
+            if (waiting >= maxWaiting) {
+                return -1;
+            }
+            waiting++;
+            try {
+                while (inFlight >= (int) limit) {
+                    long waitNanos = deadlineNanos - ticker.getAsLong();
+                    if (waitNanos <= 0) {
+                        return -1;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                }
+            } finally {
+                waiting--;
+            }
+        }
+        inFlight++;
+        return ticker.getAsLong();
+    }
+
+    /**
+     * Frees the slot of a call and adjusts the limit to its outcome.
+     *
+     * @param startNanos value returned by {@link #acquire(long, int)}.
+     * @param throttled whether the service throttled the call.
+     */
+    public synchronized void release(long startNanos, boolean throttled) {
+        inFlight--;
+        if (throttled) {
+            if (startNanos - decreasedAt >= 0) {
+                limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+                decreasedAt = ticker.getAsLong();
+            }
+        } else {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getWaiting() {
+        return waiting;
+    }
+}
@@ -0,0 +1,84 @@
+package com.atoz.aws.throttle;
+
+import java.io.IOException;
+import java.net.ConnectException;
+
+/**
+ * Classifies errors of both AWS SDK versions by HTTP status and error code.
+ */
+public final class AwsErrors {
+
+    private AwsErrors() {
+    }
+
+    /**
+     * @return whether the error is a response of the service, as opposed to a client side failure.
+     */
+    public static boolean isServiceError(Throwable error) {
+        return error instanceof software.amazon.awssdk.AmazonServiceException
+                || error instanceof com.amazonaws.AmazonServiceException;
+    }
+
+    /**
+     * @return HTTP status of a service error, or 0 when no response was received.
+     */
+    public static int status(Throwable error) {
+        if (error instanceof software.amazon.awssdk.AmazonServiceException) {
+            return ((software.amazon.awssdk.AmazonServiceException) error).getStatusCode();
+        }
+        if (error instanceof com.amazonaws.AmazonServiceException) {
+            return ((com.amazonaws.AmazonServiceException) error).getStatusCode();
+        }
+        return 0;
+    }
+
+    public static String errorCode(Throwable error) {
+        if (error instanceof software.amazon.awssdk.AmazonServiceException) {
+            return ((software.amazon.awssdk.AmazonServiceException) error).getErrorCode();
+        }
+        if (error instanceof com.amazonaws.AmazonServiceException) {
+            return ((com.amazonaws.AmazonServiceException) error).getErrorCode();
+        }
+        return null;
+    }
+
+    /**
+     * @return whether the service rejected the call for exceeding a rate or throughput limit.
+     */
+    public static boolean isThrottling(Throwable error) {
+        if (status(error) == 429) {
+            return true;
+        }
+        String errorCode = errorCode(error);
+        return errorCode != null && (errorCode.contains("Throttl")
+                || errorCode.equals("ProvisionedThroughputExceededException") || errorCode.equals("SlowDown"));
+    }
+
+    public static boolean isServerError(Throwable error) {
+        return status(error) >= 500 && !isThrottling(error);
+    }
+
+    /**
+     * @return whether the call failed without a response, e.g. on a refused connection, a reset
+     * or a read timeout. The service may still have processed the request.
+     */
+    public static boolean isIoError(Throwable error) {
+        return !isServiceError(error) && hasCause(error, IOException.class);
+    }
+
+    /**
+     * @return whether no connection could be opened, so the request was not sent at all.
+     */
+    public static boolean isConnectError(Throwable error) {
+        return !isServiceError(error) && hasCause(error, ConnectException.class);
+    }
+
+    private static boolean hasCause(Throwable error, Class<? extends Throwable> type) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (type.isInstance(cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
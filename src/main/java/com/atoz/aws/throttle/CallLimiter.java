@@ -0,0 +1,204 @@
+package com.atoz.aws.throttle;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the calls of each operation of a service within its rate quota. A call first waits for a
+ * token of the operation's {@link TokenBucket}, then for a slot of its
+ * {@link AdaptiveConcurrencyLimit}, which shrinks when the service throttles. Throttled calls, server
+ * errors and I/O failures are retried after a jittered exponential backoff; calls that are not
+ * idempotent only when the service surely did not run them, i.e. throttled or never connected.
+ * All waiting happens within the deadline of the call; when it cannot be met the call fails with
+ * {@link ThrottledException}.
+ */
+public class CallLimiter {
+    private static final Logger log = LoggerFactory.getLogger(CallLimiter.class);
+
+    private final String service;
+    private final double defaultTps;
+    private final Map<String, Double> operationTps;
+    private final int maxConcurrency;
+    private final int maxQueued;
+    private final long deadlineNanos;
+    private final long backoffBaseNanos;
+    private final long backoffMaxNanos;
+    private final int maxAttempts;
+
+    private final Map<String, OperationLimit> operations = new ConcurrentHashMap<>();
+
+    /**
+     * @param defaultTps calls per second allowed for operations without their own rate.
+     * @param operationTps calls per second of single operations.
+     * @param maxConcurrency concurrent calls per operation when nothing is throttled.
+     * @param maxQueued calls per operation allowed to wait for a free slot; more are refused at once.
+     * @param deadlineMillis time a call may take, including waiting and retries.
+     * @param backoffBaseMillis backoff before the first retry, doubled with every further retry.
+     * @param backoffMaxMillis backoff cap.
+     * @param maxAttempts calls made at most, including the first one.
+     */
+    public CallLimiter(String service, double defaultTps, Map<String, Double> operationTps,
+                       int maxConcurrency, int maxQueued, long deadlineMillis,
+                       long backoffBaseMillis, long backoffMaxMillis, int maxAttempts) {
+        this.service = service;
+        this.defaultTps = defaultTps;
+        this.operationTps = new HashMap<>(operationTps);
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueued = maxQueued;
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        this.backoffBaseNanos = TimeUnit.MILLISECONDS.toNanos(backoffBaseMillis);
+        this.backoffMaxNanos = TimeUnit.MILLISECONDS.toNanos(backoffMaxMillis);
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Parses per operation rates given as "Operation=tps,Operation=tps".
+     */
+    public static Map<String, Double> parseRates(String rates) {
+        if (rates == null || rates.trim().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Double> parsed = new HashMap<>();
+        for (String rate : rates.split(",")) {
+            String[] parts = rate.split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected Operation=tps, got " + rate);
+            }
+            parsed.put(parts[0].trim(), Double.parseDouble(parts[1].trim()));
+        }
+        return parsed;
+    }
+
+    public <T> T call(String operation, Supplier<T> call) {
+        return call(operation, true, call);
+    }
+
+    /**
+     * @param idempotent whether running the call twice has the same effect as running it once.
+     */
+    public <T> T call(String operation, boolean idempotent, Supplier<T> call) {
+        long deadline = System.nanoTime() + deadlineNanos;
+        OperationLimit limit = operations.computeIfAbsent(operation, this::newOperationLimit);
+
+        for (int attempt = 1; ; attempt++) {
+            long start = admit(limit, operation, deadline);
+            boolean throttled = false;
+            RuntimeException error;
+            try {
+                return call.get();
+            } catch (RuntimeException e) {
+                throttled = AwsErrors.isThrottling(e);
+                if (!throttled && !isRetryable(e, idempotent)) {
+                    throw e;
+                }
+                error = e;
+            } finally {
+                limit.concurrency.release(start, throttled);
+            }
+            // the slot is free while backing off
+            backOff(limit, operation, attempt, deadline, error);
+        }
+    }
+
+    private static boolean isRetryable(RuntimeException e, boolean idempotent) {
+        return idempotent ? AwsErrors.isServerError(e) || AwsErrors.isIoError(e) : AwsErrors.isConnectError(e);
+    }
+
+    public AdaptiveConcurrencyLimit getConcurrencyLimit(String operation) {
+        return operations.computeIfAbsent(operation, this::newOperationLimit).concurrency;
+    }
+
+    /**
+     * Waits for a token and a slot.
+     *
+     * @return start time of the call.
+     */
+    private long admit(OperationLimit limit, String operation, long deadline) {
+        try {
+            if (!limit.bucket.acquire(deadline)) {
+                limit.rejected.increment();
+                throw new ThrottledException(operation, "call rate quota exhausted until the deadline", null);
+            }
+            long start = limit.concurrency.acquire(deadline, maxQueued);
+            if (start < 0) {
+                limit.rejected.increment();
+                throw new ThrottledException(operation, "no free call slot before the deadline, limit "
+                        + limit.concurrency.getLimit(), null);
+            }
+            return start;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ThrottledException(operation, "interrupted while waiting for capacity", e);
+        }
+    }
+
+    /**
+     * Sleeps before the next attempt, or throws when there is none within the attempts and deadline.
+     */
+    private void backOff(OperationLimit limit, String operation, int attempt, long deadline, RuntimeException error) {
+        boolean throttled = AwsErrors.isThrottling(error);
+        long backoff = ThreadLocalRandom.current().nextLong(
+                Math.min(backoffMaxNanos, backoffBaseNanos << Math.min(attempt - 1, 30)) + 1);
+
+        if (attempt >= maxAttempts || System.nanoTime() + backoff - deadline >= 0) {
+            limit.rejected.increment();
+            if (throttled) {
+                throw new ThrottledException(operation, "still throttled after " + attempt + " attempts", error);
+            }
+            throw error;
+        }
+
+        limit.retries.increment();
+        log.debug("{} {} failed with {}, retrying in {} ms", service, operation, AwsErrors.errorCode(error),
+                TimeUnit.NANOSECONDS.toMillis(backoff));
+        try {
+            TimeUnit.NANOSECONDS.sleep(backoff);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw error;
+        }
+    }
+
+    private OperationLimit newOperationLimit(String operation) {
+        double tps = operationTps.getOrDefault(operation, defaultTps);
+        OperationLimit limit = new OperationLimit(
+                new TokenBucket(tps, Math.max(1, tps)),
+                new AdaptiveConcurrencyLimit(maxConcurrency, 1, maxConcurrency),
+                Counter.builder("aws.client.limiter.retries").tag("service", service).tag("operation", operation)
+                        .register(Metrics.globalRegistry),
+                Counter.builder("aws.client.limiter.rejected").tag("service", service).tag("operation", operation)
+                        .register(Metrics.globalRegistry));
+
+        Gauge.builder("aws.client.limiter.concurrency.limit", limit.concurrency, AdaptiveConcurrencyLimit::getLimit)
+                .tag("service", service).tag("operation", operation).register(Metrics.globalRegistry);
+        Gauge.builder("aws.client.limiter.waiting", limit.concurrency, AdaptiveConcurrencyLimit::getWaiting)
+                .tag("service", service).tag("operation", operation).register(Metrics.globalRegistry);
+        log.info("{} {} limited to {} calls per second", service, operation, tps);
+        return limit;
+    }
+
+    private static class OperationLimit {
+        final TokenBucket bucket;
+        final AdaptiveConcurrencyLimit concurrency;
+        final Counter retries;
+        final Counter rejected;
+
+        OperationLimit(TokenBucket bucket, AdaptiveConcurrencyLimit concurrency, Counter retries, Counter rejected) {
+            this.bucket = bucket;
+            this.concurrency = concurrency;
+            this.retries = retries;
+            this.rejected = rejected;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.atoz.aws.throttle;
+
+/**
+ * A call was given up because the service kept throttling it, or because there was no capacity
+ * for it, before its deadline. The request can be retried later.
+ */
+public class ThrottledException extends RuntimeException {
+    private final String operation;
+
+    public ThrottledException(String operation, String message, Throwable cause) {
+        super(operation + ": " + message, cause);
+        this.operation = operation;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+}
@@ -0,0 +1,69 @@
+package com.atoz.aws.throttle;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Paces calls to a rate with bursts up to a capacity. A caller without a token reserves the next
+ * one and waits for it, so waiting callers are served in order at the configured rate.
+ */
+public class TokenBucket {
+    private final double tokensPerNano;
+    private final double capacity;
+    private final LongSupplier ticker;
+
+    private double tokens;
+    private long refilledAt;
+
+    /**
+     * @param ratePerSecond tokens added per second.
+     * @param capacity tokens that can be saved up for a burst, at least 1.
+     */
+    public TokenBucket(double ratePerSecond, double capacity) {
+        this(ratePerSecond, capacity, System::nanoTime);
+    }
+
+    TokenBucket(double ratePerSecond, double capacity, LongSupplier ticker) {
+        if (ratePerSecond <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("Invalid rate " + ratePerSecond + " or capacity " + capacity);
+        }
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = capacity;
+        this.ticker = ticker;
+        this.tokens = capacity;
+        this.refilledAt = ticker.getAsLong();
+    }
+
+    /**
+     * Takes a token, waiting for it when none is left.
+     *
+     * @param deadlineNanos {@link System#nanoTime()} by which the token must be available.
+     * @return false, without taking a token, when it would not be available by the deadline.
+     */
+    public boolean acquire(long deadlineNanos) throws InterruptedException {
+        long waitNanos = reserve(deadlineNanos);
+        if (waitNanos < 0) {
+            return false;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return true;
+    }
+
+    /**
+     * @return nanoseconds until the reserved token is available, or -1 when it would come too late.
+     */
+    synchronized long reserve(long deadlineNanos) {
+        long now = ticker.getAsLong();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+
+        long waitNanos = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+        if (now + waitNanos - deadlineNanos > 0) {
+            return -1;
+        }
+        tokens -= 1;
+        return waitNanos;
+    }
+}
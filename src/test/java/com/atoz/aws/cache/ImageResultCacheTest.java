@@ -0,0 +1,85 @@
+package com.atoz.aws.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class ImageResultCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] image = {1, 2, 3, 4};
+
+    @Test
+    public void testKeyDependsOnContentAndParameters() {
+        String key = ImageResultCache.key("labels", image, 100, 60.0F);
+
+        assertEquals(key, ImageResultCache.key("labels", image.clone(), 100, 60.0F));
+        assertNotEquals(key, ImageResultCache.key("labels", image, 10, 60.0F));
+        assertNotEquals(key, ImageResultCache.key("labels", new byte[]{1, 2, 3}, 100, 60.0F));
+        assertTrue(key.startsWith("labels/"));
+    }
+
+    @Test
+    public void testDiskTierSurvivesRestart() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        String key = ImageResultCache.key("match", image, "family_collection");
+        new ImageResultCache(10, 60, dir, 1024 * 1024).put(key, result("Austin Zhang", 99.9F));
+
+        ImageResultCache restarted = new ImageResultCache(10, 60, dir, 1024 * 1024);
+        HashMap<String, Float> cached = restarted.get(key);
+
+        assertEquals(99.9F, cached.get("Austin Zhang"), 0.0F);
+        assertEquals(1, restarted.diskHitCount());
+    }
+
+    @Test
+    public void testInvalidateOperation() throws Exception {
+        ImageResultCache cache = new ImageResultCache(10, 60, folder.getRoot().toPath(), 1024 * 1024);
+        String matchKey = ImageResultCache.key("match", image);
+        String labelsKey = ImageResultCache.key("labels", image);
+        cache.put(matchKey, result("Austin Zhang", 99.9F));
+        cache.put(labelsKey, result("Person", 98.0F));
+
+        cache.invalidateOperation("match");
+
+        assertNull(cache.get(matchKey));
+        assertNotNull(cache.get(labelsKey));
+    }
+
+    @Test
+    public void testResultFromBeforeInvalidationIsNotStored() throws Exception {
+        ImageResultCache cache = new ImageResultCache(10, 60, folder.getRoot().toPath(), 1024 * 1024);
+        String matchKey = ImageResultCache.key("match", image);
+        long generation = cache.generation("match");
+
+        // a face is indexed while the match runs
+        cache.invalidateOperation("match");
+        cache.put(matchKey, result("Austin Zhang", 99.9F), generation);
+        assertNull(cache.get(matchKey));
+
+        cache.put(matchKey, result("Austin Zhang", 99.9F), cache.generation("match"));
+        assertNotNull(cache.get(matchKey));
+    }
+
+    @Test
+    public void testDiskTierIsSizeCapped() throws Exception {
+        ImageResultCache cache = new ImageResultCache(10, 60, folder.getRoot().toPath(), 400);
+        for (int i = 0; i < 10; i++) {
+            cache.put(ImageResultCache.key("labels", new byte[]{(byte) i}), result("Person " + i, i));
+        }
+
+        assertTrue(cache.diskBytes() <= 400);
+    }
+
+    private HashMap<String, Float> result(String name, float confidence) {
+        HashMap<String, Float> result = new HashMap<>();
+        result.put(name, confidence);
+        return result;
+    }
+}
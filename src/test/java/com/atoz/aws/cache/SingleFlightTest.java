@@ -0,0 +1,170 @@
+package com.atoz.aws.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+    private static final int CALLERS = 8;
+
+    private SingleFlight<String, String> flight = new SingleFlight<>();
+    private ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+    @Test
+    public void testConcurrentCallersShareOneCall() throws Exception {
+        AtomicInteger backendCalls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = startCallers("face-1", () -> {
+            backendCalls.incrementAndGet();
+            await(release);
+            return "Austin";
+        });
+        waitForCallers();
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("Austin", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, backendCalls.get());
+        assertEquals(CALLERS - 1, flight.sharedCount());
+        assertEquals(0, flight.inFlightCount());
+    }
+
+    @Test
+    public void testErrorReachesEveryCaller() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        IllegalStateException failure = new IllegalStateException("throttled");
+
+        List<Future<String>> results = startCallers("face-1", () -> {
+            await(release);
+            throw failure;
+        });
+        waitForCallers();
+        release.countDown();
+
+        for (Future<String> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("Expected the call to fail");
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+        assertEquals(1, flight.callCount());
+    }
+
+    @Test
+    public void testCancelledCallerDoesNotFailOthers() throws Exception {
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> flight.execute("face-1", () -> {
+            leaderStarted.countDown();
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+                return "Xifeng";
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        leaderStarted.await();
+        Future<String> waiter = executor.submit(() -> flight.execute("face-1", () -> "Austin"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (flight.sharedCount() < 1) {
+            assertTrue("Waiter did not start", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+
+        leader.cancel(true);
+
+        assertEquals("Austin", waiter.get(5, TimeUnit.SECONDS));
+        assertEquals(2, flight.callCount());
+        assertEquals(0, flight.inFlightCount());
+    }
+
+    @Test
+    public void testCancelledWaiterStopsWaiting() throws Exception {
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> leader = executor.submit(() -> flight.execute("face-1", () -> {
+            leaderStarted.countDown();
+            await(release);
+            return "Xifeng";
+        }));
+        leaderStarted.await();
+        CountDownLatch waiterDone = new CountDownLatch(1);
+        Future<?> waiter = executor.submit(() -> {
+            try {
+                flight.execute("face-1", () -> "Austin");
+            } finally {
+                waiterDone.countDown();
+            }
+        });
+        long deadline = System.currentTimeMillis() + 5000;
+        while (flight.sharedCount() < 1) {
+            assertTrue("Waiter did not start", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+
+        waiter.cancel(true);
+
+        assertTrue(waiterDone.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        assertEquals("Xifeng", leader.get(5, TimeUnit.SECONDS));
+        assertEquals(1, flight.callCount());
+    }
+
+    @Test
+    public void testResultIsNotKeptAfterCompletion() {
+        AtomicInteger backendCalls = new AtomicInteger();
+
+        assertEquals("1", flight.execute("face-1", () -> String.valueOf(backendCalls.incrementAndGet())));
+        assertEquals("2", flight.execute("face-1", () -> String.valueOf(backendCalls.incrementAndGet())));
+        assertEquals(0, flight.sharedCount());
+    }
+
+    @Test
+    public void testKeysDoNotShare() {
+        assertEquals("Austin", flight.execute("face-1", () -> flight.execute("face-2", () -> "Austin")));
+        assertEquals(2, flight.callCount());
+    }
+
+    private List<Future<String>> startCallers(String key, Callable<String> call) {
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(() -> flight.execute(key, () -> {
+                try {
+                    return call.call();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            })));
+        }
+        return results;
+    }
+
+    /**
+     * Waits until one caller runs the call and all others wait for it.
+     */
+    private void waitForCallers() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (flight.callCount() + flight.sharedCount() < CALLERS) {
+            assertTrue("Callers did not start", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.atoz.aws.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TtlCacheTest {
+    private AtomicLong now = new AtomicLong();
+    private TtlCache<String, String> cache = new TtlCache<>(2, 10, TimeUnit.SECONDS, now::get);
+
+    @Test
+    public void testHitAndMiss() {
+        assertNull(cache.getEntry("a"));
+        cache.put("a", "Austin");
+
+        assertEquals("Austin", cache.getEntry("a").getValue());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void testNullValueIsCached() {
+        cache.put("unknown", null);
+
+        TtlCache.Entry<String> entry = cache.getEntry("unknown");
+        assertNotNull(entry);
+        assertNull(entry.getValue());
+    }
+
+    @Test
+    public void testEntryExpires() {
+        cache.put("a", "Austin");
+        now.addAndGet(TimeUnit.SECONDS.toNanos(11));
+
+        assertNull(cache.getEntry("a"));
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        cache.put("a", "Austin");
+        cache.put("b", "Xifeng");
+        cache.getEntry("a");
+        cache.put("c", "Kumar");
+
+        assertNotNull(cache.getEntry("a"));
+        assertNull(cache.getEntry("b"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void testInvalidate() {
+        cache.put("a", "Austin");
+        cache.invalidate("a");
+
+        assertNull(cache.getEntry("a"));
+    }
+
+    @Test
+    public void testLoadIsDroppedAfterWrite() {
+        long version = cache.version("a");
+        cache.put("a", "Austin");
+
+        assertFalse(cache.putIfUnchanged("a", null, version));
+        assertEquals("Austin", cache.getEntry("a").getValue());
+    }
+
+    @Test
+    public void testLoadIsDroppedAfterInvalidate() {
+        long version = cache.version("a");
+        cache.invalidate("a");
+
+        assertFalse(cache.putIfUnchanged("a", "Austin", version));
+        assertNull(cache.getEntry("a"));
+        assertTrue(cache.putIfUnchanged("a", "Austin", cache.version("a")));
+    }
+
+    @Test
+    public void testMetersFollowCounts() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.registerMeters(registry, "names");
+        cache.getEntry("a");
+        cache.put("a", "Austin");
+        cache.getEntry("a");
+
+        assertEquals(1, registry.get("cache.gets").tags("cache", "names", "result", "hit").functionCounter().count(), 0);
+        assertEquals(1, registry.get("cache.gets").tags("cache", "names", "result", "miss").functionCounter().count(), 0);
+        assertEquals(1, registry.get("cache.size").tag("cache", "names").gauge().value(), 0);
+    }
+}
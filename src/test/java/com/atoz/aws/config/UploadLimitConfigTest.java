@@ -0,0 +1,38 @@
+package com.atoz.aws.config;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.mock.web.MockMultipartHttpServletRequest;
+
+import static org.junit.Assert.*;
+
+public class UploadLimitConfigTest {
+    private UploadLimitConfig.ImageSizeInterceptor interceptor = new UploadLimitConfig.ImageSizeInterceptor(4);
+    private MockHttpServletResponse response = new MockHttpServletResponse();
+
+    @Test
+    public void testImageWithinLimitPasses() throws Exception {
+        MockMultipartHttpServletRequest request = new MockMultipartHttpServletRequest();
+        request.addFile(new MockMultipartFile("file", new byte[4]));
+
+        assertTrue(interceptor.preHandle(request, response, null));
+        assertEquals(200, response.getStatus());
+    }
+
+    @Test
+    public void testLargerImageIsRejected() throws Exception {
+        MockMultipartHttpServletRequest request = new MockMultipartHttpServletRequest();
+        request.addFile(new MockMultipartFile("files", new byte[4]));
+        request.addFile(new MockMultipartFile("files", new byte[5]));
+
+        assertFalse(interceptor.preHandle(request, response, null));
+        assertEquals(413, response.getStatus());
+    }
+
+    @Test
+    public void testRequestWithoutFilesPasses() throws Exception {
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), response, null));
+    }
+}
@@ -0,0 +1,72 @@
+package com.atoz.aws.controller;
+
+import com.amazonaws.services.rekognition.AbstractAmazonRekognition;
+import com.amazonaws.services.rekognition.model.*;
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.service.AtoZImageRekognitionService;
+import com.atoz.aws.service.ImageAnalysisService;
+import com.atoz.aws.throttle.ThrottledException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class AwsRekognitionControllerAnalyzeTest {
+    private ExecutorService executor;
+    private AwsRekognitionController controller;
+    private MockMultipartFile file = new MockMultipartFile("file", "image.jpg", "image/jpeg", new byte[] {1, 2, 3, 4});
+
+    @Before
+    public void setUp() {
+        AwsClientRegistry.getInstance().setRekognition(new AbstractAmazonRekognition() {
+            @Override
+            public DetectLabelsResult detectLabels(DetectLabelsRequest request) {
+                throw new ThrottledException("DetectLabels", "still throttled after 6 attempts", null);
+            }
+
+            @Override
+            public DetectFacesResult detectFaces(DetectFacesRequest request) {
+                return new DetectFacesResult().withFaceDetails(new FaceDetail().withConfidence(99F));
+            }
+        });
+
+        executor = Executors.newFixedThreadPool(2);
+        ImageAnalysisService analysisService = new ImageAnalysisService();
+        analysisService.setImageService(new AtoZImageRekognitionService("faces"));
+        analysisService.setRekognitionExecutor(executor);
+        analysisService.setSearchExecutor(executor);
+        controller = new AwsRekognitionController();
+        ReflectionTestUtils.setField(controller, "analysisService", analysisService);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        AwsClientRegistry.getInstance().setRekognition(null);
+    }
+
+    @Test
+    public void testAllThrottledIsTooManyRequests() {
+        ResponseEntity<Map<String, Object>> response = controller.analyzeImage(file, "labels");
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
+    }
+
+    @Test
+    public void testSomeThrottledIsReported() {
+        ResponseEntity<Map<String, Object>> response = controller.analyzeImage(file, "labels,faces");
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(response.getBody().containsKey("faces"));
+        assertTrue(((Map<?, ?>) response.getBody().get("errors")).containsKey("labels"));
+    }
+}
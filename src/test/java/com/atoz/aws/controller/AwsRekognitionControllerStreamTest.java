@@ -0,0 +1,144 @@
+package com.atoz.aws.controller;
+
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.loadtest.FaultInjector;
+import com.atoz.aws.loadtest.InMemoryS3Client;
+import com.atoz.aws.service.S3AccessService;
+import com.atoz.aws.service.ThumbnailService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.sync.StreamingResponseHandler;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class AwsRekognitionControllerStreamTest {
+    private static final String NAME = "Austin Zhang";
+
+    private byte[] image = new byte[100];
+    private S3AccessService s3Service;
+    private AwsRekognitionController controller;
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) i;
+        }
+        useS3(new InMemoryS3Client(new FaultInjector("test", 0, 0, 0, 0, 0)));
+    }
+
+    @After
+    public void tearDown() {
+        AwsClientRegistry.getInstance().setS3(null);
+    }
+
+    @Test
+    public void testRangeIsPartialContent() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.streamPersonImage(NAME, 0, null, "bytes=10-19", response);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 10-19/100", response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(10, response.getContentLength());
+        assertArrayEquals(Arrays.copyOfRange(image, 10, 20), response.getContentAsByteArray());
+        assertNotNull(response.getHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void testNotModifiedSendsCurrentETag() throws Exception {
+        String eTag = currentETag();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.streamPersonImage(NAME, 0, eTag, null, response);
+
+        assertEquals(304, response.getStatus());
+        assertEquals(eTag, response.getHeader(HttpHeaders.ETAG));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void testNotModifiedWithoutETagHeaderLooksItUp() throws Exception {
+        String eTag = currentETag();
+        // a 304 whose headers got lost on the way
+        useS3(new InMemoryS3Client(new FaultInjector("test", 0, 0, 0, 0, 0)) {
+            @Override
+            public <ReturnT> ReturnT getObject(GetObjectRequest request, StreamingResponseHandler handler) {
+                try {
+                    return super.getObject(request, handler);
+                } catch (S3Exception e) {
+                    e.setHttpHeaders(Collections.emptyMap());
+                    throw e;
+                }
+            }
+        });
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.streamPersonImage(NAME, 0, eTag, null, response);
+
+        assertEquals(304, response.getStatus());
+        assertEquals(eTag, response.getHeader(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void testClientGoneIsNotAnError() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse() {
+            @Override
+            public ServletOutputStream getOutputStream() {
+                return new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        throw new IOException("Broken pipe");
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                    }
+                };
+            }
+        };
+
+        controller.streamPersonImage(NAME, 0, null, null, response);
+
+        assertEquals(200, response.getStatus());
+    }
+
+    private String currentETag() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.streamPersonImage(NAME, 0, null, null, response);
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(image, response.getContentAsByteArray());
+        return response.getHeader(HttpHeaders.ETAG);
+    }
+
+    private void useS3(InMemoryS3Client s3) throws Exception {
+        AwsClientRegistry.getInstance().setS3(s3);
+        s3Service = new S3AccessService();
+        s3Service.setBucketName("bucket");
+        s3Service.setFolderName("index");
+        // the ETag is derived from the content, so it does not change with the client
+        s3Service.uploadStream(NAME, new ByteArrayInputStream(image), image.length, Collections.emptyMap());
+
+        ThumbnailService thumbnailService = new ThumbnailService();
+        thumbnailService.setS3Service(s3Service);
+        controller = new AwsRekognitionController();
+        ReflectionTestUtils.setField(controller, "thumbnailService", thumbnailService);
+    }
+}
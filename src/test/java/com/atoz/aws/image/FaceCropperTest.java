@@ -0,0 +1,48 @@
+package com.atoz.aws.image;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.*;
+
+public class FaceCropperTest {
+    private FaceCropper cropper = new FaceCropper(0.25F, 0.9F);
+
+    @Test
+    public void testCropAddsMargin() throws Exception {
+        BufferedImage image = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+
+        BufferedImage face = decode(cropper.crop(image, 0.25F, 0.25F, 0.2F, 0.4F));
+
+        assertEquals(120, face.getWidth());
+        assertEquals(120, face.getHeight());
+    }
+
+    @Test
+    public void testCropStopsAtImageBounds() throws Exception {
+        BufferedImage image = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+
+        BufferedImage face = decode(cropper.crop(image, -0.05F, 0.8F, 0.2F, 0.4F));
+
+        assertEquals(80, face.getWidth());
+        assertEquals(60, face.getHeight());
+    }
+
+    @Test
+    public void testDecodeUprightScalesDown() throws Exception {
+        BufferedImage image = new BufferedImage(800, 400, BufferedImage.TYPE_INT_RGB);
+
+        BufferedImage upright = cropper.decodeUpright(cropper.encode(image), 200);
+
+        assertEquals(200, upright.getWidth());
+        assertEquals(100, upright.getHeight());
+        assertNull(cropper.decodeUpright(new byte[1024], 200));
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws Exception {
+        return ImageIO.read(new ByteArrayInputStream(jpeg));
+    }
+}
@@ -0,0 +1,107 @@
+package com.atoz.aws.image;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ImageBufferPoolTest {
+    private ImageBufferPool pool = new ImageBufferPool(1024, 8192, 16384);
+
+    @Test
+    public void testClosedBufferIsReused() throws Exception {
+        byte[] content = bytes(3000);
+
+        try (ImageBufferPool.Buffer buffer = pool.read(new ByteArrayInputStream(content), content.length)) {
+            assertEquals(ByteBuffer.wrap(content), buffer.data());
+            assertEquals(1, pool.getBorrowed());
+        }
+        assertEquals(4096, pool.getPooledBytes());
+
+        try (ImageBufferPool.Buffer buffer = pool.read(new ByteArrayInputStream(content), content.length)) {
+            assertEquals(3000, buffer.length());
+        }
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(0, pool.getBorrowed());
+    }
+
+    @Test
+    public void testStreamLongerThanDeclared() throws Exception {
+        byte[] content = bytes(5000);
+
+        try (ImageBufferPool.Buffer buffer = pool.read(new ByteArrayInputStream(content), 1000)) {
+            assertEquals(ByteBuffer.wrap(content), buffer.data());
+        }
+        // the buffer outgrown is given back, the grown array is not pooled
+        assertEquals(1024, pool.getPooledBytes());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(0, pool.getBorrowed());
+    }
+
+    @Test
+    public void testOutgrownPooledBufferIsOneMiss() throws Exception {
+        pool.acquire(1000).close();
+        byte[] content = bytes(5000);
+
+        pool.read(new ByteArrayInputStream(content), 1000).close();
+
+        assertEquals(0, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+    }
+
+    @Test
+    public void testMetersReportPool() throws Exception {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        pool.registerMeters(registry);
+        ImageBufferPool.Buffer buffer = pool.acquire(1000);
+
+        assertEquals(1, registry.get("image.buffer.pool.borrowed").gauge().value(), 0);
+        buffer.close();
+        pool.acquire(1000).close();
+        assertEquals(1, registry.get("image.buffer.pool.requests").tag("result", "hit").functionCounter().count(), 0);
+        assertEquals(1, registry.get("image.buffer.pool.requests").tag("result", "miss").functionCounter().count(), 0);
+        assertEquals(1024, registry.get("image.buffer.pool.idle.bytes").gauge().value(), 0);
+    }
+
+    @Test
+    public void testContentFillingBufferExactly() throws Exception {
+        byte[] content = bytes(2048);
+
+        try (ImageBufferPool.Buffer buffer = pool.read(new ByteArrayInputStream(content), content.length)) {
+            assertEquals(ByteBuffer.wrap(content), buffer.data());
+        }
+        assertEquals(2048, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testIdleBuffersAreBounded() {
+        ImageBufferPool.Buffer[] buffers = new ImageBufferPool.Buffer[3];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(8192);
+        }
+        for (ImageBufferPool.Buffer buffer : buffers) {
+            buffer.close();
+        }
+
+        assertEquals(16384, pool.getPooledBytes());
+        assertEquals(3, pool.getMissCount());
+
+        // larger than the largest buffer
+        pool.acquire(10000).close();
+        assertEquals(16384, pool.getPooledBytes());
+        assertEquals(4, pool.getMissCount());
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+}
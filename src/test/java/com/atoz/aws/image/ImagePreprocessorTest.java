@@ -0,0 +1,135 @@
+package com.atoz.aws.image;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+public class ImagePreprocessorTest {
+    private static final String IMAGE_DIR = "src/test/resources/images/";
+
+    @Test
+    public void testLargeImageIsDownscaled() throws Exception {
+        byte[] original = Files.readAllBytes(Paths.get(IMAGE_DIR + "Indexed.jpg"));
+        ImagePreprocessor preprocessor = new ImagePreprocessor(true, 1024, 0.85F, 1024 * 1024);
+
+        byte[] processed = preprocessor.process(original);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(processed));
+
+        assertTrue(processed.length < original.length);
+        assertEquals(1024, Math.max(image.getWidth(), image.getHeight()));
+        assertEquals(original.length - processed.length, preprocessor.bytesSaved());
+        assertEquals(1, preprocessor.processedCount());
+    }
+
+    @Test
+    public void testSavingsAreRecordedAsMeters() throws Exception {
+        byte[] original = Files.readAllBytes(Paths.get(IMAGE_DIR + "Indexed.jpg"));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        try {
+            ImagePreprocessor preprocessor = new ImagePreprocessor(true, 1024, 0.85F, 1024 * 1024);
+
+            byte[] processed = preprocessor.process(original);
+
+            DistributionSummary saved = registry.get("image.preprocess.saved.bytes").summary();
+            assertEquals(1, saved.count());
+            assertEquals(original.length - processed.length, saved.totalAmount(), 0);
+            assertEquals(1, registry.get("image.preprocess.time").timer().count());
+        } finally {
+            Metrics.removeRegistry(registry);
+        }
+    }
+
+    @Test
+    public void testSmallImageIsSkipped() throws Exception {
+        // upright and within max side
+        byte[] original = Files.readAllBytes(Paths.get(IMAGE_DIR + "Austin1.jpg"));
+        ImagePreprocessor preprocessor = new ImagePreprocessor(true, 1920, 0.85F, 1024 * 1024);
+
+        assertSame(original, preprocessor.process(original));
+        assertEquals(0, preprocessor.processedCount());
+    }
+
+    @Test
+    public void testUndecodableImageIsPassedThrough() {
+        byte[] original = new byte[2048];
+        ImagePreprocessor preprocessor = new ImagePreprocessor(true, 1024, 0.85F, 0);
+
+        assertSame(original, preprocessor.process(original));
+    }
+
+    @Test
+    public void testExifOrientationIsApplied() throws Exception {
+        BufferedImage landscape = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+        byte[] original = withOrientation(encode(landscape), 6);
+        assertEquals(6, ImagePreprocessor.readOrientation(original));
+
+        byte[] processed = new ImagePreprocessor(true, 1024, 0.85F, 0).process(original);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(processed));
+
+        assertEquals(200, image.getWidth());
+        assertEquals(400, image.getHeight());
+    }
+
+    @Test
+    public void testSmallRotatedImageIsTurnedUpright() throws Exception {
+        byte[] original = withOrientation(encode(new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB)), 6);
+        ImagePreprocessor preprocessor = new ImagePreprocessor(true, 1024, 0.85F, 1024 * 1024);
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(preprocessor.process(original)));
+
+        assertEquals(200, image.getWidth());
+        assertEquals(400, image.getHeight());
+    }
+
+    @Test
+    public void testSmallOversizedImageIsDownscaled() throws Exception {
+        byte[] original = encode(new BufferedImage(2048, 1024, BufferedImage.TYPE_INT_RGB));
+        ImagePreprocessor preprocessor = new ImagePreprocessor(true, 1024, 0.85F, 1024 * 1024);
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(preprocessor.process(original)));
+
+        assertEquals(1024, image.getWidth());
+    }
+
+    @Test
+    public void testOrientationDefaultsToUpright() throws Exception {
+        assertEquals(1, ImagePreprocessor.readOrientation(new byte[]{1, 2, 3}));
+        assertEquals(1, ImagePreprocessor.readOrientation(encode(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB))));
+    }
+
+    private static byte[] encode(BufferedImage image) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Inserts a big-endian EXIF segment holding only the orientation tag right after SOI.
+     */
+    private static byte[] withOrientation(byte[] jpeg, int orientation) {
+        byte[] exif = {
+                (byte) 0xFF, (byte) 0xE1, 0, 34,
+                'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0
+        };
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(jpeg, 0, 2);
+        out.write(exif, 0, exif.length);
+        out.write(jpeg, 2, jpeg.length - 2);
+        return out.toByteArray();
+    }
+}
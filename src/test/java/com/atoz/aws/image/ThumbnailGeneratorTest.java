@@ -0,0 +1,44 @@
+package com.atoz.aws.image;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailGeneratorTest {
+    private ThumbnailGenerator generator = new ThumbnailGenerator(Arrays.asList(512, 128), 0.8F);
+
+    @Test
+    public void testThumbnailsOfEachSize() throws Exception {
+        Map<Integer, byte[]> thumbnails;
+        try (InputStream in = new FileInputStream("src/test/resources/images/Indexed.jpg")) {
+            thumbnails = generator.generate(in);
+        }
+
+        assertEquals(Arrays.asList(128, 512), Arrays.asList(thumbnails.keySet().toArray()));
+        for (Map.Entry<Integer, byte[]> thumbnail : thumbnails.entrySet()) {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail.getValue()));
+            assertEquals((int) thumbnail.getKey(), Math.max(image.getWidth(), image.getHeight()));
+        }
+    }
+
+    @Test
+    public void testPickSize() {
+        assertEquals(Arrays.asList(128, 512), generator.getSizes());
+        assertEquals(Integer.valueOf(128), generator.pickSize(100));
+        assertEquals(Integer.valueOf(512), generator.pickSize(129));
+        assertNull(generator.pickSize(1024));
+    }
+
+    @Test
+    public void testUndecodableImageHasNoThumbnails() throws Exception {
+        assertTrue(generator.generate(new ByteArrayInputStream(new byte[1024])).isEmpty());
+    }
+}
@@ -0,0 +1,64 @@
+package com.atoz.aws.loadtest;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FaultInjectorTest {
+
+    @Test
+    public void testLatencyPercentiles() {
+        FaultInjector faults = new FaultInjector("s3", 20, 200, 0, 0, 0);
+        Random random = new Random(42);
+
+        long[] latencies = new long[20000];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = faults.latencyMillis(random);
+        }
+        Arrays.sort(latencies);
+
+        assertEquals(20, latencies[latencies.length / 2], 2);
+        assertEquals(200, latencies[latencies.length * 99 / 100], 25);
+    }
+
+    @Test
+    public void testNoLatency() {
+        FaultInjector faults = new FaultInjector("s3", 0, 0, 0, 0, 0);
+
+        assertEquals(0, faults.latencyMillis(new Random(1)));
+    }
+
+    @Test
+    public void testCallsBeyondLimitAreThrottled() {
+        FaultInjector faults = new FaultInjector("rekognition", 0, 0, 0, 0, 2);
+        long now = TimeUnit.SECONDS.toNanos(100);
+
+        assertTrue(faults.admit(now));
+        assertTrue(faults.admit(now + 1));
+        assertFalse(faults.admit(now + 2));
+        assertTrue(faults.admit(now + TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    @Test
+    public void testFailureKinds() {
+        FaultInjector throttling = new FaultInjector("dynamodb", 0, 0, 1, 0, 0);
+        FaultInjector failing = new FaultInjector("dynamodb", 0, 0, 0, 1, 0);
+
+        assertEquals("THROTTLED", failureOf(throttling));
+        assertEquals("SERVER_ERROR", failureOf(failing));
+        assertNull(failureOf(new FaultInjector("dynamodb", 0, 0, 0, 0, 0)));
+    }
+
+    private static String failureOf(FaultInjector faults) {
+        try {
+            faults.call("GetItem", failure -> new IllegalStateException(failure.name()));
+            return null;
+        } catch (IllegalStateException e) {
+            return e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.atoz.aws.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays the test images against the HTTP endpoints of a running service at a fixed request
+ * rate and reports throughput and latency percentiles per endpoint. Requests are sent on
+ * schedule whether or not earlier ones have finished, and latency is measured from the scheduled
+ * time, so a slow server cannot hide its queueing delay by slowing the driver down.
+ * <p>
+ * Start the service with the "loadtest" profile, then run for example:
+ * <pre>
+ * LoadDriver --url=http://localhost:8080 --rate=20 --duration=60 --endpoints=match,match-image
+ * </pre>
+ * Options: url, rate (requests per second), duration and warmup (seconds), endpoints (match,
+ * match-image, detectLabels, index), images (directory, default the test images), setup (upload
+ * and index every image first, default true), slo.p99.millis (fail when an endpoint's p99 is above).
+ */
+public class LoadDriver {
+
+    private static final String BOUNDARY = "----LoadDriverBoundary";
+
+    private static final Map<String, String> ENDPOINT_PATHS = new LinkedHashMap<>();
+
+    static {
+        ENDPOINT_PATHS.put("match", "/image/match");
+        ENDPOINT_PATHS.put("match-image", "/image/match-image");
+        ENDPOINT_PATHS.put("detectLabels", "/image/detectLabels");
+        ENDPOINT_PATHS.put("index", "/image/index");
+    }
+
+    private final String baseUrl;
+    private final List<Image> images;
+
+    LoadDriver(String baseUrl, List<Image> images) {
+        this.baseUrl = baseUrl;
+        this.images = images;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        String url = options.getOrDefault("url", "http://localhost:8080");
+        double rate = Double.parseDouble(options.getOrDefault("rate", "10"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "60"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        List<String> endpoints = Arrays.asList(options.getOrDefault("endpoints", "match,match-image").split(","));
+        long sloP99Millis = Long.parseLong(options.getOrDefault("slo.p99.millis", "0"));
+
+        for (String endpoint : endpoints) {
+            if (!ENDPOINT_PATHS.containsKey(endpoint)) {
+                throw new IllegalArgumentException("Unknown endpoint " + endpoint + ", expected one of " + ENDPOINT_PATHS.keySet());
+            }
+        }
+
+        LoadDriver driver = new LoadDriver(url, loadImages(options.get("images")));
+        if (Boolean.parseBoolean(options.getOrDefault("setup", "true"))) {
+            driver.setUp();
+        }
+
+        if (warmup > 0) {
+            System.out.printf("Warming up for %d s%n", warmup);
+            driver.run(endpoints, rate, warmup);
+        }
+        System.out.printf("Running %.1f requests/s for %d s against %s%n", rate, duration, url);
+        Map<String, Stats> results = driver.run(endpoints, rate, duration);
+
+        boolean met = report(results, duration, sloP99Millis);
+        System.exit(met ? 0 : 1);
+    }
+
+    /**
+     * Uploads every image under its name and indexes it, so matches find a stored image.
+     */
+    void setUp() throws IOException {
+        for (Image image : images) {
+            int upload = post("/image/s3upload", image, true);
+            int index = post("/image/index", image, true);
+            System.out.printf("Set up %s: upload %d, index %d%n", image.name, upload, index);
+        }
+    }
+
+    /**
+     * Sends requests to the endpoints in turn at the given rate for the given time.
+     */
+    Map<String, Stats> run(List<String> endpoints, double rate, int seconds) throws InterruptedException {
+        Map<String, Stats> results = new LinkedHashMap<>();
+        for (String endpoint : endpoints) {
+            results.put(endpoint, new Stats());
+        }
+
+        ExecutorService workers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "load-driver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        AtomicLong sequence = new AtomicLong();
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+
+        scheduler.scheduleAtFixedRate(() -> {
+            long n = sequence.getAndIncrement();
+            long scheduled = start + n * periodNanos;
+            String endpoint = endpoints.get((int) (n % endpoints.size()));
+            Image image = images.get((int) ((n / endpoints.size()) % images.size()));
+            Stats stats = results.get(endpoint);
+            stats.inFlight.incrementAndGet();
+            workers.execute(() -> {
+                try {
+                    int status = post(ENDPOINT_PATHS.get(endpoint), image, endpoint.equals("index"));
+                    stats.record(System.nanoTime() - scheduled, status >= 200 && status < 300);
+                } catch (IOException e) {
+                    stats.record(System.nanoTime() - scheduled, false);
+                } finally {
+                    stats.inFlight.decrementAndGet();
+                }
+            });
+        }, 0, periodNanos, TimeUnit.NANOSECONDS);
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        scheduler.shutdownNow();
+        workers.shutdown();
+        if (!workers.awaitTermination(60, TimeUnit.SECONDS)) {
+            System.out.println("Requests still running after 60 s are not reported");
+        }
+        return results;
+    }
+
+    /**
+     * @return whether every endpoint met the p99 objective.
+     */
+    static boolean report(Map<String, Stats> results, int seconds, long sloP99Millis) {
+        boolean met = true;
+        System.out.printf("%-14s %8s %7s %9s %9s %9s %9s %9s %s%n",
+                "endpoint", "requests", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "max ms", sloP99Millis > 0 ? "slo" : "");
+        for (Map.Entry<String, Stats> entry : results.entrySet()) {
+            Stats stats = entry.getValue();
+            long[] latencies = stats.sortedLatencies();
+            long p99 = percentile(latencies, 99);
+            String slo = "";
+            if (sloP99Millis > 0) {
+                boolean endpointMet = latencies.length > 0 && p99 <= sloP99Millis;
+                slo = endpointMet ? "PASS" : "FAIL";
+                met &= endpointMet;
+            }
+            System.out.printf("%-14s %8d %7d %9.1f %9d %9d %9d %9d %s%n",
+                    entry.getKey(), latencies.length, stats.errors.get(), (double) latencies.length / seconds,
+                    percentile(latencies, 50), percentile(latencies, 95), p99,
+                    latencies.length > 0 ? latencies[latencies.length - 1] : 0, slo);
+        }
+        return met;
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values, 0 when there are none.
+     */
+    static long percentile(long[] sorted, double percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    private int post(String path, Image image, boolean withName) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(60000);
+        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + BOUNDARY);
+
+        try (OutputStream out = connection.getOutputStream()) {
+            if (withName) {
+                writePart(out, "form-data; name=\"name\"", null, image.name.getBytes(StandardCharsets.UTF_8));
+            }
+            writePart(out, "form-data; name=\"file\"; filename=\"" + image.name + ".jpg\"", "image/jpeg", image.content);
+            out.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        }
+
+        int status = connection.getResponseCode();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                drain(in);
+            }
+        }
+        return status;
+    }
+
+    private static void writePart(OutputStream out, String disposition, String contentType, byte[] content) throws IOException {
+        StringBuilder header = new StringBuilder("--").append(BOUNDARY).append("\r\n")
+                .append("Content-Disposition: ").append(disposition).append("\r\n");
+        if (contentType != null) {
+            header.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        header.append("\r\n");
+        out.write(header.toString().getBytes(StandardCharsets.UTF_8));
+        out.write(content);
+        out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) >= 0) {
+            // response bodies are not checked
+        }
+    }
+
+    private static List<Image> loadImages(String directory) throws IOException, URISyntaxException {
+        File dir = directory != null
+                ? new File(directory)
+                : new File(LoadDriver.class.getResource("/images").toURI());
+        File[] files = dir.listFiles((d, name) -> name.toLowerCase().endsWith(".jpg"));
+        if (files == null || files.length == 0) {
+            throw new IllegalArgumentException("No .jpg images in " + dir);
+        }
+        Arrays.sort(files);
+
+        List<Image> images = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName().substring(0, file.getName().length() - ".jpg".length());
+            images.add(new Image(name, Files.readAllBytes(file.toPath())));
+        }
+        return images;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --option=value, got " + arg);
+            }
+            int equals = arg.indexOf('=');
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        return options;
+    }
+
+    static class Image {
+        final String name;
+        final byte[] content;
+
+        Image(String name, byte[] content) {
+            this.name = name;
+            this.content = content;
+        }
+    }
+
+    static class Stats {
+        final AtomicInteger errors = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        private final ConcurrentLinkedQueue<Long> latencyMillis = new ConcurrentLinkedQueue<>();
+
+        void record(long latencyNanos, boolean success) {
+            latencyMillis.add(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+            if (!success) {
+                errors.incrementAndGet();
+            }
+        }
+
+        long[] sortedLatencies() {
+            long[] sorted = latencyMillis.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.atoz.aws.metrics;
+
+import com.amazonaws.AmazonServiceException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class AwsCallMetricsTest {
+    private MeterRegistry registry = new SimpleMeterRegistry();
+
+    {
+        AwsCallMetrics.setRegistry(registry);
+    }
+
+    @After
+    public void restoreRegistry() {
+        AwsCallMetrics.setRegistry(Metrics.globalRegistry);
+    }
+
+    @Test
+    public void testSuccessIsTimed() {
+        assertEquals("result", AwsCallMetrics.time(AwsCallMetrics.S3, "GetObject", () -> "result"));
+
+        Timer timer = registry.find(AwsCallMetrics.CALLS)
+                .tags("service", "s3", "operation", "GetObject", "outcome", "SUCCESS").timer();
+        assertNotNull(timer);
+        assertEquals(1, timer.count());
+    }
+
+    @Test
+    public void testThrottlingIsTagged() {
+        AmazonServiceException throttled = new AmazonServiceException("Rate exceeded");
+        throttled.setErrorCode("ThrottlingException");
+        throttled.setStatusCode(400);
+
+        try {
+            AwsCallMetrics.time(AwsCallMetrics.REKOGNITION, "IndexFaces", () -> {
+                throw throttled;
+            });
+            fail();
+        } catch (AmazonServiceException e) {
+            assertSame(throttled, e);
+        }
+
+        assertNotNull(registry.find(AwsCallMetrics.CALLS)
+                .tags("operation", "IndexFaces", "outcome", "THROTTLED", "exception", "AmazonServiceException").timer());
+    }
+
+    @Test
+    public void testAsyncFailureIsTimedOnCompletion() {
+        CompletableFuture<String> call = new CompletableFuture<>();
+        CompletableFuture<String> timed = AwsCallMetrics.timeAsync(AwsCallMetrics.DYNAMODB, "BatchGetItem", () -> call);
+        assertNull(registry.find(AwsCallMetrics.CALLS).timer());
+
+        call.completeExceptionally(new IllegalStateException("connection reset"));
+
+        assertTrue(timed.isCompletedExceptionally());
+        assertNotNull(registry.find(AwsCallMetrics.CALLS).tags("outcome", "ERROR").timer());
+    }
+
+    @Test
+    public void testPayloadSizes() {
+        AwsCallMetrics.requestBytes(AwsCallMetrics.S3, "PutObject", 1000);
+        AwsCallMetrics.requestBytes(AwsCallMetrics.S3, "PutObject", 3000);
+
+        assertEquals(4000, registry.find(AwsCallMetrics.REQUEST_BYTES).tags("operation", "PutObject").summary().totalAmount(), 0);
+    }
+}
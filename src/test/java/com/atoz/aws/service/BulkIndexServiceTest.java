@@ -0,0 +1,129 @@
+package com.atoz.aws.service;
+
+import com.amazonaws.services.rekognition.AbstractAmazonRekognition;
+import com.amazonaws.services.rekognition.model.*;
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.loadtest.FaultInjector;
+import com.atoz.aws.loadtest.InMemoryDynamoDbClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class BulkIndexServiceTest {
+    private BulkIndexService service;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        AwsClientRegistry registry = AwsClientRegistry.getInstance();
+        registry.setDynamoDb(new InMemoryDynamoDbClient(new FaultInjector("test", 0, 0, 0, 0, 0), "faceId"));
+        registry.setRekognition(new AbstractAmazonRekognition() {
+            @Override
+            public IndexFacesResult indexFaces(IndexFacesRequest request) {
+                return new IndexFacesResult().withFaceRecords(
+                        new FaceRecord().withFace(new Face().withFaceId(UUID.randomUUID().toString())));
+            }
+        });
+
+        DynamoDbAccessService dynamoService = new DynamoDbAccessService("faces", "faceId");
+        dynamoService.setAttrFullName("fullname");
+        AtoZImageRekognitionService imageService = new AtoZImageRekognitionService("faces");
+        imageService.setDynamoService(dynamoService);
+
+        executor = Executors.newFixedThreadPool(2);
+        service = new BulkIndexService();
+        service.setImageService(imageService);
+        service.setExecutor(executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        AwsClientRegistry.getInstance().setRekognition(null);
+        AwsClientRegistry.getInstance().setDynamoDb(null);
+    }
+
+    @Test
+    public void testZipNamesComeFromManifest() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            put(zip, BulkIndexService.MANIFEST, "people/a.jpg,Austin Zhang\n".getBytes(StandardCharsets.UTF_8));
+            put(zip, "people/a.jpg", image(100));
+            put(zip, "people/xifeng.jpg", image(100));
+            put(zip, "people/.DS_Store", image(10));
+            put(zip, "__MACOSX/people/._a.jpg", image(10));
+        }
+
+        List<IndexItemResult> results = service.indexZip(new ByteArrayInputStream(bytes.toByteArray()), false);
+
+        assertEquals(2, results.size());
+        assertEquals("Austin Zhang", results.get(0).getName());
+        assertEquals("xifeng", results.get(1).getName());
+        assertEquals(IndexItemResult.Status.INDEXED, results.get(0).getStatus());
+        assertEquals(1, results.get(1).getFaceCount());
+    }
+
+    @Test
+    public void testTruncatedZipKeepsResultsOfImagesRead() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            put(zip, "a.jpg", image(20000));
+            put(zip, "b.jpg", image(20000));
+            put(zip, "c.jpg", image(20000));
+        }
+        // the upload ends in the middle of the last image
+        byte[] truncated = Arrays.copyOf(bytes.toByteArray(), 2 * 20100 + 5000);
+
+        List<IndexItemResult> results = service.indexZip(new ByteArrayInputStream(truncated), false);
+
+        assertEquals(IndexItemResult.Status.INDEXED, results.get(0).getStatus());
+        assertEquals(IndexItemResult.Status.INDEXED, results.get(1).getStatus());
+        assertEquals("c.jpg", results.get(2).getItem());
+        assertEquals(IndexItemResult.Status.FAILED, results.get(2).getStatus());
+        IndexItemResult rest = results.get(results.size() - 1);
+        assertEquals(BulkIndexService.ZIP_ITEM, rest.getItem());
+        assertEquals(IndexItemResult.Status.FAILED, rest.getStatus());
+    }
+
+    @Test
+    public void testUnreadableImageFailsOnlyItself() throws Exception {
+        BulkIndexService.Pipeline pipeline = service.newPipeline(false);
+        pipeline.submit("a.jpg", "Austin Zhang", () -> image(100));
+        pipeline.submit("b.jpg", "Xifeng", () -> {
+            throw new IOException("connection reset");
+        });
+
+        List<IndexItemResult> results = pipeline.await();
+
+        assertEquals(IndexItemResult.Status.INDEXED, results.get(0).getStatus());
+        assertEquals(IndexItemResult.Status.FAILED, results.get(1).getStatus());
+        assertEquals("connection reset", results.get(1).getError());
+    }
+
+    private static void put(ZipOutputStream zip, String name, byte[] content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    private static byte[] image(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
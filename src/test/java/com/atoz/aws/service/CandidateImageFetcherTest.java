@@ -0,0 +1,107 @@
+package com.atoz.aws.service;
+
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.loadtest.FaultInjector;
+import com.atoz.aws.loadtest.InMemoryS3Client;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class CandidateImageFetcherTest {
+    private static final int MIN_IMAGE_BYTES = 1000;
+
+    private S3AccessService s3Service;
+    private CandidateImageFetcher fetcher;
+    private ExecutorService executor;
+    private Map<String, Float> matchedNames = new LinkedHashMap<>();
+
+    @Before
+    public void setUp() {
+        AwsClientRegistry.getInstance().setS3(new InMemoryS3Client(new FaultInjector("test", 0, 0, 0, 0, 0)));
+        s3Service = new S3AccessService();
+        s3Service.setBucketName("bucket");
+        s3Service.setFolderName("index");
+
+        ThumbnailService thumbnailService = new ThumbnailService();
+        thumbnailService.setS3Service(s3Service);
+
+        executor = Executors.newFixedThreadPool(3);
+        fetcher = new CandidateImageFetcher();
+        fetcher.setThumbnailService(thumbnailService);
+        fetcher.setExecutor(executor);
+
+        matchedNames.put("Xifeng", 90F);
+        matchedNames.put("Austin Zhang", 99F);
+        matchedNames.put("Kumar", 80F);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        AwsClientRegistry.getInstance().setS3(null);
+    }
+
+    @Test
+    public void testBestRankedImageWins() throws Exception {
+        store("Austin Zhang", 2000);
+        store("Xifeng", 3000);
+        store("Kumar", 4000);
+
+        CandidateImageFetcher.MatchedImage image = fetcher.fetchBest(matchedNames, MIN_IMAGE_BYTES, null);
+
+        assertEquals("Austin Zhang", image.getName());
+        assertEquals(99F, image.getConfidence(), 0);
+        assertEquals(2000, image.getImage().length);
+        assertNull(image.getSize());
+    }
+
+    @Test
+    public void testMissingImageIsPassedOver() throws Exception {
+        store("Kumar", 4000);
+
+        CandidateImageFetcher.MatchedImage image = fetcher.fetchBest(matchedNames, MIN_IMAGE_BYTES, null);
+
+        assertEquals("Kumar", image.getName());
+    }
+
+    @Test
+    public void testNoImageFound() {
+        assertNull(fetcher.fetchBest(matchedNames, MIN_IMAGE_BYTES, null));
+    }
+
+    @Test
+    public void testTooSmallImageIsPassedOver() throws Exception {
+        store("Austin Zhang", MIN_IMAGE_BYTES);
+        store("Xifeng", 3000);
+
+        CandidateImageFetcher.MatchedImage image = fetcher.fetchBest(matchedNames, MIN_IMAGE_BYTES, null);
+
+        assertEquals("Xifeng", image.getName());
+    }
+
+    @Test
+    public void testSmallThumbnailIsAcceptable() throws Exception {
+        store("Austin Zhang", MIN_IMAGE_BYTES);
+        store(ThumbnailService.thumbnailKey("Austin Zhang", 128), 500);
+        store("Xifeng", 3000);
+
+        CandidateImageFetcher.MatchedImage image = fetcher.fetchBest(matchedNames, MIN_IMAGE_BYTES, 128);
+
+        assertEquals("Austin Zhang", image.getName());
+        assertEquals(Integer.valueOf(128), image.getSize());
+        assertEquals(500, image.getImage().length);
+    }
+
+    private void store(String key, int length) throws Exception {
+        s3Service.uploadStream(key, new ByteArrayInputStream(new byte[length]), length, Collections.emptyMap());
+    }
+}
@@ -0,0 +1,203 @@
+package com.atoz.aws.service;
+
+import com.amazonaws.services.rekognition.AbstractAmazonRekognition;
+import com.amazonaws.services.rekognition.model.*;
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.loadtest.FaultInjector;
+import com.atoz.aws.loadtest.InMemoryDynamoDbClient;
+import com.atoz.aws.loadtest.InMemoryS3Client;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class CollectionRebalancerTest {
+    private static final String NAME = "Austin Zhang";
+
+    // collection -> faceId -> the image and position the face was indexed from, e.g. "7/0"
+    private Map<String, Map<String, String>> collections = new ConcurrentHashMap<>();
+    // holds ListFaces until counted down
+    private CountDownLatch listing = new CountDownLatch(0);
+
+    private AtoZImageRekognitionService imageService;
+    private DynamoDbAccessService dynamoService;
+    private S3AccessService s3Service;
+    private CollectionRebalancer rebalancer;
+    private String home;
+    private String other;
+
+    @Before
+    public void setUp() {
+        AwsClientRegistry registry = AwsClientRegistry.getInstance();
+        FaultInjector noFaults = new FaultInjector("test", 0, 0, 0, 0, 0);
+        registry.setDynamoDb(new InMemoryDynamoDbClient(noFaults, "faceId"));
+        registry.setS3(new InMemoryS3Client(noFaults));
+        // an image is {id, number of faces}; its first face is the largest
+        registry.setRekognition(new AbstractAmazonRekognition() {
+            @Override
+            public IndexFacesResult indexFaces(IndexFacesRequest request) {
+                ByteBuffer image = request.getImage().getBytes();
+                List<FaceRecord> faceRecs = new ArrayList<>();
+                for (int i = 0; i < image.get(1); i++) {
+                    String faceId = UUID.randomUUID().toString();
+                    collection(request.getCollectionId()).put(faceId, image.get(0) + "/" + i);
+                    float side = 0.5F / (i + 1);
+                    faceRecs.add(new FaceRecord().withFace(new Face().withFaceId(faceId)
+                            .withBoundingBox(new BoundingBox().withWidth(side).withHeight(side))));
+                }
+                return new IndexFacesResult().withFaceRecords(faceRecs);
+            }
+
+            @Override
+            public SearchFacesByImageResult searchFacesByImage(SearchFacesByImageRequest request) {
+                String largest = request.getImage().getBytes().get(0) + "/0";
+                List<FaceMatch> matches = new ArrayList<>();
+                collection(request.getCollectionId()).forEach((faceId, source) -> {
+                    if (source.equals(largest)) {
+                        matches.add(new FaceMatch().withSimilarity(99.9F).withFace(new Face().withFaceId(faceId)));
+                    }
+                });
+                return new SearchFacesByImageResult().withFaceMatches(matches);
+            }
+
+            @Override
+            public ListFacesResult listFaces(ListFacesRequest request) {
+                try {
+                    listing.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                List<Face> faces = new ArrayList<>();
+                collection(request.getCollectionId()).keySet().forEach(faceId -> faces.add(new Face().withFaceId(faceId)));
+                return new ListFacesResult().withFaces(faces);
+            }
+
+            @Override
+            public DeleteFacesResult deleteFaces(DeleteFacesRequest request) {
+                collection(request.getCollectionId()).keySet().removeAll(request.getFaceIds());
+                return new DeleteFacesResult();
+            }
+        });
+
+        dynamoService = new DynamoDbAccessService("faces", "faceId");
+        dynamoService.setAttrFullName("fullname");
+        imageService = new AtoZImageRekognitionService("faces");
+        imageService.setDynamoService(dynamoService);
+        imageService.setImageCollections("faces_a,faces_b");
+        s3Service = new S3AccessService();
+        s3Service.setBucketName("bucket");
+        s3Service.setFolderName("index");
+
+        rebalancer = new CollectionRebalancer();
+        rebalancer.setImageService(imageService);
+        rebalancer.setDynamoService(dynamoService);
+        rebalancer.setS3Service(s3Service);
+
+        home = imageService.getShards().forName(NAME);
+        other = home.equals("faces_a") ? "faces_b" : "faces_a";
+    }
+
+    @After
+    public void tearDown() {
+        rebalancer.stop();
+        AwsClientRegistry.getInstance().setRekognition(null);
+        AwsClientRegistry.getInstance().setDynamoDb(null);
+        AwsClientRegistry.getInstance().setS3(null);
+    }
+
+    @Test
+    public void testOnlyFacesOfS3ImageAreMoved() throws Exception {
+        String fromS3Image = index(other, 7, NAME);
+        String fromOtherImage = index(other, 8, NAME);
+        // the image has a second, smaller face of someone else
+        storeImage(NAME, 7, 2);
+
+        CollectionRebalancer.Report report = rebalancer.rebalance(false);
+
+        assertEquals(2, report.getMisplaced());
+        assertEquals(1, report.getMoved());
+        assertEquals(1, report.getIndexed());
+        assertEquals(1, report.getLeft());
+        assertEquals(Collections.singleton(fromOtherImage), collection(other).keySet());
+        assertEquals(1, collection(home).size());
+        String moved = collection(home).keySet().iterator().next();
+        assertEquals("7/0", collection(home).get(moved));
+        assertEquals(NAME, dynamoService.getItem(moved).get("fullname").s());
+        assertNull(dynamoService.getItem(fromS3Image));
+        assertNotNull(dynamoService.getItem(fromOtherImage));
+    }
+
+    @Test
+    public void testNameWithoutS3ImageIsSkipped() throws Exception {
+        String faceId = index(other, 7, NAME);
+
+        CollectionRebalancer.Report report = rebalancer.rebalance(false);
+
+        assertEquals(1, report.getMisplaced());
+        assertEquals(0, report.getMoved());
+        assertEquals("No image in S3", report.getSkipped().get(NAME));
+        assertEquals(Collections.singleton(faceId), collection(other).keySet());
+    }
+
+    @Test
+    public void testRowWithoutNameIsCountedAsUnnamed() throws Exception {
+        collection(other).put("face-1", "1/0");
+        dynamoService.putItem("face-1", Collections.emptyMap());
+        index(home, 7, NAME);
+
+        CollectionRebalancer.Report report = rebalancer.rebalance(true);
+
+        assertEquals(2, report.getScanned());
+        assertEquals(1, report.getUnnamed());
+        assertEquals(0, report.getMisplaced());
+    }
+
+    @Test
+    public void testOneRunAtATime() throws Exception {
+        index(other, 7, NAME);
+        storeImage(NAME, 7, 1);
+
+        listing = new CountDownLatch(1);
+
+        CollectionRebalancer.Report report = rebalancer.start(false);
+        assertNull(rebalancer.start(false));
+        assertTrue(report.isRunning());
+        listing.countDown();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (report.isRunning()) {
+            assertTrue("Rebalance did not finish", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertSame(report, rebalancer.getLastReport());
+        assertEquals(1, report.getMoved());
+        assertEquals(1, collection(home).size());
+    }
+
+    private Map<String, String> collection(String collection) {
+        return collections.computeIfAbsent(collection, c -> new ConcurrentHashMap<>());
+    }
+
+    private String index(String collection, int image, String name) {
+        String faceId = UUID.randomUUID().toString();
+        collection(collection).put(faceId, image + "/0");
+        imageService.saveFaceNames(Collections.singletonList(faceId), name);
+        return faceId;
+    }
+
+    private void storeImage(String name, int image, int faces) throws Exception {
+        byte[] content = {(byte) image, (byte) faces};
+        s3Service.uploadStream(name, new ByteArrayInputStream(content), content.length, Collections.emptyMap());
+    }
+}
@@ -0,0 +1,48 @@
+package com.atoz.aws.service;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class CollectionShardsTest {
+    private CollectionShards shards = new CollectionShards(Arrays.asList("faces_a", "faces_b", "faces_c"));
+
+    @Test
+    public void testParseFallsBackToSingleCollection() {
+        assertEquals(Arrays.asList("family_collection"), CollectionShards.parse(" ", "family_collection").getCollections());
+        assertEquals(Arrays.asList("a", "b"), CollectionShards.parse("a, b,a", "family_collection").getCollections());
+    }
+
+    @Test
+    public void testNameIsRoutedDeterministically() {
+        String collection = shards.forName("Austin Zhang");
+
+        assertTrue(shards.getCollections().contains(collection));
+        assertEquals(collection, new CollectionShards(Arrays.asList("faces_c", "faces_a", "faces_b")).forName("Austin Zhang"));
+    }
+
+    @Test
+    public void testNamesAreSpread() {
+        int[] counts = new int[shards.size()];
+        for (int i = 0; i < 3000; i++) {
+            counts[shards.getCollections().indexOf(shards.forName("person-" + i))]++;
+        }
+
+        for (int count : counts) {
+            assertTrue(count > 800);
+        }
+    }
+
+    @Test
+    public void testAddedCollectionOnlyTakesNames() {
+        CollectionShards grown = new CollectionShards(Arrays.asList("faces_a", "faces_b", "faces_c", "faces_d"));
+
+        for (int i = 0; i < 1000; i++) {
+            String name = "person-" + i;
+            String moved = grown.forName(name);
+            assertTrue(moved.equals(shards.forName(name)) || moved.equals("faces_d"));
+        }
+    }
+}
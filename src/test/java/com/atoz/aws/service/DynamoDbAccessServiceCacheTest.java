@@ -0,0 +1,80 @@
+package com.atoz.aws.service;
+
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.loadtest.FaultInjector;
+import com.atoz.aws.loadtest.InMemoryDynamoDbClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DynamoDbAccessServiceCacheTest {
+    private static final String FACE_ID = "face-1";
+
+    private DynamoDbAccessService service;
+    private Runnable duringRead = () -> { };
+
+    @Before
+    public void setUp() {
+        AwsClientRegistry.getInstance().setDynamoDb(new InMemoryDynamoDbClient(new FaultInjector("test", 0, 0, 0, 0, 0), "faceId") {
+            @Override
+            public GetItemResponse getItem(GetItemRequest request) {
+                GetItemResponse response = super.getItem(request);
+                duringRead.run();
+                return response;
+            }
+
+            @Override
+            public BatchGetItemResponse batchGetItem(BatchGetItemRequest request) {
+                BatchGetItemResponse response = super.batchGetItem(request);
+                duringRead.run();
+                return response;
+            }
+        });
+        service = new DynamoDbAccessService("faces", "faceId");
+    }
+
+    @After
+    public void tearDown() {
+        AwsClientRegistry.getInstance().setDynamoDb(null);
+    }
+
+    @Test
+    public void testNotFoundDoesNotHideConcurrentWrite() throws Exception {
+        duringRead = this::indexFace;
+
+        assertNull(service.getItem(FACE_ID));
+
+        duringRead = () -> { };
+        assertEquals("Austin Zhang", service.getItem(FACE_ID).get("fullname").s());
+    }
+
+    @Test
+    public void testBatchNotFoundDoesNotHideConcurrentWrite() throws Exception {
+        duringRead = this::indexFace;
+
+        assertTrue(service.batchGetItems(Collections.singleton(FACE_ID)).isEmpty());
+
+        duringRead = () -> { };
+        assertEquals("Austin Zhang", service.batchGetItems(Collections.singleton(FACE_ID)).get(FACE_ID).get("fullname").s());
+    }
+
+    private void indexFace() {
+        duringRead = () -> { };
+        try {
+            Map<String, AttributeValue> name = Collections.singletonMap("fullname", AttributeValue.builder().s("Austin Zhang").build());
+            service.putItem(FACE_ID, name);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
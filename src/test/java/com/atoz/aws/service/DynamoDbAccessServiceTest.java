@@ -57,6 +57,18 @@ public class DynamoDbAccessServiceTest {
         assertEquals(fullNameValue, result.get(attrFullname).s());
     }
 
+    @Test
+    public void testBatchGetItems() throws Exception {
+        List<String> keys = new ArrayList<>();
+        keys.add(keyValue);
+        keys.add("not-an-indexed-face-id");
+
+        Map<String, Map<String, AttributeValue>> result = service.batchGetItems(keys);
+
+        assertEquals(1, result.size());
+        assertEquals(fullNameValue, result.get(keyValue).get(attrFullname).s());
+    }
+
     @Test
     public void testDeleteItem() throws Exception {
         service.deleteItem(keyValue);
@@ -0,0 +1,170 @@
+package com.atoz.aws.service;
+
+import org.junit.After;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DynamoDbWriteBehindBufferTest {
+    private List<Map<String, Map<String, AttributeValue>>> batches = Collections.synchronizedList(new ArrayList<>());
+    private AtomicBoolean failWrites = new AtomicBoolean();
+
+    private DynamoDbWriteBehindBuffer buffer = new DynamoDbWriteBehindBuffer(100, 60000, items -> {
+        if (failWrites.get()) {
+            throw new IllegalStateException("throttled");
+        }
+        batches.add(items);
+    });
+
+    @After
+    public void tearDown() {
+        failWrites.set(false);
+        buffer.shutdown();
+    }
+
+    @Test
+    public void testPendingItemIsVisibleUntilFlushed() {
+        buffer.add(item("face-1", "Austin Zhang"));
+
+        assertEquals("Austin Zhang", buffer.getPending("face-1").get("fullname").s());
+        buffer.flush();
+
+        assertNull(buffer.getPending("face-1"));
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void testFailedFlushKeepsItems() {
+        buffer.add(item("face-1", "Austin Zhang"));
+        failWrites.set(true);
+
+        try {
+            buffer.flush();
+            fail("flush should fail");
+        } catch (IllegalStateException e) {
+            assertEquals(1, buffer.size());
+        }
+    }
+
+    @Test
+    public void testShutdownFlushesEverything() {
+        buffer.add(item("face-1", "Austin Zhang"));
+        buffer.add(item("face-2", "Xifeng"));
+
+        buffer.shutdown();
+
+        assertEquals(0, buffer.size());
+        assertEquals(2, batches.get(0).size());
+    }
+
+    @Test
+    public void testAddAfterShutdownWritesRightAway() {
+        buffer.shutdown();
+
+        buffer.add(item("face-1", "Austin Zhang"));
+
+        assertEquals(0, buffer.size());
+        assertEquals(1, batches.size());
+        assertEquals("Austin Zhang", batches.get(0).get("face-1").get("fullname").s());
+    }
+
+    @Test
+    public void testShutdownRetriesFailedFlush() {
+        AtomicInteger attempts = new AtomicInteger();
+        DynamoDbWriteBehindBuffer flakyBuffer = new DynamoDbWriteBehindBuffer(100, 60000, items -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("throttled");
+            }
+            batches.add(items);
+        });
+        flakyBuffer.add(item("face-1", "Austin Zhang"));
+
+        flakyBuffer.shutdown();
+
+        assertEquals(3, attempts.get());
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void testItemIsVisibleWhileFlushing() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        DynamoDbWriteBehindBuffer slowBuffer = new DynamoDbWriteBehindBuffer(100, 60000, items -> {
+            writing.countDown();
+            await(release);
+        });
+        slowBuffer.add(item("face-1", "Austin Zhang"));
+
+        Thread flusher = new Thread(slowBuffer::flush);
+        flusher.start();
+        writing.await();
+
+        assertEquals("Austin Zhang", slowBuffer.getPending("face-1").get("fullname").s());
+        assertEquals(0, slowBuffer.size());
+
+        release.countDown();
+        flusher.join();
+        assertNull(slowBuffer.getPending("face-1"));
+        slowBuffer.shutdown();
+    }
+
+    @Test
+    public void testRemoveWaitsForFlushOfItem() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        DynamoDbWriteBehindBuffer slowBuffer = new DynamoDbWriteBehindBuffer(100, 60000, items -> {
+            writing.countDown();
+            await(release);
+            events.add("flushed");
+        });
+        slowBuffer.add(item("face-1", "Austin Zhang"));
+
+        Thread flusher = new Thread(slowBuffer::flush);
+        flusher.start();
+        writing.await();
+
+        // a delete of the item being flushed must not run before the flush lands
+        Thread remover = new Thread(() -> {
+            slowBuffer.remove("face-1");
+            events.add("removed");
+        });
+        remover.start();
+        remover.join(200);
+        assertTrue(remover.isAlive());
+
+        release.countDown();
+        remover.join();
+        flusher.join();
+        assertEquals(Arrays.asList("flushed", "removed"), events);
+        slowBuffer.shutdown();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Map<String, Map<String, AttributeValue>> item(String key, String name) {
+        Map<String, AttributeValue> attrs = new HashMap<>();
+        attrs.put("fullname", AttributeValue.builder().s(name).build());
+        Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+        items.put(key, attrs);
+
+        return items;
+    }
+}
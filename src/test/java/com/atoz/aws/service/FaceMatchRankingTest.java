@@ -0,0 +1,213 @@
+package com.atoz.aws.service;
+
+import com.amazonaws.services.rekognition.AbstractAmazonRekognition;
+import com.amazonaws.services.rekognition.model.*;
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.image.ImageBufferPool;
+import com.atoz.aws.loadtest.FaultInjector;
+import com.atoz.aws.loadtest.InMemoryDynamoDbClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class FaceMatchRankingTest {
+    private List<SearchFacesByImageRequest> searches = new ArrayList<>();
+    private List<String> namesLookedUp = new ArrayList<>();
+    // holds searches until counted down
+    private CountDownLatch searchGate = new CountDownLatch(0);
+    private CountDownLatch searching = new CountDownLatch(1);
+    private ImageBufferPool bufferPool = new ImageBufferPool();
+    private volatile int borrowedWhileSearching = -1;
+    private AtoZImageRekognitionService service;
+
+    private byte[] image = {1, 2, 3, 4};
+
+    @Before
+    public void setUp() {
+        AwsClientRegistry registry = AwsClientRegistry.getInstance();
+
+        FaultInjector noFaults = new FaultInjector("test", 0, 0, 0, 0, 0);
+        registry.setDynamoDb(new InMemoryDynamoDbClient(noFaults, "faceId") {
+            @Override
+            public BatchGetItemResponse batchGetItem(BatchGetItemRequest request) {
+                for (KeysAndAttributes keys : request.requestItems().values()) {
+                    keys.keys().forEach(key -> namesLookedUp.add(key.get("faceId").s()));
+                }
+                return super.batchGetItem(request);
+            }
+        });
+        registry.setRekognition(new AbstractAmazonRekognition() {
+            @Override
+            public SearchFacesByImageResult searchFacesByImage(SearchFacesByImageRequest request) {
+                synchronized (searches) {
+                    searches.add(request);
+                }
+                searching.countDown();
+                try {
+                    searchGate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                borrowedWhileSearching = bufferPool.getBorrowed();
+                if (request.getCollectionId().equals("faces_b")) {
+                    return new SearchFacesByImageResult().withFaceMatches(match("face-5", 97F), match("face-6", 70F));
+                }
+                // unordered and more than asked for, so ranking is up to the service
+                return new SearchFacesByImageResult().withFaceMatches(
+                        match("face-1", 90F), match("face-2", 99F), match("face-3", 85F), match("face-4", 95F));
+            }
+        });
+
+        DynamoDbAccessService dynamoService = new DynamoDbAccessService("faces", "faceId");
+        dynamoService.setAttrFullName("fullname");
+        service = new AtoZImageRekognitionService("faces");
+        service.setDynamoService(dynamoService);
+        service.setBufferPool(bufferPool);
+        service.saveFaceNames(Arrays.asList("face-1", "face-2"), "Austin Zhang");
+        service.saveFaceNames(Arrays.asList("face-3"), "Xifeng");
+        service.saveFaceNames(Arrays.asList("face-4"), "Kumar");
+        service.saveFaceNames(Arrays.asList("face-5", "face-6"), "Xifeng");
+        // names are looked up in DynamoDB, not in the cache filled by the writes
+        Arrays.asList("face-1", "face-2", "face-3", "face-4", "face-5", "face-6").forEach(dynamoService.getItemCache()::invalidate);
+    }
+
+    /**
+     * Cleared clients are built again on first use.
+     */
+    @After
+    public void tearDown() {
+        AwsClientRegistry.getInstance().setRekognition(null);
+        AwsClientRegistry.getInstance().setDynamoDb(null);
+    }
+
+    @Test
+    public void testTopKIsRankedBySimilarity() {
+        List<FaceMatchResult> matches = service.matchFaces(image, 3, 88F);
+
+        assertEquals(Integer.valueOf(3), searches.get(0).getMaxFaces());
+        assertEquals(88F, searches.get(0).getFaceMatchThreshold(), 0F);
+        assertEquals(3, matches.size());
+        assertEquals("face-2", matches.get(0).getFaceId());
+        assertEquals("Austin Zhang", matches.get(0).getName());
+        assertEquals(99F, matches.get(0).getSimilarity(), 0F);
+        assertEquals("Kumar", matches.get(1).getName());
+        assertEquals("face-1", matches.get(2).getFaceId());
+    }
+
+    @Test
+    public void testNamesPastTopKAreNotLookedUp() {
+        service.matchFaces(image, 2, 80F);
+
+        assertEquals(Arrays.asList("face-2", "face-4"), namesLookedUp);
+    }
+
+    @Test
+    public void testMatchedNamesKeepBestSimilarity() {
+        Map<String, Float> matchedNames = service.matchImage(image);
+
+        assertEquals(Arrays.asList("Austin Zhang", "Kumar", "Xifeng"), new ArrayList<>(matchedNames.keySet()));
+        assertEquals(99F, matchedNames.get("Austin Zhang"), 0F);
+    }
+
+    @Test
+    public void testEveryCollectionIsSearched() {
+        service.setImageCollections("faces_a,faces_b");
+
+        List<FaceMatchResult> matches = service.matchFaces(image, 3, 80F);
+
+        assertEquals(2, searches.size());
+        assertEquals(Integer.valueOf(3), searches.get(0).getMaxFaces());
+        assertEquals(Integer.valueOf(3), searches.get(1).getMaxFaces());
+        assertEquals(3, matches.size());
+        assertEquals("face-2", matches.get(0).getFaceId());
+        assertEquals("face-5", matches.get(1).getFaceId());
+        assertEquals("Xifeng", matches.get(1).getName());
+        assertEquals("face-4", matches.get(2).getFaceId());
+    }
+
+    @Test
+    public void testFullExecutorFailsFuture() throws Exception {
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+        service.setRekognitionExecutor(stopped);
+
+        CompletableFuture<List<FaceMatchResult>> matches = service.matchFacesAsync(image, 3, 80F);
+
+        try {
+            matches.get();
+            fail("match should be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertTrue(searches.isEmpty());
+    }
+
+    @Test
+    public void testRejectedSearchKeepsBufferUntilOthersAreDone() throws Exception {
+        service.setImageCollections("faces_a,faces_b,faces_c");
+        // one search runs, one waits in the queue, the third is rejected
+        ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1)) {
+            @Override
+            public void execute(Runnable command) {
+                super.execute(command);
+                // the first search is running before the next is submitted
+                try {
+                    searching.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        service.setRekognitionExecutor(executor);
+        searchGate = new CountDownLatch(1);
+
+        AtomicReference<Exception> error = new AtomicReference<>();
+        Thread caller = new Thread(() -> {
+            try {
+                service.matchFaces(new ByteArrayInputStream(image), image.length, 3, 80F);
+            } catch (Exception e) {
+                error.set(e);
+            }
+        });
+        caller.start();
+        assertTrue(searching.await(5, TimeUnit.SECONDS));
+        // the caller waits for the running search instead of giving the buffer back
+        caller.join(200);
+        assertTrue(caller.isAlive());
+        searchGate.countDown();
+        caller.join(5000);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        assertTrue(error.get() instanceof RejectedExecutionException);
+        assertEquals(1, borrowedWhileSearching);
+        assertEquals(0, bufferPool.getBorrowed());
+        // the queued search was called off
+        assertEquals(1, searches.size());
+    }
+
+    private static FaceMatch match(String faceId, float similarity) {
+        return new FaceMatch().withSimilarity(similarity).withFace(new Face().withFaceId(faceId).withConfidence(99.9F));
+    }
+}
@@ -0,0 +1,193 @@
+package com.atoz.aws.service;
+
+import com.amazonaws.services.rekognition.AbstractAmazonRekognition;
+import com.amazonaws.services.rekognition.model.*;
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.loadtest.FaultInjector;
+import com.atoz.aws.loadtest.InMemoryDynamoDbClient;
+import com.atoz.aws.metrics.AwsCallMetrics;
+import com.atoz.aws.throttle.ThrottledException;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ImageAnalysisServiceTest {
+    private static final long CALL_MILLIS = 300;
+
+    private volatile long facesMillis = CALL_MILLIS;
+    private volatile boolean throttled;
+    private AtomicInteger labelCalls = new AtomicInteger();
+
+    private AtoZImageRekognitionService imageService;
+
+    private ImageAnalysisService service;
+    private ExecutorService executor;
+
+    private byte[] image = {1, 2, 3, 4};
+
+    @Before
+    public void setUp() {
+        AwsClientRegistry registry = AwsClientRegistry.getInstance();
+        registry.setDynamoDb(new InMemoryDynamoDbClient(new FaultInjector("test", 0, 0, 0, 0, 0), "faceId"));
+        registry.setRekognition(new AbstractAmazonRekognition() {
+            @Override
+            public DetectLabelsResult detectLabels(DetectLabelsRequest request) {
+                labelCalls.incrementAndGet();
+                pause(CALL_MILLIS);
+                throttleIfSet("DetectLabels");
+                return new DetectLabelsResult().withLabels(new Label().withName("Person").withConfidence(99F));
+            }
+
+            @Override
+            public SearchFacesByImageResult searchFacesByImage(SearchFacesByImageRequest request) {
+                pause(CALL_MILLIS);
+                throttleIfSet("SearchFacesByImage");
+                return new SearchFacesByImageResult().withFaceMatches(new ArrayList<>());
+            }
+
+            @Override
+            public DetectFacesResult detectFaces(DetectFacesRequest request) {
+                pause(facesMillis);
+                throttleIfSet("DetectFaces");
+                return new DetectFacesResult().withFaceDetails(new FaceDetail().withConfidence(99F));
+            }
+        });
+
+        DynamoDbAccessService dynamoService = new DynamoDbAccessService("faces", "faceId");
+        dynamoService.setAttrFullName("fullname");
+        imageService = new AtoZImageRekognitionService("faces");
+        imageService.setDynamoService(dynamoService);
+
+        executor = Executors.newFixedThreadPool(4);
+        service = new ImageAnalysisService();
+        service.setImageService(imageService);
+        service.setRekognitionExecutor(executor);
+        service.setSearchExecutor(executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        AwsClientRegistry.getInstance().setRekognition(null);
+        AwsClientRegistry.getInstance().setDynamoDb(null);
+    }
+
+    @Test
+    public void testOperationsRunConcurrently() {
+        long start = System.currentTimeMillis();
+        Map<String, Object> results = service.analyze(image, EnumSet.allOf(ImageAnalysisService.Operation.class));
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue("took " + elapsed + " ms", elapsed < CALL_MILLIS * 2);
+        assertTrue(results.containsKey("labels"));
+        assertTrue(results.containsKey("match"));
+        assertTrue(results.containsKey("faces"));
+        assertFalse(results.containsKey("errors"));
+    }
+
+    @Test
+    public void testLateOperationIsReported() {
+        facesMillis = CALL_MILLIS * 3;
+        service.setFacesDeadlineMillis(CALL_MILLIS * 2);
+
+        Map<String, Object> results = service.analyze(image,
+                EnumSet.of(ImageAnalysisService.Operation.LABELS, ImageAnalysisService.Operation.FACES));
+
+        assertTrue(results.containsKey("labels"));
+        assertFalse(results.containsKey("faces"));
+        assertTrue(((Map<?, ?>) results.get("errors")).containsKey("faces"));
+    }
+
+    @Test
+    public void testResultsAreSharedWithSingleOperations() throws Exception {
+        // large enough to be re-encoded
+        byte[] large = Files.readAllBytes(Paths.get("src/test/resources/images/Indexed.jpg"));
+
+        Map<String, Object> results = service.analyze(large,
+                EnumSet.of(ImageAnalysisService.Operation.LABELS, ImageAnalysisService.Operation.FACES));
+
+        assertEquals(1, imageService.getPreprocessor().processedCount());
+        assertEquals(results.get("labels"), imageService.detectLabels(large));
+        assertEquals(1, labelCalls.get());
+    }
+
+    @Test
+    public void testRequestBytesAreTaggedWithOperation() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        try {
+            service.analyze(image, EnumSet.of(ImageAnalysisService.Operation.LABELS, ImageAnalysisService.Operation.FACES));
+
+            for (String operation : new String[] {"DetectLabels", "DetectFaces"}) {
+                assertEquals(1, registry.get(AwsCallMetrics.REQUEST_BYTES).tag("operation", operation).summary().count());
+            }
+        } finally {
+            Metrics.removeRegistry(registry);
+        }
+    }
+
+    @Test
+    public void testCachedFacesAreNotChangedByCallers() {
+        imageService.detectFaces(image, true).getFaceDetails().get(0).setConfidence(1F);
+
+        assertEquals(99F, imageService.detectFaces(image, true).getFaceDetails().get(0).getConfidence(), 0);
+    }
+
+    @Test(expected = ThrottledException.class)
+    public void testAllThrottledIsThrown() {
+        throttled = true;
+
+        service.analyze(image, EnumSet.allOf(ImageAnalysisService.Operation.class));
+    }
+
+    @Test
+    public void testRejectedMatchIsReported() {
+        ExecutorService full = Executors.newSingleThreadExecutor();
+        full.shutdown();
+        service.setSearchExecutor(full);
+
+        Map<String, Object> results = service.analyze(image,
+                EnumSet.of(ImageAnalysisService.Operation.LABELS, ImageAnalysisService.Operation.MATCH));
+
+        assertTrue(results.containsKey("labels"));
+        assertTrue(((Map<?, ?>) results.get("errors")).containsKey("match"));
+    }
+
+    @Test
+    public void testParseOperations() {
+        assertEquals(EnumSet.of(ImageAnalysisService.Operation.LABELS, ImageAnalysisService.Operation.FACES),
+                ImageAnalysisService.Operation.parse(" Labels,faces,"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownOperation() {
+        ImageAnalysisService.Operation.parse("labels,celebrities");
+    }
+
+    private void throttleIfSet(String operation) {
+        if (throttled) {
+            throw new ThrottledException(operation, "still throttled after 6 attempts", null);
+        }
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
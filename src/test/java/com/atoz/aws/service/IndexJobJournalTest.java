@@ -0,0 +1,75 @@
+package com.atoz.aws.service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class IndexJobJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] image = {1, 2, 3, 4};
+
+    @Test
+    public void testJobSurvivesRestart() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        IndexJob job = new IndexJobJournal(dir).create("Austin Zhang", new ByteArrayInputStream(image));
+
+        IndexJobJournal restarted = new IndexJobJournal(dir);
+        IndexJob loaded = restarted.get(job.getId());
+
+        assertEquals("Austin Zhang", loaded.getName());
+        assertEquals(IndexJob.Status.QUEUED, loaded.getStatus());
+        assertArrayEquals(image, restarted.readImage(job.getId()));
+        assertEquals(1, restarted.unfinished().size());
+    }
+
+    @Test
+    public void testIndexedFacesAreResumable() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        IndexJobJournal journal = new IndexJobJournal(dir);
+        IndexJob job = journal.create("Austin Zhang", new ByteArrayInputStream(image));
+        job.setFaceIds(Arrays.asList("face-1", "face-2"));
+        job.setStatus(IndexJob.Status.FACES_INDEXED);
+        journal.update(job);
+        journal.deleteImage(job.getId());
+
+        IndexJob loaded = new IndexJobJournal(dir).unfinished().get(0);
+
+        assertEquals(IndexJob.Status.FACES_INDEXED, loaded.getStatus());
+        assertEquals(Arrays.asList("face-1", "face-2"), loaded.getFaceIds());
+    }
+
+    @Test
+    public void testFinishedJobsArePruned() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        IndexJobJournal journal = new IndexJobJournal(dir);
+        IndexJob done = journal.create("Austin Zhang", new ByteArrayInputStream(image));
+        done.setStatus(IndexJob.Status.NO_FACE);
+        journal.update(done);
+        IndexJob queued = journal.create("Xifeng", new ByteArrayInputStream(image));
+
+        assertEquals(1, journal.prune(System.currentTimeMillis() + 1000));
+        assertNull(journal.get(done.getId()));
+        assertNotNull(journal.get(queued.getId()));
+        assertEquals(1, new IndexJobJournal(dir).size());
+    }
+
+    @Test
+    public void testFailedJobWithFacesIsKept() throws Exception {
+        IndexJobJournal journal = new IndexJobJournal(folder.getRoot().toPath());
+        IndexJob failed = journal.create("Austin Zhang", new ByteArrayInputStream(image));
+        failed.setFaceIds(Arrays.asList("face-1"));
+        failed.setStatus(IndexJob.Status.FAILED);
+        journal.update(failed);
+
+        assertEquals(0, journal.prune(System.currentTimeMillis() + 1000));
+        assertEquals(Arrays.asList(failed), journal.failedWithFaces());
+    }
+}
@@ -0,0 +1,202 @@
+package com.atoz.aws.service;
+
+import com.amazonaws.services.rekognition.AbstractAmazonRekognition;
+import com.amazonaws.services.rekognition.model.*;
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.loadtest.FaultInjector;
+import com.atoz.aws.loadtest.InMemoryDynamoDbClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class IndexJobServiceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // faceId -> face, of the only collection
+    private Map<String, Face> collection = new ConcurrentHashMap<>();
+    private AtomicInteger indexCalls = new AtomicInteger();
+    // IndexFaces calls that index the faces but fail to return
+    private AtomicInteger lostResponses = new AtomicInteger();
+    private AtomicInteger listCalls = new AtomicInteger();
+    private volatile int facesInImage = 1;
+
+    private AtoZImageRekognitionService imageService;
+    private IndexJobService service;
+    private byte[] image = {1, 2, 3, 4};
+
+    @Before
+    public void setUp() {
+        AwsClientRegistry registry = AwsClientRegistry.getInstance();
+        registry.setRekognition(new AbstractAmazonRekognition() {
+            @Override
+            public IndexFacesResult indexFaces(IndexFacesRequest request) {
+                indexCalls.incrementAndGet();
+                List<FaceRecord> records = new ArrayList<>();
+                for (int i = 0; i < facesInImage; i++) {
+                    // the first face is the largest
+                    Face face = new Face().withFaceId(UUID.randomUUID() + "-" + i)
+                            .withExternalImageId(request.getExternalImageId());
+                    collection.put(face.getFaceId(), face);
+                    records.add(new FaceRecord().withFace(face));
+                }
+                if (lostResponses.getAndDecrement() > 0) {
+                    throw new InternalServerErrorException("connection reset");
+                }
+                return new IndexFacesResult().withFaceRecords(records);
+            }
+
+            @Override
+            public SearchFacesByImageResult searchFacesByImage(SearchFacesByImageRequest request) {
+                List<FaceMatch> matches = new ArrayList<>();
+                for (Face face : collection.values()) {
+                    if (face.getFaceId().endsWith("-0")) {
+                        matches.add(new FaceMatch().withFace(face).withSimilarity(99.9F));
+                    }
+                }
+                return new SearchFacesByImageResult().withFaceMatches(matches);
+            }
+
+            @Override
+            public DetectFacesResult detectFaces(DetectFacesRequest request) {
+                List<FaceDetail> faces = new ArrayList<>();
+                for (int i = 0; i < facesInImage; i++) {
+                    faces.add(new FaceDetail().withConfidence(99F));
+                }
+                return new DetectFacesResult().withFaceDetails(faces);
+            }
+
+            @Override
+            public ListFacesResult listFaces(ListFacesRequest request) {
+                listCalls.incrementAndGet();
+                return new ListFacesResult().withFaces(new ArrayList<>(collection.values()));
+            }
+
+            @Override
+            public DeleteFacesResult deleteFaces(DeleteFacesRequest request) {
+                collection.keySet().removeAll(request.getFaceIds());
+                return new DeleteFacesResult();
+            }
+        });
+        imageService = new AtoZImageRekognitionService("faces");
+        useDynamoDb(0);
+        service = new IndexJobService();
+        service.setImageService(imageService);
+        service.setJournalDir(folder.getRoot().getPath());
+        service.setRetryDelayMillis(10);
+    }
+
+    @After
+    public void tearDown() {
+        service.stop();
+        AwsClientRegistry.getInstance().setRekognition(null);
+        AwsClientRegistry.getInstance().setDynamoDb(null);
+    }
+
+    @Test
+    public void testJobIndexesFacesUnderItsId() throws Exception {
+        service.start();
+        IndexJob job = service.submit("Austin Zhang", new ByteArrayInputStream(image));
+
+        awaitFinished(job);
+
+        assertEquals(IndexJob.Status.INDEXED, job.getStatus());
+        assertEquals(1, job.getFaceCount());
+        assertEquals(job.getId(), collection.get(job.getFaceIds().get(0)).getExternalImageId());
+        assertEquals("Austin Zhang", imageService.getDynamoService().getItem(job.getFaceIds().get(0)).get("fullname").s());
+    }
+
+    @Test
+    public void testRetryFindsFacesOfLostResponse() throws Exception {
+        lostResponses.set(1);
+        service.start();
+        IndexJob job = service.submit("Austin Zhang", new ByteArrayInputStream(image));
+
+        awaitFinished(job);
+
+        assertEquals(IndexJob.Status.INDEXED, job.getStatus());
+        assertEquals(2, job.getAttempts());
+        assertEquals(1, indexCalls.get());
+        assertEquals(collection.keySet(), Collections.singleton(job.getFaceIds().get(0)));
+        assertEquals(0, listCalls.get());
+    }
+
+    @Test
+    public void testRetryListsFacesOfGroupImage() throws Exception {
+        facesInImage = 3;
+        lostResponses.set(1);
+        service.start();
+        IndexJob job = service.submit("Austin Zhang", new ByteArrayInputStream(image));
+
+        awaitFinished(job);
+
+        assertEquals(IndexJob.Status.INDEXED, job.getStatus());
+        assertEquals(1, indexCalls.get());
+        assertEquals(collection.keySet(), new HashSet<>(job.getFaceIds()));
+        assertEquals(1, listCalls.get());
+    }
+
+    @Test
+    public void testResumedJobFindsFacesIndexedBeforeRestart() throws Exception {
+        IndexJobJournal journal = new IndexJobJournal(folder.getRoot().toPath());
+        IndexJob interrupted = journal.create("Austin Zhang", new ByteArrayInputStream(image));
+        interrupted.setStatus(IndexJob.Status.INDEXING);
+        journal.update(interrupted);
+        Face face = new Face().withFaceId("face-0").withExternalImageId(interrupted.getId());
+        collection.put(face.getFaceId(), face);
+
+        service.start();
+        IndexJob job = service.getJob(interrupted.getId());
+        awaitFinished(job);
+
+        assertEquals(IndexJob.Status.INDEXED, job.getStatus());
+        assertEquals(Collections.singletonList("face-0"), job.getFaceIds());
+        assertEquals(0, indexCalls.get());
+        assertEquals("Austin Zhang", imageService.getDynamoService().getItem("face-0").get("fullname").s());
+    }
+
+    @Test
+    public void testFailedJobDeletesItsFaces() throws Exception {
+        useDynamoDb(1);
+        service.setMaxAttempts(2);
+        service.start();
+        IndexJob job = service.submit("Austin Zhang", new ByteArrayInputStream(image));
+
+        awaitFinished(job);
+
+        assertEquals(IndexJob.Status.FAILED, job.getStatus());
+        assertTrue(job.getFaceIds().isEmpty());
+        assertTrue(collection.isEmpty());
+        assertEquals(1, indexCalls.get());
+    }
+
+    private void useDynamoDb(double errorRate) {
+        AwsClientRegistry.getInstance().setDynamoDb(
+                new InMemoryDynamoDbClient(new FaultInjector("test", 0, 0, 0, errorRate, 0), "faceId"));
+        DynamoDbAccessService dynamoService = new DynamoDbAccessService("faces", "faceId");
+        dynamoService.setAttrFullName("fullname");
+        imageService.setDynamoService(dynamoService);
+    }
+
+    private static void awaitFinished(IndexJob job) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!job.getStatus().isFinished()) {
+            assertTrue("Job did not finish", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
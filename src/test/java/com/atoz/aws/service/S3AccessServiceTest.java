@@ -8,8 +8,10 @@ import org.springframework.core.io.ClassPathResource;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
@@ -37,6 +39,18 @@ public class S3AccessServiceTest {
         assert service.isObjectExists(imageFile);
     }
 
+    @Test
+    public void testStreamUpload() throws Exception {
+        String fileKey = "Indexed.jpg";
+        File file = new File(getImageFilePath(fileKey));
+
+        try (InputStream inputStream = new FileInputStream(file)) {
+            service.uploadStream(fileKey, inputStream, file.length(), getMetaData("fullame", "Austin Zhang"));
+        }
+
+        assert service.isObjectExists(fileKey);
+    }
+
     @Test
     public void testDownLoad() throws Exception {
         String fileKey = imageFile;
@@ -51,6 +65,18 @@ public class S3AccessServiceTest {
         assert file.exists();
     }
 
+    @Test
+    public void testStreamRange() throws Exception {
+        if (!service.isObjectExists(imageFile)) {
+            service.uploadFile(imageFile, getImageFilePath(imageFile), getMetaData("fullame", "Austin Zhang"));
+        }
+
+        Long length = service.streamObject(imageFile, "bytes=0-9", null,
+                (response, inputStream) -> response.contentLength());
+
+        assert length != null && length == 10;
+    }
+
     private String getImageFilePath(String fileName) throws IOException {
         return new ClassPathResource("./images/" + fileName).getFile().getAbsolutePath();
     }
@@ -0,0 +1,90 @@
+package com.atoz.aws.service;
+
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.loadtest.FaultInjector;
+import com.atoz.aws.loadtest.InMemoryS3Client;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+import software.amazon.awssdk.sync.RequestBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Uploads of at least the multipart threshold, against the in-memory S3.
+ */
+public class S3MultipartUploadTest {
+    private static final int CONTENT_BYTES = 12 * 1024 * 1024;
+
+    private volatile int failingPart;
+
+    private InMemoryS3Client s3;
+    private S3AccessService service;
+    private byte[] content = new byte[CONTENT_BYTES];
+
+    @Before
+    public void setUp() {
+        s3 = new InMemoryS3Client(new FaultInjector("test", 0, 0, 0, 0, 0)) {
+            @Override
+            public UploadPartResponse uploadPart(UploadPartRequest request, RequestBody requestBody) {
+                if (request.partNumber() == failingPart) {
+                    throw new S3Exception("Internal error");
+                }
+                return super.uploadPart(request, requestBody);
+            }
+        };
+        AwsClientRegistry.getInstance().setS3(s3);
+        service = new S3AccessService();
+        service.setBucketName("bucket");
+        service.setFolderName("index");
+        service.setMultipartThresholdMb(1);
+        new Random(1).nextBytes(content);
+    }
+
+    @After
+    public void tearDown() {
+        service.getUploadExecutor().shutdownNow();
+        AwsClientRegistry.getInstance().setS3(null);
+    }
+
+    @Test
+    public void testPartsMakeUpObject() throws Exception {
+        service.uploadStream("Austin Zhang", new ByteArrayInputStream(content), content.length, Collections.emptyMap());
+
+        assertArrayEquals(content, service.downLoadFileToByteArray("Austin Zhang"));
+        assertEquals(0, s3.uploadCount());
+    }
+
+    @Test
+    public void testFailedPartAbortsUpload() throws Exception {
+        failingPart = 2;
+
+        try {
+            service.uploadStream("Austin Zhang", new ByteArrayInputStream(content), content.length, Collections.emptyMap());
+            fail("upload should fail");
+        } catch (S3Exception e) {
+            assertEquals(0, s3.uploadCount());
+            assertEquals(0, s3.objectCount());
+        }
+    }
+
+    @Test
+    public void testShortStreamAbortsUpload() throws Exception {
+        try {
+            service.uploadStream("Austin Zhang", new ByteArrayInputStream(content), content.length + 1024,
+                    Collections.emptyMap());
+            fail("upload should fail");
+        } catch (EOFException e) {
+            assertEquals(0, s3.uploadCount());
+            assertEquals(0, s3.objectCount());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.atoz.aws.service;
+
+import com.atoz.aws.config.AwsClientRegistry;
+import com.atoz.aws.loadtest.FaultInjector;
+import com.atoz.aws.loadtest.InMemoryS3Client;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailServiceTest {
+    private InMemoryS3Client s3;
+    private S3AccessService s3Service;
+    private ThumbnailService thumbnailService;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        s3 = new InMemoryS3Client(new FaultInjector("test", 0, 0, 0, 0, 0));
+        AwsClientRegistry.getInstance().setS3(s3);
+        s3Service = new S3AccessService();
+        s3Service.setBucketName("bucket");
+        s3Service.setFolderName("index");
+
+        executor = Executors.newSingleThreadExecutor();
+        thumbnailService = new ThumbnailService();
+        thumbnailService.setS3Service(s3Service);
+        thumbnailService.setExecutor(executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        AwsClientRegistry.getInstance().setS3(null);
+    }
+
+    @Test
+    public void testThumbnailsAreStoredInBackground() throws Exception {
+        byte[] image = Files.readAllBytes(Paths.get("src/test/resources/images/Austin1.jpg"));
+        s3Service.uploadStream("Austin Zhang", new ByteArrayInputStream(image), image.length, Collections.emptyMap());
+
+        thumbnailService.storeThumbnailsAsync("Austin Zhang", Collections.emptyMap());
+        awaitExecutor();
+
+        for (int size : new int[] {128, 256, 512}) {
+            String key = ThumbnailService.thumbnailKey("Austin Zhang", size);
+            assertNotNull(s3Service.downLoadFileToByteArray(key));
+            assertEquals(ThumbnailService.THUMBNAIL_CONTENT_TYPE, s3.headObject(HeadObjectRequest.builder()
+                    .bucket("bucket").key("index/" + key).build()).contentType());
+        }
+    }
+
+    @Test
+    public void testUndecodableUploadDropsOlderThumbnails() throws Exception {
+        byte[] image = Files.readAllBytes(Paths.get("src/test/resources/images/Austin1.jpg"));
+        thumbnailService.storeThumbnails("Austin Zhang", new ByteArrayInputStream(image), Collections.emptyMap());
+        assertEquals(3, s3.objectCount());
+
+        thumbnailService.storeThumbnails("Austin Zhang", new ByteArrayInputStream(new byte[1024]), Collections.emptyMap());
+
+        assertEquals(0, s3.objectCount());
+        assertNull(thumbnailService.download("Austin Zhang", 256));
+    }
+
+    @Test
+    public void testRejectedUploadDropsOlderThumbnails() throws Exception {
+        byte[] image = Files.readAllBytes(Paths.get("src/test/resources/images/Austin1.jpg"));
+        thumbnailService.storeThumbnails("Austin Zhang", new ByteArrayInputStream(image), Collections.emptyMap());
+        executor.shutdown();
+
+        thumbnailService.storeThumbnailsAsync("Austin Zhang", Collections.emptyMap());
+
+        assertEquals(0, s3.objectCount());
+    }
+
+    @Test
+    public void testDeleteRemovesThumbnails() throws Exception {
+        byte[] image = Files.readAllBytes(Paths.get("src/test/resources/images/Austin1.jpg"));
+        s3Service.uploadStream("Austin Zhang", new ByteArrayInputStream(image), image.length, Collections.emptyMap());
+        thumbnailService.storeThumbnails("Austin Zhang", new ByteArrayInputStream(image), Collections.emptyMap());
+        assertEquals(4, s3.objectCount());
+
+        thumbnailService.delete("Austin Zhang");
+
+        assertEquals(0, s3.objectCount());
+    }
+
+    private void awaitExecutor() throws InterruptedException {
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,56 @@
+package com.atoz.aws.throttle;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveConcurrencyLimitTest {
+    private AtomicLong now = new AtomicLong(1000);
+    private AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(8, 1, 16, now::get);
+
+    @Test
+    public void testThrottlingBurstHalvesOnce() throws Exception {
+        long[] starts = new long[4];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = limit.acquire(now.get(), 0);
+        }
+        now.incrementAndGet();
+
+        for (long start : starts) {
+            limit.release(start, true);
+        }
+        assertEquals(4, limit.getLimit());
+
+        now.incrementAndGet();
+        limit.release(limit.acquire(now.get(), 0), true);
+        assertEquals(2, limit.getLimit());
+    }
+
+    @Test
+    public void testSuccessIncreasesSlowly() throws Exception {
+        for (int i = 0; i < 8; i++) {
+            limit.release(limit.acquire(now.get(), 0), false);
+        }
+        assertEquals(8, limit.getLimit());
+
+        for (int i = 0; i < 9; i++) {
+            limit.release(limit.acquire(now.get(), 0), false);
+        }
+        assertEquals(9, limit.getLimit());
+    }
+
+    @Test
+    public void testFullLimitRefusesBeyondQueue() throws Exception {
+        AdaptiveConcurrencyLimit single = new AdaptiveConcurrencyLimit(1, 1, 1);
+        long start = single.acquire(System.nanoTime(), 0);
+
+        assertTrue(start >= 0);
+        assertEquals(-1, single.acquire(System.nanoTime() + 1_000_000_000L, 0));
+        assertEquals(-1, single.acquire(System.nanoTime() + 10_000_000L, 1));
+
+        single.release(start, false);
+        assertTrue(single.acquire(System.nanoTime(), 0) >= 0);
+    }
+}
@@ -0,0 +1,133 @@
+package com.atoz.aws.throttle;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CallLimiterTest {
+    private CallLimiter limiter = new CallLimiter("rekognition", 1000, Collections.emptyMap(),
+            4, 10, 2000, 1, 5, 3);
+
+    @Test
+    public void testThrottledCallIsRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = limiter.call("SearchFacesByImage", () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw error("ThrottlingException", 400);
+            }
+            return "matched";
+        });
+
+        assertEquals("matched", result);
+        assertEquals(3, attempts.get());
+        assertTrue(limiter.getConcurrencyLimit("SearchFacesByImage").getLimit() < 4);
+    }
+
+    @Test
+    public void testThrottlingBeyondAttemptsFails() {
+        AmazonServiceException throttled = error("ProvisionedThroughputExceededException", 400);
+        try {
+            limiter.call("IndexFaces", () -> {
+                throw throttled;
+            });
+            fail();
+        } catch (ThrottledException e) {
+            assertSame(throttled, e.getCause());
+            assertEquals("IndexFaces", e.getOperation());
+        }
+        assertEquals(0, limiter.getConcurrencyLimit("IndexFaces").getInFlight());
+    }
+
+    @Test
+    public void testClientErrorIsNotRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+        AmazonServiceException invalid = error("InvalidParameterException", 400);
+        try {
+            limiter.call("IndexFaces", () -> {
+                attempts.incrementAndGet();
+                throw invalid;
+            });
+            fail();
+        } catch (AmazonServiceException e) {
+            assertSame(invalid, e);
+        }
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void testServerErrorIsRetriedThenRethrown() {
+        AtomicInteger attempts = new AtomicInteger();
+        AmazonServiceException serverError = error("InternalServerError", 500);
+        try {
+            limiter.call("DetectLabels", () -> {
+                attempts.incrementAndGet();
+                throw serverError;
+            });
+            fail();
+        } catch (AmazonServiceException e) {
+            assertSame(serverError, e);
+        }
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void testIoErrorIsRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = limiter.call("DetectLabels", () -> {
+            if (attempts.incrementAndGet() < 2) {
+                throw ioError(new SocketTimeoutException("Read timed out"));
+            }
+            return "labels";
+        });
+
+        assertEquals("labels", result);
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testNonIdempotentCallIsNotRetriedOnceSent() {
+        AtomicInteger attempts = new AtomicInteger();
+        AmazonServiceException serverError = error("InternalServerError", 500);
+        try {
+            limiter.call("IndexFaces", false, () -> {
+                if (attempts.incrementAndGet() < 2) {
+                    throw ioError(new ConnectException("Connection refused"));
+                }
+                throw serverError;
+            });
+            fail();
+        } catch (AmazonServiceException e) {
+            assertSame(serverError, e);
+        }
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testParseRates() {
+        assertEquals(Double.valueOf(5), CallLimiter.parseRates("DeleteFaces=5, IndexFaces = 20").get("DeleteFaces"));
+        assertTrue(CallLimiter.parseRates("").isEmpty());
+    }
+
+    private static AmazonClientException ioError(IOException cause) {
+        AmazonClientException e = new AmazonClientException("Unable to execute HTTP request");
+        e.initCause(cause);
+        return e;
+    }
+
+    private static AmazonServiceException error(String errorCode, int status) {
+        AmazonServiceException e = new AmazonServiceException(errorCode);
+        e.setErrorCode(errorCode);
+        e.setStatusCode(status);
+        return e;
+    }
+}
@@ -0,0 +1,42 @@
+package com.atoz.aws.throttle;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+    private AtomicLong now = new AtomicLong(TimeUnit.SECONDS.toNanos(1));
+    private TokenBucket bucket = new TokenBucket(10, 2, now::get);
+
+    @Test
+    public void testBurstThenPaced() {
+        long deadline = now.get() + TimeUnit.SECONDS.toNanos(1);
+
+        assertEquals(0, bucket.reserve(deadline));
+        assertEquals(0, bucket.reserve(deadline));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), bucket.reserve(deadline));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(200), bucket.reserve(deadline));
+    }
+
+    @Test
+    public void testTokenAfterDeadlineIsNotTaken() {
+        bucket.reserve(now.get());
+        bucket.reserve(now.get());
+
+        assertEquals(-1, bucket.reserve(now.get() + TimeUnit.MILLISECONDS.toNanos(50)));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), bucket.reserve(now.get() + TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    @Test
+    public void testRefillIsCapped() {
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        long deadline = now.get();
+
+        assertEquals(0, bucket.reserve(deadline));
+        assertEquals(0, bucket.reserve(deadline));
+        assertEquals(-1, bucket.reserve(deadline));
+    }
+}